@@ -0,0 +1,54 @@
+package net.osmand.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import net.osmand.binary.BinaryMapIndexReader;
+
+/**
+ * Map files used by benchmarks. Directory is given by system property benchmark.obfDir
+ * (gradle jmh task passes build/jmh-fixtures or -PobfDir=PATH), file name by benchmark.obf.
+ * By default map is generated by {@link ObfFixtureGenerator} on first use, other map
+ * (e.g. Luxembourg_europe_2.obf) could be given with -Pobf=NAME, routing and search coordinates are
+ * chosen for Luxembourg.
+ * Other recorded data is read from benchmark.fixturesDir (OsmAnd-java/benchmarks/fixtures).
+ */
+public class BenchmarkFixtures {
+
+	public static final String OBF_DIR_PROPERTY = "benchmark.obfDir";
+	public static final String FIXTURES_DIR_PROPERTY = "benchmark.fixturesDir";
+	public static final String OBF_PROPERTY = "benchmark.obf";
+	public static final String GENERATED_OBF = ObfFixtureGenerator.NAME + ".obf";
+	public static final String DEFAULT_OBF = System.getProperty(OBF_PROPERTY, GENERATED_OBF);
+
+	// Luxembourg city center
+	public static final double CENTER_LAT = 49.6116;
+	public static final double CENTER_LON = 6.1319;
+
+	public static synchronized File getObfFile(String name) throws IOException {
+		String dir = System.getProperty(OBF_DIR_PROPERTY, "build/jmh-fixtures");
+		File f = new File(dir, name);
+		if (!f.exists() && name.equals(GENERATED_OBF)) {
+			ObfFixtureGenerator.generate(f);
+		}
+		if (!f.exists()) {
+			throw new IllegalStateException("Benchmark map " + f.getAbsolutePath() + " is not found, put it there or set -D"
+					+ OBF_DIR_PROPERTY);
+		}
+		return f;
+	}
+
+	public static File getFixtureFile(String name) {
+		File f = new File(System.getProperty(FIXTURES_DIR_PROPERTY, "benchmarks/fixtures"), name);
+		if (!f.exists()) {
+			throw new IllegalStateException("Benchmark fixture " + f.getAbsolutePath() + " is not found, set -D"
+					+ FIXTURES_DIR_PROPERTY);
+		}
+		return f;
+	}
+
+	public static BinaryMapIndexReader openReader(String name) throws IOException {
+		return new BinaryMapIndexReader(new RandomAccessFile(getObfFile(name), "r"));
+	}
+}
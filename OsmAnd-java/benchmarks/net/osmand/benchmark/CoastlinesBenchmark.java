@@ -0,0 +1,91 @@
+package net.osmand.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.CoastlinesProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coastline rings assembly for one tile from synthetic fragments generated by {@link CoastlinesFixtureGenerator}.
+ * Fixture contains "leftX rightX bottomY topY zoom" on the first line and
+ * one fragment "x1 y1 x2 y2 ..." (31 tile numbers) per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoastlinesBenchmark {
+
+	// 40 fjords crossing the tile from top to bottom split into 1322 short ways, 41 rings
+	public static final String FRAGMENTS_FILE = "coastlines_z11.txt";
+
+	private List<BinaryMapDataObject> coastlines;
+	private int[] box;
+
+	@Setup
+	public void setup() throws IOException {
+		List<int[]> fragments = new ArrayList<int[]>();
+		box = readFragments(BenchmarkFixtures.getFixtureFile(FRAGMENTS_FILE).getAbsolutePath(), fragments);
+		MapIndex mi = new MapIndex();
+		mi.initMapEncodingRule(0, 1, "natural", "coastline");
+		mi.finishInitializingTags();
+		coastlines = new ArrayList<BinaryMapDataObject>();
+		long id = 1;
+		for (int[] f : fragments) {
+			BinaryMapDataObject o = new BinaryMapDataObject(f, new int[] { 1 }, null, id++);
+			o.setMapIndex(mi);
+			coastlines.add(o);
+		}
+	}
+
+	@Benchmark
+	public List<BinaryMapDataObject> processCoastlines() {
+		List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>();
+		CoastlinesProcessor.processCoastlines(coastlines, box[0], box[1], box[2], box[3], box[4], true, true, result);
+		return result;
+	}
+
+	private static int[] readFragments(String file, List<int[]> fragments) throws IOException {
+		BufferedReader r = new BufferedReader(new FileReader(file));
+		try {
+			int[] box = parseInts(r.readLine());
+			String s;
+			while ((s = r.readLine()) != null) {
+				if (s.trim().length() > 0) {
+					fragments.add(parseInts(s));
+				}
+			}
+			return box;
+		} finally {
+			r.close();
+		}
+	}
+
+	private static int[] parseInts(String s) {
+		String[] vls = s.trim().split("\\s+");
+		int[] res = new int[vls.length];
+		for (int i = 0; i < vls.length; i++) {
+			res[i] = Integer.parseInt(vls[i]);
+		}
+		return res;
+	}
+}
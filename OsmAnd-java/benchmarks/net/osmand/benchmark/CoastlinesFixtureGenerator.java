@@ -0,0 +1,83 @@
+package net.osmand.benchmark;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates synthetic coastline fragments for {@link CoastlinesBenchmark}: fjords crossing one zoom 11 tile from
+ * top to bottom and back, split into short ways like coastline ways of the map. Fjords are wider than the tolerance
+ * used to close rings along the tile border. Random generator has fixed seed, so the generated file is always the
+ * same.
+ */
+public class CoastlinesFixtureGenerator {
+
+	private static final long SEED = 7;
+	private static final int ZOOM = 11;
+	private static final int FJORDS = 40;
+	// points of one side of the fjord
+	private static final int SIDE_POINTS = 42;
+	private static final int MAX_WAY_POINTS = 5;
+
+	public static void main(String[] args) throws IOException {
+		File f = new File(args.length > 0 ? args[0] : CoastlinesBenchmark.FRAGMENTS_FILE);
+		generate(f);
+		System.out.println("Generated " + f.getAbsolutePath() + " " + f.length() + " bytes");
+	}
+
+	public static void generate(File file) throws IOException {
+		Random rnd = new Random(SEED);
+		int leftX = 1 << 30;
+		int topY = 1 << 29;
+		int width = 1 << (31 - ZOOM);
+		int step = width / FJORDS;
+		int out = step / 4 + 1;
+		int jitter = step / 8;
+		TIntArrayList line = new TIntArrayList();
+		for (int k = 0; k < FJORDS; k++) {
+			// goes down and back up, crossings on each side are step / 2 apart
+			int xd = leftX + k * step + step / 4;
+			int xu = xd + step / 2;
+			for (int i = 0; i < SIDE_POINTS; i++) {
+				addPoint(line, rnd, xd, i, topY - out, width + 2 * out, jitter);
+			}
+			for (int i = SIDE_POINTS - 1; i >= 0; i--) {
+				addPoint(line, rnd, xu, i, topY - out, width + 2 * out, jitter);
+			}
+		}
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		Writer w = new FileWriter(file);
+		try {
+			w.write(leftX + " " + (leftX + width) + " " + (topY + width) + " " + topY + " " + ZOOM + "\n");
+			int points = line.size() / 2;
+			int i = 0;
+			while (i < points - 1) {
+				int len = Math.min(points - i, 2 + rnd.nextInt(MAX_WAY_POINTS - 1));
+				StringBuilder sb = new StringBuilder();
+				for (int j = 0; j < len; j++) {
+					if (j > 0) {
+						sb.append(' ');
+					}
+					sb.append(line.get(2 * (i + j))).append(' ').append(line.get(2 * (i + j) + 1));
+				}
+				w.write(sb.append('\n').toString());
+				i += len - 1;
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	private static void addPoint(TIntArrayList line, Random rnd, int x, int i, int startY, int height, int jitter) {
+		// ends outside of the tile are not moved
+		if (i > 0 && i < SIDE_POINTS - 1) {
+			x += rnd.nextInt(2 * jitter + 1) - jitter;
+		}
+		line.add(x);
+		line.add(startY + (int) ((long) height * i / (SIDE_POINTS - 1)));
+	}
+}
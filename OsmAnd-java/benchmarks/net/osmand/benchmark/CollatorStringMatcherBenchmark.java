@@ -0,0 +1,56 @@
+package net.osmand.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.CollatorStringMatcher;
+import net.osmand.CollatorStringMatcher.StringMatcherMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Collator matching of a search part against typical street and poi names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CollatorStringMatcherBenchmark {
+
+	private static final String[] NAMES = { "Avenue de la Gare", "Rue de Hollerich", "Boulevard Royal",
+			"Place d'Armes", "Gare Centrale", "Stade Josy Barthel", "Stra\u00dfe des 17. Juni", "Gro\u00dfe Stra\u00dfe",
+			"Rue du Fort Neipperg", "Station Luxexpo", "\u00c9glise Saint-Michel", "Cit\u00e9 Judiciaire",
+			"Rue de Strasbourg", "Kirchberg", "St\u00e4replaz", "All\u00e9e Scheffer" };
+
+	@Param({ "sta", "stras", "rue de" })
+	public String part;
+
+	@Param({ "CHECK_ONLY_STARTS_WITH", "CHECK_STARTS_FROM_SPACE", "CHECK_CONTAINS" })
+	public StringMatcherMode mode;
+
+	private CollatorStringMatcher matcher;
+
+	@Setup
+	public void setup() {
+		matcher = new CollatorStringMatcher(part, mode);
+	}
+
+	@Benchmark
+	public void matches(Blackhole bh) {
+		for (String name : NAMES) {
+			bh.consume(matcher.matches(name));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package net.osmand.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.GeneralRouter;
+import net.osmand.router.RoutePlannerFrontEnd;
+import net.osmand.router.RoutingConfiguration;
+import net.osmand.router.RoutingContext;
+import net.osmand.util.MapUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Evaluation of routing attributes (speed, priority, access) for all roads of few tiles around city center.
+ * Score is time to evaluate all loaded roads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeneralRouterBenchmark {
+
+	@Param({ "car", "bicycle", "pedestrian" })
+	public String vehicle;
+
+	private BinaryMapIndexReader reader;
+	private GeneralRouter router;
+	private RouteDataObject[] roads;
+
+	@Setup
+	public void setup() throws IOException {
+		reader = BenchmarkFixtures.openReader(BenchmarkFixtures.DEFAULT_OBF);
+		RoutingConfiguration config = RoutingConfiguration.getDefault().build(vehicle,
+				RoutingConfiguration.DEFAULT_MEMORY_LIMIT);
+		RoutingContext ctx = new RoutePlannerFrontEnd(false).buildRoutingContext(config, null,
+				new BinaryMapIndexReader[] { reader });
+		List<RouteDataObject> list = new ArrayList<RouteDataObject>();
+		ctx.loadTileData(MapUtils.get31TileNumberX(BenchmarkFixtures.CENTER_LON),
+				MapUtils.get31TileNumberY(BenchmarkFixtures.CENTER_LAT), 17, list);
+		if (list.isEmpty()) {
+			throw new IllegalStateException("No roads are loaded around benchmark location");
+		}
+		roads = list.toArray(new RouteDataObject[list.size()]);
+		router = config.router;
+		// first evaluation registers region encoding rules in router
+		for (RouteDataObject r : roads) {
+			router.acceptLine(r);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public void acceptLine(Blackhole bh) {
+		for (RouteDataObject r : roads) {
+			bh.consume(router.acceptLine(r));
+		}
+	}
+
+	@Benchmark
+	public void defineRoutingSpeed(Blackhole bh) {
+		for (RouteDataObject r : roads) {
+			bh.consume(router.defineRoutingSpeed(r));
+		}
+	}
+
+	@Benchmark
+	public void defineSpeedPriority(Blackhole bh) {
+		for (RouteDataObject r : roads) {
+			bh.consume(router.defineSpeedPriority(r));
+		}
+	}
+}
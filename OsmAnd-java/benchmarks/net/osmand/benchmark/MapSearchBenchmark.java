@@ -0,0 +1,103 @@
+package net.osmand.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.SearchPoiTypeFilter;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.data.Amenity;
+import net.osmand.osm.PoiCategory;
+import net.osmand.util.MapUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Map, poi and poi by name search in a square around city center.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapSearchBenchmark {
+
+	private static final SearchPoiTypeFilter ACCEPT_ALL = new SearchPoiTypeFilter() {
+		@Override
+		public boolean accept(PoiCategory type, String subcategory) {
+			return true;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return false;
+		}
+	};
+
+	@Param({ "13", "16" })
+	public int zoom;
+
+	@Param({ "sta" })
+	public String poiName;
+
+	private BinaryMapIndexReader reader;
+	private int x31;
+	private int y31;
+	private int left;
+	private int right;
+	private int top;
+	private int bottom;
+
+	@Setup
+	public void setup() throws IOException {
+		reader = BenchmarkFixtures.openReader(BenchmarkFixtures.DEFAULT_OBF);
+		x31 = MapUtils.get31TileNumberX(BenchmarkFixtures.CENTER_LON);
+		y31 = MapUtils.get31TileNumberY(BenchmarkFixtures.CENTER_LAT);
+		// one tile of requested zoom
+		int half = 1 << (31 - zoom - 1);
+		left = x31 - half;
+		right = x31 + half;
+		top = y31 - half;
+		bottom = y31 + half;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public List<BinaryMapDataObject> searchMapIndex() throws IOException {
+		SearchRequest<BinaryMapDataObject> req = BinaryMapIndexReader.buildSearchRequest(left, right, top, bottom,
+				zoom, null);
+		return reader.searchMapIndex(req);
+	}
+
+	@Benchmark
+	public List<Amenity> searchPoi() throws IOException {
+		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(left, right, top, bottom, -1,
+				ACCEPT_ALL, null);
+		return reader.searchPoi(req);
+	}
+
+	@Benchmark
+	public List<Amenity> searchPoiByName() throws IOException {
+		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(x31, y31, poiName, 0,
+				Integer.MAX_VALUE, 0, Integer.MAX_VALUE, null);
+		return reader.searchPoiByName(req);
+	}
+}
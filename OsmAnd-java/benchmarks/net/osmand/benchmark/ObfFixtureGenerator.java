@@ -0,0 +1,823 @@
+package net.osmand.benchmark;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.osmand.binary.OsmandOdb.IdTable;
+import net.osmand.binary.OsmandOdb.IndexedStringTable;
+import net.osmand.binary.OsmandOdb.MapData;
+import net.osmand.binary.OsmandOdb.MapDataBlock;
+import net.osmand.binary.OsmandOdb.OsmAndCategoryTable;
+import net.osmand.binary.OsmandOdb.OsmAndMapIndex;
+import net.osmand.binary.OsmandOdb.OsmAndMapIndex.MapDataBox;
+import net.osmand.binary.OsmandOdb.OsmAndMapIndex.MapEncodingRule;
+import net.osmand.binary.OsmandOdb.OsmAndMapIndex.MapRootLevel;
+import net.osmand.binary.OsmandOdb.OsmAndPoiBox;
+import net.osmand.binary.OsmandOdb.OsmAndPoiBoxData;
+import net.osmand.binary.OsmandOdb.OsmAndPoiBoxDataAtom;
+import net.osmand.binary.OsmandOdb.OsmAndPoiCategories;
+import net.osmand.binary.OsmandOdb.OsmAndPoiIndex;
+import net.osmand.binary.OsmandOdb.OsmAndPoiNameIndex;
+import net.osmand.binary.OsmandOdb.OsmAndPoiNameIndex.OsmAndPoiNameIndexData;
+import net.osmand.binary.OsmandOdb.OsmAndPoiNameIndexDataAtom;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteDataBlock;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteDataBox;
+import net.osmand.binary.OsmandOdb.OsmAndRoutingIndex.RouteEncodingRule;
+import net.osmand.binary.OsmandOdb.OsmAndStructure;
+import net.osmand.binary.OsmandOdb.OsmAndTileBox;
+import net.osmand.binary.OsmandOdb.RouteData;
+import net.osmand.binary.OsmandOdb.StringTable;
+import net.osmand.util.MapUtils;
+
+import com.google.protobuf.WireFormat;
+
+/**
+ * Generates small map for benchmarks, so they could run without downloaded maps: jittered grid of roads
+ * around Luxembourg city (big enough for BenchmarkFixtures coordinates and RoutingBenchmark routes), buildings
+ * in the center and pois near crossroads. File has map, routing and poi sections in the same layout as maps of
+ * OsmAnd map creator, so the same reading code is measured. Random generator has fixed seed, so the generated file
+ * is always the same.
+ */
+public class ObfFixtureGenerator {
+
+	public static final String NAME = "Synthetic_luxembourg";
+
+	private static final int VERSION = 2;
+	private static final long DATE_CREATED = 1420070400000l;
+	private static final long SEED = 2016;
+
+	private static final double TOP_LAT = 49.67;
+	private static final double LEFT_LON = 5.92;
+	// ~350 m between crossroads
+	private static final double STEP_LAT = 0.0032;
+	private static final double STEP_LON = 0.0048;
+	private static final int ROWS = 73;
+	private static final int COLUMNS = 59;
+	// crossroads in one way
+	private static final int WAY_LENGTH = 6;
+	private static final double BUILDINGS_RADIUS = 4000;
+
+	private static final int ROUTE_TILE_ZOOM = 13;
+	private static final int POI_TOP_ZOOM = 11;
+	private static final int POI_TILE_ZOOM = 14;
+	private static final int SHIFT_BITS_CATEGORY = 7;
+
+	private static final String[][] MAP_RULES = { { "highway", "primary" }, { "highway", "secondary" },
+			{ "highway", "residential" }, { "building", "yes" }, { "oneway", "yes" }, { "name", "" } };
+	private static final String[][] ROUTE_RULES = { { "highway", "primary" }, { "highway", "secondary" },
+			{ "highway", "residential" }, { "oneway", "yes" }, { "highway", "traffic_signals" }, { "name", "" } };
+	// category and subcategories
+	private static final String[][] POI_CATEGORIES = { { "sustenance", "restaurant", "cafe", "fast_food", "bar" },
+			{ "shop", "supermarket", "bakery", "clothes", "convenience" },
+			{ "transportation", "fuel", "parking", "bus_station" } };
+	private static final String[] POI_NAMES = { "Station", "Stade", "Star", "Gare", "Boulangerie", "Pizzeria",
+			"Caf\u00e9", "Bistro", "March\u00e9", "Pharmacie" };
+	private static final String[] POI_NAME_SUFFIXES = { "du Centre", "Municipal", "de la Gare", "Kirchberg",
+			"Bonnevoie", "Belair", "Limpertsberg", "Hollerich" };
+
+	private static class Way {
+		long id;
+		TIntArrayList x = new TIntArrayList();
+		TIntArrayList y = new TIntArrayList();
+		String highway;
+		boolean oneway;
+		boolean area;
+		String name;
+		// indexes of points with traffic signals
+		TIntArrayList signals = new TIntArrayList();
+	}
+
+	private static class Poi {
+		long id;
+		int x;
+		int y;
+		int category;
+		int subcategory;
+		String name;
+	}
+
+	private static class Box {
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+
+		void add(int x, int y) {
+			left = Math.min(left, x);
+			right = Math.max(right, x);
+			top = Math.min(top, y);
+			bottom = Math.max(bottom, y);
+		}
+
+		void add(Way w) {
+			for (int i = 0; i < w.x.size(); i++) {
+				add(w.x.get(i), w.y.get(i));
+			}
+		}
+
+		void add(Box b) {
+			add(b.left, b.top);
+			add(b.right, b.bottom);
+		}
+	}
+
+	private final Random rnd = new Random(SEED);
+	private final List<Way> roads = new ArrayList<Way>();
+	private final List<Way> buildings = new ArrayList<Way>();
+	private final List<Poi> pois = new ArrayList<Poi>();
+	private long nextId = 1;
+
+	public static void main(String[] args) throws IOException {
+		File f = new File(args.length > 0 ? args[0] : NAME + ".obf");
+		generate(f);
+		System.out.println("Generated " + f.getAbsolutePath() + " " + f.length() + " bytes");
+	}
+
+	public static void generate(File file) throws IOException {
+		ObfFixtureGenerator g = new ObfFixtureGenerator();
+		g.generateData();
+		ObfOutput out = new ObfOutput();
+		out.uint32(OsmAndStructure.VERSION_FIELD_NUMBER, VERSION);
+		out.uint64(OsmAndStructure.DATECREATED_FIELD_NUMBER, DATE_CREATED);
+		g.writeMapIndex(out);
+		g.writeRouteIndex(out);
+		g.writePoiIndex(out);
+		out.uint32(OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, VERSION);
+		// other benchmark could read the file while it is written
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		OutputStream os = new FileOutputStream(tmp);
+		try {
+			out.writeTo(os);
+		} finally {
+			os.close();
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Can't rename " + tmp.getAbsolutePath());
+		}
+	}
+
+	private void generateData() {
+		int[][] nx = new int[ROWS][COLUMNS];
+		int[][] ny = new int[ROWS][COLUMNS];
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLUMNS; c++) {
+				double lat = TOP_LAT - (r + (rnd.nextDouble() - 0.5) / 2) * STEP_LAT;
+				double lon = LEFT_LON + (c + (rnd.nextDouble() - 0.5) / 2) * STEP_LON;
+				// both map (5 bits) and routing (4 bits) coordinates are stored without loss
+				nx[r][c] = MapUtils.get31TileNumberX(lon) & ~31;
+				ny[r][c] = MapUtils.get31TileNumberY(lat) & ~31;
+			}
+		}
+		for (int r = 0; r < ROWS; r++) {
+			for (int c = 0; c < COLUMNS - 1; c += WAY_LENGTH) {
+				Way w = createRoad(r, "Rue " + (r + 1));
+				for (int k = c; k <= Math.min(c + WAY_LENGTH, COLUMNS - 1); k++) {
+					addRoadPoint(w, nx[r][k], ny[r][k], r, k);
+				}
+				finishRoad(w, r);
+			}
+		}
+		for (int c = 0; c < COLUMNS; c++) {
+			for (int r = 0; r < ROWS - 1; r += WAY_LENGTH) {
+				Way w = createRoad(c, "Avenue " + (c + 1));
+				for (int k = r; k <= Math.min(r + WAY_LENGTH, ROWS - 1); k++) {
+					addRoadPoint(w, nx[k][c], ny[k][c], k, c);
+				}
+				finishRoad(w, c);
+			}
+		}
+		double centerLat = BenchmarkFixtures.CENTER_LAT;
+		double centerLon = BenchmarkFixtures.CENTER_LON;
+		for (int r = 0; r < ROWS - 1; r++) {
+			for (int c = 0; c < COLUMNS - 1; c++) {
+				double lat = MapUtils.get31LatitudeY(ny[r][c]);
+				double lon = MapUtils.get31LongitudeX(nx[r][c]);
+				double dist = MapUtils.getDistance(lat, lon, centerLat, centerLon);
+				if (dist < BUILDINGS_RADIUS) {
+					buildings.add(createBuilding(nx, ny, r, c, 0.15, 0.4, 0.15, 0.45));
+					buildings.add(createBuilding(nx, ny, r, c, 0.55, 0.85, 0.6, 0.85));
+				}
+				if (rnd.nextInt(3) == 0 || (dist < BUILDINGS_RADIUS && rnd.nextBoolean())) {
+					pois.add(createPoi(nx, ny, r, c));
+				}
+			}
+		}
+	}
+
+	private Way createRoad(int index, String name) {
+		Way w = new Way();
+		w.id = nextId++;
+		w.name = name;
+		if (index % 8 == 0) {
+			w.highway = "primary";
+		} else if (index % 4 == 0) {
+			w.highway = "secondary";
+		} else {
+			w.highway = "residential";
+			w.oneway = index % 4 == 2;
+		}
+		return w;
+	}
+
+	private void addRoadPoint(Way w, int x, int y, int r, int c) {
+		if (r % 8 == 0 && c % 8 == 0) {
+			w.signals.add(w.x.size());
+		}
+		w.x.add(x);
+		w.y.add(y);
+	}
+
+	private void finishRoad(Way w, int index) {
+		if (w.oneway && index % 8 == 6) {
+			// opposite direction of neighbour oneway road
+			w.x.reverse();
+			w.y.reverse();
+			for (int i = 0; i < w.signals.size(); i++) {
+				w.signals.set(i, w.x.size() - 1 - w.signals.get(i));
+			}
+		}
+		roads.add(w);
+	}
+
+	private Way createBuilding(int[][] nx, int[][] ny, int r, int c, double u1, double u2, double v1, double v2) {
+		Way w = new Way();
+		w.id = nextId++;
+		w.area = true;
+		double[] u = { u1, u2, u2, u1, u1 };
+		double[] v = { v1, v1, v2, v2, v1 };
+		for (int i = 0; i < u.length; i++) {
+			w.x.add(interpolate(nx, r, c, u[i], v[i]) & ~31);
+			w.y.add(interpolate(ny, r, c, u[i], v[i]) & ~31);
+		}
+		return w;
+	}
+
+	private Poi createPoi(int[][] nx, int[][] ny, int r, int c) {
+		Poi p = new Poi();
+		p.id = nextId++;
+		double u = 0.1 + rnd.nextDouble() * 0.8;
+		double v = 0.05 + rnd.nextDouble() * 0.1;
+		// pois are stored with 24 bits
+		p.x = interpolate(nx, r, c, u, v) & ~127;
+		p.y = interpolate(ny, r, c, u, v) & ~127;
+		p.category = rnd.nextInt(POI_CATEGORIES.length);
+		p.subcategory = rnd.nextInt(POI_CATEGORIES[p.category].length - 1);
+		p.name = POI_NAMES[rnd.nextInt(POI_NAMES.length)] + " "
+				+ POI_NAME_SUFFIXES[rnd.nextInt(POI_NAME_SUFFIXES.length)];
+		return p;
+	}
+
+	// point inside of the cell, u goes along the row and v along the column
+	private static int interpolate(int[][] n, int r, int c, double u, double v) {
+		double top = n[r][c] + (n[r][c + 1] - n[r][c]) * u;
+		double bottom = n[r + 1][c] + (n[r + 1][c + 1] - n[r + 1][c]) * u;
+		return (int) (top + (bottom - top) * v);
+	}
+
+	private static long tile(int x, int y, int zoom) {
+		return (((long) (x >>> (31 - zoom))) << 32) | (y >>> (31 - zoom));
+	}
+
+	private static int rule(String[][] rules, String tag, String value) {
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i][0].equals(tag) && rules[i][1].equals(value)) {
+				return i + 1;
+			}
+		}
+		throw new IllegalArgumentException(tag + "=" + value);
+	}
+
+	private static Map<Long, List<Way>> groupByTile(List<Way> ways, int zoom) {
+		Map<Long, List<Way>> tiles = new TreeMap<Long, List<Way>>();
+		for (Way w : ways) {
+			Long t = tile(w.x.get(0), w.y.get(0), zoom);
+			List<Way> l = tiles.get(t);
+			if (l == null) {
+				l = new ArrayList<Way>();
+				tiles.put(t, l);
+			}
+			l.add(w);
+		}
+		return tiles;
+	}
+
+	private void writeMapIndex(ObfOutput out) {
+		int section = out.startFixedSection(OsmAndStructure.MAPINDEX_FIELD_NUMBER);
+		out.string(OsmAndMapIndex.NAME_FIELD_NUMBER, NAME);
+		for (String[] r : MAP_RULES) {
+			int p = out.startMessage(OsmAndMapIndex.RULES_FIELD_NUMBER);
+			out.string(MapEncodingRule.TAG_FIELD_NUMBER, r[0]);
+			out.string(MapEncodingRule.VALUE_FIELD_NUMBER, r[1]);
+			out.endMessage(p);
+		}
+		List<Way> all = new ArrayList<Way>(roads);
+		all.addAll(buildings);
+		List<Way> major = new ArrayList<Way>();
+		for (Way w : roads) {
+			if (!w.highway.equals("residential")) {
+				major.add(w);
+			}
+		}
+		writeMapLevel(out, 15, 22, all, 12, 14);
+		writeMapLevel(out, 11, 14, major, 10, 12);
+		out.endFixedSection(section);
+	}
+
+	private void writeMapLevel(ObfOutput out, int minZoom, int maxZoom, List<Way> ways, int topZoom, int tileZoom) {
+		int level = out.startFixedSection(OsmAndMapIndex.LEVELS_FIELD_NUMBER);
+		Box bounds = new Box();
+		for (Way w : ways) {
+			bounds.add(w);
+		}
+		out.int32(MapRootLevel.MAXZOOM_FIELD_NUMBER, maxZoom);
+		out.int32(MapRootLevel.MINZOOM_FIELD_NUMBER, minZoom);
+		out.int32(MapRootLevel.LEFT_FIELD_NUMBER, bounds.left);
+		out.int32(MapRootLevel.RIGHT_FIELD_NUMBER, bounds.right);
+		out.int32(MapRootLevel.TOP_FIELD_NUMBER, bounds.top);
+		out.int32(MapRootLevel.BOTTOM_FIELD_NUMBER, bounds.bottom);
+		Map<Long, List<Way>> tiles = groupByTile(ways, tileZoom);
+		// top boxes by tiles of top zoom, tiles are sorted by x, so group them
+		Map<Long, List<Long>> topTiles = new TreeMap<Long, List<Long>>();
+		Map<Long, Box> boxes = new TreeMap<Long, Box>();
+		for (Map.Entry<Long, List<Way>> e : tiles.entrySet()) {
+			long t = e.getKey();
+			Long top = tile((int) (t >> 32) << (31 - tileZoom), (int) t << (31 - tileZoom), topZoom);
+			if (!topTiles.containsKey(top)) {
+				topTiles.put(top, new ArrayList<Long>());
+				boxes.put(top, new Box());
+			}
+			topTiles.get(top).add(t);
+			Box b = new Box();
+			for (Way w : e.getValue()) {
+				b.add(w);
+			}
+			boxes.put(t, b);
+			boxes.get(top).add(b);
+		}
+		List<Long> order = new ArrayList<Long>();
+		Map<Long, Integer> shifts = new HashMap<Long, Integer>();
+		Map<Long, Integer> filePointers = new HashMap<Long, Integer>();
+		for (Map.Entry<Long, List<Long>> e : topTiles.entrySet()) {
+			Box tb = boxes.get(e.getKey());
+			int p = out.startFixedSection(MapRootLevel.BOXES_FIELD_NUMBER);
+			writeMapBox(out, tb, bounds);
+			for (Long t : e.getValue()) {
+				int c = out.startFixedSection(MapDataBox.BOXES_FIELD_NUMBER);
+				writeMapBox(out, boxes.get(t), tb);
+				shifts.put(t, out.fixed32Placeholder(MapDataBox.SHIFTTOMAPDATA_FIELD_NUMBER));
+				filePointers.put(t, c + 4);
+				out.endFixedSection(c);
+				order.add(t);
+			}
+			out.endFixedSection(p);
+		}
+		for (Long t : order) {
+			int p = out.startMessage(MapRootLevel.BLOCKS_FIELD_NUMBER);
+			out.setInt(shifts.get(t), p - filePointers.get(t));
+			writeMapBlock(out, tiles.get(t), boxes.get(t));
+			out.endMessage(p);
+		}
+		out.endFixedSection(level);
+	}
+
+	private static void writeMapBox(ObfOutput out, Box b, Box parent) {
+		out.sint32(MapDataBox.LEFT_FIELD_NUMBER, b.left - parent.left);
+		out.sint32(MapDataBox.RIGHT_FIELD_NUMBER, b.right - parent.right);
+		out.sint32(MapDataBox.TOP_FIELD_NUMBER, b.top - parent.top);
+		out.sint32(MapDataBox.BOTTOM_FIELD_NUMBER, b.bottom - parent.bottom);
+	}
+
+	private void writeMapBlock(ObfOutput out, List<Way> ways, Box box) {
+		long baseId = ways.get(0).id;
+		out.uint64(MapDataBlock.BASEID_FIELD_NUMBER, baseId);
+		List<String> strings = new ArrayList<String>();
+		for (Way w : ways) {
+			int o = out.startMessage(MapDataBlock.DATAOBJECTS_FIELD_NUMBER);
+			int p = out.startMessage(w.area ? MapData.AREACOORDINATES_FIELD_NUMBER : MapData.COORDINATES_FIELD_NUMBER);
+			int px = box.left & ~31;
+			int py = box.top & ~31;
+			for (int i = 0; i < w.x.size(); i++) {
+				out.sint32NoTag((w.x.get(i) - px) >> 5);
+				out.sint32NoTag((w.y.get(i) - py) >> 5);
+				px = w.x.get(i);
+				py = w.y.get(i);
+			}
+			out.endMessage(p);
+			if (w.oneway) {
+				p = out.startMessage(MapData.ADDITIONALTYPES_FIELD_NUMBER);
+				out.rawVarint(rule(MAP_RULES, "oneway", "yes"));
+				out.endMessage(p);
+			}
+			p = out.startMessage(MapData.TYPES_FIELD_NUMBER);
+			out.rawVarint(w.area ? rule(MAP_RULES, "building", "yes") : rule(MAP_RULES, "highway", w.highway));
+			out.endMessage(p);
+			out.sint64(MapData.ID_FIELD_NUMBER, w.id - baseId);
+			if (w.name != null) {
+				p = out.startMessage(MapData.STRINGNAMES_FIELD_NUMBER);
+				out.rawVarint(rule(MAP_RULES, "name", ""));
+				out.rawVarint(strings.size());
+				strings.add(w.name);
+				out.endMessage(p);
+			}
+			out.endMessage(o);
+		}
+		writeStringTable(out, MapDataBlock.STRINGTABLE_FIELD_NUMBER, strings);
+	}
+
+	private static void writeStringTable(ObfOutput out, int field, List<String> strings) {
+		if (!strings.isEmpty()) {
+			int p = out.startMessage(field);
+			for (String s : strings) {
+				out.string(StringTable.S_FIELD_NUMBER, s);
+			}
+			out.endMessage(p);
+		}
+	}
+
+	private void writeRouteIndex(ObfOutput out) {
+		int section = out.startFixedSection(OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER);
+		out.string(OsmAndRoutingIndex.NAME_FIELD_NUMBER, NAME);
+		for (String[] r : ROUTE_RULES) {
+			int p = out.startMessage(OsmAndRoutingIndex.RULES_FIELD_NUMBER);
+			out.string(RouteEncodingRule.TAG_FIELD_NUMBER, r[0]);
+			out.string(RouteEncodingRule.VALUE_FIELD_NUMBER, r[1]);
+			out.endMessage(p);
+		}
+		Box bounds = new Box();
+		for (Way w : roads) {
+			bounds.add(w);
+		}
+		Map<Long, List<Way>> tiles = groupByTile(roads, ROUTE_TILE_ZOOM);
+		int root = out.startFixedSection(OsmAndRoutingIndex.ROOTBOXES_FIELD_NUMBER);
+		out.sint32(RouteDataBox.LEFT_FIELD_NUMBER, bounds.left);
+		out.sint32(RouteDataBox.RIGHT_FIELD_NUMBER, bounds.right);
+		out.sint32(RouteDataBox.TOP_FIELD_NUMBER, bounds.top);
+		out.sint32(RouteDataBox.BOTTOM_FIELD_NUMBER, bounds.bottom);
+		Map<Long, Integer> shifts = new HashMap<Long, Integer>();
+		Map<Long, Integer> filePointers = new HashMap<Long, Integer>();
+		Map<Long, Box> boxes = new TreeMap<Long, Box>();
+		for (Map.Entry<Long, List<Way>> e : tiles.entrySet()) {
+			Box b = new Box();
+			for (Way w : e.getValue()) {
+				b.add(w);
+			}
+			boxes.put(e.getKey(), b);
+			int p = out.startFixedSection(RouteDataBox.BOXES_FIELD_NUMBER);
+			out.sint32(RouteDataBox.LEFT_FIELD_NUMBER, b.left - bounds.left);
+			out.sint32(RouteDataBox.RIGHT_FIELD_NUMBER, b.right - bounds.right);
+			out.sint32(RouteDataBox.TOP_FIELD_NUMBER, b.top - bounds.top);
+			out.sint32(RouteDataBox.BOTTOM_FIELD_NUMBER, b.bottom - bounds.bottom);
+			shifts.put(e.getKey(), out.fixed32Placeholder(RouteDataBox.SHIFTTODATA_FIELD_NUMBER));
+			filePointers.put(e.getKey(), p + 4);
+			out.endFixedSection(p);
+		}
+		out.endFixedSection(root);
+		for (Map.Entry<Long, List<Way>> e : tiles.entrySet()) {
+			int p = out.startMessage(OsmAndRoutingIndex.BLOCKS_FIELD_NUMBER);
+			out.setInt(shifts.get(e.getKey()), p - filePointers.get(e.getKey()));
+			writeRouteBlock(out, e.getValue(), boxes.get(e.getKey()));
+			out.endMessage(p);
+		}
+		out.endFixedSection(section);
+	}
+
+	private void writeRouteBlock(ObfOutput out, List<Way> ways, Box box) {
+		int p = out.startMessage(RouteDataBlock.IDTABLE_FIELD_NUMBER);
+		long prev = 0;
+		for (Way w : ways) {
+			out.sint64(IdTable.ROUTEID_FIELD_NUMBER, w.id - prev);
+			prev = w.id;
+		}
+		out.endMessage(p);
+		List<String> strings = new ArrayList<String>();
+		for (int k = 0; k < ways.size(); k++) {
+			Way w = ways.get(k);
+			int o = out.startMessage(RouteDataBlock.DATAOBJECTS_FIELD_NUMBER);
+			p = out.startMessage(RouteData.POINTS_FIELD_NUMBER);
+			int px = box.left >> 4;
+			int py = box.top >> 4;
+			for (int i = 0; i < w.x.size(); i++) {
+				out.sint32NoTag((w.x.get(i) >> 4) - px);
+				out.sint32NoTag((w.y.get(i) >> 4) - py);
+				px = w.x.get(i) >> 4;
+				py = w.y.get(i) >> 4;
+			}
+			out.endMessage(p);
+			if (!w.signals.isEmpty()) {
+				p = out.startMessage(RouteData.POINTTYPES_FIELD_NUMBER);
+				for (int i = 0; i < w.signals.size(); i++) {
+					out.rawVarint(w.signals.get(i));
+					int t = out.startMessage();
+					out.rawVarint(rule(ROUTE_RULES, "highway", "traffic_signals"));
+					out.endMessage(t);
+				}
+				out.endMessage(p);
+			}
+			p = out.startMessage(RouteData.TYPES_FIELD_NUMBER);
+			out.rawVarint(rule(ROUTE_RULES, "highway", w.highway));
+			if (w.oneway) {
+				out.rawVarint(rule(ROUTE_RULES, "oneway", "yes"));
+			}
+			out.endMessage(p);
+			out.int32(RouteData.ROUTEID_FIELD_NUMBER, k);
+			p = out.startMessage(RouteData.STRINGNAMES_FIELD_NUMBER);
+			out.rawVarint(rule(ROUTE_RULES, "name", ""));
+			out.rawVarint(strings.size());
+			strings.add(w.name);
+			out.endMessage(p);
+			out.endMessage(o);
+		}
+		writeStringTable(out, RouteDataBlock.STRINGTABLE_FIELD_NUMBER, strings);
+	}
+
+	private void writePoiIndex(ObfOutput out) {
+		int section = out.startFixedSection(OsmAndStructure.POIINDEX_FIELD_NUMBER);
+		// offsets to data are counted from the start of poi index
+		int indexOffset = section + 4;
+		out.string(OsmAndPoiIndex.NAME_FIELD_NUMBER, NAME);
+		Box bounds = new Box();
+		Map<Long, List<Poi>> tiles = new TreeMap<Long, List<Poi>>();
+		for (Poi p : pois) {
+			bounds.add(p.x, p.y);
+			Long t = tile(p.x, p.y, POI_TILE_ZOOM);
+			if (!tiles.containsKey(t)) {
+				tiles.put(t, new ArrayList<Poi>());
+			}
+			tiles.get(t).add(p);
+		}
+		int p = out.startMessage(OsmAndPoiIndex.BOUNDARIES_FIELD_NUMBER);
+		out.uint32(OsmAndTileBox.LEFT_FIELD_NUMBER, bounds.left);
+		out.uint32(OsmAndTileBox.RIGHT_FIELD_NUMBER, bounds.right);
+		out.uint32(OsmAndTileBox.TOP_FIELD_NUMBER, bounds.top);
+		out.uint32(OsmAndTileBox.BOTTOM_FIELD_NUMBER, bounds.bottom);
+		out.endMessage(p);
+		for (String[] c : POI_CATEGORIES) {
+			p = out.startMessage(OsmAndPoiIndex.CATEGORIESTABLE_FIELD_NUMBER);
+			out.string(OsmAndCategoryTable.CATEGORY_FIELD_NUMBER, c[0]);
+			for (int i = 1; i < c.length; i++) {
+				out.string(OsmAndCategoryTable.SUBCATEGORIES_FIELD_NUMBER, c[i]);
+			}
+			out.endMessage(p);
+		}
+		// boxes tree
+		Map<Long, List<Long>> topTiles = new TreeMap<Long, List<Long>>();
+		for (Long t : tiles.keySet()) {
+			int dz = POI_TILE_ZOOM - POI_TOP_ZOOM;
+			Long top = ((t >>> 32) >> dz << 32) | ((t & 0xffffffffl) >> dz);
+			if (!topTiles.containsKey(top)) {
+				topTiles.put(top, new ArrayList<Long>());
+			}
+			topTiles.get(top).add(t);
+		}
+		// positions of shifts to the data of tile
+		Map<Long, TIntArrayList> shifts = new TreeMap<Long, TIntArrayList>();
+		for (Map.Entry<Long, List<Long>> e : topTiles.entrySet()) {
+			int tx = (int) (e.getKey() >> 32);
+			int ty = (int) (e.getKey() & 0xffffffffl);
+			List<Poi> all = new ArrayList<Poi>();
+			for (Long t : e.getValue()) {
+				all.addAll(tiles.get(t));
+			}
+			int b = out.startFixedSection(OsmAndPoiIndex.BOXES_FIELD_NUMBER);
+			out.uint32(OsmAndPoiBox.ZOOM_FIELD_NUMBER, POI_TOP_ZOOM);
+			out.sint32(OsmAndPoiBox.LEFT_FIELD_NUMBER, tx);
+			out.sint32(OsmAndPoiBox.TOP_FIELD_NUMBER, ty);
+			writePoiCategories(out, all);
+			for (Long t : e.getValue()) {
+				int dz = POI_TILE_ZOOM - POI_TOP_ZOOM;
+				int s = out.startFixedSection(OsmAndPoiBox.SUBBOXES_FIELD_NUMBER);
+				out.uint32(OsmAndPoiBox.ZOOM_FIELD_NUMBER, dz);
+				out.sint32(OsmAndPoiBox.LEFT_FIELD_NUMBER, (int) (t >> 32) - (tx << dz));
+				out.sint32(OsmAndPoiBox.TOP_FIELD_NUMBER, (int) (t & 0xffffffffl) - (ty << dz));
+				writePoiCategories(out, tiles.get(t));
+				shifts.put(t, new TIntArrayList());
+				shifts.get(t).add(out.fixed32Placeholder(OsmAndPoiBox.SHIFTTODATA_FIELD_NUMBER));
+				out.endFixedSection(s);
+			}
+			out.endFixedSection(b);
+		}
+		writePoiNameIndex(out, tiles, shifts);
+		for (Map.Entry<Long, List<Poi>> e : tiles.entrySet()) {
+			int d = out.startFixedSection(OsmAndPoiIndex.POIDATA_FIELD_NUMBER);
+			TIntArrayList l = shifts.get(e.getKey());
+			for (int i = 0; i < l.size(); i++) {
+				out.setInt(l.get(i), d - indexOffset);
+			}
+			writePoiData(out, e.getKey(), e.getValue());
+			out.endFixedSection(d);
+		}
+		out.endFixedSection(section);
+	}
+
+	private static void writePoiCategories(ObfOutput out, List<Poi> pois) {
+		TreeSet<Integer> cats = new TreeSet<Integer>();
+		for (Poi p : pois) {
+			cats.add(p.category | (p.subcategory << SHIFT_BITS_CATEGORY));
+		}
+		int c = out.startMessage(OsmAndPoiBox.CATEGORIES_FIELD_NUMBER);
+		for (Integer cat : cats) {
+			out.uint32(OsmAndPoiCategories.CATEGORIES_FIELD_NUMBER, cat);
+		}
+		out.endMessage(c);
+	}
+
+	// name index: first 2 letters of every word of the name -> tiles with such pois
+	private void writePoiNameIndex(ObfOutput out, Map<Long, List<Poi>> tiles, Map<Long, TIntArrayList> shifts) {
+		Map<String, TreeSet<Long>> keys = new TreeMap<String, TreeSet<Long>>();
+		for (Map.Entry<Long, List<Poi>> e : tiles.entrySet()) {
+			for (Poi p : e.getValue()) {
+				for (String word : p.name.split(" ")) {
+					String key = word.substring(0, Math.min(2, word.length())).toLowerCase();
+					if (!keys.containsKey(key)) {
+						keys.put(key, new TreeSet<Long>());
+					}
+					keys.get(key).add(e.getKey());
+				}
+			}
+		}
+		int n = out.startFixedSection(OsmAndPoiIndex.NAMEINDEX_FIELD_NUMBER);
+		int table = out.startFixedSection(OsmAndPoiNameIndex.TABLE_FIELD_NUMBER);
+		int tableOffset = table + 4;
+		List<Integer> values = new ArrayList<Integer>();
+		for (String key : keys.keySet()) {
+			out.string(IndexedStringTable.KEY_FIELD_NUMBER, key);
+			values.add(out.fixed32Placeholder(IndexedStringTable.VAL_FIELD_NUMBER));
+		}
+		out.endFixedSection(table);
+		int k = 0;
+		for (TreeSet<Long> keyTiles : keys.values()) {
+			int d = out.startMessage(OsmAndPoiNameIndex.DATA_FIELD_NUMBER);
+			out.setInt(values.get(k++), d - tableOffset);
+			for (Long t : keyTiles) {
+				int a = out.startMessage(OsmAndPoiNameIndexData.ATOMS_FIELD_NUMBER);
+				out.uint32(OsmAndPoiNameIndexDataAtom.ZOOM_FIELD_NUMBER, POI_TILE_ZOOM);
+				out.uint32(OsmAndPoiNameIndexDataAtom.X_FIELD_NUMBER, (int) (t >> 32));
+				out.uint32(OsmAndPoiNameIndexDataAtom.Y_FIELD_NUMBER, (int) (t & 0xffffffffl));
+				shifts.get(t).add(out.fixed32Placeholder(OsmAndPoiNameIndexDataAtom.SHIFTTO_FIELD_NUMBER));
+				out.endMessage(a);
+			}
+			out.endMessage(d);
+		}
+		out.endFixedSection(n);
+	}
+
+	private static void writePoiData(ObfOutput out, long tile, List<Poi> pois) {
+		int x = (int) (tile >> 32);
+		int y = (int) (tile & 0xffffffffl);
+		out.uint32(OsmAndPoiBoxData.ZOOM_FIELD_NUMBER, POI_TILE_ZOOM);
+		out.uint32(OsmAndPoiBoxData.X_FIELD_NUMBER, x);
+		out.uint32(OsmAndPoiBoxData.Y_FIELD_NUMBER, y);
+		for (Poi p : pois) {
+			int a = out.startMessage(OsmAndPoiBoxData.POIDATA_FIELD_NUMBER);
+			out.sint32(OsmAndPoiBoxDataAtom.DX_FIELD_NUMBER, (p.x >> 7) - (x << (24 - POI_TILE_ZOOM)));
+			out.sint32(OsmAndPoiBoxDataAtom.DY_FIELD_NUMBER, (p.y >> 7) - (y << (24 - POI_TILE_ZOOM)));
+			out.uint32(OsmAndPoiBoxDataAtom.CATEGORIES_FIELD_NUMBER, p.category | (p.subcategory << SHIFT_BITS_CATEGORY));
+			out.string(OsmAndPoiBoxDataAtom.NAME_FIELD_NUMBER, p.name);
+			out.uint64(OsmAndPoiBoxDataAtom.ID_FIELD_NUMBER, p.id);
+			out.endMessage(a);
+		}
+	}
+
+	/**
+	 * Protobuf output to memory which allows to write lengths and offsets after the content. Message lengths are
+	 * written as varints padded to 4 bytes (readers accept it), so positions inside of the file are known while
+	 * writing.
+	 */
+	private static class ObfOutput {
+		private static final int WIRETYPE_VARINT = 0;
+		private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+		private static final int WIRETYPE_FIXED32 = 5;
+
+		private byte[] buf = new byte[1 << 16];
+		private int size;
+
+		private void ensure(int n) {
+			if (size + n > buf.length) {
+				byte[] b = new byte[Math.max(buf.length * 2, size + n)];
+				System.arraycopy(buf, 0, b, 0, size);
+				buf = b;
+			}
+		}
+
+		void rawVarint(long v) {
+			ensure(10);
+			while ((v & ~0x7fl) != 0) {
+				buf[size++] = (byte) ((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			buf[size++] = (byte) v;
+		}
+
+		void tag(int field, int wireType) {
+			rawVarint((field << 3) | wireType);
+		}
+
+		void uint32(int field, int v) {
+			tag(field, WIRETYPE_VARINT);
+			rawVarint(v & 0xffffffffl);
+		}
+
+		void uint64(int field, long v) {
+			tag(field, WIRETYPE_VARINT);
+			rawVarint(v);
+		}
+
+		void int32(int field, int v) {
+			tag(field, WIRETYPE_VARINT);
+			rawVarint(v);
+		}
+
+		void sint32(int field, int v) {
+			tag(field, WIRETYPE_VARINT);
+			sint32NoTag(v);
+		}
+
+		void sint32NoTag(int v) {
+			rawVarint(((v << 1) ^ (v >> 31)) & 0xffffffffl);
+		}
+
+		void sint64(int field, long v) {
+			tag(field, WIRETYPE_VARINT);
+			rawVarint((v << 1) ^ (v >> 63));
+		}
+
+		void string(int field, String s) {
+			byte[] b;
+			try {
+				b = s.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			tag(field, WIRETYPE_LENGTH_DELIMITED);
+			rawVarint(b.length);
+			ensure(b.length);
+			System.arraycopy(b, 0, buf, size, b.length);
+			size += b.length;
+		}
+
+		int startMessage(int field) {
+			tag(field, WIRETYPE_LENGTH_DELIMITED);
+			return startMessage();
+		}
+
+		// returns position of the length
+		int startMessage() {
+			ensure(4);
+			int p = size;
+			size += 4;
+			return p;
+		}
+
+		void endMessage(int p) {
+			int len = size - p - 4;
+			if (len >= 1 << 28) {
+				throw new IllegalStateException("Message is too big " + len);
+			}
+			buf[p] = (byte) ((len & 0x7f) | 0x80);
+			buf[p + 1] = (byte) (((len >> 7) & 0x7f) | 0x80);
+			buf[p + 2] = (byte) (((len >> 14) & 0x7f) | 0x80);
+			buf[p + 3] = (byte) (len >> 21);
+		}
+
+		// sections which are read with 4 bytes length, returns position of the length
+		int startFixedSection(int field) {
+			tag(field, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+			return startMessage();
+		}
+
+		void endFixedSection(int p) {
+			setInt(p, size - p - 4);
+		}
+
+		// fixed32 field which is set later (offsets are read as big endian int)
+		int fixed32Placeholder(int field) {
+			tag(field, WIRETYPE_FIXED32);
+			return startMessage();
+		}
+
+		void setInt(int p, int v) {
+			buf[p] = (byte) (v >>> 24);
+			buf[p + 1] = (byte) (v >>> 16);
+			buf[p + 2] = (byte) (v >>> 8);
+			buf[p + 3] = (byte) v;
+		}
+
+		void writeTo(OutputStream os) throws IOException {
+			os.write(buf, 0, size);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package net.osmand.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.render.DefaultRenderingRulesStorage;
+import net.osmand.render.RenderingRuleSearchRequest;
+import net.osmand.render.RenderingRulesStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering rules search of default style (built in java, no xml is needed).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderingRulesBenchmark {
+
+	@Param({ "highway=residential", "highway=primary", "building=yes", "natural=water", "landuse=forest" })
+	public String tagValue;
+
+	@Param({ "11", "15", "17" })
+	public int zoom;
+
+	private RenderingRulesStorage storage;
+	private RenderingRuleSearchRequest request;
+	private String tag;
+	private String value;
+
+	@Setup
+	public void setup() {
+		storage = new RenderingRulesStorage("default", new LinkedHashMap<String, String>());
+		new DefaultRenderingRulesStorage().createStyle(storage);
+		request = new RenderingRuleSearchRequest(storage);
+		int i = tagValue.indexOf('=');
+		tag = tagValue.substring(0, i);
+		value = tagValue.substring(i + 1);
+	}
+
+	@Benchmark
+	public boolean searchLine() {
+		request.setInitialTagValueZoom(tag, value, zoom, null);
+		return request.search(RenderingRulesStorage.LINE_RULES);
+	}
+
+	@Benchmark
+	public boolean searchPolygon() {
+		request.setInitialTagValueZoom(tag, value, zoom, null);
+		return request.search(RenderingRulesStorage.POLYGON_RULES);
+	}
+}
@@ -0,0 +1,75 @@
+package net.osmand.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoutePlannerFrontEnd;
+import net.osmand.router.RouteSegmentResult;
+import net.osmand.router.RoutingConfiguration;
+import net.osmand.router.RoutingContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Java route calculation (BinaryRoutePlanner) with cold routing context, map file stays opened.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RoutingBenchmark {
+
+	// start lat, start lon, end lat, end lon
+	@Param({ 
+		// short: city center
+		"49.6116,6.1319,49.6006,6.1136",
+		// medium: Luxembourg - Esch-sur-Alzette
+		"49.6116,6.1319,49.4958,5.9806" })
+	public String route;
+
+	@Param({ "car", "bicycle" })
+	public String vehicle;
+
+	private BinaryMapIndexReader reader;
+	private RoutingConfiguration config;
+	private RoutePlannerFrontEnd router;
+	private LatLon start;
+	private LatLon end;
+
+	@Setup
+	public void setup() throws IOException {
+		reader = BenchmarkFixtures.openReader(BenchmarkFixtures.DEFAULT_OBF);
+		config = RoutingConfiguration.getDefault().build(vehicle, RoutingConfiguration.DEFAULT_MEMORY_LIMIT * 3);
+		router = new RoutePlannerFrontEnd(false);
+		String[] c = route.split(",");
+		start = new LatLon(Double.parseDouble(c[0]), Double.parseDouble(c[1]));
+		end = new LatLon(Double.parseDouble(c[2]), Double.parseDouble(c[3]));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public List<RouteSegmentResult> searchRoute() throws IOException, InterruptedException {
+		RoutingContext ctx = router.buildRoutingContext(config, null, new BinaryMapIndexReader[] { reader });
+		return router.searchRoute(ctx, start, end, null);
+	}
+}
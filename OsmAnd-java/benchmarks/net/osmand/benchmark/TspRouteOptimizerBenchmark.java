@@ -0,0 +1,66 @@
+package net.osmand.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.osmand.router.TspRouteOptimizer;
+import net.osmand.router.TspRouteOptimizer.TspResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ordering of random points by asymmetric travel times: default solver (exact for small sets) and local search
+ * only, both within 1 s time budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TspRouteOptimizerBenchmark {
+
+	// number of points with start and destination
+	@Param({ "8", "12", "15", "60", "200" })
+	public int points;
+
+	private double[][] cost;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(7);
+		cost = new double[points][points];
+		double[] x = new double[points];
+		double[] y = new double[points];
+		for (int i = 0; i < points; i++) {
+			x[i] = rnd.nextDouble() * 10000;
+			y[i] = rnd.nextDouble() * 10000;
+		}
+		for (int i = 0; i < points; i++) {
+			for (int j = 0; j < points; j++) {
+				// asymmetric travel times
+				cost[i][j] = Math.sqrt((x[i] - x[j]) * (x[i] - x[j]) + (y[i] - y[j]) * (y[i] - y[j])) / (i < j ? 10 : 12);
+			}
+		}
+	}
+
+	@Benchmark
+	public TspResult solve() throws InterruptedException {
+		return new TspRouteOptimizer().setThreads(4).setTimeBudget(1000).solve(cost);
+	}
+
+	@Benchmark
+	public TspResult solveLocalSearch() throws InterruptedException {
+		return new TspRouteOptimizer().setMaxExactPoints(0).setThreads(4).setTimeBudget(1000).solve(cost);
+	}
+}
@@ -30,6 +30,7 @@
 
 package com.google.protobuf;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
@@ -76,6 +77,13 @@ public final class CodedInputStream {
   public static CodedInputStream newInstance(RandomAccessFile raf) {
     return new CodedInputStream(raf);
   }
+
+  /**
+   * Create a new CodedInputStream reading the file, which is opened on first read.
+   */
+  public static CodedInputStream newInstance(File file) {
+    return new CodedInputStream(file);
+  }
   // end osmand change
 
 
@@ -485,6 +493,7 @@ public final class CodedInputStream {
 
   private final byte[] buffer;
   private RandomAccessFile raf;
+  private File file;
   private int bufferSize;
   private int bufferSizeAfterLimit;
   private int bufferPos;
@@ -540,6 +549,30 @@ public final class CodedInputStream {
 	 input = null;
   }
 
+  private CodedInputStream(final File file) {
+	 buffer = new byte[BUFFER_SIZE];
+	 this.bufferSize = 0;
+	 bufferPos = 0;
+	 totalBytesRetired = 0;
+	 this.file = file;
+	 input = null;
+  }
+
+  // osmand change
+  /**
+   * Returns underlying file (opens it if it is not opened yet) or null if it is not a file stream
+   */
+  public RandomAccessFile getRandomAccessFile() throws IOException {
+    if (raf == null && file != null) {
+      raf = new RandomAccessFile(file, "r");
+    }
+    return raf;
+  }
+
+  public boolean isFileOpened() {
+    return raf != null;
+  }
+
   /**
    * Set the maximum message recursion depth.  In order to prevent malicious
    * messages from causing stack overflows, {@code CodedInputStream} limits
@@ -697,8 +730,9 @@ public final class CodedInputStream {
     totalBytesRetired += bufferSize;
 
     bufferPos = 0;
-    if (raf != null) {
+    if (raf != null || file != null) {
         // osmand change
+    	RandomAccessFile raf = getRandomAccessFile();
     	long remain = raf.length() - raf.getFilePointer();
     	bufferSize = (int) Math.min(remain, buffer.length);
     	if(bufferSize > 0) {
@@ -825,8 +859,8 @@ public final class CodedInputStream {
         	
           final int n;
           // osmand change
-          if(raf != null) {
-        	  raf.readFully(chunk, pos, chunk.length - pos);
+          if(raf != null || file != null) {
+        	  getRandomAccessFile().readFully(chunk, pos, chunk.length - pos);
         	  n = chunk.length - pos;
           } else {
               n = (input == null) ? -1 :
@@ -891,8 +925,8 @@ public final class CodedInputStream {
       while (pos < size) {
     	// osmand change
     	final int n ;
-    	if(raf != null) {
-    	 n = raf.skipBytes(size - pos);
+    	if(raf != null || file != null) {
+    	 n = getRandomAccessFile().skipBytes(size - pos);
     	} else {
     	 n = (input == null) ? -1 : (int) input.skip(size - pos);
     	}
@@ -916,7 +950,7 @@ public final class CodedInputStream {
 		} else {
 			totalBytesRetired = (int) pointer;
 			bufferSizeAfterLimit = 0;
-			raf.seek(pointer);
+			getRandomAccessFile().seek(pointer);
 			bufferPos = 0;
 			bufferSize = 0;
 		}
@@ -4,9 +4,13 @@ import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.render.RenderingRulesStorage;
+import net.osmand.util.MapAlgorithms;
 
 public class BinaryMapDataObject {
 	protected int[] coordinates = null;
+	// coordinates simplified once for rendering zoom
+	protected int[] simplifiedCoordinates = null;
+	protected int simplifiedZoom = -1;
 	protected int[][] polygonInnerCoordinates = null;
 	protected boolean area = false;
 	protected int[] types = null;
@@ -33,6 +37,29 @@ public class BinaryMapDataObject {
 	
 	protected void setCoordinates(int[] coordinates) {
 		this.coordinates = coordinates;
+		this.simplifiedCoordinates = null;
+		this.simplifiedZoom = -1;
+	}
+	
+	/**
+	 * Prepares coordinates for rendering at zoom: points which are less than quarter of pixel 
+	 * (of 256 pixels tile) from simplified line are removed.
+	 */
+	public void simplifyCoordinates(int zoom) {
+		if (simplifiedZoom != zoom && coordinates != null) {
+			simplifiedCoordinates = MapAlgorithms.simplifyCoordinates(coordinates, 31 - zoom - 10);
+			simplifiedZoom = zoom;
+		}
+	}
+	
+	/**
+	 * @return coordinates simplified for zoom or original coordinates if they were not simplified
+	 */
+	public int[] getSimplifiedCoordinates(int zoom) {
+		if (simplifiedZoom == zoom && simplifiedCoordinates != null) {
+			return simplifiedCoordinates;
+		}
+		return coordinates;
 	}
 	
 	
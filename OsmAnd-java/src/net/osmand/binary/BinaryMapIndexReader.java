@@ -114,8 +114,16 @@ public class BinaryMapIndexReader {
 	}
 	
 	/*private */BinaryMapIndexReader(final RandomAccessFile raf, boolean init) throws IOException {
+		this(raf, CodedInputStream.newInstance(raf), init);
+	}
+	
+	/*private */BinaryMapIndexReader(final File file, boolean init) throws IOException {
+		this(null, CodedInputStream.newInstance(file), init);
+	}
+	
+	private BinaryMapIndexReader(final RandomAccessFile raf, CodedInputStream codedIS, boolean init) throws IOException {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
+		this.codedIS = codedIS;
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
@@ -127,8 +135,19 @@ public class BinaryMapIndexReader {
 	}
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
+		this(raf, CodedInputStream.newInstance(raf), referenceToSameFile);
+	}
+	
+	/**
+	 * Reader of the same file as reference reader, file is opened on first read
+	 */
+	public BinaryMapIndexReader(final File file, BinaryMapIndexReader referenceToSameFile) throws IOException {
+		this(null, CodedInputStream.newInstance(file), referenceToSameFile);
+	}
+	
+	private BinaryMapIndexReader(final RandomAccessFile raf, CodedInputStream codedIS, BinaryMapIndexReader referenceToSameFile) {
 		this.raf = raf;
-		codedIS = CodedInputStream.newInstance(raf);
+		this.codedIS = codedIS;
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		version = referenceToSameFile.version;
 		dateCreated = referenceToSameFile.dateCreated;
@@ -347,6 +366,14 @@ public class BinaryMapIndexReader {
 	
 
 	public RandomAccessFile getRaf() {
+		if (raf == null && codedIS != null) {
+			// lazily opened reader
+			try {
+				return codedIS.getRandomAccessFile();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
 		return raf;
 	}
 	
@@ -1525,7 +1552,9 @@ public class BinaryMapIndexReader {
 	
 	public void close() throws IOException{
 		if(codedIS != null){
-			raf.close();
+			if (codedIS.isFileOpened()) {
+				codedIS.getRandomAccessFile().close();
+			}
 			codedIS = null;
 			mapIndexes.clear();
 			addressIndexes.clear();
@@ -205,6 +205,10 @@ public class BinaryMapRouteReaderAdapter {
 		public RouteTypeRule quickGetEncodingRule(int id) {
 			return routeEncodingRules.get(id);
 		}
+		
+		public List<RouteTypeRule> getRouteEncodingRules() {
+			return routeEncodingRules;
+		}
 
 		private void initRouteEncodingRule(int id, String tags, String val) {
 			while (routeEncodingRules.size() <= id) {
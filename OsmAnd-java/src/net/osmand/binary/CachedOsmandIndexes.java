@@ -1,10 +1,21 @@
 package net.osmand.binary;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
@@ -33,14 +44,24 @@ import org.apache.commons.logging.Log;
 public class CachedOsmandIndexes {
 	
 	private OsmAndStoredIndex storedIndex;
+	// file name -> the last stored index of the file
+	private Map<String, FileIndex> storedFileIndexes = new HashMap<String, FileIndex>();
 	private OsmAndStoredIndex.Builder storedIndexBuilder;
+	// memory mapped cache (see writeToMappedFile), record of the file is decoded only when file is requested
+	private ByteBuffer mappedIndex;
+	private int mappedCount;
 	private Log log = PlatformUtil.getLog(CachedOsmandIndexes.class);
 	private boolean hasChanged = true;
 	
 	public static final int VERSION = 2;
+	public static final int MAPPED_VERSION = 1;
+	private static final int MAPPED_MAGIC = 0x4F49434D;
+	// magic, version, number of files, then offsets of file records sorted by file name
+	private static final int MAPPED_HEADER_SIZE = 12;
+	// offset of file name reference in the file record
+	private static final int MAPPED_NAME_REF = 24;
 
-	public void addToCache(BinaryMapIndexReader reader, File f) {
-		hasChanged = true;
+	private OsmAndStoredIndex.Builder getStoredIndexBuilder() {
 		if(storedIndexBuilder == null) {
 			storedIndexBuilder = OsmandIndex.OsmAndStoredIndex.newBuilder();
 			storedIndexBuilder.setVersion(VERSION);
@@ -50,7 +71,16 @@ public class CachedOsmandIndexes {
 					storedIndexBuilder.addFileIndex(ex);
 				}
 			}
+			for (int i = 0; i < mappedCount; i++) {
+				storedIndexBuilder.addFileIndex(readMappedFileIndex(mappedIndex.getInt(MAPPED_HEADER_SIZE + i * 4)));
+			}
 		}
+		return storedIndexBuilder;
+	}
+
+	public synchronized void addToCache(BinaryMapIndexReader reader, File f) {
+		hasChanged = true;
+		OsmAndStoredIndex.Builder storedIndexBuilder = getStoredIndexBuilder();
 		
 		FileIndex.Builder fileIndex = OsmandIndex.FileIndex.newBuilder();
 		long d = reader.getDateCreated();
@@ -166,35 +196,34 @@ public class CachedOsmandIndexes {
 		routing.addSubregions(rpart);
 	}
 	
+	/**
+	 * Returns reader of the file. If the file is in cache, reader is created from cached index
+	 * and file is opened only on first read, otherwise file is read and added to cache.
+	 * Could be called from different threads.
+	 */
 	public BinaryMapIndexReader getReader(File f) throws IOException {
-		RandomAccessFile mf = new RandomAccessFile(f.getPath(), "r");
-		FileIndex found = null;
-		if (storedIndex != null) {
-			for (int i = 0; i < storedIndex.getFileIndexCount(); i++) {
-				FileIndex fi = storedIndex.getFileIndex(i);
-				if (f.length() == fi.getSize() && f.getName().equals(fi.getFileName())) {
-					// f.lastModified() == fi.getDateModified()
-					found = fi;
-					break;
-				}
+		FileIndex found;
+		synchronized (this) {
+			found = storedFileIndexes.get(f.getName());
+			if (found == null && mappedIndex != null) {
+				found = findMappedFileIndex(f.getName());
 			}
 		}
-		BinaryMapIndexReader reader = null;
-		if (found == null) {
-			long val = System.currentTimeMillis();
-			reader = new BinaryMapIndexReader(mf);
-			addToCache(reader, f);
-			if (log.isDebugEnabled()) {
-				log.debug("Initializing db " + f.getAbsolutePath() + " " + (System.currentTimeMillis() - val ) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			}
-		} else {
-			reader = initFileIndex(found, mf);
+		// f.lastModified() == fi.getDateModified()
+		if (found != null && f.length() == found.getSize()) {
+			return initFileIndex(found, f);
+		}
+		long val = System.currentTimeMillis();
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(new RandomAccessFile(f.getPath(), "r"));
+		addToCache(reader, f);
+		if (log.isDebugEnabled()) {
+			log.debug("Initializing db " + f.getAbsolutePath() + " " + (System.currentTimeMillis() - val ) + "ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		}
 		return reader;
 	}
 	
-	private BinaryMapIndexReader initFileIndex(FileIndex found, RandomAccessFile mf) throws IOException {
-		BinaryMapIndexReader reader = new BinaryMapIndexReader(mf, false);
+	private BinaryMapIndexReader initFileIndex(FileIndex found, File f) throws IOException {
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(f, false);
 		reader.version = found.getVersion();
 		reader.dateCreated = found.getDateModified();
 		
@@ -298,7 +327,7 @@ public class CachedOsmandIndexes {
 		return reader;
 	}
 
-	public void readFromFile(File f, int version) throws IOException {
+	public synchronized void readFromFile(File f, int version) throws IOException {
 		long time = System.currentTimeMillis();
 		FileInputStream is = new FileInputStream(f);
 		try {
@@ -306,6 +335,10 @@ public class CachedOsmandIndexes {
 			hasChanged = false;
 			if(storedIndex.getVersion() != version){
 				storedIndex = null;
+			} else {
+				for (FileIndex fi : storedIndex.getFileIndexList()) {
+					storedFileIndexes.put(fi.getFileName(), fi);
+				}
 			}
 		} finally {
 			is.close();
@@ -313,15 +346,349 @@ public class CachedOsmandIndexes {
 		log.info("Initialize cache " + (System.currentTimeMillis() - time));
 	}
 	
-	public void writeToFile(File f) throws IOException {
-		if (hasChanged) {
+	public synchronized void writeToFile(File f) throws IOException {
+		if (hasChanged || !f.exists()) {
 			FileOutputStream outputStream = new FileOutputStream(f);
 			try {
-				storedIndexBuilder.build().writeTo(outputStream);
+				// builder is used after writing (build() of lite builder could be called only once)
+				getStoredIndexBuilder().clone().build().writeTo(outputStream);
 			} finally {
 				outputStream.close();
 			}
 		}
 	}
 
+	/**
+	 * Maps cache written by {@link #writeToMappedFile(File)}. Only header is read, so time doesn't depend
+	 * on number of files in cache, record of the file is read when reader of the file is requested.
+	 * Returns false if file has different format version.
+	 */
+	public synchronized boolean readFromMappedFile(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			ByteBuffer buf = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+			if (buf.capacity() < MAPPED_HEADER_SIZE || buf.getInt(0) != MAPPED_MAGIC || buf.getInt(4) != MAPPED_VERSION) {
+				log.info("Index cache " + f.getName() + " has different version");
+				return false;
+			}
+			mappedIndex = buf;
+			mappedCount = buf.getInt(8);
+			hasChanged = false;
+			return true;
+		} finally {
+			// mapping stays valid after file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes cache which could be memory mapped : header with offsets of file records sorted by file name
+	 * and file records. Record consists of fixed width parts (file header, index parts, map levels,
+	 * city blocks, routing subregions) with strings stored after them and referenced by offset.
+	 * File is written to temporary file and renamed, so current mapping of that file stays valid.
+	 */
+	public synchronized void writeToMappedFile(File f) throws IOException {
+		if (!hasChanged && f.exists()) {
+			return;
+		}
+		// the last index of the file is used
+		Map<String, FileIndex> indexes = new TreeMap<String, FileIndex>();
+		for (FileIndex fi : getStoredIndexBuilder().getFileIndexList()) {
+			indexes.put(fi.getFileName(), fi);
+		}
+		List<byte[]> records = new ArrayList<byte[]>();
+		for (FileIndex fi : indexes.values()) {
+			records.add(writeMappedFileIndex(fi));
+		}
+		File tmp = new File(f.getParentFile(), f.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAPPED_MAGIC);
+			out.writeInt(MAPPED_VERSION);
+			out.writeInt(records.size());
+			int offset = MAPPED_HEADER_SIZE + records.size() * 4;
+			for (byte[] r : records) {
+				out.writeInt(offset);
+				offset += r.length;
+			}
+			for (byte[] r : records) {
+				out.write(r);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(f)) {
+			f.delete();
+			if (!tmp.renameTo(f)) {
+				throw new IOException("Index cache " + f.getName() + " could not be written");
+			}
+		}
+	}
+
+	private FileIndex findMappedFileIndex(String fileName) {
+		int lo = 0;
+		int hi = mappedCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int record = mappedIndex.getInt(MAPPED_HEADER_SIZE + mid * 4);
+			int cmp = readMappedString(record, mappedIndex.getInt(record + MAPPED_NAME_REF)).compareTo(fileName);
+			if (cmp == 0) {
+				return readMappedFileIndex(record);
+			} else if (cmp < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return null;
+	}
+
+	private String readMappedString(int record, int ref) {
+		if (ref < 0) {
+			return null;
+		}
+		int pos = record + mappedIndex.getInt(record) + ref;
+		byte[] bytes = new byte[mappedIndex.getShort(pos) & 0xffff];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = mappedIndex.get(pos + 2 + i);
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private FileIndex readMappedFileIndex(final int record) {
+		// absolute reads, so mapped buffer could be shared
+		class RecordReader {
+			int pos = record + 4;
+
+			long readLong() {
+				long l = mappedIndex.getLong(pos);
+				pos += 8;
+				return l;
+			}
+
+			int readInt() {
+				int i = mappedIndex.getInt(pos);
+				pos += 4;
+				return i;
+			}
+
+			String readString() {
+				return readMappedString(record, readInt());
+			}
+		}
+		RecordReader r = new RecordReader();
+		FileIndex.Builder fileIndex = OsmandIndex.FileIndex.newBuilder();
+		fileIndex.setSize(r.readLong());
+		fileIndex.setDateModified(r.readLong());
+		fileIndex.setVersion(r.readInt());
+		fileIndex.setFileName(r.readString());
+		for (int i = r.readInt(); i > 0; i--) {
+			MapPart.Builder map = OsmandIndex.MapPart.newBuilder();
+			map.setSize(r.readLong());
+			map.setOffset(r.readLong());
+			String name = r.readString();
+			if (name != null) {
+				map.setName(name);
+			}
+			for (int j = r.readInt(); j > 0; j--) {
+				MapLevel.Builder lev = OsmandIndex.MapLevel.newBuilder();
+				lev.setSize(r.readLong());
+				lev.setOffset(r.readLong());
+				lev.setLeft(r.readInt());
+				lev.setRight(r.readInt());
+				lev.setTop(r.readInt());
+				lev.setBottom(r.readInt());
+				lev.setMinzoom(r.readInt());
+				lev.setMaxzoom(r.readInt());
+				map.addLevels(lev);
+			}
+			fileIndex.addMapIndex(map);
+		}
+		for (int i = r.readInt(); i > 0; i--) {
+			AddressPart.Builder addr = OsmandIndex.AddressPart.newBuilder();
+			addr.setSize(r.readLong());
+			addr.setOffset(r.readLong());
+			String name = r.readString();
+			if (name != null) {
+				addr.setName(name);
+			}
+			String nameEn = r.readString();
+			if (nameEn != null) {
+				addr.setNameEn(nameEn);
+			}
+			addr.setIndexNameOffset(r.readInt());
+			for (int j = r.readInt(); j > 0; j--) {
+				CityBlock.Builder cblock = OsmandIndex.CityBlock.newBuilder();
+				cblock.setSize(r.readLong());
+				cblock.setOffset(r.readLong());
+				cblock.setType(r.readInt());
+				addr.addCities(cblock);
+			}
+			fileIndex.addAddressIndex(addr);
+		}
+		for (int i = r.readInt(); i > 0; i--) {
+			PoiPart.Builder poi = OsmandIndex.PoiPart.newBuilder();
+			poi.setSize(r.readLong());
+			poi.setOffset(r.readLong());
+			String name = r.readString();
+			if (name != null) {
+				poi.setName(name);
+			}
+			poi.setLeft(r.readInt());
+			poi.setRight(r.readInt());
+			poi.setTop(r.readInt());
+			poi.setBottom(r.readInt());
+			fileIndex.addPoiIndex(poi);
+		}
+		for (int i = r.readInt(); i > 0; i--) {
+			TransportPart.Builder transport = OsmandIndex.TransportPart.newBuilder();
+			transport.setSize(r.readLong());
+			transport.setOffset(r.readLong());
+			String name = r.readString();
+			if (name != null) {
+				transport.setName(name);
+			}
+			transport.setLeft(r.readInt());
+			transport.setRight(r.readInt());
+			transport.setTop(r.readInt());
+			transport.setBottom(r.readInt());
+			transport.setStopsTableLength(r.readInt());
+			transport.setStopsTableOffset(r.readInt());
+			transport.setStringTableLength(r.readInt());
+			transport.setStringTableOffset(r.readInt());
+			fileIndex.addTransportIndex(transport);
+		}
+		for (int i = r.readInt(); i > 0; i--) {
+			RoutingPart.Builder routing = OsmandIndex.RoutingPart.newBuilder();
+			routing.setSize(r.readLong());
+			routing.setOffset(r.readLong());
+			String name = r.readString();
+			if (name != null) {
+				routing.setName(name);
+			}
+			for (int j = r.readInt(); j > 0; j--) {
+				OsmandIndex.RoutingSubregion.Builder rpart = OsmandIndex.RoutingSubregion.newBuilder();
+				rpart.setSize(r.readLong());
+				rpart.setOffset(r.readLong());
+				rpart.setLeft(r.readInt());
+				rpart.setRight(r.readInt());
+				rpart.setTop(r.readInt());
+				rpart.setBottom(r.readInt());
+				rpart.setShifToData(r.readInt());
+				rpart.setBasemap(r.readInt() != 0);
+				routing.addSubregions(rpart);
+			}
+			fileIndex.addRoutingIndex(routing);
+		}
+		return fileIndex.build();
+	}
+
+	private byte[] writeMappedFileIndex(FileIndex fi) throws IOException {
+		// strings are written after fixed width parts, reference is offset from the start of strings
+		ByteArrayOutputStream strings = new ByteArrayOutputStream();
+		ByteArrayOutputStream parts = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(parts);
+		out.writeLong(fi.getSize());
+		out.writeLong(fi.getDateModified());
+		out.writeInt(fi.getVersion());
+		writeString(out, strings, true, fi.getFileName());
+		out.writeInt(fi.getMapIndexCount());
+		for (MapPart index : fi.getMapIndexList()) {
+			out.writeLong(index.getSize());
+			out.writeLong(index.getOffset());
+			writeString(out, strings, index.hasName(), index.getName());
+			out.writeInt(index.getLevelsCount());
+			for (MapLevel mr : index.getLevelsList()) {
+				out.writeLong(mr.getSize());
+				out.writeLong(mr.getOffset());
+				out.writeInt(mr.getLeft());
+				out.writeInt(mr.getRight());
+				out.writeInt(mr.getTop());
+				out.writeInt(mr.getBottom());
+				out.writeInt(mr.getMinzoom());
+				out.writeInt(mr.getMaxzoom());
+			}
+		}
+		out.writeInt(fi.getAddressIndexCount());
+		for (AddressPart index : fi.getAddressIndexList()) {
+			out.writeLong(index.getSize());
+			out.writeLong(index.getOffset());
+			writeString(out, strings, index.hasName(), index.getName());
+			writeString(out, strings, index.hasNameEn(), index.getNameEn());
+			out.writeInt(index.getIndexNameOffset());
+			out.writeInt(index.getCitiesCount());
+			for (CityBlock mr : index.getCitiesList()) {
+				out.writeLong(mr.getSize());
+				out.writeLong(mr.getOffset());
+				out.writeInt(mr.getType());
+			}
+		}
+		out.writeInt(fi.getPoiIndexCount());
+		for (PoiPart index : fi.getPoiIndexList()) {
+			out.writeLong(index.getSize());
+			out.writeLong(index.getOffset());
+			writeString(out, strings, index.hasName(), index.getName());
+			out.writeInt(index.getLeft());
+			out.writeInt(index.getRight());
+			out.writeInt(index.getTop());
+			out.writeInt(index.getBottom());
+		}
+		out.writeInt(fi.getTransportIndexCount());
+		for (TransportPart index : fi.getTransportIndexList()) {
+			out.writeLong(index.getSize());
+			out.writeLong(index.getOffset());
+			writeString(out, strings, index.hasName(), index.getName());
+			out.writeInt(index.getLeft());
+			out.writeInt(index.getRight());
+			out.writeInt(index.getTop());
+			out.writeInt(index.getBottom());
+			out.writeInt(index.getStopsTableLength());
+			out.writeInt(index.getStopsTableOffset());
+			out.writeInt(index.getStringTableLength());
+			out.writeInt(index.getStringTableOffset());
+		}
+		out.writeInt(fi.getRoutingIndexCount());
+		for (RoutingPart index : fi.getRoutingIndexList()) {
+			out.writeLong(index.getSize());
+			out.writeLong(index.getOffset());
+			writeString(out, strings, index.hasName(), index.getName());
+			out.writeInt(index.getSubregionsCount());
+			for (RoutingSubregion mr : index.getSubregionsList()) {
+				out.writeLong(mr.getSize());
+				out.writeLong(mr.getOffset());
+				out.writeInt(mr.getLeft());
+				out.writeInt(mr.getRight());
+				out.writeInt(mr.getTop());
+				out.writeInt(mr.getBottom());
+				out.writeInt(mr.getShifToData());
+				out.writeInt(mr.getBasemap() ? 1 : 0);
+			}
+		}
+		out.flush();
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream recordOut = new DataOutputStream(record);
+		// offset of strings
+		recordOut.writeInt(4 + parts.size());
+		parts.writeTo(recordOut);
+		strings.writeTo(recordOut);
+		recordOut.flush();
+		return record.toByteArray();
+	}
+
+	private void writeString(DataOutputStream out, ByteArrayOutputStream strings, boolean has, String s) throws IOException {
+		if (!has) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(strings.size());
+			byte[] bytes = s.getBytes("UTF-8");
+			strings.write(bytes.length >> 8);
+			strings.write(bytes.length);
+			strings.write(bytes);
+		}
+	}
+
 }
@@ -0,0 +1,399 @@
+package net.osmand.binary;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.util.MapAlgorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Assembles coastline (multipolygon) fragments clipped by rectangle into closed rings.
+ * Fragments are joined through hash index of their end points and incomplete rings are closed
+ * going clockwise around the rectangle using sorted list of boundary crossings.
+ */
+public class CoastlinesProcessor {
+
+	private final static Log log = PlatformUtil.getLog(CoastlinesProcessor.class);
+
+	private final int leftX;
+	private final int rightX;
+	private final int bottomY;
+	private final int topY;
+	private final int zoom;
+
+	private List<TLongList> completedRings = new ArrayList<TLongList>();
+	private List<TLongList> incompletedRings = new ArrayList<TLongList>();
+	// not closed rings by first and last point
+	private TLongObjectHashMap<TLongList> ringsByStart = new TLongObjectHashMap<TLongList>();
+	private TLongObjectHashMap<TLongList> ringsByEnd = new TLongObjectHashMap<TLongList>();
+	// broken data: rings which start or end at the same point as another ring
+	private List<TLongList> brokenRings = new ArrayList<TLongList>();
+
+	public CoastlinesProcessor(int leftX, int rightX, int bottomY, int topY, int zoom) {
+		this.leftX = leftX;
+		this.rightX = rightX;
+		this.bottomY = bottomY;
+		this.topY = topY;
+		this.zoom = zoom;
+	}
+
+	public List<TLongList> getCompletedRings() {
+		return completedRings;
+	}
+
+	public List<TLongList> getIncompletedRings() {
+		return incompletedRings;
+	}
+
+	public boolean isEmpty() {
+		return completedRings.isEmpty() && ringsByStart.isEmpty() && brokenRings.isEmpty() && incompletedRings.isEmpty();
+	}
+
+	public static long combine2Points(int x, int y) {
+		return (((long) x) << 32) | ((long) y);
+	}
+
+	/**
+	 * Clips line by rectangle and adds all parts of it
+	 */
+	public void addLine(BinaryMapDataObject o) {
+		int len = o.getPointsLength();
+		if (len < 2) {
+			return;
+		}
+		TLongList coordinates = new TLongArrayList(len);
+		int px = o.getPoint31XTile(0);
+		int py = o.getPoint31YTile(0);
+		int x = px;
+		int y = py;
+		boolean pinside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
+		if (pinside) {
+			coordinates.add(combine2Points(x, y));
+		}
+		for (int i = 1; i < len; i++) {
+			x = o.getPoint31XTile(i);
+			y = o.getPoint31YTile(i);
+			boolean inside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
+			boolean lineEnded = calculateLineCoordinates(inside, x, y, pinside, px, py, coordinates);
+			if (lineEnded) {
+				addClippedLine(coordinates);
+				// create new line if it goes outside
+				coordinates = new TLongArrayList();
+			}
+			px = x;
+			py = y;
+			pinside = inside;
+		}
+		addClippedLine(coordinates);
+	}
+
+	/**
+	 * Adds line which is already inside rectangle, joins it with other lines by end points
+	 */
+	public void addClippedLine(TLongList coordinates) {
+		if (coordinates.size() == 0) {
+			return;
+		}
+		while (true) {
+			long first = coordinates.get(0);
+			long last = coordinates.get(coordinates.size() - 1);
+			if (first == last) {
+				completedRings.add(coordinates);
+				return;
+			}
+			TLongList prev = ringsByEnd.get(first);
+			if (prev != null) {
+				removeIncompletedRing(prev);
+				prev.addAll(coordinates.subList(1, coordinates.size()));
+				coordinates = prev;
+				continue;
+			}
+			TLongList next = ringsByStart.get(last);
+			if (next != null) {
+				removeIncompletedRing(next);
+				coordinates.addAll(next.subList(1, next.size()));
+				continue;
+			}
+			if (ringsByStart.containsKey(first) || ringsByEnd.containsKey(last)) {
+				brokenRings.add(coordinates);
+			} else {
+				ringsByStart.put(first, coordinates);
+				ringsByEnd.put(last, coordinates);
+			}
+			return;
+		}
+	}
+
+	private void removeIncompletedRing(TLongList ring) {
+		ringsByStart.remove(ring.get(0));
+		ringsByEnd.remove(ring.get(ring.size() - 1));
+	}
+
+	/**
+	 * Closes rings which start and end on the rectangle boundary going clockwise around rectangle.
+	 * Rings which couldn't be closed are left in incompleted rings.
+	 */
+	public void unifyIncompletedRings(long dbId) {
+		List<TLongList> rings = new ArrayList<TLongList>(ringsByStart.valueCollection());
+		rings.addAll(brokenRings);
+		ringsByStart.clear();
+		ringsByEnd.clear();
+		brokenRings.clear();
+		int n = rings.size();
+		long[] startPositions = new long[n];
+		// sorted boundary crossings: position * n + ring index
+		TreeSet<Long> starts = new TreeSet<Long>();
+		for (int j = 0; j < n; j++) {
+			TLongList i = rings.get(j);
+			int x = (int) (i.get(i.size() - 1) >> 32);
+			int y = (int) (i.get(i.size() - 1) & 0xffffffffL);
+			int sx = (int) (i.get(0) >> 32);
+			int sy = (int) (i.get(0) & 0xffffffffL);
+			int endEdge = getEdge(x, y);
+			int startEdge = getEdge(sx, sy);
+			// something goes wrong
+			// this situation could happen because of broken multipolygons (so it should data causes app error)
+			if (startEdge == -1 || endEdge == -1) {
+				logBrokenRing(dbId, x, y, sx, sy, startEdge == -1, endEdge == -1);
+				incompletedRings.add(i);
+			} else {
+				startPositions[j] = getPosition(sx, sy, startEdge);
+				starts.add(startPositions[j] * n + j);
+			}
+		}
+		// 31 - (zoom + 8)
+		long evalDelta = 6 << (23 - zoom);
+		for (int j = 0; j < n; j++) {
+			if (!starts.contains(startPositions[j] * n + j)) {
+				continue;
+			}
+			TLongList i = rings.get(j);
+			while (true) {
+				int x = (int) (i.get(i.size() - 1) >> 32);
+				int y = (int) (i.get(i.size() - 1) & 0xffffffffL);
+				int edge = getEdge(x, y);
+				long pos = getPosition(x, y, edge);
+				int nextRingIndex = -1;
+				// go clockwise around rectangle (last iteration checks the whole first edge)
+				for (int h = edge; h <= edge + 4 && nextRingIndex == -1; h++) {
+					int e = h % 4;
+					long edgeStart = getEdgeStart(e);
+					long lower = h == edge ? Math.max(pos - evalDelta, edgeStart) : edgeStart;
+					nextRingIndex = findStart(starts, n, lower, edgeStart + getEdgeLength(e), e == 3);
+					if (nextRingIndex == -1) {
+						i.add(getEdgeEndCorner(e));
+					}
+				}
+				if (nextRingIndex == -1) {
+					// it is impossible (current start should always be found)
+					break;
+				}
+				starts.remove(startPositions[nextRingIndex] * n + nextRingIndex);
+				if (nextRingIndex == j) {
+					i.add(i.get(0));
+					break;
+				}
+				i.addAll(rings.get(nextRingIndex));
+			}
+			completedRings.add(i);
+		}
+	}
+
+	private int findStart(TreeSet<Long> starts, int n, long lower, long upper, boolean includeFirstCorner) {
+		Long k = starts.ceiling(lower * n);
+		if (k != null && k / n <= upper) {
+			return (int) (k % n);
+		}
+		if (includeFirstCorner) {
+			// left top corner ends the left edge
+			k = starts.ceiling(0l);
+			if (k != null && k / n == 0) {
+				return (int) (k % n);
+			}
+		}
+		return -1;
+	}
+
+	private int getEdge(int x, int y) {
+		if (y == topY) {
+			return 0;
+		} else if (x == rightX) {
+			return 1;
+		} else if (y == bottomY) {
+			return 2;
+		} else if (x == leftX) {
+			return 3;
+		}
+		return -1;
+	}
+
+	// position of point on rectangle boundary going clockwise from left top corner
+	private long getPosition(int x, int y, int edge) {
+		long w = (long) rightX - leftX;
+		long h = (long) bottomY - topY;
+		if (edge == 0) {
+			return (long) x - leftX;
+		} else if (edge == 1) {
+			return w + ((long) y - topY);
+		} else if (edge == 2) {
+			return w + h + ((long) rightX - x);
+		}
+		return 2 * w + h + ((long) bottomY - y);
+	}
+
+	private long getEdgeStart(int edge) {
+		long w = (long) rightX - leftX;
+		long h = (long) bottomY - topY;
+		if (edge == 0) {
+			return 0;
+		} else if (edge == 1) {
+			return w;
+		} else if (edge == 2) {
+			return w + h;
+		}
+		return 2 * w + h;
+	}
+
+	private long getEdgeLength(int edge) {
+		return edge % 2 == 0 ? (long) rightX - leftX : (long) bottomY - topY;
+	}
+
+	private long getEdgeEndCorner(int edge) {
+		if (edge == 0) {
+			return combine2Points(rightX, topY);
+		} else if (edge == 1) {
+			return combine2Points(rightX, bottomY);
+		} else if (edge == 2) {
+			return combine2Points(leftX, bottomY);
+		}
+		return combine2Points(leftX, topY);
+	}
+
+	private void logBrokenRing(long dbId, int x, int y, int sx, int sy, boolean startNotFound, boolean endNotFound) {
+		float dx = (float) MapUtils.get31LongitudeX(x);
+		float dsx = (float) MapUtils.get31LongitudeX(sx);
+		float dy = (float) MapUtils.get31LatitudeY(y);
+		float dsy = (float) MapUtils.get31LatitudeY(sy);
+		String str;
+		if (startNotFound) {
+			str = " Starting point (to close) not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
+			log.warn(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+		}
+		if (endNotFound) {
+			str = " End not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
+			log.warn(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
+		}
+	}
+
+	private boolean calculateLineCoordinates(boolean inside, int x, int y, boolean pinside, int px, int py, TLongList coordinates) {
+		boolean lineEnded = false;
+		if (pinside) {
+			if (!inside) {
+				long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
+				if (is == -1) {
+					// it is an error (!)
+					is = combine2Points(px, py);
+				}
+				coordinates.add(is);
+				lineEnded = true;
+			} else {
+				coordinates.add(combine2Points(x, y));
+			}
+		} else {
+			long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
+			if (inside) {
+				// assert is != -1;
+				coordinates.add(is);
+				coordinates.add(combine2Points(x, y));
+			} else if (is != -1) {
+				int bx = (int) (is >> 32);
+				int by = (int) (is & 0xffffffff);
+				coordinates.add(is);
+				is = MapAlgorithms.calculateIntersection(x, y, bx, by, leftX, rightX, bottomY, topY);
+				coordinates.add(is);
+				lineEnded = true;
+			}
+		}
+
+		return lineEnded;
+	}
+
+	/**
+	 * @return true if coastlines were added
+	 */
+	public static boolean processCoastlines(List<BinaryMapDataObject> coastLines, int leftX, int rightX,
+			int bottomY, int topY, int zoom, boolean doNotAddIfIncompleted, boolean addDebugIncompleted,
+			List<BinaryMapDataObject> result) {
+		CoastlinesProcessor processor = new CoastlinesProcessor(leftX, rightX, bottomY, topY, zoom);
+		MapIndex mapIndex = null;
+		long dbId = 0;
+		for (BinaryMapDataObject o : coastLines) {
+			if (o.getPointsLength() < 2) {
+				continue;
+			}
+			mapIndex = o.getMapIndex();
+			dbId = o.getId() >> 1;
+			processor.addLine(o);
+		}
+		if (processor.isEmpty()) {
+			return false;
+		}
+		processor.unifyIncompletedRings(dbId);
+		List<TLongList> completedRings = processor.getCompletedRings();
+		List<TLongList> uncompletedRings = processor.getIncompletedRings();
+		// draw uncompleted for debug purpose
+		if (addDebugIncompleted) {
+			for (int i = 0; i < uncompletedRings.size(); i++) {
+				BinaryMapDataObject o = new BinaryMapDataObject(toCoordinates(uncompletedRings.get(i)),
+						new int[] { mapIndex.coastlineBrokenEncodingType }, null, dbId);
+				o.setMapIndex(mapIndex);
+				result.add(o);
+			}
+		}
+		if (!doNotAddIfIncompleted && uncompletedRings.size() > 0) {
+			return false;
+		}
+		boolean clockwiseFound = false;
+		for (int i = 0; i < completedRings.size(); i++) {
+			TLongList ring = completedRings.get(i);
+			boolean clockwise = MapAlgorithms.isClockwiseWay(ring);
+			clockwiseFound = clockwiseFound || clockwise;
+			BinaryMapDataObject o = new BinaryMapDataObject(toCoordinates(ring), new int[] { clockwise ? mapIndex.coastlineEncodingType
+					: mapIndex.landEncodingType }, null, dbId);
+			o.setMapIndex(mapIndex);
+			o.setArea(true);
+			result.add(o);
+		}
+
+		if (!clockwiseFound && uncompletedRings.size() == 0) {
+			// add complete water tile
+			BinaryMapDataObject o = new BinaryMapDataObject(new int[] { leftX, topY, rightX, topY, rightX, bottomY, leftX, bottomY, leftX,
+					topY }, new int[] { mapIndex.coastlineEncodingType }, null, dbId);
+			o.setMapIndex(mapIndex);
+			log.info("!!! Isolated islands !!!"); //$NON-NLS-1$
+			result.add(o);
+
+		}
+		return true;
+	}
+
+	private static int[] toCoordinates(TLongList ring) {
+		long mask = 0xffffffffL;
+		int[] coordinates = new int[ring.size() * 2];
+		for (int j = 0; j < ring.size(); j++) {
+			coordinates[j * 2] = (int) (ring.get(j) >> 32);
+			coordinates[j * 2 + 1] = (int) (ring.get(j) & mask);
+		}
+		return coordinates;
+	}
+}
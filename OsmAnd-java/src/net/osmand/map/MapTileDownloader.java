@@ -2,59 +2,75 @@ package net.osmand.map;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import net.osmand.PlatformUtil;
+import net.osmand.data.QuadRect;
+import net.osmand.data.RotatedTileBox;
 import net.osmand.osm.io.NetworkUtils;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
 
-
+/**
+ * Downloads tiles with pool of worker threads.
+ *
+ * Pending requests are ordered by distance of tile to the center of the viewport (see {@link #setViewport(RotatedTileBox)})
+ * and by difference of zoom, requests of visible map which are out of viewport are dropped when viewport changes.
+ * Number of connections to one host is limited, after failure host is not used with exponentially growing timeout
+ * and failed request is retried few times.
+ */
 public class MapTileDownloader {
 	// Download manager tile settings
 	public static int TILE_DOWNLOAD_THREADS = 4;
 	public static int TILE_DOWNLOAD_SECONDS_TO_WORK = 25;
-	public static final long TIMEOUT_AFTER_EXCEEDING_LIMIT_ERRORS = 15000;
-	public static final int TILE_DOWNLOAD_MAX_ERRORS_PER_TIMEOUT = 50;
+	public static int MAX_CONNECTIONS_PER_HOST = 2;
+	public static int MAX_ATTEMPTS = 3;
+	public static long BACKOFF_INITIAL_MS = 1000;
+	public static long BACKOFF_MAX_MS = 60000;
+	// tiles around viewport which are not dropped
+	private static final int VIEWPORT_MARGIN_TILES = 2;
+	// penalty of one zoom level difference in tiles
+	private static final double ZOOM_PRIORITY = 2;
 	private static final int CONNECTION_TIMEOUT = 30000;
-	
-	
+
+
 	private static MapTileDownloader downloader = null;
 	private static Log log = PlatformUtil.getLog(MapTileDownloader.class);
-	
+
 	public static String USER_AGENT = "OsmAnd~";
-	
-	
-	private ThreadPoolExecutor threadPoolExecutor;
+
+
+	private final int numberOfThreads;
 	private List<IMapDownloaderCallback> callbacks = new ArrayList<IMapDownloaderCallback>();
-	
-	private Set<File> pendingToDownload;
-	private Set<File> currentlyDownloaded;
-	
-	private int currentErrors = 0;
-	private long timeForErrorCounter = 0;
-	
-	
+
+	// all fields below are guarded by lock
+	private final Object lock = new Object();
+	private final Map<File, DownloadTask> pendingToDownload = new LinkedHashMap<File, DownloadTask>();
+	private final Set<File> currentlyDownloaded = new HashSet<File>();
+	private final Map<String, HostState> hosts = new HashMap<String, HostState>();
+	private int workers = 0;
+	private int idleWorkers = 0;
+
+	private int viewportZoom = -1;
+	private QuadRect viewportBounds = new QuadRect();
+
+
 	public static MapTileDownloader getInstance(String userAgent){
 		if(downloader == null){
 			downloader = new MapTileDownloader(TILE_DOWNLOAD_THREADS);
@@ -64,24 +80,24 @@ public class MapTileDownloader {
 		}
 		return downloader;
 	}
-	
+
 	/**
-	 * Callback for map downloader 
+	 * Callback for map downloader
 	 */
 	public interface IMapDownloaderCallback {
 
 		/**
 		 * Sometimes null cold be passed as request
 		 * That means that there were a lot of requests but
-		 * once method is called 
-		 * (in order to not create a collection of request & reduce calling times) 
+		 * once method is called
+		 * (in order to not create a collection of request & reduce calling times)
 		 * @param fileSaved
 		 */
 		public void tileDownloaded(DownloadRequest request);
 	}
-	
+
 	/**
-	 * Download request could subclassed to create own detailed request 
+	 * Download request could subclassed to create own detailed request
 	 */
 	public static class DownloadRequest {
 		public final File fileToSave;
@@ -90,7 +106,9 @@ public class MapTileDownloader {
 		public final int yTile;
 		public final String url;
 		public boolean error;
-		
+		// request of tile for the visible map, it is dropped when the tile is out of viewport
+		public boolean cancelWhenNotVisible;
+
 		public DownloadRequest(String url, File fileToSave, int xTile, int yTile, int zoom) {
 			this.url = url;
 			this.fileToSave = fileToSave;
@@ -98,7 +116,7 @@ public class MapTileDownloader {
 			this.yTile = yTile;
 			this.zoom = zoom;
 		}
-		
+
 		public DownloadRequest(String url, File fileToSave) {
 			this.url = url;
 			this.fileToSave = fileToSave;
@@ -106,11 +124,15 @@ public class MapTileDownloader {
 			yTile = -1;
 			zoom = -1;
 		}
-		
+
 		public void setError(boolean error){
 			this.error = error;
 		}
-		
+
+		public void setCancelWhenNotVisible(boolean cancelWhenNotVisible) {
+			this.cancelWhenNotVisible = cancelWhenNotVisible;
+		}
+
 		public void saveTile(InputStream inputStream) throws IOException {
 			fileToSave.getParentFile().mkdirs();
 			OutputStream stream = null;
@@ -124,153 +146,322 @@ public class MapTileDownloader {
 			}
 		}
 	}
-	
-	
-	public MapTileDownloader(int numberOfThreads){
-		
-		threadPoolExecutor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, TILE_DOWNLOAD_SECONDS_TO_WORK, 
-				TimeUnit.SECONDS, createQueue());
-		// 1.6 method but very useful to kill non-running threads
-//		threadPoolExecutor.allowCoreThreadTimeOut(true);
-		pendingToDownload = Collections.synchronizedSet(new HashSet<File>());
-		currentlyDownloaded = Collections.synchronizedSet(new HashSet<File>());
-		
-	}
 
-	protected BlockingQueue<Runnable> createQueue() {
-		boolean loaded = false;
-		try {
-			Class<?> cl = Class.forName("java.util.concurrent.LinkedBlockingDeque");
-			loaded = cl != null;
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
-		if(!loaded) {
-			// for Android 2.2
-			return new LinkedBlockingQueue<Runnable>();
+	private static class DownloadTask {
+		final DownloadRequest request;
+		final String host;
+		int attempts;
+		// time when the current attempt was started
+		long startTime;
+
+		DownloadTask(DownloadRequest request, String host) {
+			this.request = request;
+			this.host = host;
 		}
-		return createDeque();
 	}
 
-	protected static BlockingQueue<Runnable> createDeque() {
-		return new net.osmand.util.LIFOBlockingDeque<Runnable>();
+	private static class HostState {
+		int connections;
+		int failures;
+		long retryTime;
+		// time of the last failure, only requests started after it could reset backoff
+		long failureTime;
+	}
+
+
+	public MapTileDownloader(int numberOfThreads){
+		this.numberOfThreads = numberOfThreads;
 	}
-	
+
 	public void addDownloaderCallback(IMapDownloaderCallback callback){
 		callbacks.add(callback);
 	}
-	
+
 	public void removeDownloaderCallback(IMapDownloaderCallback callback){
 		callbacks.remove(callback);
 	}
-	
+
 	public List<IMapDownloaderCallback> getDownloaderCallbacks() {
 		return callbacks;
 	}
-	
+
 	public boolean isFilePendingToDownload(File f){
-		return pendingToDownload.contains(f);
+		synchronized (lock) {
+			return pendingToDownload.containsKey(f);
+		}
 	}
-	
+
 	public boolean isFileCurrentlyDownloaded(File f){
-		return currentlyDownloaded.contains(f);
+		synchronized (lock) {
+			return currentlyDownloaded.contains(f);
+		}
 	}
-	
+
 	public boolean isSomethingBeingDownloaded(){
-		return !currentlyDownloaded.isEmpty();
+		synchronized (lock) {
+			return !currentlyDownloaded.isEmpty() || !pendingToDownload.isEmpty();
+		}
 	}
-	
+
 	public int getRemainingWorkers(){
-		return (int) (threadPoolExecutor.getTaskCount());
+		synchronized (lock) {
+			return pendingToDownload.size() + currentlyDownloaded.size();
+		}
 	}
-	
+
 	public void refuseAllPreviousRequests(){
-		// That's very strange because exception in impl of queue (possibly wrong impl)
-//		threadPoolExecutor.getQueue().clear();
-		while(!threadPoolExecutor.getQueue().isEmpty()){
-			threadPoolExecutor.getQueue().poll();
+		synchronized (lock) {
+			pendingToDownload.clear();
 		}
-		pendingToDownload.clear();
 	}
-	
+
+	/**
+	 * Sets visible area of the map: pending requests are prioritized by distance to its center
+	 * and requests of visible map which are out of it are dropped
+	 */
+	public void setViewport(RotatedTileBox tileBox) {
+		QuadRect r = tileBox.getTileBounds();
+		int zoom = tileBox.getZoom();
+		synchronized (lock) {
+			if (zoom == viewportZoom && (int) r.left == (int) viewportBounds.left && (int) r.top == (int) viewportBounds.top
+					&& (int) r.right == (int) viewportBounds.right && (int) r.bottom == (int) viewportBounds.bottom) {
+				return;
+			}
+			viewportZoom = zoom;
+			viewportBounds = new QuadRect(r.left - VIEWPORT_MARGIN_TILES, r.top - VIEWPORT_MARGIN_TILES,
+					r.right + VIEWPORT_MARGIN_TILES, r.bottom + VIEWPORT_MARGIN_TILES);
+			Iterator<DownloadTask> it = pendingToDownload.values().iterator();
+			int dropped = 0;
+			while (it.hasNext()) {
+				DownloadRequest request = it.next().request;
+				if (request.cancelWhenNotVisible && !isVisible(request)) {
+					it.remove();
+					dropped++;
+				}
+			}
+			if (dropped > 0 && log.isDebugEnabled()) {
+				log.debug("Dropped " + dropped + " tiles out of viewport"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private boolean isVisible(DownloadRequest request) {
+		if (request.zoom < 0 || viewportZoom < 0) {
+			return true;
+		}
+		// tiles of bigger zoom are not used to draw the map
+		if (request.zoom > viewportZoom + 1) {
+			return false;
+		}
+		double scale = Math.pow(2, viewportZoom - request.zoom);
+		return request.xTile * scale <= viewportBounds.right && (request.xTile + 1) * scale >= viewportBounds.left
+				&& request.yTile * scale <= viewportBounds.bottom && (request.yTile + 1) * scale >= viewportBounds.top;
+	}
+
+	private double getPriority(DownloadRequest request) {
+		if (request.zoom < 0 || viewportZoom < 0) {
+			return 0;
+		}
+		double scale = Math.pow(2, viewportZoom - request.zoom);
+		double cx = viewportBounds.centerX();
+		double cy = viewportBounds.centerY();
+		// distance in tiles of viewport zoom from the center to the tile
+		double dx = Math.max(0, Math.max(request.xTile * scale - cx, cx - (request.xTile + 1) * scale));
+		double dy = Math.max(0, Math.max(request.yTile * scale - cy, cy - (request.yTile + 1) * scale));
+		return Math.sqrt(dx * dx + dy * dy) + ZOOM_PRIORITY * Math.abs(viewportZoom - request.zoom);
+	}
+
 	public void requestToDownload(DownloadRequest request){
-		long now = System.currentTimeMillis();
-		if((int)(now - timeForErrorCounter) > TIMEOUT_AFTER_EXCEEDING_LIMIT_ERRORS ) {
-			timeForErrorCounter = now;
-			currentErrors = 0;
-		} else if(currentErrors > TILE_DOWNLOAD_MAX_ERRORS_PER_TIMEOUT){
+		if(request.url == null){
 			return;
 		}
-		if(request.url == null){
+		String host;
+		try {
+			host = new URL(request.url).getHost();
+		} catch (MalformedURLException e) {
+			log.warn("Cannot download tile : " + request.url, e); //$NON-NLS-1$
 			return;
 		}
-		
-		if (!isFileCurrentlyDownloaded(request.fileToSave)
-				&& !isFilePendingToDownload(request.fileToSave)) {
-			pendingToDownload.add(request.fileToSave);
-			threadPoolExecutor.execute(new DownloadMapWorker(request));
+		synchronized (lock) {
+			if (currentlyDownloaded.contains(request.fileToSave) || pendingToDownload.containsKey(request.fileToSave)) {
+				return;
+			}
+			if (request.cancelWhenNotVisible && !isVisible(request)) {
+				return;
+			}
+			pendingToDownload.put(request.fileToSave, new DownloadTask(request, host));
+			if (idleWorkers > 0) {
+				lock.notifyAll();
+			} else if (workers < numberOfThreads) {
+				workers++;
+				DownloadMapWorker worker = new DownloadMapWorker();
+				worker.setDaemon(true);
+				worker.start();
+			}
 		}
 	}
-	
-	
-	private class DownloadMapWorker implements Runnable, Comparable<DownloadMapWorker> {
-		
-		private DownloadRequest request;
-		
-		private DownloadMapWorker(DownloadRequest request){
-			this.request = request;
+
+	/**
+	 * Takes request with the best priority which host could be used now, otherwise returns time to wait
+	 */
+	private DownloadTask pollTask(long[] waitTime) {
+		long now = System.currentTimeMillis();
+		DownloadTask best = null;
+		double bestPriority = 0;
+		waitTime[0] = TILE_DOWNLOAD_SECONDS_TO_WORK * 1000l;
+		for (DownloadTask t : pendingToDownload.values()) {
+			HostState host = hosts.get(t.host);
+			if (host != null) {
+				if (host.connections >= MAX_CONNECTIONS_PER_HOST) {
+					continue;
+				}
+				if (host.retryTime > now) {
+					waitTime[0] = Math.min(waitTime[0], host.retryTime - now);
+					continue;
+				}
+			}
+			double priority = getPriority(t.request);
+			// later requests are preferred with equal priority
+			if (best == null || priority <= bestPriority) {
+				best = t;
+				bestPriority = priority;
+			}
+		}
+		if (best != null) {
+			pendingToDownload.remove(best.request.fileToSave);
+			currentlyDownloaded.add(best.request.fileToSave);
+			HostState host = hosts.get(best.host);
+			if (host == null) {
+				host = new HostState();
+				hosts.put(best.host, host);
+			}
+			host.connections++;
+			best.startTime = now;
 		}
-		
+		return best;
+	}
+
+	private void taskFinished(DownloadTask task, boolean hostFailed, boolean retry) {
+		synchronized (lock) {
+			currentlyDownloaded.remove(task.request.fileToSave);
+			HostState host = hosts.get(task.host);
+			host.connections--;
+			if (hostFailed) {
+				host.failures++;
+				long backoff = Math.min(BACKOFF_MAX_MS, BACKOFF_INITIAL_MS << Math.min(host.failures - 1, 20));
+				host.failureTime = System.currentTimeMillis();
+				host.retryTime = host.failureTime + backoff;
+			} else if (task.startTime > host.failureTime) {
+				host.failures = 0;
+				host.retryTime = 0;
+			}
+			if (retry && !pendingToDownload.containsKey(task.request.fileToSave)
+					&& (!task.request.cancelWhenNotVisible || isVisible(task.request))) {
+				pendingToDownload.put(task.request.fileToSave, task);
+			}
+			lock.notifyAll();
+		}
+	}
+
+	private class DownloadMapWorker extends Thread {
+
+		private DownloadMapWorker() {
+			super("Tile downloader"); //$NON-NLS-1$
+		}
+
 		@Override
 		public void run() {
-			if (request != null && request.fileToSave != null && request.url != null) {
-				pendingToDownload.remove(request.fileToSave);
-				if(currentlyDownloaded.contains(request.fileToSave)){
-					return;
-				}
-				
-				currentlyDownloaded.add(request.fileToSave);
-				if(log.isDebugEnabled()){
-					log.debug("Start downloading tile : " + request.url); //$NON-NLS-1$
+			long[] waitTime = new long[1];
+			while (true) {
+				DownloadTask task;
+				synchronized (lock) {
+					task = pollTask(waitTime);
+					long idleTime = 0;
+					while (task == null) {
+						if (idleTime >= TILE_DOWNLOAD_SECONDS_TO_WORK * 1000l) {
+							workers--;
+							return;
+						}
+						long start = System.currentTimeMillis();
+						idleWorkers++;
+						try {
+							lock.wait(waitTime[0]);
+						} catch (InterruptedException e) {
+							workers--;
+							return;
+						} finally {
+							idleWorkers--;
+						}
+						idleTime = pendingToDownload.isEmpty() ? idleTime + System.currentTimeMillis() - start : 0;
+						task = pollTask(waitTime);
+					}
 				}
-				long time = System.currentTimeMillis();
-				request.setError(false);
-				try {
-					URLConnection connection = NetworkUtils.getHttpURLConnection(request.url);
-					connection.setRequestProperty("User-Agent", USER_AGENT); //$NON-NLS-1$
-					connection.setConnectTimeout(CONNECTION_TIMEOUT);
-					connection.setReadTimeout(CONNECTION_TIMEOUT);
+				download(task);
+			}
+		}
+
+		private void download(DownloadTask task) {
+			DownloadRequest request = task.request;
+			if(log.isDebugEnabled()){
+				log.debug("Start downloading tile : " + request.url); //$NON-NLS-1$
+			}
+			long time = System.currentTimeMillis();
+			task.attempts++;
+			boolean hostFailed = false;
+			boolean retry = false;
+			request.setError(false);
+			try {
+				HttpURLConnection connection = NetworkUtils.getHttpURLConnection(request.url);
+				connection.setRequestProperty("User-Agent", USER_AGENT); //$NON-NLS-1$
+				connection.setConnectTimeout(CONNECTION_TIMEOUT);
+				connection.setReadTimeout(CONNECTION_TIMEOUT);
+				int code = connection.getResponseCode();
+				if (code == HttpURLConnection.HTTP_OK) {
 					BufferedInputStream inputStream = new BufferedInputStream(connection.getInputStream(), 8 * 1024);
 					request.saveTile(inputStream);
 					if (log.isDebugEnabled()) {
 						log.debug("Downloading tile : " + request.url + " successfull " + (System.currentTimeMillis() - time) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 					}
-				} catch (UnknownHostException e) {
-					currentErrors++;
-					timeForErrorCounter = System.currentTimeMillis();
-					request.setError(true);
-					log.error("UnknownHostException, cannot download tile " + request.url + " " + e.getMessage()); //$NON-NLS-1$  //$NON-NLS-2$
-				} catch (IOException e) {
-					currentErrors++;
-					timeForErrorCounter = System.currentTimeMillis();
+				} else {
+					// read the error to keep connection alive
+					skipStream(connection.getErrorStream());
 					request.setError(true);
-					log.warn("Cannot download tile : " + request.url, e); //$NON-NLS-1$
-				} finally {
-					currentlyDownloaded.remove(request.fileToSave);
+					// server is overloaded or unavailable, client errors are not repeated
+					hostFailed = code == 429 || code >= 500;
+					retry = hostFailed && task.attempts < MAX_ATTEMPTS;
+					log.warn("Cannot download tile : " + request.url + " " + code); //$NON-NLS-1$ //$NON-NLS-2$
 				}
-				if (!request.error) {
-					for (IMapDownloaderCallback c : new ArrayList<IMapDownloaderCallback>(callbacks)) {
-						c.tileDownloaded(request);
+			} catch (FileNotFoundException e) {
+				request.setError(true);
+				log.warn("Cannot download tile : " + request.url + " " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (IOException e) {
+				request.setError(true);
+				hostFailed = true;
+				retry = task.attempts < MAX_ATTEMPTS;
+				log.warn("Cannot download tile : " + request.url + " " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			} finally {
+				taskFinished(task, hostFailed, retry);
+			}
+			if (!request.error) {
+				for (IMapDownloaderCallback c : new ArrayList<IMapDownloaderCallback>(callbacks)) {
+					c.tileDownloaded(request);
+				}
+			}
+		}
+
+		private void skipStream(InputStream is) {
+			if (is != null) {
+				try {
+					byte[] buf = new byte[1024];
+					while (is.read(buf) != -1) {
 					}
+				} catch (IOException e) {
+					// connection is not reused
+				} finally {
+					Algorithms.closeStream(is);
 				}
 			}
-				
-		} 
-		
-		@Override
-		public int compareTo(DownloadMapWorker o) {
-			return 0; //(int) (time - o.time);
 		}
-		
+
 	}
 }
@@ -9,8 +9,6 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -18,23 +16,27 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
-import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.util.MapAlgorithms;
 import net.osmand.util.MapUtils;
 
+import org.apache.commons.logging.Log;
+
 public class OsmandRegions {
 
+	private static final Log log = PlatformUtil.getLog(OsmandRegions.class);
+
 	private BinaryMapIndexReader reader;
 	Map<String, LinkedList<BinaryMapDataObject>> countriesByDownloadName = new HashMap<String, LinkedList<BinaryMapDataObject>>();
 	Map<String, String> downloadNamesToLocaleNames = new HashMap<String, String>();
 	Map<String, String> downloadNamesToLowercaseIndex = new HashMap<String, String>();
-	QuadTree<String> quadTree = null ;
+	// built by cacheAllCountries
+	private volatile RegionLookupIndex lookupIndex = null;
 
 
 	Integer prefixType = null;
@@ -147,34 +149,31 @@ public class OsmandRegions {
 		return t % 2 == 1;
 	}
 
-	private List<BinaryMapDataObject> getCountries(int tile31x, int tile31y) {
-		HashSet<String> set = new HashSet<String>(quadTree.queryInBox(new QuadRect(tile31x, tile31y, tile31x, tile31y),
-				new ArrayList<String>()));
-		List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>();
-		Iterator<String> it = set.iterator();
-
-		while (it.hasNext()) {
-			String cname = it.next();
-			BinaryMapDataObject container = null;
-			int count = 0;
-			for (BinaryMapDataObject bo : countriesByDownloadName.get(cname)) {
-				if (contain(bo, tile31x, tile31y)) {
-					count++;
-					container = bo;
-					break;
-				}
-			}
-			if (count % 2 == 1) {
-				result.add(container);
-			}
+	private List<BinaryMapDataObject> getCountries(RegionLookupIndex index, int tile31x, int tile31y) {
+		int[] regions = new int[8];
+		int count = index.query(tile31x, tile31y, regions);
+		if (count > regions.length) {
+			regions = new int[count];
+			index.query(tile31x, tile31y, regions);
+		}
+		List<BinaryMapDataObject> result = new ArrayList<BinaryMapDataObject>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(index.getRegionObject(regions[i], tile31x, tile31y));
 		}
 		return result;
 	}
 
+	/**
+	 * Index for allocation free and batch lookups, it is available after {@link #cacheAllCountries()}
+	 */
+	public RegionLookupIndex getLookupIndex() {
+		return lookupIndex;
+	}
 
 	public List<BinaryMapDataObject> query(final int tile31x, final int tile31y) throws IOException {
-		if(quadTree != null) {
-			return getCountries(tile31x, tile31y);
+		RegionLookupIndex index = lookupIndex;
+		if(index != null) {
+			return getCountries(index, tile31x, tile31y);
 		}
 		return queryNoInit(tile31x, tile31y);
 	}
@@ -321,8 +320,6 @@ public class OsmandRegions {
 
 
 	public void cacheAllCountries() throws IOException {
-		quadTree = new QuadTree<String>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
-				8, 0.55f);
 		final ResultMatcher<BinaryMapDataObject> resultMatcher = new ResultMatcher<BinaryMapDataObject>() {
 			@Override
 			public boolean publish(BinaryMapDataObject object) {
@@ -338,25 +335,6 @@ public class OsmandRegions {
 				} else {
 					countriesByDownloadName.get(nm).add(object);
 				}
-				int maxx = object.getPoint31XTile(0);
-				int maxy = object.getPoint31YTile(0);
-				int minx = maxx;
-				int miny = maxy;
-				for (int i = 1; i < object.getPointsLength(); i++) {
-					int x = object.getPoint31XTile(i);
-					int y = object.getPoint31YTile(i);
-					if (y < miny) {
-						miny = y;
-					} else if (y > maxy) {
-						maxy = y;
-					}
-					if (x < minx) {
-						minx = x;
-					} else if (x > maxx) {
-						maxx = x;
-					}
-				}
-				quadTree.insert(nm, new QuadRect(minx, miny, maxx, maxy));
 				return false;
 			}
 
@@ -366,6 +344,12 @@ public class OsmandRegions {
 			}
 		};
 		iterateOverAllObjects(resultMatcher);
+		try {
+			lookupIndex = new RegionLookupIndex(countriesByDownloadName);
+		} catch (IllegalArgumentException e) {
+			// regions are queried from the file
+			log.warn("Regions lookup index is not built", e);
+		}
 	}
 
 	private synchronized void iterateOverAllObjects(final ResultMatcher<BinaryMapDataObject> resultMatcher) throws IOException {
@@ -0,0 +1,316 @@
+package net.osmand.map;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.util.MapAlgorithms;
+
+/**
+ * Point in region lookup built from polygons of regions (see {@link OsmandRegions#cacheAllCountries()}).
+ *
+ * Every region is rasterized to tiles of zoom 10 labelled as inside, outside or boundary (crossed by polygon edge).
+ * Row of tiles is split to cells of 64 tiles and cell keeps runs of inside and boundary tiles of all regions.
+ * Point in inside tile needs no polygon test, point in boundary tile is tested only with polygon edges
+ * crossing its row of tiles. Index is immutable, so lookups could be done from any thread without locks,
+ * and they don't allocate objects.
+ */
+public class RegionLookupIndex {
+
+	private static final int ZOOM = 10;
+	private static final int SHIFT = 31 - ZOOM;
+	private static final int TILES = 1 << ZOOM;
+	private static final int CELL_SHIFT = 6;
+	private static final int CELL_SIZE = 1 << CELL_SHIFT;
+	private static final int CELLS_IN_ROW = TILES / CELL_SIZE;
+	private static final int POINT_BITS = 21;
+	// polygon of the region is kept in the rest bits of the edge
+	private static final int MAX_POLYGONS = 1 << (32 - POINT_BITS);
+	private static final int BOUNDARY = 1 << (2 * CELL_SHIFT);
+	private static final int REGION_SHIFT = 2 * CELL_SHIFT + 1;
+	private static final int MAX_REGIONS = 1 << (32 - REGION_SHIFT);
+
+	private final String[] names;
+	private final BinaryMapDataObject[][] polygons;
+	// first row of tiles of the region and start of edges for every row (last value is end of edges)
+	private final int[] firstRow;
+	private final int[][] rowOffsets;
+	// edges of region polygons crossing the row : polygon << POINT_BITS | index of edge end point
+	private final int[][] rowEdges;
+	// runs of tiles in cells : first tile (6 bits), last tile (6 bits), boundary (1 bit), region
+	private final int[][] cells = new int[TILES * CELLS_IN_ROW][];
+
+	/**
+	 * @throws IllegalArgumentException if regions don't fit into packed edges and runs (too many regions, polygons
+	 * of the region or points of the polygon)
+	 */
+	public RegionLookupIndex(Map<String, ? extends List<BinaryMapDataObject>> regions) {
+		int size = regions.size();
+		if (size > MAX_REGIONS) {
+			throw new IllegalArgumentException("Too many regions " + size);
+		}
+		names = new String[size];
+		polygons = new BinaryMapDataObject[size][];
+		firstRow = new int[size];
+		rowOffsets = new int[size][];
+		rowEdges = new int[size][];
+		TIntArrayList[] runs = new TIntArrayList[cells.length];
+		int region = 0;
+		for (Entry<String, ? extends List<BinaryMapDataObject>> e : regions.entrySet()) {
+			names[region] = e.getKey();
+			polygons[region] = e.getValue().toArray(new BinaryMapDataObject[e.getValue().size()]);
+			indexRegion(region, runs);
+			region++;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			if (runs[i] != null) {
+				cells[i] = runs[i].toArray();
+			}
+		}
+	}
+
+	public int getRegionsCount() {
+		return names.length;
+	}
+
+	public String getDownloadName(int region) {
+		return names[region];
+	}
+
+	/**
+	 * Returns polygon of the region containing the point (returned by {@link #query(int, int, int[])}),
+	 * the first polygon of the region is returned if no polygon contains the point.
+	 */
+	public BinaryMapDataObject getRegionObject(int region, int x31, int y31) {
+		int p = findPolygon(region, y31 >>> SHIFT, x31, y31);
+		return polygons[region][p >= 0 ? p : 0];
+	}
+
+	/**
+	 * Fills regions containing the point and returns their number (it could be bigger than length of array,
+	 * regions which don't fit are skipped)
+	 */
+	public int query(int x31, int y31, int[] regions) {
+		int row = y31 >>> SHIFT;
+		int col = x31 >>> SHIFT;
+		int[] cell = cells[row * CELLS_IN_ROW + (col >> CELL_SHIFT)];
+		if (cell == null) {
+			return 0;
+		}
+		int c = col & (CELL_SIZE - 1);
+		int found = 0;
+		for (int run : cell) {
+			if ((run & (CELL_SIZE - 1)) <= c && c <= ((run >> CELL_SHIFT) & (CELL_SIZE - 1))) {
+				int region = run >>> REGION_SHIFT;
+				if ((run & BOUNDARY) == 0 || contains(region, row, x31, y31)) {
+					if (found < regions.length) {
+						regions[found] = region;
+					}
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Marks regions containing any of the points (for example points of GPX track), regions which are already
+	 * marked are not tested again
+	 */
+	public void queryPoints(int[] x31, int[] y31, int from, int to, boolean[] contained) {
+		for (int i = from; i < to; i++) {
+			int row = y31[i] >>> SHIFT;
+			int col = x31[i] >>> SHIFT;
+			int[] cell = cells[row * CELLS_IN_ROW + (col >> CELL_SHIFT)];
+			if (cell == null) {
+				continue;
+			}
+			int c = col & (CELL_SIZE - 1);
+			for (int run : cell) {
+				int region = run >>> REGION_SHIFT;
+				if (!contained[region] && (run & (CELL_SIZE - 1)) <= c && c <= ((run >> CELL_SHIFT) & (CELL_SIZE - 1))) {
+					contained[region] = (run & BOUNDARY) == 0 || contains(region, row, x31[i], y31[i]);
+				}
+			}
+		}
+	}
+
+	private boolean contains(int region, int row, int x31, int y31) {
+		return findPolygon(region, row, x31, y31) >= 0;
+	}
+
+	/**
+	 * Returns index of the region polygon containing the point or -1
+	 */
+	private int findPolygon(int region, int row, int x31, int y31) {
+		int[] offsets = rowOffsets[region];
+		int k = row - firstRow[region];
+		if (k < 0 || k >= offsets.length - 1) {
+			return -1;
+		}
+		int[] edges = rowEdges[region];
+		BinaryMapDataObject[] polys = polygons[region];
+		int poly = -1;
+		int t = 0;
+		for (int i = offsets[k]; i < offsets[k + 1]; i++) {
+			int p = edges[i] >>> POINT_BITS;
+			int j = edges[i] & ((1 << POINT_BITS) - 1);
+			if (p != poly) {
+				// region contains point if any of its polygons contains it
+				if (t % 2 == 1) {
+					return poly;
+				}
+				poly = p;
+				t = 0;
+			}
+			BinaryMapDataObject bo = polys[p];
+			int fx = MapAlgorithms.ray_intersect_x(bo.getPoint31XTile(j - 1), bo.getPoint31YTile(j - 1),
+					bo.getPoint31XTile(j), bo.getPoint31YTile(j), y31);
+			if (Integer.MIN_VALUE != fx && x31 >= fx) {
+				t++;
+			}
+		}
+		return t % 2 == 1 ? poly : -1;
+	}
+
+	private void indexRegion(int region, TIntArrayList[] runs) {
+		BinaryMapDataObject[] polys = polygons[region];
+		if (polys.length > MAX_POLYGONS) {
+			throw new IllegalArgumentException("Too many polygons of " + names[region]);
+		}
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (BinaryMapDataObject bo : polys) {
+			if (bo.getPointsLength() >= 1 << POINT_BITS) {
+				throw new IllegalArgumentException("Too many points in polygon of " + names[region]);
+			}
+			for (int i = 0; i < bo.getPointsLength(); i++) {
+				minX = Math.min(minX, bo.getPoint31XTile(i));
+				maxX = Math.max(maxX, bo.getPoint31XTile(i));
+				minY = Math.min(minY, bo.getPoint31YTile(i));
+				maxY = Math.max(maxY, bo.getPoint31YTile(i));
+			}
+		}
+		if (minX > maxX) {
+			rowOffsets[region] = new int[1];
+			rowEdges[region] = new int[0];
+			return;
+		}
+		int row0 = minY >>> SHIFT;
+		int col0 = minX >>> SHIFT;
+		int rows = (maxY >>> SHIFT) - row0 + 1;
+		int cols = (maxX >>> SHIFT) - col0 + 1;
+		TIntArrayList[] rowEdgesList = new TIntArrayList[rows];
+		boolean[][] boundary = new boolean[rows][cols];
+		for (int p = 0; p < polys.length; p++) {
+			BinaryMapDataObject bo = polys[p];
+			for (int i = 1; i < bo.getPointsLength(); i++) {
+				int x1 = bo.getPoint31XTile(i - 1);
+				int y1 = bo.getPoint31YTile(i - 1);
+				int x2 = bo.getPoint31XTile(i);
+				int y2 = bo.getPoint31YTile(i);
+				for (int row = Math.min(y1, y2) >>> SHIFT; row <= Math.max(y1, y2) >>> SHIFT; row++) {
+					int k = row - row0;
+					if (rowEdgesList[k] == null) {
+						rowEdgesList[k] = new TIntArrayList();
+					}
+					rowEdgesList[k].add((p << POINT_BITS) | i);
+					// tiles of the row crossed by edge (with 1 unit margin against rounding)
+					double xa = x1;
+					double xb = x2;
+					if (y1 != y2) {
+						long top = ((long) row) << SHIFT;
+						long bottom = top + (1 << SHIFT) - 1;
+						double ta = Math.max(0, Math.min(1, (top - y1) / (double) (y2 - y1)));
+						double tb = Math.max(0, Math.min(1, (bottom - y1) / (double) (y2 - y1)));
+						xa = x1 + ta * (x2 - x1);
+						xb = x1 + tb * (x2 - x1);
+					}
+					int ca = Math.max(col0, ((int) Math.max(0, Math.min(xa, xb) - 1)) >>> SHIFT);
+					int cb = Math.min(col0 + cols - 1, ((int) Math.min(Integer.MAX_VALUE, Math.max(xa, xb) + 1)) >>> SHIFT);
+					for (int c = ca; c <= cb; c++) {
+						boundary[k][c - col0] = true;
+					}
+				}
+			}
+		}
+		int[] offsets = new int[rows + 1];
+		TIntArrayList edges = new TIntArrayList();
+		TIntArrayList crossings = new TIntArrayList();
+		boolean[] inside = new boolean[cols];
+		for (int k = 0; k < rows; k++) {
+			offsets[k] = edges.size();
+			TIntArrayList list = rowEdgesList[k];
+			if (list == null) {
+				continue;
+			}
+			edges.addAll(list);
+			// tiles which are not crossed by edges are labelled by their centers, center line of the row is
+			// crossed by polygon edges and the point is inside polygon if number of crossings left to it is odd
+			int yc = ((row0 + k) << SHIFT) + (1 << (SHIFT - 1));
+			for (int c = 0; c < cols; c++) {
+				inside[c] = false;
+			}
+			int start = 0;
+			while (start < list.size()) {
+				int p = list.get(start) >>> POINT_BITS;
+				BinaryMapDataObject bo = polys[p];
+				crossings.resetQuick();
+				int end = start;
+				for (; end < list.size() && list.get(end) >>> POINT_BITS == p; end++) {
+					int j = list.get(end) & ((1 << POINT_BITS) - 1);
+					int fx = MapAlgorithms.ray_intersect_x(bo.getPoint31XTile(j - 1), bo.getPoint31YTile(j - 1),
+							bo.getPoint31XTile(j), bo.getPoint31YTile(j), yc);
+					if (Integer.MIN_VALUE != fx) {
+						crossings.add(fx);
+					}
+				}
+				crossings.sort();
+				int left = 0;
+				for (int c = 0; c < cols; c++) {
+					int xc = ((col0 + c) << SHIFT) + (1 << (SHIFT - 1));
+					while (left < crossings.size() && crossings.get(left) <= xc) {
+						left++;
+					}
+					inside[c] |= left % 2 == 1;
+				}
+				start = end;
+			}
+			addRuns(region, row0 + k, col0, boundary[k], inside, runs);
+		}
+		offsets[rows] = edges.size();
+		firstRow[region] = row0;
+		rowOffsets[region] = offsets;
+		rowEdges[region] = edges.toArray();
+	}
+
+	private void addRuns(int region, int row, int col0, boolean[] boundary, boolean[] inside, TIntArrayList[] runs) {
+		int c = 0;
+		while (c < boundary.length) {
+			boolean b = boundary[c];
+			if (!b && !inside[c]) {
+				c++;
+				continue;
+			}
+			// run of tiles with the same label inside one cell
+			int col = col0 + c;
+			int end = c + 1;
+			while (end < boundary.length && boundary[end] == b && (b || inside[end])
+					&& ((col0 + end) >> CELL_SHIFT) == (col >> CELL_SHIFT)) {
+				end++;
+			}
+			int cell = row * CELLS_IN_ROW + (col >> CELL_SHIFT);
+			if (runs[cell] == null) {
+				runs[cell] = new TIntArrayList(4);
+			}
+			int last = (col0 + end - 1) & (CELL_SIZE - 1);
+			runs[cell].add((region << REGION_SHIFT) | (b ? BOUNDARY : 0) | (last << CELL_SHIFT) | (col & (CELL_SIZE - 1)));
+			c = end;
+		}
+	}
+}
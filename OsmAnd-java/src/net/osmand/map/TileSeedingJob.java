@@ -0,0 +1,591 @@
+package net.osmand.map;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.osmand.IProgress;
+import net.osmand.PlatformUtil;
+import net.osmand.data.LatLon;
+import net.osmand.data.QuadRect;
+import net.osmand.osm.io.NetworkUtils;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Downloads all tiles of the area (bbox or polygon) for range of zooms to tile store.
+ *
+ * Tiles are enumerated by quad tree of each tile of minimal zoom, children are visited only if the tile intersects
+ * the area. Tiles which exist in the store and are not expired are skipped. Tiles are downloaded by bounded pool
+ * of threads and written by calling thread in batches. After every batch number of tiles which are stored or
+ * skipped in order of enumeration is saved to checkpoint file, so interrupted job (or job with failed tiles)
+ * continues from it.
+ */
+public class TileSeedingJob {
+
+	private static final Log log = PlatformUtil.getLog(TileSeedingJob.class);
+	private static final int CONNECTION_TIMEOUT = 30000;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long BACKOFF_INITIAL_MS = 1000;
+	private static final long BATCH_TIME_MS = 2000;
+	private static final long LOG_INTERVAL_MS = 10000;
+
+	/**
+	 * Storage of tiles: tiles directory or sqlite database
+	 */
+	public interface TileStore {
+
+		/**
+		 * @return time when tile was saved, 0 if time is not known and -1 if there is no tile
+		 */
+		public long getTileTime(int x, int y, int zoom) throws IOException;
+
+		/**
+		 * Saves tiles at once (in one transaction if supported)
+		 */
+		public void saveTiles(List<SeedTile> tiles) throws IOException;
+	}
+
+	public static class SeedTile {
+		public final int x;
+		public final int y;
+		public final int zoom;
+		public byte[] data;
+		private final long ordinal;
+		private int attempts;
+		// tile exists in the store and is not downloaded
+		private boolean skipped;
+
+		public SeedTile(int x, int y, int zoom, long ordinal) {
+			this.x = x;
+			this.y = y;
+			this.zoom = zoom;
+			this.ordinal = ordinal;
+		}
+	}
+
+	/**
+	 * Tiles stored in files like {@link TileSourceManager.TileSourceTemplate#calculateTileId(int, int, int)}
+	 */
+	public static class DirectoryTileStore implements TileStore {
+		private final File dirWithTiles;
+		private final ITileSource source;
+
+		public DirectoryTileStore(File dirWithTiles, ITileSource source) {
+			this.dirWithTiles = dirWithTiles;
+			this.source = source;
+		}
+
+		private File getTileFile(int x, int y, int zoom) {
+			return new File(dirWithTiles, source.getName() + "/" + zoom + "/" + x + "/" + y + source.getTileFormat() + ".tile"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+
+		@Override
+		public long getTileTime(int x, int y, int zoom) {
+			File f = getTileFile(x, y, zoom);
+			return f.exists() ? f.lastModified() : -1;
+		}
+
+		@Override
+		public void saveTiles(List<SeedTile> tiles) throws IOException {
+			for (SeedTile t : tiles) {
+				File f = getTileFile(t.x, t.y, t.zoom);
+				f.getParentFile().mkdirs();
+				OutputStream os = new FileOutputStream(f);
+				try {
+					os.write(t.data);
+				} finally {
+					Algorithms.closeStream(os);
+				}
+			}
+		}
+	}
+
+	private interface TileVisitor {
+		public boolean visitTile(int x, int y, int zoom, long ordinal);
+	}
+
+	private final ITileSource source;
+	private final TileStore store;
+	private final int minZoom;
+	private final int maxZoom;
+	private QuadRect bbox;
+	// polygon in 31 tile coordinates
+	private double[] polygonX;
+	private double[] polygonY;
+	private File checkpointFile;
+	private int threads = 4;
+	private int batchSize = 64;
+
+	private final AtomicInteger downloaded = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong downloadedBytes = new AtomicLong();
+	private long startTime;
+	private long endTime;
+	private volatile boolean stopped;
+
+	public TileSeedingJob(ITileSource source, TileStore store, int minZoom, int maxZoom) {
+		this.source = source;
+		this.store = store;
+		this.minZoom = minZoom;
+		this.maxZoom = maxZoom;
+	}
+
+	/**
+	 * Sets area as rectangle (left and right are longitudes, top and bottom are latitudes)
+	 */
+	public void setArea(QuadRect latLonBounds) {
+		this.bbox = new QuadRect(latLonBounds);
+		this.polygonX = null;
+		this.polygonY = null;
+	}
+
+	public void setArea(List<LatLon> polygon) {
+		polygonX = new double[polygon.size()];
+		polygonY = new double[polygon.size()];
+		bbox = new QuadRect(180, -90, -180, 90);
+		for (int i = 0; i < polygon.size(); i++) {
+			LatLon l = polygon.get(i);
+			polygonX[i] = MapUtils.get31TileNumberX(l.getLongitude());
+			polygonY[i] = MapUtils.get31TileNumberY(l.getLatitude());
+			bbox.left = Math.min(bbox.left, l.getLongitude());
+			bbox.right = Math.max(bbox.right, l.getLongitude());
+			bbox.top = Math.max(bbox.top, l.getLatitude());
+			bbox.bottom = Math.min(bbox.bottom, l.getLatitude());
+		}
+	}
+
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getDownloadedTiles() {
+		return downloaded.get();
+	}
+
+	public int getSkippedTiles() {
+		return skipped.get();
+	}
+
+	public int getFailedTiles() {
+		return failed.get();
+	}
+
+	public long getDownloadedBytes() {
+		return downloadedBytes.get();
+	}
+
+	/**
+	 * @return downloaded tiles per second
+	 */
+	public double getThroughput() {
+		long time = (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+		return time <= 0 ? 0 : downloaded.get() * 1000d / time;
+	}
+
+	public long countTiles() {
+		final long[] count = new long[1];
+		enumerateTiles(new TileVisitor() {
+			@Override
+			public boolean visitTile(int x, int y, int zoom, long ordinal) {
+				count[0]++;
+				return true;
+			}
+		});
+		return count[0];
+	}
+
+	private void enumerateTiles(TileVisitor visitor) {
+		int x1 = (int) MapUtils.getTileNumberX(minZoom, bbox.left);
+		int x2 = (int) MapUtils.getTileNumberX(minZoom, bbox.right);
+		int y1 = (int) MapUtils.getTileNumberY(minZoom, bbox.top);
+		int y2 = (int) MapUtils.getTileNumberY(minZoom, bbox.bottom);
+		long[] ordinal = new long[1];
+		for (int y = y1; y <= y2; y++) {
+			for (int x = x1; x <= x2; x++) {
+				if (!enumerateTiles(visitor, x, y, minZoom, ordinal)) {
+					return;
+				}
+			}
+		}
+	}
+
+	private boolean enumerateTiles(TileVisitor visitor, int x, int y, int zoom, long[] ordinal) {
+		if (!intersects(x, y, zoom)) {
+			return true;
+		}
+		if (!visitor.visitTile(x, y, zoom, ordinal[0]++)) {
+			return false;
+		}
+		if (zoom < maxZoom) {
+			for (int i = 0; i < 4; i++) {
+				if (!enumerateTiles(visitor, 2 * x + (i & 1), 2 * y + (i >> 1), zoom + 1, ordinal)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean intersects(int x, int y, int zoom) {
+		double left = x * MapUtils.getPowZoom(31 - zoom);
+		double right = (x + 1) * MapUtils.getPowZoom(31 - zoom);
+		double top = y * MapUtils.getPowZoom(31 - zoom);
+		double bottom = (y + 1) * MapUtils.getPowZoom(31 - zoom);
+		double bleft = MapUtils.get31TileNumberX(bbox.left);
+		double bright = MapUtils.get31TileNumberX(bbox.right);
+		double btop = MapUtils.get31TileNumberY(bbox.top);
+		double bbottom = MapUtils.get31TileNumberY(bbox.bottom);
+		if (right < bleft || left > bright || bottom < btop || top > bbottom) {
+			return false;
+		}
+		if (polygonX == null) {
+			return true;
+		}
+		int n = polygonX.length;
+		boolean centerInside = false;
+		double cx = (left + right) / 2;
+		double cy = (top + bottom) / 2;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double xi = polygonX[i];
+			double yi = polygonY[i];
+			double xj = polygonX[j];
+			double yj = polygonY[j];
+			// vertex of the polygon inside tile or edge crossing the tile
+			if (xi >= left && xi <= right && yi >= top && yi <= bottom) {
+				return true;
+			}
+			if (segmentIntersectsRect(xi, yi, xj, yj, left, top, right, bottom)) {
+				return true;
+			}
+			if ((yi > cy) != (yj > cy) && cx < (xj - xi) * (cy - yi) / (yj - yi) + xi) {
+				centerInside = !centerInside;
+			}
+		}
+		return centerInside;
+	}
+
+	private static boolean segmentIntersectsRect(double x1, double y1, double x2, double y2,
+			double left, double top, double right, double bottom) {
+		// clip segment by the rectangle (Liang-Barsky)
+		double t0 = 0;
+		double t1 = 1;
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { x1 - left, right - x1, y1 - top, bottom - y1 };
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0) {
+					return false;
+				}
+			} else {
+				double t = q[i] / p[i];
+				if (p[i] < 0) {
+					t0 = Math.max(t0, t);
+				} else {
+					t1 = Math.min(t1, t);
+				}
+				if (t0 > t1) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private String getJobSignature() {
+		StringBuilder b = new StringBuilder();
+		b.append(source.getName()).append(' ').append(minZoom).append('-').append(maxZoom);
+		b.append(' ').append(bbox.left).append(',').append(bbox.top).append(',').append(bbox.right).append(',').append(bbox.bottom);
+		if (polygonX != null) {
+			long h = 0;
+			for (int i = 0; i < polygonX.length; i++) {
+				h = h * 31 + (long) polygonX[i];
+				h = h * 31 + (long) polygonY[i];
+			}
+			b.append(' ').append(polygonX.length).append(' ').append(h);
+		}
+		return b.toString();
+	}
+
+	private long readCheckpoint() {
+		if (checkpointFile == null || !checkpointFile.exists()) {
+			return 0;
+		}
+		Properties p = new Properties();
+		InputStream is = null;
+		try {
+			is = new FileInputStream(checkpointFile);
+			p.load(is);
+			if (getJobSignature().equals(p.getProperty("job"))) { //$NON-NLS-1$
+				return Long.parseLong(p.getProperty("done", "0")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} catch (IOException e) {
+			log.warn("Checkpoint is not read " + checkpointFile, e); //$NON-NLS-1$
+		} catch (NumberFormatException e) {
+			log.warn("Checkpoint is not read " + checkpointFile, e); //$NON-NLS-1$
+		} finally {
+			Algorithms.closeStream(is);
+		}
+		return 0;
+	}
+
+	private void writeCheckpoint(long done) throws IOException {
+		if (checkpointFile == null) {
+			return;
+		}
+		Properties p = new Properties();
+		p.setProperty("job", getJobSignature()); //$NON-NLS-1$
+		p.setProperty("done", Long.toString(done)); //$NON-NLS-1$
+		File tmp = new File(checkpointFile.getAbsolutePath() + ".tmp"); //$NON-NLS-1$
+		OutputStream os = new FileOutputStream(tmp);
+		try {
+			p.store(os, null);
+		} finally {
+			Algorithms.closeStream(os);
+		}
+		checkpointFile.delete();
+		tmp.renameTo(checkpointFile);
+	}
+
+	/**
+	 * Runs the job in the calling thread.
+	 * @return true if all tiles are stored, false if job was interrupted by progress or some tiles failed
+	 */
+	public boolean run(final IProgress progress) throws IOException {
+		startTime = System.currentTimeMillis();
+		endTime = 0;
+		downloaded.set(0);
+		skipped.set(0);
+		failed.set(0);
+		downloadedBytes.set(0);
+		final long total = countTiles();
+		final long resumeFrom = readCheckpoint();
+		progress.startTask(source.getName(), (int) Math.min(Integer.MAX_VALUE, total));
+		progress.progress((int) Math.min(Integer.MAX_VALUE, resumeFrom));
+		log.info("Seeding " + total + " tiles of " + source.getName() + " from " + resumeFrom); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		final BlockingQueue<SeedTile> results = new ArrayBlockingQueue<SeedTile>(Math.max(batchSize, threads) * 2);
+		// bounded pool : producer waits when all threads are busy and queue of tasks is full
+		final ThreadPoolExecutor downloaders = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 2),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		final AtomicLong produced = new AtomicLong(resumeFrom);
+		final boolean[] producerFinished = new boolean[1];
+		stopped = false;
+		final long now = System.currentTimeMillis();
+		final int expiration = source.getExpirationTimeMillis();
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					enumerateTiles(new TileVisitor() {
+						@Override
+						public boolean visitTile(int x, int y, int zoom, long ordinal) {
+							if (ordinal < resumeFrom) {
+								return true;
+							}
+							if (progress.isInterrupted()) {
+								return false;
+							}
+							final SeedTile t = new SeedTile(x, y, zoom, ordinal);
+							produced.set(ordinal + 1);
+							try {
+								long time = store.getTileTime(x, y, zoom);
+								if (time != -1 && (expiration == -1 || time == 0 || now - time < expiration)) {
+									skipped.incrementAndGet();
+									t.skipped = true;
+									return putResult(results, t);
+								}
+								downloaders.execute(new Runnable() {
+									@Override
+									public void run() {
+										download(t);
+										putResult(results, t);
+									}
+								});
+							} catch (IOException e) {
+								log.error("Tile store is not accessible", e); //$NON-NLS-1$
+								return false;
+							}
+							return true;
+						}
+					});
+				} finally {
+					downloaders.shutdown();
+					synchronized (producerFinished) {
+						producerFinished[0] = true;
+					}
+				}
+			}
+		}, "Seeding tiles"); //$NON-NLS-1$
+		producer.start();
+
+		// tiles are done in random order, so checkpoint is the first tile which is not done (failed tile is never done)
+		BitSet done = new BitSet();
+		long doneFrom = resumeFrom;
+		List<SeedTile> batch = new ArrayList<SeedTile>(batchSize);
+		long batchStart = 0;
+		long lastLog = System.currentTimeMillis();
+		try {
+			while (true) {
+				boolean finished;
+				synchronized (producerFinished) {
+					finished = producerFinished[0];
+				}
+				finished = finished && downloaders.isTerminated() && results.isEmpty();
+				SeedTile t = finished ? null : results.poll(200, TimeUnit.MILLISECONDS);
+				if (t != null) {
+					if (batch.isEmpty()) {
+						batchStart = System.currentTimeMillis();
+					}
+					batch.add(t);
+				}
+				if (batch.size() >= batchSize || (!batch.isEmpty() && (finished || t == null
+						|| System.currentTimeMillis() - batchStart > BATCH_TIME_MS))) {
+					List<SeedTile> toSave = new ArrayList<SeedTile>(batch.size());
+					for (SeedTile s : batch) {
+						if (s.data != null) {
+							toSave.add(s);
+						}
+					}
+					if (!toSave.isEmpty()) {
+						store.saveTiles(toSave);
+					}
+					for (SeedTile s : batch) {
+						if (s.data != null || s.skipped) {
+							done.set((int) (s.ordinal - resumeFrom));
+						}
+					}
+					progress.progress(batch.size());
+					batch.clear();
+					int next = done.nextClearBit((int) (doneFrom - resumeFrom));
+					if (next + resumeFrom > doneFrom) {
+						doneFrom = next + resumeFrom;
+						writeCheckpoint(doneFrom);
+					}
+				}
+				if (System.currentTimeMillis() - lastLog > LOG_INTERVAL_MS) {
+					lastLog = System.currentTimeMillis();
+					log.info(getStats(doneFrom, total));
+				}
+				if (finished) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.warn("Seeding is interrupted", e); //$NON-NLS-1$
+		} finally {
+			stopped = true;
+			downloaders.shutdownNow();
+			endTime = System.currentTimeMillis();
+		}
+		boolean completed = !progress.isInterrupted() && failed.get() == 0 && doneFrom >= produced.get()
+				&& produced.get() >= total;
+		if (completed && checkpointFile != null) {
+			checkpointFile.delete();
+		} else if (failed.get() > 0) {
+			log.warn(failed.get() + " tiles are not downloaded, seeding continues from " + doneFrom + " next time"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		log.info(getStats(doneFrom, total));
+		progress.finishTask();
+		return completed;
+	}
+
+	private boolean putResult(BlockingQueue<SeedTile> results, SeedTile t) {
+		try {
+			// writer could stop because of error, so it is not waited forever
+			while (!results.offer(t, 200, TimeUnit.MILLISECONDS)) {
+				if (stopped) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private String getStats(long done, long total) {
+		long time = Math.max(1, (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime);
+		return "Seeded " + done + " of " + total + " tiles : downloaded " + downloaded.get() + ", skipped " + skipped.get() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				+ ", failed " + failed.get() + ", " + (int) getThroughput() + " tiles/s, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ (downloadedBytes.get() / time) + " KB/s"; //$NON-NLS-1$
+	}
+
+	private void download(SeedTile t) {
+		String url = source.getUrlToLoad(t.x, t.y, t.zoom);
+		if (url == null) {
+			failed.incrementAndGet();
+			return;
+		}
+		while (!Thread.currentThread().isInterrupted()) {
+			t.attempts++;
+			boolean retry = false;
+			try {
+				HttpURLConnection connection = NetworkUtils.getHttpURLConnection(url);
+				connection.setRequestProperty("User-Agent", MapTileDownloader.USER_AGENT); //$NON-NLS-1$
+				connection.setConnectTimeout(CONNECTION_TIMEOUT);
+				connection.setReadTimeout(CONNECTION_TIMEOUT);
+				int code = connection.getResponseCode();
+				if (code == HttpURLConnection.HTTP_OK) {
+					ByteArrayOutputStream bous = new ByteArrayOutputStream();
+					InputStream is = new BufferedInputStream(connection.getInputStream(), 8 * 1024);
+					try {
+						Algorithms.streamCopy(is, bous);
+					} finally {
+						Algorithms.closeStream(is);
+					}
+					t.data = bous.toByteArray();
+					downloaded.incrementAndGet();
+					downloadedBytes.addAndGet(t.data.length);
+					return;
+				}
+				Algorithms.closeStream(connection.getErrorStream());
+				retry = code == 429 || code >= 500;
+				log.warn("Cannot download tile : " + url + " " + code); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (IOException e) {
+				retry = true;
+				log.warn("Cannot download tile : " + url + " " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (!retry || t.attempts >= MAX_ATTEMPTS) {
+				break;
+			}
+			try {
+				Thread.sleep(BACKOFF_INITIAL_MS << (t.attempts - 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		failed.incrementAndGet();
+	}
+}
@@ -34,6 +34,16 @@ public class RenderingRuleSearchRequest {
 		setBooleanFilter(storage.PROPS.R_TEST, true);
 		saveState();
 	}
+	
+	public RenderingRuleSearchRequest(RenderingRuleSearchRequest searchRequest) {
+		this.storage = searchRequest.storage;
+		this.ALL = searchRequest.ALL;
+		this.props = searchRequest.props;
+		this.values = searchRequest.values.clone();
+		this.fvalues = searchRequest.fvalues.clone();
+		this.savedValues = searchRequest.savedValues.clone();
+		this.savedFvalues = searchRequest.savedFvalues.clone();
+	}
 
 	public void setStringFilter(RenderingRuleProperty p, String filter) {
 		assert p.isInputProperty();
@@ -68,7 +68,7 @@ public class RenderingRulesStorage {
 		}
 	}
 	
-	public int getDictionaryValue(String val) {
+	public synchronized int getDictionaryValue(String val) {
 		if(dictionaryMap.containsKey(val)){
 			return dictionaryMap.get(val);
 		}
@@ -79,7 +79,7 @@ public class RenderingRulesStorage {
 
 	}
 	
-	public String getStringValue(int i){
+	public synchronized String getStringValue(int i){
 		return dictionary.get(i);
 	}
 	
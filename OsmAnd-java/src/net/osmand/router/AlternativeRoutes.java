@@ -0,0 +1,252 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Alternative routes through via points calculated with the same bidirectional search as the best route.
+ * Search continues after the best route is found and every next join of forward and reverse search is
+ * a candidate route through the join (via point). Candidate is accepted if it is not much longer than the best route
+ * (bounded stretch), if it doesn't share much with the best route and accepted alternatives (limited sharing)
+ * and if the part of the route around via point is a shortest route itself (local optimality).
+ */
+public class AlternativeRoutes {
+
+	protected static final Log log = PlatformUtil.getLog(AlternativeRoutes.class);
+
+	// alternative route could be longer (by time) than the best route by that part
+	public static float MAX_STRETCH = 0.25f;
+	// part of alternative route (by distance) which could be shared with the best route and other alternatives
+	public static float MAX_SHARING = 0.7f;
+	// part of the best route time around via point, which should be a shortest route
+	public static float LOCAL_OPTIMALITY = 0.2f;
+	// allowed excess of time around via point over the shortest route
+	public static float LOCAL_TOLERANCE = 0.1f;
+	// max number of joins collected by the search
+	public static int MAX_CANDIDATES = 1000;
+	// max number of local optimality checks (local route searches), candidates after that are not checked
+	public static int MAX_OPTIMALITY_CHECKS = 10;
+	// local route search is abandoned (candidate is rejected) after that number of visited segments
+	public static int MAX_LOCAL_VISITED_SEGMENTS = 5000;
+
+	private final int maxAlternatives;
+	private List<FinalRouteSegment> candidates;
+
+	public AlternativeRoutes(int maxAlternatives) {
+		this.maxAlternatives = maxAlternatives;
+	}
+
+	/**
+	 * Searches the best route and collects candidates of alternative routes
+	 */
+	FinalRouteSegment searchRoute(RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end)
+			throws InterruptedException, IOException {
+		candidates = new BinaryRoutePlanner().searchRouteWithAlternatives(ctx, start, end, MAX_STRETCH, MAX_CANDIDATES);
+		return candidates.isEmpty() ? null : candidates.get(0);
+	}
+
+	/**
+	 * Filters candidates and prepares results of accepted alternative routes (ordered by time)
+	 */
+	List<List<RouteSegmentResult>> prepareAlternatives(RoutingContext ctx) throws IOException, InterruptedException {
+		List<List<RouteSegmentResult>> alternatives = new ArrayList<List<RouteSegmentResult>>();
+		if (candidates == null || candidates.size() < 2) {
+			return alternatives;
+		}
+		RouteResultPreparation preparation = new RouteResultPreparation();
+		float routingTime = ctx.routingTime;
+		FinalRouteSegment best = candidates.get(0);
+		float maxTime = best.distanceFromStart * (1 + MAX_STRETCH);
+		float localTime = best.distanceFromStart * LOCAL_OPTIMALITY;
+		// intervals (start point index) of used routes by road id
+		TLongObjectHashMap<TIntHashSet> usedIntervals = new TLongObjectHashMap<TIntHashSet>();
+		addIntervals(preparation.convertFinalSegmentToResults(ctx, best), usedIntervals, true);
+		int rejectedBySharing = 0;
+		int rejectedByOptimality = 0;
+		int optimalityChecks = 0;
+		for (int i = 1; i < candidates.size() && alternatives.size() < maxAlternatives
+				&& optimalityChecks < MAX_OPTIMALITY_CHECKS; i++) {
+			FinalRouteSegment candidate = candidates.get(i);
+			if (candidate.distanceFromStart > maxTime) {
+				break;
+			}
+			List<RouteSegmentResult> route = preparation.convertFinalSegmentToResults(ctx, candidate);
+			if (route.size() < 2) {
+				continue;
+			}
+			if (!addIntervals(route, usedIntervals, false)) {
+				rejectedBySharing++;
+				continue;
+			}
+			optimalityChecks++;
+			if (!isLocallyOptimal(ctx, candidate, localTime)) {
+				rejectedByOptimality++;
+				continue;
+			}
+			addIntervals(route, usedIntervals, true);
+			// start and end roads are shared with the best route and get precise points inserted
+			route.set(0, copyResult(route.get(0)));
+			route.set(route.size() - 1, copyResult(route.get(route.size() - 1)));
+			preparation.prepareResult(ctx, route);
+			alternatives.add(route);
+		}
+		// times of prepared routes differ from times of the search
+		Collections.sort(alternatives, new Comparator<List<RouteSegmentResult>>() {
+			@Override
+			public int compare(List<RouteSegmentResult> o1, List<RouteSegmentResult> o2) {
+				return Float.compare(getRouteTime(o1), getRouteTime(o2));
+			}
+		});
+		ctx.routingTime = routingTime;
+		log.info("Alternative routes " + alternatives.size() + " of " + (candidates.size() - 1) + " candidates (rejected by sharing "
+				+ rejectedBySharing + ", by local optimality " + rejectedByOptimality + ")");
+		return alternatives;
+	}
+
+	/**
+	 * Finds point of forward (or reverse) part of the route where time from start (or to end) is close to time.
+	 * Part of the route is a chain of road pieces from the via point, time is interpolated inside the piece.
+	 * Returned point has that time in distanceFromStart.
+	 */
+	private RouteSegmentPoint findRoutePoint(FinalRouteSegment candidate, RouteSegment segment, float viaTime, float time) {
+		int end = segment.getRoad().getId() == candidate.getRoad().getId() ? candidate.getSegmentStart() : segment.getSegmentStart();
+		float endTime = viaTime;
+		while (segment.getParentRoute() != null && segment.distanceFromStart > time) {
+			end = segment.getParentSegmentEnd();
+			endTime = segment.distanceFromStart;
+			segment = segment.getParentRoute();
+		}
+		RouteDataObject road = segment.getRoad();
+		int st = segment.getSegmentStart();
+		int ind = end;
+		float pointTime = endTime;
+		if (endTime > time && endTime > segment.distanceFromStart && st != end) {
+			double length = 0;
+			for (int i = st; i != end; i = st < end ? i + 1 : i - 1) {
+				length += distance(road, i, st < end ? i + 1 : i - 1);
+			}
+			double back = length * Math.min(1, (endTime - time) / (endTime - segment.distanceFromStart));
+			double passed = 0;
+			while (ind != st && passed < back) {
+				int prev = st < end ? ind - 1 : ind + 1;
+				passed += distance(road, ind, prev);
+				ind = prev;
+			}
+			pointTime = endTime - (float) (length == 0 ? 0 : passed / length) * (endTime - segment.distanceFromStart);
+		}
+		RouteSegmentPoint point = new RouteSegmentPoint(road, ind, 0);
+		point.distanceFromStart = pointTime;
+		return point;
+	}
+
+	private static float getRouteTime(List<RouteSegmentResult> route) {
+		float time = 0;
+		for (RouteSegmentResult r : route) {
+			time += r.getSegmentTime();
+		}
+		return time;
+	}
+
+	private double distance(RouteDataObject road, int i, int j) {
+		return BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i), 
+				road.getPoint31XTile(j), road.getPoint31YTile(j));
+	}
+
+	private RouteSegmentResult copyResult(RouteSegmentResult r) {
+		return new RouteSegmentResult(new RouteDataObject(r.getObject()), r.getStartPointIndex(), r.getEndPointIndex());
+	}
+
+	/**
+	 * Checks sharing of route intervals with used intervals (by distance) or adds them to used intervals
+	 */
+	private boolean addIntervals(List<RouteSegmentResult> route, TLongObjectHashMap<TIntHashSet> usedIntervals, boolean add) {
+		double length = 0;
+		double shared = 0;
+		for (RouteSegmentResult r : route) {
+			RouteDataObject road = r.getObject();
+			int st = Math.min(r.getStartPointIndex(), r.getEndPointIndex());
+			int en = Math.max(r.getStartPointIndex(), r.getEndPointIndex());
+			TIntHashSet used = usedIntervals.get(road.getId());
+			if (add && used == null) {
+				used = new TIntHashSet();
+				usedIntervals.put(road.getId(), used);
+			}
+			for (int i = st; i < en; i++) {
+				if (add) {
+					used.add(i);
+				} else {
+					double d = distance(road, i, i + 1);
+					length += d;
+					if (used != null && used.contains(i)) {
+						shared += d;
+					}
+				}
+			}
+		}
+		return add || shared <= MAX_SHARING * length;
+	}
+
+	/**
+	 * T-test : part of the route with localTime around via point should be not much longer than
+	 * the shortest route between its ends. Forward part of the route is a shortest route from start to via point
+	 * and reverse part from via point to end, so route could be suboptimal only around via point.
+	 */
+	private boolean isLocallyOptimal(RoutingContext ctx, FinalRouteSegment candidate, float localTime)
+			throws InterruptedException, IOException {
+		RouteSegment forward = candidate.reverseWaySearch ? candidate.opposite : candidate.getParentRoute();
+		RouteSegment reverse = candidate.reverseWaySearch ? candidate.getParentRoute() : candidate.opposite;
+		if (forward == null || reverse == null) {
+			return false;
+		}
+		// time from start to via point and from via point to end
+		float forwardTime = candidate.reverseWaySearch ? forward.distanceFromStart :
+			candidate.distanceFromStart - reverse.distanceFromStart;
+		float reverseTime = candidate.distanceFromStart - forwardTime;
+		RouteSegmentPoint from = findRoutePoint(candidate, forward, forwardTime, forwardTime - localTime / 2);
+		RouteSegmentPoint to = findRoutePoint(candidate, reverse, reverseTime, reverseTime - localTime / 2);
+		float viaTime = forwardTime - from.distanceFromStart + reverseTime - to.distanceFromStart;
+		if (viaTime <= 0 || (from.getRoad().getId() == to.getRoad().getId() && from.getSegmentStart() == to.getSegmentStart())) {
+			return true;
+		}
+		// local search shares loaded tiles of the context, but not counters of the main search
+		int startX = ctx.startX, startY = ctx.startY, targetX = ctx.targetX, targetY = ctx.targetY;
+		int visitedSegments = ctx.visitedSegments;
+		int relaxedSegments = ctx.relaxedSegments;
+		long timeToLoad = ctx.timeToLoad;
+		long timeToCalculate = ctx.timeToCalculate;
+		try {
+			ctx.initStartAndTargetPoints(from, to);
+			FinalRouteSegment local = new BinaryRoutePlanner().searchRouteLimited(ctx, from, to, MAX_LOCAL_VISITED_SEGMENTS);
+			return local != null && viaTime <= local.distanceFromStart * (1 + LOCAL_TOLERANCE);
+		} catch (IllegalArgumentException e) {
+			// route is not found
+			return false;
+		} catch (IllegalStateException e) {
+			// not enough memory for local search
+			return false;
+		} finally {
+			ctx.startX = startX;
+			ctx.startY = startY;
+			ctx.targetX = targetX;
+			ctx.targetY = targetY;
+			ctx.visitedSegments = visitedSegments;
+			ctx.relaxedSegments = relaxedSegments;
+			ctx.timeToLoad = timeToLoad;
+			ctx.timeToCalculate = timeToCalculate;
+		}
+	}
+}
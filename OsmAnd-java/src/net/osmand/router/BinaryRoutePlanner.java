@@ -1,5 +1,6 @@
 package net.osmand.router;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.util.PriorityQueue;
 
 import net.osmand.PlatformUtil;
 import net.osmand.binary.RouteDataObject;
+import net.osmand.data.LatLon;
 import net.osmand.osm.MapRenderingTypes;
 import net.osmand.util.MapUtils;
 
@@ -31,6 +33,16 @@ public class BinaryRoutePlanner {
 	private static final int ROUTE_POINTS = 11;
 	private static final boolean TRACE_ROUTING = false;
 	
+	// incremental recalculation : only forward search which stops at cost-to-go field of previous route
+	private IncrementalRouteState incremental;
+	private float incrementalReferenceTime;
+	// alternative routes : search continues after the best route and collects next joins of forward and reverse search
+	private List<FinalRouteSegment> alternatives;
+	private float alternativesMaxTime;
+	private int alternativesMaxCandidates;
+	// search is abandoned (null is returned) after that number of visited segments if positive
+	private int maxVisitedSegments;
+	
 	
 	public static double squareRootDist(int x1, int y1, int x2, int y2) {
 		// translate into meters 
@@ -61,6 +73,56 @@ public class BinaryRoutePlanner {
 			return roadPriorityComparator(o1.distanceFromStart, o1.distanceToEnd, o2.distanceFromStart, o2.distanceToEnd, 0.5);
 		}
 	}
+	/**
+	 * Calculate route from start.segmentEnd until it joins previously calculated route (see {@link IncrementalRouteState}).
+	 * Forward search has no heuristic and joins to previous route are prioritized by their total time
+	 * relative to estimated time through the best join, so search stops soon after it reaches a good join.
+	 * Returns null if route doesn't join previous route within {@link IncrementalRouteState#MAX_VISITED_SEGMENTS}.
+	 */
+	FinalRouteSegment searchRouteIncrementally(final RoutingContext ctx, RouteSegmentPoint start, IncrementalRouteState state)
+			throws InterruptedException, IOException {
+		incremental = state;
+		incrementalReferenceTime = state.getReferenceTime(ctx.startX, ctx.startY);
+		try {
+			return searchRouteInternal(ctx, start, null, null);
+		} finally {
+			incremental = null;
+		}
+	}
+	
+	/**
+	 * Calculate route between start.segmentEnd and end.segmentStart as {@link #searchRouteInternal}, but search doesn't
+	 * stop at the first join of forward and reverse search. It continues until f(x) exceeds time of the best route
+	 * multiplied by (1 + maxStretch) or until it visits as many segments as the best route needed.
+	 * Returns routes through the joins ordered by time, the first is the best route.
+	 */
+	List<FinalRouteSegment> searchRouteWithAlternatives(final RoutingContext ctx, RouteSegmentPoint start,
+			RouteSegmentPoint end, float maxStretch, int maxCandidates) throws InterruptedException, IOException {
+		alternatives = new ArrayList<FinalRouteSegment>();
+		alternativesMaxTime = 1 + maxStretch;
+		alternativesMaxCandidates = maxCandidates;
+		try {
+			searchRouteInternal(ctx, start, end, null);
+			return alternatives;
+		} finally {
+			alternatives = null;
+		}
+	}
+	
+	/**
+	 * Calculate route between start.segmentEnd and end.segmentStart as {@link #searchRouteInternal}, but returns
+	 * null if route is not found within maxVisitedSegments visited segments.
+	 */
+	FinalRouteSegment searchRouteLimited(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end,
+			int maxVisitedSegments) throws InterruptedException, IOException {
+		this.maxVisitedSegments = maxVisitedSegments;
+		try {
+			return searchRouteInternal(ctx, start, end, null);
+		} finally {
+			this.maxVisitedSegments = 0;
+		}
+	}
+	
 	/**
 	 * Calculate route between start.segmentEnd and end.segmentStart (using A* algorithm)
 	 * return list of segments
@@ -71,6 +133,7 @@ public class BinaryRoutePlanner {
 		// measure time
 		ctx.timeToLoad = 0;
 		ctx.visitedSegments = 0;
+		ctx.relaxedSegments = 0;
 		ctx.memoryOverhead  = 1000;
 		ctx.timeToCalculate = System.nanoTime();
 
@@ -82,7 +145,8 @@ public class BinaryRoutePlanner {
 		
 		// Set to not visit one segment twice (stores road.id << X + segmentStart)
 		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
-		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = incremental != null ? incremental.costToGo : 
+			new TLongObjectHashMap<RouteSegment>();
 		
 		initQueuesWithStartEnd(ctx, start, end, recalculationEnd, graphDirectSegments, graphReverseSegments);
 		
@@ -92,8 +156,11 @@ public class BinaryRoutePlanner {
 		PriorityQueue<RouteSegment>  graphSegments = graphDirectSegments;
 		
 		FinalRouteSegment finalSegment = null;
-		boolean onlyBackward = ctx.getPlanRoadDirection() < 0;
-		boolean onlyForward = ctx.getPlanRoadDirection() > 0 ;
+		// time dependent speeds are known only for forward search from departure time
+		boolean timeDependent = ctx.speedOverlay != null && ctx.speedOverlay.isTimeDependent();
+		boolean onlyBackward = incremental == null && !timeDependent && ctx.getPlanRoadDirection() < 0;
+		boolean onlyForward = incremental != null || timeDependent || ctx.getPlanRoadDirection() > 0 ;
+		int visitedToBestRoute = 0;
 		while (!graphSegments.isEmpty()) {
 			RouteSegment segment = graphSegments.poll();
 			// use accumulative approach
@@ -111,35 +178,65 @@ public class BinaryRoutePlanner {
 					log.warn("Estimated overhead " + (ctx.memoryOverhead / (1<<20))+ " mb");
 					printMemoryConsumption("Memory occupied after calculation : ");
 				}
-				finalSegment = (FinalRouteSegment) segment;
 				if(TRACE_ROUTING){
 					println("Final segment found");
 				}
+				if (alternatives == null) {
+					finalSegment = (FinalRouteSegment) segment;
+					break;
+				}
+				if (finalSegment == null) {
+					finalSegment = (FinalRouteSegment) segment;
+					alternativesMaxTime *= finalSegment.distanceFromStart;
+					visitedToBestRoute = ctx.visitedSegments;
+				}
+				alternatives.add((FinalRouteSegment) segment);
+				if (alternatives.size() >= alternativesMaxCandidates) {
+					break;
+				}
+			} else if (finalSegment != null && (ctx.visitedSegments > 2 * visitedToBestRoute || 
+					ctx.roadPriorityComparator(segment.distanceFromStart, segment.distanceToEnd, alternativesMaxTime, 0) > 0)) {
+				// alternative routes : all joins shorter than max time are found
 				break;
-			}
-			if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95 && RoutingContext.SHOW_GC_SIZE) {
-				printMemoryConsumption("Memory occupied before exception : ");
-			}
-			if(ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95) {
-				throw new IllegalStateException("There is no enough memory " + ctx.config.memoryLimitation/(1<<20) + " Mb");
-			}
-			ctx.visitedSegments++;
-			if (forwardSearch) {
-				boolean doNotAddIntersections = onlyBackward;
-				processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments, 
-						segment, visitedOppositeSegments, doNotAddIntersections);
 			} else {
-				boolean doNotAddIntersections = onlyForward;
-				processRouteSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, segment,
-						visitedDirectSegments, doNotAddIntersections);
+				if (ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95 && RoutingContext.SHOW_GC_SIZE) {
+					printMemoryConsumption("Memory occupied before exception : ");
+				}
+				if(ctx.memoryOverhead > ctx.config.memoryLimitation * 0.95) {
+					throw new IllegalStateException("There is no enough memory " + ctx.config.memoryLimitation/(1<<20) + " Mb");
+				}
+				ctx.visitedSegments++;
+				if (incremental != null && ctx.visitedSegments > IncrementalRouteState.MAX_VISITED_SEGMENTS) {
+					return null;
+				}
+				if (maxVisitedSegments > 0 && ctx.visitedSegments > maxVisitedSegments) {
+					return null;
+				}
+				ctx.maxEstimatedMemory = Math.max(ctx.maxEstimatedMemory, (long) ctx.memoryOverhead + ctx.global.size);
+				if (forwardSearch) {
+					boolean doNotAddIntersections = onlyBackward;
+					processRouteSegment(ctx, false, graphDirectSegments, visitedDirectSegments, 
+							segment, visitedOppositeSegments, doNotAddIntersections);
+				} else {
+					boolean doNotAddIntersections = onlyForward;
+					processRouteSegment(ctx, true, graphReverseSegments, visitedOppositeSegments, segment,
+							visitedDirectSegments, doNotAddIntersections);
+				}
 			}
 			updateCalculationProgress(ctx, graphDirectSegments, graphReverseSegments);
+			ctx.maxDirectQueueSize = Math.max(ctx.maxDirectQueueSize, graphDirectSegments.size());
+			ctx.maxReverseQueueSize = Math.max(ctx.maxReverseQueueSize, graphReverseSegments.size());
 			
-			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() <= 0, graphReverseSegments, end, visitedOppositeSegments,
-					"Route is not found to selected target point.");
-			checkIfGraphIsEmpty(ctx, ctx.getPlanRoadDirection() >= 0, graphDirectSegments, start, visitedDirectSegments,
-					"Route is not found from selected start point.");
-			if (ctx.planRouteIn2Directions()) {
+			if (finalSegment == null) {
+				checkIfGraphIsEmpty(ctx, !onlyForward, graphReverseSegments, end, visitedOppositeSegments,
+						"Route is not found to selected target point.");
+				checkIfGraphIsEmpty(ctx, !onlyBackward, graphDirectSegments, start, visitedDirectSegments,
+						"Route is not found from selected start point.");
+			}
+			if (finalSegment != null && (graphDirectSegments.isEmpty() || graphReverseSegments.isEmpty())) {
+				// alternative routes : one of searches is finished after the best route
+				forwardSearch = !graphDirectSegments.isEmpty();
+			} else if (!onlyForward && !onlyBackward) {
 				forwardSearch = (nonHeuristicSegmentsComparator.compare(graphDirectSegments.peek(), graphReverseSegments.peek()) < 0);
 //				if (graphDirectSegments.size() * 2 > graphReverseSegments.size()) {
 //					forwardSearch = false;
@@ -247,8 +344,8 @@ public class BinaryRoutePlanner {
 			RouteSegment recalculationEnd, PriorityQueue<RouteSegment> graphDirectSegments, PriorityQueue<RouteSegment> graphReverseSegments) {
 		RouteSegment startPos = initRouteSegment(ctx, start, true);
 		RouteSegment startNeg = initRouteSegment(ctx, start, false);
-		RouteSegment endPos = initRouteSegment(ctx, end, true);
-		RouteSegment endNeg = initRouteSegment(ctx, end, false);
+		RouteSegment endPos = end == null ? null : initRouteSegment(ctx, end, true);
+		RouteSegment endNeg = end == null ? null : initRouteSegment(ctx, end, false);
 		// for start : f(start) = g(start) + h(start) = 0 + h(start) = h(start)
 		if(ctx.config.initialDirection != null) {
 			// mark here as positive for further check
@@ -268,7 +365,8 @@ public class BinaryRoutePlanner {
 			ctx.targetX = recalculationEnd.getRoad().getPoint31XTile(recalculationEnd.getSegmentStart());
 			ctx.targetY = recalculationEnd.getRoad().getPoint31YTile(recalculationEnd.getSegmentStart());
 		}
-		float estimatedDistance = (float) estimatedDistance(ctx, ctx.targetX, ctx.targetY, ctx.startX, ctx.startY);
+		float estimatedDistance = incremental != null ? 0 : 
+			(float) estimatedDistance(ctx, ctx.targetX, ctx.targetY, ctx.startX, ctx.startY);
 		if(startPos != null) {
 			startPos.distanceToEnd = estimatedDistance;
 			graphDirectSegments.add(startPos);
@@ -405,6 +503,11 @@ public class BinaryRoutePlanner {
 		// ! Actually there is small bug when there is restriction to move forward on the way (it doesn't take into account)
 		float obstaclesTime = 0;
 		float segmentDist = 0;
+		// time and distance of intervals with speeds of speed overlay
+		float overlayTime = 0;
+		float overlayDist = 0;
+		// travel time along the road (without speed priorities) for time dependent speeds of speed overlay
+		float travelTime = 0;
 		// +/- diff from middle point
 		short segmentPoint = segment.getSegmentStart();
 		boolean[] processFurther = new boolean[1];
@@ -434,18 +537,30 @@ public class BinaryRoutePlanner {
 			}
 			
 			// 2. calculate point and try to load neighbor ways if they are not loaded
-			segmentDist  += squareRootDist(x, y,  prevx, prevy);
+			float intervalDist = (float) squareRootDist(x, y,  prevx, prevy);
+			segmentDist  += intervalDist;
+			if (ctx.speedOverlay != null) {
+				// reverse search doesn't know arrival time and uses speeds at departure time
+				float speed = ctx.speedOverlay.getSpeed(road, Math.min(prevInd, segmentPoint), ctx.departureTime
+						+ (reverseWaySearch ? 0 : (long) ((segment.travelTime + travelTime) * 1000)));
+				if (speed > 0) {
+					overlayTime += intervalDist / prioritizeOverlaySpeed(ctx, road, speed);
+					overlayDist += intervalDist;
+				}
+				travelTime += intervalDist / (speed > 0 ? speed : defineTravelSpeed(ctx, road));
+			}
 			
 			// 2.1 calculate possible obstacle plus time
-			double obstacle = ctx.getRouter().defineRoutingObstacle(road, segmentPoint);
+			float obstacle = ctx.getRouter().defineRoutingObstacle(road, segmentPoint);
 			if (obstacle < 0) {
 				directionAllowed = false;
 				continue;
 			}
 			obstaclesTime += obstacle;
+			travelTime += obstacle;
 			
 			boolean alreadyVisited = checkIfOppositieSegmentWasVisited(ctx, reverseWaySearch, graphSegments, segment, oppositeSegments, 
-					segmentPoint, segmentDist, obstaclesTime);
+					segmentPoint, segmentDist - overlayDist, obstaclesTime + overlayTime);
 			if (alreadyVisited) {
 				directionAllowed = false;
 				continue;
@@ -465,7 +580,8 @@ public class BinaryRoutePlanner {
 			// could be expensive calculation
 			// 3. get intersected ways
 			final RouteSegment roadNext = ctx.loadRouteSegment(x, y, ctx.config.memoryLimitation - ctx.memoryOverhead);
-			float distStartObstacles = segment.distanceFromStart + calculateTimeWithObstacles(ctx, road, segmentDist , obstaclesTime);
+			float distStartObstacles = segment.distanceFromStart + calculateTimeWithObstacles(ctx, road, 
+					segmentDist - overlayDist, obstaclesTime + overlayTime);
 			if(ctx.precalculatedRouteDirection != null && ctx.precalculatedRouteDirection.isFollowNext()) {
 				// reset to f
 //				distStartObstacles = 0;
@@ -475,7 +591,8 @@ public class BinaryRoutePlanner {
 			
 			// We don't check if there are outgoing connections
 			previous = processIntersections(ctx, graphSegments, visitedSegments, distStartObstacles,
-					segment, segmentPoint, roadNext, reverseWaySearch, doNotAddIntersections, processFurther);
+					segment.travelTime + travelTime, segment, segmentPoint, roadNext, reverseWaySearch,
+					doNotAddIntersections, processFurther);
 			if (!processFurther[0]) {
 				directionAllowed = false;
 				continue;
@@ -556,6 +673,10 @@ public class BinaryRoutePlanner {
 				frs.reverseWaySearch = reverseWaySearch;
 				frs.distanceFromStart = opposite.distanceFromStart + distStartObstacles;
 				frs.distanceToEnd = 0;
+				if (incremental != null && ctx.config.heuristicCoefficient > 0) {
+					// f(frs) = time from start + time to destination from the join - estimated time to destination
+					frs.distanceToEnd = -incrementalReferenceTime / ctx.config.heuristicCoefficient;
+				}
 				frs.opposite = opposite;
 				graphSegments.add(frs);
 				if (TRACE_ROUTING) {
@@ -568,6 +689,23 @@ public class BinaryRoutePlanner {
 	}
 	
 
+	/**
+	 * Speed of speed overlay with speed priority of router
+	 */
+	private float prioritizeOverlaySpeed(RoutingContext ctx, RouteDataObject road, float speed) {
+		speed *= ctx.getRouter().defineSpeedPriority(road);
+		// speed can not exceed max default speed according to A*
+		return Math.min(speed, ctx.getRouter().getMaxDefaultSpeed());
+	}
+
+	/**
+	 * Speed of router without speed priority (m/s) to calculate travel time
+	 */
+	private float defineTravelSpeed(RoutingContext ctx, RouteDataObject road) {
+		float speed = ctx.getRouter().defineRoutingSpeed(road);
+		return speed > 0 ? speed : ctx.getRouter().getMinDefaultSpeed();
+	}
+
 	private float calculateTimeWithObstacles(RoutingContext ctx, RouteDataObject road, float distOnRoadToPass, float obstaclesTime) {
 		float priority = ctx.getRouter().defineSpeedPriority(road);
 		float speed = (ctx.getRouter().defineRoutingSpeed(road) * priority);
@@ -581,6 +719,96 @@ public class BinaryRoutePlanner {
 		return obstaclesTime + distOnRoadToPass / speed;
 	}
 
+	/**
+	 * Builds cost-to-go field of the calculated route for next incremental recalculation. First segment
+	 * is not joinable because its road is a copy with inserted start point.
+	 */
+	IncrementalRouteState createIncrementalRouteState(RoutingContext ctx, List<RouteSegmentResult> route, LatLon end) {
+		if (route == null || route.size() < 3) {
+			return null;
+		}
+		TLongObjectHashMap<RouteSegment> costToGo = new TLongObjectHashMap<RouteSegment>();
+		TIntArrayList pointsX = new TIntArrayList();
+		TIntArrayList pointsY = new TIntArrayList();
+		TIntArrayList pointsTime = new TIntArrayList();
+		RouteSegment parent = null;
+		int parentStart = 0;
+		// time to reach destination from the end of current segment
+		float time = 0;
+		float distance = 0;
+		for (int k = route.size() - 1; k > 0; k--) {
+			RouteSegmentResult rr = route.get(k);
+			RouteDataObject road = rr.getObject();
+			int st = rr.getStartPointIndex();
+			int en = rr.getEndPointIndex();
+			boolean plus = st < en;
+			if (k == route.size() - 1) {
+				// last road has inserted destination point, use original road till the interval with destination
+				RouteSegment s = ctx.loadRouteSegment(road.getPoint31XTile(st), road.getPoint31YTile(st), 0);
+				while (s != null && s.getRoad().getId() != road.getId()) {
+					s = s.getNext();
+				}
+				if (s == null) {
+					return null;
+				}
+				road = s.getRoad();
+				st = s.getSegmentStart();
+				en = st;
+				int ex = MapUtils.get31TileNumberX(end.getLongitude());
+				int ey = MapUtils.get31TileNumberY(end.getLatitude());
+				double minDist = squareRootDist(road.getPoint31XTile(st), road.getPoint31YTile(st), ex, ey);
+				for (int p = plus ? st + 1 : st - 1; p >= 0 && p < road.getPointsLength(); p = plus ? p + 1 : p - 1) {
+					double d = squareRootDist(road.getPoint31XTile(p), road.getPoint31YTile(p), ex, ey);
+					en = p;
+					if (d > minDist) {
+						break;
+					}
+					minDist = d;
+				}
+			}
+			RouteSegment segment = new RouteSegment(road, en);
+			segment.distanceFromStart = time;
+			segment.parentRoute = parent;
+			segment.parentSegmentEnd = (short) parentStart;
+			float dist = 0;
+			float obstaclesTime = 0;
+			float overlayTime = 0;
+			float overlayDist = 0;
+			float pointTime = time;
+			for (int p = en; p != st; p = plus ? p - 1 : p + 1) {
+				int prev = plus ? p - 1 : p + 1;
+				pointsX.add(road.getPoint31XTile(p));
+				pointsY.add(road.getPoint31YTile(p));
+				pointsTime.add((int) (pointTime * 1000));
+				// forward search joins interval (prev, p) at p, stored as visited by reverse search
+				RouteSegment join = new RouteSegment(road, en);
+				join.distanceFromStart = pointTime;
+				join.parentRoute = parent;
+				join.parentSegmentEnd = (short) parentStart;
+				costToGo.put(calculateRoutePointId(road, Math.min(p, prev), !plus), join);
+				float intervalDist = (float) squareRootDist(road.getPoint31XTile(prev), road.getPoint31YTile(prev), 
+						road.getPoint31XTile(p), road.getPoint31YTile(p));
+				dist += intervalDist;
+				if (ctx.speedOverlay != null) {
+					float speed = ctx.speedOverlay.getSpeed(road, Math.min(p, prev), ctx.departureTime);
+					if (speed > 0) {
+						overlayTime += intervalDist / prioritizeOverlaySpeed(ctx, road, speed);
+						overlayDist += intervalDist;
+					}
+				}
+				obstaclesTime += Math.max(0, ctx.getRouter().defineRoutingObstacle(road, p));
+				pointTime = time + calculateTimeWithObstacles(ctx, road, dist - overlayDist, obstaclesTime + overlayTime);
+			}
+			time = pointTime;
+			distance += dist;
+			parent = segment;
+			parentStart = st;
+		}
+		float averageSpeed = time > 0 ? distance / time : ctx.getRouter().getMinDefaultSpeed();
+		return new IncrementalRouteState(ctx.detachLoadedTiles(pointsX, pointsY), ctx.config.routerName, end, costToGo,
+				pointsX, pointsY, pointsTime, averageSpeed);
+	}
+
 	private long calculateRoutePointId(final RouteDataObject road, int intervalId, boolean positive) {
 		if(intervalId < 0) {
 			// should be assert
@@ -699,7 +927,7 @@ public class BinaryRoutePlanner {
 
 
 	private RouteSegment processIntersections(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
-			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, RouteSegment segment,
+			TLongObjectHashMap<RouteSegment> visitedSegments,  float distFromStart, float travelTime, RouteSegment segment,
 			short segmentPoint, RouteSegment inputNext, boolean reverseWaySearch, boolean doNotAddIntersections, 
 			boolean[] processFurther) {
 		boolean thereAreRestrictions ;
@@ -719,7 +947,7 @@ public class BinaryRoutePlanner {
 		}
 		int targetEndX = reverseWaySearch ? ctx.startX : ctx.targetX;
 		int targetEndY = reverseWaySearch ? ctx.startY : ctx.targetY;
-		float distanceToEnd = h(ctx, segment.getRoad().getPoint31XTile(segmentPoint), segment.getRoad()
+		float distanceToEnd = incremental != null ? 0 : h(ctx, segment.getRoad().getPoint31XTile(segmentPoint), segment.getRoad()
 				.getPoint31YTile(segmentPoint), targetEndX, targetEndY);
 		// Calculate possible ways to put into priority queue
 		RouteSegment next = inputNext;
@@ -739,6 +967,7 @@ public class BinaryRoutePlanner {
 								distanceToEnd) > 0) {
 					itself.distanceFromStart = distFromStart;
 					itself.distanceToEnd = distanceToEnd;
+					itself.travelTime = travelTime;
 					itself.setParentRoute(segment);
 					itself.setParentSegmentEnd(segmentPoint);
 				} else {
@@ -749,10 +978,10 @@ public class BinaryRoutePlanner {
 			} else if(!doNotAddIntersections) {
 				RouteSegment nextPos = next.initRouteSegment(true);
 				RouteSegment nextNeg = next.initRouteSegment(false);
-				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment, segmentPoint,
-						nextPos);
-				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, segment, segmentPoint,
-						nextNeg);
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, travelTime,
+						segment, segmentPoint, nextPos);
+				processOneRoadIntersection(ctx, graphSegments, visitedSegments, distFromStart, distanceToEnd, travelTime,
+						segment, segmentPoint, nextNeg);
 
 			}
 			// iterate to next road
@@ -769,13 +998,14 @@ public class BinaryRoutePlanner {
 
 	@SuppressWarnings("unused")
 	private void processOneRoadIntersection(RoutingContext ctx, PriorityQueue<RouteSegment> graphSegments,
-			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd,  RouteSegment segment,
-			int segmentPoint, RouteSegment next) {
+			TLongObjectHashMap<RouteSegment> visitedSegments, float distFromStart, float distanceToEnd, float travelTime,
+			RouteSegment segment, int segmentPoint, RouteSegment next) {
 		if (next != null) {
 			float obstaclesTime = (float) ctx.getRouter().calculateTurnTime(next, next.isPositive()? 
 					next.getRoad().getPointsLength() - 1 : 0,  
 					segment, segmentPoint);
 			distFromStart += obstaclesTime;
+			travelTime += obstaclesTime;
 			if(TEST_SPECIFIC && next.road.getId() == TEST_ID) {
 				printRoad(" !? distFromStart=" + +distFromStart + " from " + segment.getRoad().getId() + 
 						" dir=" + segment.getDirectionAssigned() + 
@@ -788,6 +1018,7 @@ public class BinaryRoutePlanner {
 								distFromStart, distanceToEnd) > 0) {
 					next.distanceFromStart = distFromStart;
 					next.distanceToEnd = distanceToEnd;
+					next.travelTime = travelTime;
 					if (TRACE_ROUTING) {
 						printRoad("  >>", next, null);
 					}
@@ -795,6 +1026,7 @@ public class BinaryRoutePlanner {
 					next.setParentRoute(segment);
 					next.setParentSegmentEnd(segmentPoint);
 					graphSegments.add(next);
+					ctx.relaxedSegments++;
 				}
 			} else {
 				// the segment was already visited! We need to follow better route if it exists
@@ -863,6 +1095,8 @@ public class BinaryRoutePlanner {
 		// distance measured in time (seconds)
 		float distanceFromStart = 0;
 		float distanceToEnd = 0;
+		// travel time (seconds) from start without speed priorities, calculated only with speed overlay
+		float travelTime = 0;
 		
 		public RouteSegment(RouteDataObject road, int segmentStart) {
 			this.road = road;
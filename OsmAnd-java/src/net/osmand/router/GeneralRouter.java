@@ -213,6 +213,46 @@ public class GeneralRouter implements VehicleRouter {
 	}
 	
 	
+	private Map<Integer, Integer> getRegionConvert(RouteRegion reg) {
+		synchronized (universalRules) {
+			Map<Integer, Integer> map = regionConvert.get(reg);
+			if (map == null) {
+				map = new HashMap<Integer, Integer>();
+				regionConvert.put(reg, map);
+			}
+			return map;
+		}
+	}
+	
+	private int registerRegionType(RouteRegion reg, Map<Integer, Integer> map, int type) {
+		synchronized (universalRules) {
+			Integer nid = map.get(type);
+			if (nid == null) {
+				RouteTypeRule r = reg.quickGetEncodingRule(type);
+				nid = registerTagValueAttribute(r.getTag(), r.getValue());
+				map.put(type, nid);
+			}
+			return nid;
+		}
+	}
+	
+	/**
+	 * Registers all encoding rules of the region upfront, so evaluation of its roads 
+	 * doesn't change the router state and could be done by several routing threads at once.
+	 * Region encoding rules should be already read (see BinaryMapIndexReader.initRouteRegion).
+	 */
+	public void prepareRegion(RouteRegion reg) {
+		synchronized (universalRules) {
+			Map<Integer, Integer> map = getRegionConvert(reg);
+			List<RouteTypeRule> rules = reg.getRouteEncodingRules();
+			for (int i = 0; i < rules.size(); i++) {
+				if (rules.get(i) != null) {
+					registerRegionType(reg, map, i);
+				}
+			}
+		}
+	}
+	
 	private Object parseValue(String value, String type) {
 		float vl = -1;
 		value = value.trim();
@@ -236,18 +276,21 @@ public class GeneralRouter implements VehicleRouter {
 	}
 	
 	private Object parseValueFromTag(int id, String type) {
-		while (ruleToValue.size() <= id) {
-			ruleToValue.add(null);
-		}
-		Object res = ruleToValue.get(id);
-		if (res == null) {
-			String v = universalRulesById.get(id);
-			String value = v.substring(v.indexOf('$') + 1);
-			res = parseValue(value, type);
+		Object res;
+		synchronized (ruleToValue) {
+			while (ruleToValue.size() <= id) {
+				ruleToValue.add(null);
+			}
+			res = ruleToValue.get(id);
 			if (res == null) {
-				res = "";
+				String v = universalRulesById.get(id);
+				String value = v.substring(v.indexOf('$') + 1);
+				res = parseValue(value, type);
+				if (res == null) {
+					res = "";
+				}
+				ruleToValue.set(id, res);
 			}
-			ruleToValue.set(id, res);
 		}
 		if ("".equals(res)) {
 			return null;
@@ -555,15 +598,12 @@ public class GeneralRouter implements VehicleRouter {
 			BitSet b = new BitSet(universalRules.size());
 			Map<Integer, Integer> map = regionConvert.get(reg);
 			if(map == null){
-				map = new HashMap<Integer, Integer>();
-				regionConvert.put(reg, map);
+				map = getRegionConvert(reg);
 			}
 			for(int k = 0; k < types.length; k++) {
 				Integer nid = map.get(types[k]);
 				if(nid == null){
-					RouteTypeRule r = reg.quickGetEncodingRule(types[k]);
-					nid = registerTagValueAttribute(r.getTag(), r.getValue());
-					map.put(types[k], nid);
+					nid = registerRegionType(reg, map, types[k]);
 				}
 				b.set(nid);
 			}
@@ -0,0 +1,92 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.osmand.data.LatLon;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.util.MapUtils;
+
+/**
+ * State kept between route calculations to recalculate route incrementally when only start point changed
+ * (see {@link RoutePlannerFrontEnd#setUseIncrementalRecalculation(boolean)}).
+ *
+ * It contains cost-to-go field of the previously calculated route: for every road interval of the route
+ * time to reach destination, stored in the same way as segments settled by reverse search. Recalculation
+ * searches only forward from the new position until it joins that field. Routing tiles of previous calculation
+ * containing the route are passed to the next calculation only (the context itself is not kept), so they are
+ * not read again.
+ */
+public class IncrementalRouteState {
+
+	// forward search is abandoned (and full search is run) if it doesn't join previous route after that number of segments
+	public static int MAX_VISITED_SEGMENTS = 20000;
+
+	final TLongObjectHashMap<RouteSegment> costToGo;
+	private final LatLon end;
+	private final String routerName;
+	// route points with time to reach destination (ms)
+	private final TIntArrayList pointsX;
+	private final TIntArrayList pointsY;
+	private final TIntArrayList pointsTime;
+	// average speed along the route (m/s)
+	private final float averageSpeed;
+	private final AtomicReference<RoutingContext.LoadedTiles> loadedTiles;
+
+	IncrementalRouteState(RoutingContext.LoadedTiles loadedTiles, String routerName, LatLon end, TLongObjectHashMap<RouteSegment> costToGo,
+			TIntArrayList pointsX, TIntArrayList pointsY, TIntArrayList pointsTime, float averageSpeed) {
+		this.loadedTiles = new AtomicReference<RoutingContext.LoadedTiles>(loadedTiles);
+		this.routerName = routerName;
+		this.end = end;
+		this.costToGo = costToGo;
+		this.pointsX = pointsX;
+		this.pointsY = pointsY;
+		this.pointsTime = pointsTime;
+		this.averageSpeed = averageSpeed;
+	}
+
+	public boolean isApplicable(RoutingContext ctx, LatLon end) {
+		if (costToGo.isEmpty() || ctx.nativeLib != null) {
+			return false;
+		}
+		if (routerName != null && !routerName.equals(ctx.config.routerName)) {
+			return false;
+		}
+		return MapUtils.getDistance(end, this.end) < 1;
+	}
+
+	public int getSize() {
+		return costToGo.size();
+	}
+
+	/**
+	 * Estimated time to reach destination from (x31, y31) through the best join to the route : straight line
+	 * to the route point with average speed of the route plus time to destination from that point
+	 */
+	float getReferenceTime(int x31, int y31) {
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < pointsX.size(); i++) {
+			double t = MapUtils.squareRootDist31(x31, y31, pointsX.get(i), pointsY.get(i)) / averageSpeed
+					+ pointsTime.get(i) / 1000d;
+			min = Math.min(min, t);
+		}
+		return pointsX.isEmpty() ? 0 : (float) min;
+	}
+
+	/**
+	 * Passes loaded tiles of previous calculation to the new context (only once)
+	 */
+	boolean moveLoadedTiles(RoutingContext ctx) {
+		RoutingContext.LoadedTiles t = loadedTiles.getAndSet(null);
+		return t != null && ctx.attachLoadedTiles(t);
+	}
+
+	/**
+	 * Releases loaded tiles of previous calculation if they were not passed to the new context
+	 */
+	void releaseLoadedTiles() {
+		loadedTiles.set(null);
+	}
+}
@@ -0,0 +1,607 @@
+package net.osmand.router;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Map matching of GPS tracks to roads of routing tiles with hidden Markov model (Newson, Krumm
+ * "Hidden Markov Map Matching Through Noise and Sparseness"). Candidates of the point are projections to roads
+ * around it, emission probability depends on distance to projection and transition probability on difference
+ * between route distance (on roads allowed by router) and distance between points. Most likely sequence
+ * of candidates is found with Viterbi algorithm.
+ *
+ * Points are added one by one and matched route is passed to listener as soon as it is determined (all
+ * candidates of the last point have the same history), so memory doesn't depend on length of the track.
+ */
+public class MapMatcher {
+
+	protected static final Log log = PlatformUtil.getLog(MapMatcher.class);
+
+	// candidates of the point are projections to roads closer than that (m)
+	public static double CANDIDATE_RADIUS = 50;
+	public static int MAX_CANDIDATES = 8;
+	// standard deviation of GPS error (m)
+	public static double GPS_SIGMA = 10;
+	// difference between route distance and distance between points for probability 1/e (m)
+	public static double TRANSITION_BETA = 30;
+	// points closer to previous point are skipped (m)
+	public static double MIN_POINT_DISTANCE = 2 * GPS_SIGMA;
+	// route between candidates is searched up to distance between points * factor + extra (m)
+	public static double MAX_ROUTE_FACTOR = 2;
+	public static double MAX_ROUTE_EXTRA = 200;
+	// route is determined by the best candidate if history of candidates doesn't converge after that number of points
+	public static int MAX_UNDETERMINED_POINTS = 100;
+
+	public interface MatchedRouteListener {
+
+		/**
+		 * Next part of matched route, newRoute is true if it starts new route (track couldn't be matched
+		 * continuously or new track segment started)
+		 */
+		public void routeMatched(List<RouteSegmentResult> segments, boolean newRoute);
+	}
+
+	public interface MatchedFileListener {
+
+		/**
+		 * Matched routes of the file (called from threads matching files)
+		 */
+		public void fileMatched(File file, List<List<RouteSegmentResult>> routes);
+	}
+
+	private static class RoadNode {
+		final RouteDataObject road;
+		final int ind;
+		final double dist;
+		final RoadNode parent;
+
+		RoadNode(RouteDataObject road, int ind, double dist, RoadNode parent) {
+			this.road = road;
+			this.ind = ind;
+			this.dist = dist;
+			this.parent = parent;
+		}
+	}
+
+	private static class Candidate {
+		final RouteDataObject road;
+		// projection is on interval (segment, segment + 1)
+		final int segment;
+		final int x31;
+		final int y31;
+		final double emission;
+		double score = Double.NEGATIVE_INFINITY;
+		Candidate prev;
+		// road points from previous candidate to this candidate, null if they are on the same interval
+		RoadNode path;
+		// point of the interval where route enters it, -1 if it is not known yet
+		int entry = -1;
+
+		Candidate(RouteDataObject road, int segment, int x31, int y31, double dist) {
+			this.road = road;
+			this.segment = segment;
+			this.x31 = x31;
+			this.y31 = y31;
+			this.emission = -0.5 * (dist / GPS_SIGMA) * (dist / GPS_SIGMA);
+		}
+
+		// point of the interval which is left by the route to the next candidate
+		int getExit(Candidate next) {
+			if (next.path != null) {
+				RoadNode n = next.path;
+				while (n.parent != null) {
+					n = n.parent;
+				}
+				return n.ind;
+			}
+			return segment + segment + 1 - getEntry(next);
+		}
+
+		int getEntry(Candidate next) {
+			if (entry >= 0) {
+				return entry;
+			}
+			if (next != null && next.path == null) {
+				// moves along the interval to the next candidate
+				boolean forward = distToStart(next) > distToStart(this);
+				return forward ? segment : segment + 1;
+			}
+			return next == null ? segment : segment + segment + 1 - getExit(next);
+		}
+
+		double distToStart(Candidate c) {
+			return BinaryRoutePlanner.squareRootDist(c.x31, c.y31, road.getPoint31XTile(segment), road.getPoint31YTile(segment));
+		}
+	}
+
+	private final RoutingContext ctx;
+	private final MatchedRouteListener listener;
+	private List<Candidate> candidates = new ArrayList<Candidate>();
+	private int lastX31;
+	private int lastY31;
+	// last candidate which route was passed to listener
+	private Candidate lastMatched;
+	private int undeterminedPoints;
+	private boolean newRoute = true;
+	private int skippedPoints;
+
+	// segments of matched route which are not passed to listener yet
+	private List<RouteSegmentResult> pending = new ArrayList<RouteSegmentResult>();
+	private RouteDataObject openRoad;
+	private int openStart;
+	private int openEnd;
+
+	public MapMatcher(RoutingContext ctx, MatchedRouteListener listener) {
+		this.ctx = ctx;
+		this.listener = listener;
+	}
+
+	public int getSkippedPoints() {
+		return skippedPoints;
+	}
+
+	public void addPoint(double lat, double lon) throws IOException {
+		int x31 = MapUtils.get31TileNumberX(lon);
+		int y31 = MapUtils.get31TileNumberY(lat);
+		if (!candidates.isEmpty() && BinaryRoutePlanner.squareRootDist(x31, y31, lastX31, lastY31) < MIN_POINT_DISTANCE) {
+			return;
+		}
+		if (ctx.checkIfMemoryLimitCritical(ctx.config.memoryLimitation)) {
+			ctx.unloadUnusedTiles(ctx.config.memoryLimitation);
+		}
+		List<Candidate> next = findCandidates(x31, y31);
+		if (next.isEmpty()) {
+			// outlier or no roads around
+			skippedPoints++;
+			return;
+		}
+		if (candidates.isEmpty()) {
+			for (Candidate c : next) {
+				c.score = c.emission;
+			}
+		} else {
+			double gcDist = BinaryRoutePlanner.squareRootDist(x31, y31, lastX31, lastY31);
+			for (Candidate p : candidates) {
+				calculateTransitions(p, next, gcDist);
+			}
+			Iterator<Candidate> it = next.iterator();
+			while (it.hasNext()) {
+				if (it.next().prev == null) {
+					it.remove();
+				}
+			}
+			if (next.isEmpty()) {
+				// route between points is not found, so new route is started
+				finishRoute();
+				next = findCandidates(x31, y31);
+				for (Candidate c : next) {
+					c.score = c.emission;
+				}
+			}
+		}
+		candidates = next;
+		lastX31 = x31;
+		lastY31 = y31;
+		undeterminedPoints++;
+		matchDeterminedRoute();
+	}
+
+	/**
+	 * Passes rest of the route to listener, next points start new route
+	 */
+	public void finishRoute() {
+		Candidate best = null;
+		for (Candidate c : candidates) {
+			if (best == null || c.score > best.score) {
+				best = c;
+			}
+		}
+		if (best != null) {
+			addMatchedCandidates(best);
+			int entry = best.getEntry(null);
+			addRoadPoint(best.road, entry);
+			if (openStart == openEnd || distToPoint(best, entry) > 1) {
+				addRoadPoint(best.road, best.segment + best.segment + 1 - entry);
+			}
+			closeSegment();
+			notifyListener(true);
+		}
+		candidates = new ArrayList<Candidate>();
+		lastMatched = null;
+		undeterminedPoints = 0;
+		newRoute = true;
+	}
+
+	private List<Candidate> findCandidates(int x31, int y31) {
+		List<RouteDataObject> objects = new ArrayList<RouteDataObject>();
+		ctx.loadTileData(x31, y31, 17, objects);
+		List<Candidate> list = new ArrayList<Candidate>();
+		for (RouteDataObject r : objects) {
+			if (r.getPointsLength() < 2 || !ctx.getRouter().acceptLine(r)) {
+				continue;
+			}
+			Candidate best = null;
+			double bestDist = CANDIDATE_RADIUS;
+			for (int j = 1; j < r.getPointsLength(); j++) {
+				QuadPoint pr = MapUtils.getProjectionPoint31(x31, y31, r.getPoint31XTile(j - 1), r.getPoint31YTile(j - 1),
+						r.getPoint31XTile(j), r.getPoint31YTile(j));
+				double d = BinaryRoutePlanner.squareRootDist((int) pr.x, (int) pr.y, x31, y31);
+				if (d <= bestDist) {
+					bestDist = d;
+					best = new Candidate(r, j - 1, (int) pr.x, (int) pr.y, d);
+				}
+			}
+			if (best != null) {
+				list.add(best);
+			}
+		}
+		Collections.sort(list, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate o1, Candidate o2) {
+				return -Double.compare(o1.emission, o2.emission);
+			}
+		});
+		return list.size() > MAX_CANDIDATES ? new ArrayList<Candidate>(list.subList(0, MAX_CANDIDATES)) : list;
+	}
+
+	/**
+	 * Searches routes (Dijkstra by distance) from candidate p to the next candidates and updates their scores.
+	 * Transition penalty grows with difference of route and great circle distances, so routes longer than the
+	 * shortest one could have smaller penalty. Search stops when routes longer than the frontier can't decrease
+	 * penalty of any candidate.
+	 */
+	private void calculateTransitions(Candidate p, List<Candidate> next, double gcDist) {
+		double maxDist = gcDist * MAX_ROUTE_FACTOR + MAX_ROUTE_EXTRA;
+		VehicleRouter router = ctx.getRouter();
+		int oneway = router.isOneWay(p.road);
+		// the smallest difference of route and great circle distances of routes to candidates found from p
+		double[] penalty = new double[next.size()];
+		Arrays.fill(penalty, Double.POSITIVE_INFINITY);
+		// moves along the same interval
+		for (int i = 0; i < next.size(); i++) {
+			Candidate c = next.get(i);
+			if (c.road.getId() == p.road.getId() && c.segment == p.segment) {
+				boolean forward = p.distToStart(c) > p.distToStart(p);
+				if (forward ? oneway >= 0 : oneway <= 0) {
+					double d = updateScore(p, c, BinaryRoutePlanner.squareRootDist(p.x31, p.y31, c.x31, c.y31), gcDist, null);
+					penalty[i] = Math.min(penalty[i], d);
+				}
+			}
+		}
+		PriorityQueue<RoadNode> queue = new PriorityQueue<RoadNode>(16, new Comparator<RoadNode>() {
+			@Override
+			public int compare(RoadNode o1, RoadNode o2) {
+				return Double.compare(o1.dist, o2.dist);
+			}
+		});
+		if (oneway >= 0) {
+			queue.add(new RoadNode(p.road, p.segment + 1, distToPoint(p, p.segment + 1), null));
+		}
+		if (oneway <= 0) {
+			queue.add(new RoadNode(p.road, p.segment, distToPoint(p, p.segment), null));
+		}
+		TLongHashSet visited = new TLongHashSet();
+		while (!queue.isEmpty()) {
+			RoadNode n = queue.poll();
+			if (n.dist > maxDist || n.dist - gcDist >= max(penalty)) {
+				break;
+			}
+			if (!visited.add((n.road.getId() << 16) + n.ind)) {
+				continue;
+			}
+			int roadOneway = router.isOneWay(n.road);
+			for (int i = 0; i < next.size(); i++) {
+				Candidate c = next.get(i);
+				if (c.road.getId() == n.road.getId()) {
+					if ((c.segment == n.ind && roadOneway >= 0) || (c.segment + 1 == n.ind && roadOneway <= 0)) {
+						double d = updateScore(p, c, n.dist + distToPoint(c, n.ind), gcDist, n);
+						penalty[i] = Math.min(penalty[i], d);
+					}
+				}
+			}
+			int x = n.road.getPoint31XTile(n.ind);
+			int y = n.road.getPoint31YTile(n.ind);
+			if (roadOneway >= 0 && n.ind + 1 < n.road.getPointsLength()) {
+				queue.add(new RoadNode(n.road, n.ind + 1, n.dist + distance(n.road, n.ind, n.ind + 1), n));
+			}
+			if (roadOneway <= 0 && n.ind > 0) {
+				queue.add(new RoadNode(n.road, n.ind - 1, n.dist + distance(n.road, n.ind, n.ind - 1), n));
+			}
+			RouteSegment s = ctx.loadRouteSegment(x, y, ctx.config.memoryLimitation);
+			while (s != null) {
+				if ((s.getRoad().getId() != n.road.getId() || s.getSegmentStart() != n.ind) && router.acceptLine(s.getRoad())) {
+					queue.add(new RoadNode(s.getRoad(), s.getSegmentStart(), n.dist, n));
+				}
+				s = s.getNext();
+			}
+		}
+	}
+
+	/**
+	 * Updates score of candidate c if route from p is better, returns difference of route and great circle distances
+	 */
+	private double updateScore(Candidate p, Candidate c, double routeDist, double gcDist, RoadNode path) {
+		double diff = Math.abs(routeDist - gcDist);
+		double score = p.score - diff / TRANSITION_BETA + c.emission;
+		if (score > c.score) {
+			c.score = score;
+			c.prev = p;
+			c.path = path;
+		}
+		return diff;
+	}
+
+	private static double max(double[] a) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double d : a) {
+			max = Math.max(max, d);
+		}
+		return max;
+	}
+
+	private double distToPoint(Candidate c, int ind) {
+		return BinaryRoutePlanner.squareRootDist(c.x31, c.y31, c.road.getPoint31XTile(ind), c.road.getPoint31YTile(ind));
+	}
+
+	private double distance(RouteDataObject road, int i, int j) {
+		return BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(i), road.getPoint31YTile(i),
+				road.getPoint31XTile(j), road.getPoint31YTile(j));
+	}
+
+	/**
+	 * Finds the last common candidate in history of all candidates and passes route till it to listener
+	 */
+	private void matchDeterminedRoute() {
+		List<Candidate> level = new ArrayList<Candidate>(candidates);
+		Candidate common = null;
+		int depth = 0;
+		while (common == null && !level.isEmpty() && level.get(0) != lastMatched) {
+			Candidate first = level.get(0);
+			boolean same = true;
+			for (Candidate c : level) {
+				same &= c == first;
+			}
+			if (same) {
+				common = first;
+			} else if (undeterminedPoints > MAX_UNDETERMINED_POINTS && depth >= MAX_UNDETERMINED_POINTS / 2) {
+				// history doesn't converge, keep only candidates with history of the best candidate
+				Candidate best = candidates.get(0);
+				for (Candidate c : candidates) {
+					if (c.score > best.score) {
+						best = c;
+					}
+				}
+				Candidate bestAncestor = level.get(candidates.indexOf(best));
+				for (int i = candidates.size() - 1; i >= 0; i--) {
+					if (level.get(i) != bestAncestor) {
+						candidates.remove(i);
+					}
+				}
+				common = bestAncestor;
+			} else {
+				for (int i = 0; i < level.size(); i++) {
+					level.set(i, level.get(i).prev);
+				}
+				if (level.contains(null)) {
+					break;
+				}
+				depth++;
+			}
+		}
+		if (common != null) {
+			addMatchedCandidates(common);
+			undeterminedPoints = depth;
+			notifyListener(false);
+		}
+	}
+
+	/**
+	 * Adds road points of the route from last matched candidate till the candidate
+	 */
+	private void addMatchedCandidates(Candidate candidate) {
+		List<Candidate> chain = new ArrayList<Candidate>();
+		for (Candidate c = candidate; c != null && c != lastMatched; c = c.prev) {
+			chain.add(c);
+		}
+		Collections.reverse(chain);
+		for (Candidate c : chain) {
+			Candidate p = c.prev;
+			if (p != null) {
+				p.entry = p.getEntry(c);
+				if (openRoad == null && distToPoint(p, p.getExit(c)) > 1) {
+					// route starts from the interval of the first candidate (unless it is at the end of interval)
+					addRoadPoint(p.road, p.entry);
+				}
+				if (c.path != null) {
+					List<RoadNode> nodes = new ArrayList<RoadNode>();
+					for (RoadNode n = c.path; n != null; n = n.parent) {
+						nodes.add(n);
+					}
+					for (int i = nodes.size() - 1; i >= 0; i--) {
+						addRoadPoint(nodes.get(i).road, nodes.get(i).ind);
+					}
+					c.entry = c.path.ind;
+				} else {
+					c.entry = p.entry;
+				}
+				// history before matched candidates is not needed
+				p.prev = null;
+				p.path = null;
+			}
+		}
+		lastMatched = candidate;
+	}
+
+	private void addRoadPoint(RouteDataObject road, int ind) {
+		if (openRoad != null && openRoad.getId() == road.getId()) {
+			if (ind == openEnd) {
+				return;
+			}
+			boolean continues = openStart == openEnd ? Math.abs(ind - openEnd) == 1 :
+				ind - openEnd == (openEnd > openStart ? 1 : -1);
+			if (continues) {
+				openEnd = ind;
+				return;
+			}
+			int last = openEnd;
+			closeSegment();
+			openRoad = road;
+			openStart = Math.abs(ind - last) == 1 ? last : ind;
+			openEnd = ind;
+			return;
+		}
+		closeSegment();
+		openRoad = road;
+		openStart = ind;
+		openEnd = ind;
+	}
+
+	private void closeSegment() {
+		if (openRoad != null && openStart != openEnd) {
+			RouteSegmentResult last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+			if (last != null && last.getObject().getId() == openRoad.getId() && last.getEndPointIndex() == openStart
+					&& (last.getEndPointIndex() > last.getStartPointIndex()) == (openEnd > openStart)) {
+				// route only touched crossing road at junction
+				last.setEndPointIndex(openEnd);
+			} else {
+				pending.add(new RouteSegmentResult(openRoad, openStart, openEnd));
+			}
+		}
+		openRoad = null;
+	}
+
+	private void notifyListener(boolean all) {
+		// last segment could be continued by next part of the route
+		RouteSegmentResult last = all || pending.isEmpty() ? null : pending.remove(pending.size() - 1);
+		if (!pending.isEmpty()) {
+			listener.routeMatched(pending, newRoute);
+			newRoute = false;
+			pending = new ArrayList<RouteSegmentResult>();
+		}
+		if (last != null) {
+			pending.add(last);
+		}
+	}
+
+	/**
+	 * Streams track points of GPX file to matcher, every track segment starts new route
+	 */
+	public void matchGpx(InputStream is) throws IOException {
+		try {
+			XmlPullParser parser = PlatformUtil.newXMLPullParser();
+			parser.setInput(is, "UTF-8");
+			int tok;
+			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (tok == XmlPullParser.START_TAG && parser.getName().equals("trkpt")) {
+					String lat = parser.getAttributeValue("", "lat");
+					String lon = parser.getAttributeValue("", "lon");
+					if (lat != null && lon != null) {
+						try {
+							addPoint(Double.parseDouble(lat), Double.parseDouble(lon));
+						} catch (NumberFormatException e) {
+							skippedPoints++;
+						}
+					}
+				} else if (tok == XmlPullParser.END_TAG && parser.getName().equals("trkseg")) {
+					finishRoute();
+				}
+			}
+			finishRoute();
+		} catch (XmlPullParserException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Matches GPX files in parallel, every thread has own routing context with loaded tiles
+	 */
+	public static void matchGpxFiles(final RoutePlannerFrontEnd frontEnd, final RoutingConfiguration config,
+			final BinaryMapIndexReader[] readers, List<File> files, int threads, final MatchedFileListener listener)
+			throws IOException, InterruptedException {
+		frontEnd.prepareParallelRouting(frontEnd.buildRoutingContext(config, null, readers));
+		final Iterator<File> it = files.iterator();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 0; i < Math.max(1, threads); i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						RoutingContext ctx = frontEnd.buildRoutingContext(config, null, readers);
+						while (true) {
+							File f;
+							synchronized (it) {
+								if (!it.hasNext()) {
+									return null;
+								}
+								f = it.next();
+							}
+							final List<List<RouteSegmentResult>> routes = new ArrayList<List<RouteSegmentResult>>();
+							MapMatcher matcher = new MapMatcher(ctx, new MatchedRouteListener() {
+								@Override
+								public void routeMatched(List<RouteSegmentResult> segments, boolean newRoute) {
+									if (newRoute || routes.isEmpty()) {
+										routes.add(new ArrayList<RouteSegmentResult>());
+									}
+									routes.get(routes.size() - 1).addAll(segments);
+								}
+							});
+							InputStream is = new FileInputStream(f);
+							try {
+								matcher.matchGpx(is);
+							} finally {
+								is.close();
+							}
+							if (matcher.getSkippedPoints() > 0) {
+								log.info(f.getName() + " : " + matcher.getSkippedPoints() + " points are not matched");
+							}
+							listener.fileMatched(f, routes);
+						}
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package net.osmand.router;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Speed profiles stored in memory-mapped file. Speeds are stored for road intervals starting from segment
+ * till next stored segment of the same road and for every time bucket. Buckets are counted cyclically
+ * from 1970-01-01 00:00 UTC shifted by offset minutes (e.g. 96 buckets of 15 minutes for a day or
+ * 672 buckets for a week).
+ * 
+ * File format (big endian) :
+ * int magic, int version, int bucket minutes, int buckets count, int offset minutes, int entries count,
+ * long keys[entries] (road id << 12 + start segment, sorted),
+ * byte speeds[entries][buckets] (km/h unsigned, 0 - unknown)
+ */
+public class MappedRouteSpeedOverlay implements RouteSpeedOverlay {
+
+	public static final int MAGIC = 0x4F535044;
+	public static final int VERSION = 1;
+	private static final int SEGMENT_BITS = 12;
+	private static final int HEADER_SIZE = 24;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int bucketMinutes;
+	private final int buckets;
+	private final int offsetMinutes;
+	private final int entries;
+	private final int speedsOffset;
+
+	public MappedRouteSpeedOverlay(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException("Unsupported speed overlay file " + f.getName());
+			}
+			bucketMinutes = buffer.getInt(8);
+			buckets = buffer.getInt(12);
+			offsetMinutes = buffer.getInt(16);
+			entries = buffer.getInt(20);
+			speedsOffset = HEADER_SIZE + entries * 8;
+			if (bucketMinutes <= 0 || buckets <= 0 || (long) speedsOffset + (long) entries * buckets > channel.size()) {
+				throw new IOException("Speed overlay file " + f.getName() + " is corrupted");
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public static long getKey(long roadId, int segment) {
+		return (roadId << SEGMENT_BITS) + segment;
+	}
+
+	@Override
+	public float getSpeed(RouteDataObject road, int segment, long time) {
+		long key = getKey(road.getId(), Math.min(segment, (1 << SEGMENT_BITS) - 1));
+		// greatest key <= road id + segment
+		int lo = 0;
+		int hi = entries - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buffer.getLong(HEADER_SIZE + mid * 8) <= key) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		if (found < 0 || (buffer.getLong(HEADER_SIZE + found * 8) >> SEGMENT_BITS) != road.getId()) {
+			return -1;
+		}
+		int speed = buffer.get(speedsOffset + found * buckets + getBucket(time)) & 0xff;
+		return speed == 0 ? -1 : speed / 3.6f;
+	}
+
+	private int getBucket(long time) {
+		long bucket = (time / 60000 + offsetMinutes) / bucketMinutes % buckets;
+		return (int) (bucket < 0 ? bucket + buckets : bucket);
+	}
+
+	@Override
+	public boolean isTimeDependent() {
+		return buckets > 1;
+	}
+
+	public int getEntriesCount() {
+		return entries;
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Writes speed overlay file, keys (see {@link #getKey(long, int)}) should be sorted and speeds (km/h)
+	 * should have buckets count values for every key
+	 */
+	public static void write(File f, int bucketMinutes, int buckets, int offsetMinutes, long[] keys, byte[][] speeds)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(bucketMinutes);
+			out.writeInt(buckets);
+			out.writeInt(offsetMinutes);
+			out.writeInt(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				if (i > 0 && keys[i] <= keys[i - 1]) {
+					throw new IllegalArgumentException("Keys are not sorted");
+				}
+				out.writeLong(keys[i]);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (speeds[i].length != buckets) {
+					throw new IllegalArgumentException("Speeds should have " + buckets + " buckets");
+				}
+				out.write(speeds[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -8,8 +8,6 @@ import java.util.List;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadPoint;
-import net.osmand.data.QuadRect;
-import net.osmand.data.QuadTree;
 import net.osmand.util.MapUtils;
 
 public class PrecalculatedRouteDirection {
@@ -20,17 +18,14 @@ public class PrecalculatedRouteDirection {
 	private float maxSpeed;
 	private float[] tms;
 	private boolean followNext;
-	private static final int SHIFT = (1 << (31 - 17));
-	private static final int[] SHIFTS = new int[]{1 << (31 - 15), 1 << (31 - 13), 1 << (31 - 12), 
-		1 << (31 - 11), 1 << (31 - 7)};
-	
-	private List<Integer> cachedS = new ArrayList<Integer>();
+	// points farther than that are not considered as close to the route
+	private static final int MAX_SHIFT = 1 << (31 - 7);
 	
 	private long startPoint = 0;
 	private long endPoint = 0;
-//	private DataTileManager<Integer> indexedPoints = new DataTileManager<Integer>(17);
-	QuadTree<Integer> quadTree = new QuadTree<Integer>(new QuadRect(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE),
-			8, 0.55f);
+	// kd-tree over points: indexes of points ordered so that median of each range is a tree node
+	// (even depth splits by x, odd by y) 
+	private int[] kdIndex;
 	private float startFinishTime;
 	private float endFinishTime; 
 	
@@ -59,10 +54,9 @@ public class PrecalculatedRouteDirection {
 			int shiftInd = i - s1;
 			pointsX[shiftInd] = parent.pointsX[i];
 			pointsY[shiftInd] = parent.pointsY[i];
-//			indexedPoints.registerObjectXY(parent.pointsX.get(i), parent.pointsY.get(i), pointsX.size() - 1);
-			quadTree.insert(shiftInd, parent.pointsX[i], parent.pointsY[i]);
 			tms[shiftInd] = parent.tms[i] - parent.tms[s2];
 		}
+		buildIndex();
 	}
 	
 	public static PrecalculatedRouteDirection build(List<RouteSegmentResult> ls, float cutoffDistance, float maxSpeed){
@@ -139,12 +133,11 @@ public class PrecalculatedRouteDirection {
 			float dist = (float) MapUtils.measuredDist31(px.get(ip), py.get(ip), px.get(i), py.get(i));
 			float tm = dist / speedSegments.get(i);// routeSpd;
 			times.add(tm);
-			quadTree.insert(i, px.get(i), py.get(i));
-			// indexedPoints.registerObjectXY();
 			totaltm += tm;
 		}
 		pointsX = px.toArray();
 		pointsY = py.toArray();
+		buildIndex();
 		tms = new float[times.size()];
 		float totDec = totaltm;
 		for(int i = 0; i < times.size(); i++) {
@@ -208,34 +201,95 @@ public class PrecalculatedRouteDirection {
 		return distToPoint;
 	}
 
-	public int getIndex(int x31, int y31) {
-		int ind = -1;
-		cachedS.clear();
-//		indexedPoints.getObjects(x31 - SHIFT, y31 - SHIFT, x31 + SHIFT, y31 + SHIFT, cachedS);
-		quadTree.queryInBox(new QuadRect(x31 - SHIFT, y31 - SHIFT, x31 + SHIFT, y31 + SHIFT), cachedS);
-		if (cachedS.size() == 0) {
-			for (int k = 0; k < SHIFTS.length; k++) {
-				quadTree.queryInBox(new QuadRect(x31 - SHIFTS[k], y31 - SHIFTS[k], x31 + SHIFTS[k], y31 + SHIFTS[k]), cachedS);
-//				indexedPoints.getObjects(x31 - SHIFTS[k], y31 - SHIFTS[k], x31 + SHIFTS[k], y31 + SHIFTS[k],cachedS);
-				if (cachedS.size() != 0) {
-					break;
+	private void buildIndex() {
+		kdIndex = new int[pointsX.length];
+		for (int i = 0; i < kdIndex.length; i++) {
+			kdIndex[i] = i;
+		}
+		buildIndex(0, kdIndex.length, true);
+	}
+	
+	private void buildIndex(int lo, int hi, boolean xAxis) {
+		if (hi - lo <= 1) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		// quick select of median by axis
+		int l = lo;
+		int r = hi - 1;
+		while (l < r) {
+			int pivot = coordinate(kdIndex[(l + r) >>> 1], xAxis);
+			int i = l;
+			int j = r;
+			while (i <= j) {
+				while (coordinate(kdIndex[i], xAxis) < pivot) {
+					i++;
+				}
+				while (coordinate(kdIndex[j], xAxis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int t = kdIndex[i];
+					kdIndex[i] = kdIndex[j];
+					kdIndex[j] = t;
+					i++;
+					j--;
 				}
 			}
-			if (cachedS.size() == 0) {
-				return -1;
+			if (mid <= j) {
+				r = j;
+			} else if (mid >= i) {
+				l = i;
+			} else {
+				break;
 			}
 		}
-		double minDist = 0;
-		for (int i = 0; i < cachedS.size(); i++) {
-			Integer n = cachedS.get(i);
-			double ds = BinaryRoutePlanner.squareRootDist(x31, y31, pointsX[n], pointsY[n]);
-			if (ds < minDist || i == 0) {
-				ind = n;
-				minDist = ds;
-			}
+		buildIndex(lo, mid, !xAxis);
+		buildIndex(mid + 1, hi, !xAxis);
+	}
+	
+	private int coordinate(int ind, boolean xAxis) {
+		return xAxis ? pointsX[ind] : pointsY[ind];
+	}
+
+	/**
+	 * Nearest point of the route (-1 if it is too far), doesn't allocate memory 
+	 * as it is called for every visited segment.
+	 */
+	public int getIndex(int x31, int y31) {
+		if (kdIndex.length == 0) {
+			return -1;
+		}
+		int ind = nearest(0, kdIndex.length, true, x31, y31, -1);
+		if (Math.abs((long) pointsX[ind] - x31) > MAX_SHIFT || Math.abs((long) pointsY[ind] - y31) > MAX_SHIFT) {
+			return -1;
 		}
 		return ind;
 	}
+	
+	private int nearest(int lo, int hi, boolean xAxis, int x31, int y31, int best) {
+		if (lo >= hi) {
+			return best;
+		}
+		int mid = (lo + hi) >>> 1;
+		int ind = kdIndex[mid];
+		double d = MapUtils.squareDist31TileMetric(x31, y31, pointsX[ind], pointsY[ind]);
+		double bestDistance = best == -1 ? Double.MAX_VALUE : 
+			MapUtils.squareDist31TileMetric(x31, y31, pointsX[best], pointsY[best]);
+		if (d < bestDistance || (d == bestDistance && ind < best)) {
+			best = ind;
+			bestDistance = d;
+		}
+		double axisDist = xAxis ? MapUtils.convert31XToMeters(x31, pointsX[ind]) : 
+			MapUtils.convert31YToMeters(y31, pointsY[ind]);
+		boolean left = axisDist < 0;
+		best = nearest(left ? lo : mid + 1, left ? mid : hi, !xAxis, x31, y31, best);
+		bestDistance = MapUtils.squareDist31TileMetric(x31, y31, pointsX[best], pointsY[best]);
+		if (axisDist * axisDist <= bestDistance) {
+			best = nearest(left ? mid + 1 : lo, left ? hi : mid, !xAxis, x31, y31, best);
+		}
+		return best;
+	}
 
 	private long calc(int x31, int y31) {
 		return ((long) x31) << 32l + ((long)y31);
@@ -15,6 +15,11 @@ public class RouteCalculationProgress {
 	public int loadedTiles = 0;
 	public int visitedSegments = 0;
 	
-	public boolean isCancelled;
+	// route legs between intermediate points calculated in parallel
+	public int totalLegs = 1;
+	public int calculatedLegs = 0;
+	public RouteCalculationProgress[] legs;
+	
+	public volatile boolean isCancelled;
 	
 }
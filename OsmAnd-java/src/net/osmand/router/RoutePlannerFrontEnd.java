@@ -7,6 +7,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -16,8 +24,10 @@ import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.LatLon;
 import net.osmand.data.QuadPoint;
+import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegmentPoint;
+import net.osmand.router.RoutingMetrics.RoutingMetricsListener;
 import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
@@ -27,6 +37,12 @@ public class RoutePlannerFrontEnd {
 	private boolean useOldVersion;
 	protected static final Log log = PlatformUtil.getLog(RoutePlannerFrontEnd.class);
 	public boolean useSmartRouteRecalculation = true; 
+	// number of threads to calculate legs between intermediate points, 1 - sequential calculation
+	private int parallelLegsThreads = 1;
+	private RoutingMetricsListener metricsListener;
+	private boolean useIncrementalRecalculation = false;
+	// max number of alternative routes, 0 - alternatives are not calculated
+	private int alternativeRoutes = 0;
 
 	public RoutePlannerFrontEnd(boolean useOldVersion) {
 		this.useOldVersion = useOldVersion;
@@ -105,14 +121,77 @@ public class RoutePlannerFrontEnd {
 	public void setUseFastRecalculation(boolean use) {
 		useSmartRouteRecalculation = use;
 	}
+	
+	/**
+	 * Route legs between intermediate points are calculated concurrently by the given number of threads.
+	 * Every leg uses own routing context with a share of the configured memory limit, so tiles are unloaded
+	 * more often than in sequential calculation. Legs are calculated sequentially with time dependent
+	 * {@link RoutingContext#speedOverlay}, as every leg departs when previous leg arrives.
+	 */
+	public void setParallelLegsCalculation(int threads) {
+		parallelLegsThreads = Math.max(1, threads);
+	}
 			
 	
+	/**
+	 * After calculation {@link RoutingContext#incrementalRouteState} keeps cost-to-go field of the route and loaded tiles,
+	 * if it is passed to the next calculation with the same destination, route is searched only from the new start
+	 * until it joins previous route.
+	 */
+	public void setUseIncrementalRecalculation(boolean use) {
+		useIncrementalRecalculation = use;
+	}
+	
+	/**
+	 * Route without intermediate points is calculated with up to count alternative routes,
+	 * they are available in {@link RoutingContext#alternativeRoutes} after calculation (see {@link AlternativeRoutes}).
+	 */
+	public void setAlternativeRoutes(int count) {
+		alternativeRoutes = Math.max(0, count);
+	}
+	
+	public void setRoutingMetricsListener(RoutingMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+	
+	/**
+	 * Calculates route, metrics of the calculation are available by ctx.getMetrics() afterwards
+	 * (statistics of previous calculation with the same context are reset)
+	 */
 	public List<RouteSegmentResult> searchRoute(final RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates, 
 			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+		long time = System.nanoTime();
+		ctx.resetMetrics();
+		List<RouteSegmentResult> res = searchRouteImpl(ctx, start, end, intermediates, routeDirection);
+		RoutingMetrics metrics = ctx.collectMetrics(System.nanoTime() - time, res);
+		if (metricsListener != null) {
+			metricsListener.routeCalculated(ctx, metrics);
+		}
+		return res;
+	}
+	
+	private List<RouteSegmentResult> searchRouteImpl(final RoutingContext ctx, LatLon start, LatLon end, List<LatLon> intermediates, 
+			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
 		if(ctx.calculationProgress == null) {
 			ctx.calculationProgress = new RouteCalculationProgress();
 		}
 		boolean intermediatesEmpty = intermediates == null || intermediates.isEmpty();
+		ctx.alternativeRoutes = null;
+		IncrementalRouteState incrementalState = ctx.incrementalRouteState;
+		ctx.incrementalRouteState = null;
+		boolean incremental = useIncrementalRecalculation && !useOldVersion && intermediatesEmpty 
+				&& ctx.nativeLib == null && ctx.calculationMode != RouteCalculationMode.BASE;
+		if (incrementalState != null) {
+			List<RouteSegmentResult> res = null;
+			if (incremental && incrementalState.isApplicable(ctx, end)) {
+				res = searchRouteIncrementally(ctx, start, end, incrementalState);
+			}
+			// tiles of previous calculation are kept till the next calculation only
+			incrementalState.releaseLoadedTiles();
+			if (res != null) {
+				return res;
+			}
+		}
 		double maxDistance = MapUtils.getDistance(start, end);
 		if(!intermediatesEmpty) {
 			LatLon b = start;
@@ -125,7 +204,8 @@ public class RoutePlannerFrontEnd {
 				&& maxDistance > ctx.config.DEVIATION_RADIUS * 6) {
 			RoutingContext nctx = buildRoutingContext(ctx.config, ctx.nativeLib, ctx.getMaps(), RouteCalculationMode.BASE);
 			nctx.calculationProgress = ctx.calculationProgress ;
-			List<RouteSegmentResult> ls = searchRoute(nctx, start, end, intermediates);
+			// base route is a part of this calculation, so it is not reported to metrics listener
+			List<RouteSegmentResult> ls = searchRouteImpl(nctx, start, end, intermediates, null);
 			routeDirection = PrecalculatedRouteDirection.build(ls, ctx.config.DEVIATION_RADIUS, ctx.getRouter().getMaxDefaultSpeed());
 		}
 		if(intermediatesEmpty && ctx.nativeLib != null) {
@@ -165,9 +245,48 @@ public class RoutePlannerFrontEnd {
 		List<RouteSegmentResult> res = searchRoute(ctx, points, routeDirection);
 		// make start and end more precise
 		makeStartEndPointsPrecise(res, start, end, intermediates);
+		if (ctx.alternativeRoutes != null) {
+			for (List<RouteSegmentResult> alt : ctx.alternativeRoutes) {
+				makeStartEndPointsPrecise(alt, start, end, null);
+			}
+		}
 		if(res != null) {
 			new RouteResultPreparation().printResults(ctx, start, end, res);
+			if (incremental) {
+				ctx.incrementalRouteState = new BinaryRoutePlanner().createIncrementalRouteState(ctx, res, end);
+			}
+		}
+		return res;
+	}
+
+	private List<RouteSegmentResult> searchRouteIncrementally(final RoutingContext ctx, LatLon start, LatLon end,
+			IncrementalRouteState state) throws IOException, InterruptedException {
+		boolean tilesReused = state.moveLoadedTiles(ctx);
+		RouteSegmentPoint startPoint = findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
+		if (startPoint == null) {
+			return null;
+		}
+		ctx.startX = startPoint.getRoad().getPoint31XTile(startPoint.getSegmentStart());
+		ctx.startY = startPoint.getRoad().getPoint31YTile(startPoint.getSegmentStart());
+		ctx.targetX = MapUtils.get31TileNumberX(end.getLongitude());
+		ctx.targetY = MapUtils.get31TileNumberY(end.getLatitude());
+		refreshProgressDistance(ctx);
+		long time = System.nanoTime();
+		FinalRouteSegment finalSegment = new BinaryRoutePlanner().searchRouteIncrementally(ctx, startPoint, state);
+		ctx.timeToSearch += System.nanoTime() - time;
+		if (finalSegment == null) {
+			log.info("Incremental recalculation didn't join previous route, visited " + ctx.visitedSegments);
+			return null;
 		}
+		ctx.finalRouteSegment = finalSegment;
+		time = System.nanoTime();
+		List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, finalSegment);
+		ctx.timeToPrepareResult += System.nanoTime() - time;
+		makeStartEndPointsPrecise(res, start, end, null);
+		log.info("Incremental recalculation joined previous route (" + state.getSize() + " intervals) in " 
+				+ ctx.timeToSearch / 1e6 + " ms, visited " + ctx.visitedSegments + ", tiles reused " + tilesReused);
+		new RouteResultPreparation().printResults(ctx, start, end, res);
+		ctx.incrementalRouteState = new BinaryRoutePlanner().createIncrementalRouteState(ctx, res, end);
 		return res;
 	}
 
@@ -292,7 +411,7 @@ public class RoutePlannerFrontEnd {
 	}
 	
 	private List<RouteSegmentResult> searchRouteInternalPrepare(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end, 
-			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+			PrecalculatedRouteDirection routeDirection, boolean calculateAlternatives) throws IOException, InterruptedException {
 		RouteSegment recalculationEnd = getRecalculationEnd(ctx);
 		if(recalculationEnd != null) {
 			ctx.initStartAndTargetPoints(start, recalculationEnd);
@@ -300,20 +419,34 @@ public class RoutePlannerFrontEnd {
 			ctx.initStartAndTargetPoints(start, end);
 		}
 		if(routeDirection != null) {
-			ctx.precalculatedRouteDirection = routeDirection.adopt(ctx);
+			synchronized (routeDirection) {
+				ctx.precalculatedRouteDirection = routeDirection.adopt(ctx);
+			}
 		}
 		if (ctx.nativeLib != null) {
 			return runNativeRouting(ctx, recalculationEnd);
 		} else {
 			refreshProgressDistance(ctx);
+			long time = System.nanoTime();
 			// Split into 2 methods to let GC work in between
+			AlternativeRoutes alternatives = null;
 			if(useOldVersion) {
 				new BinaryRoutePlannerOld().searchRouteInternal(ctx, start, end);
+			} else if (calculateAlternatives && recalculationEnd == null) {
+				alternatives = new AlternativeRoutes(alternativeRoutes);
+				ctx.finalRouteSegment = alternatives.searchRoute(ctx, start, end);
 			} else {
 				ctx.finalRouteSegment = new BinaryRoutePlanner().searchRouteInternal(ctx, start, end, recalculationEnd);
 			}
+			ctx.timeToSearch += System.nanoTime() - time;
+			time = System.nanoTime();
 			// 4. Route is found : collect all segments and prepare result
-			return new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+			List<RouteSegmentResult> res = new RouteResultPreparation().prepareResult(ctx, ctx.finalRouteSegment);
+			if (alternatives != null) {
+				ctx.alternativeRoutes = alternatives.prepareAlternatives(ctx);
+			}
+			ctx.timeToPrepareResult += System.nanoTime() - time;
+			return res;
 		}
 	}
 	
@@ -428,7 +561,15 @@ public class RoutePlannerFrontEnd {
 				}
 			}
 		}
+		// with time dependent speeds every leg departs when previous leg arrives, so legs are calculated sequentially
+		boolean timeDependent = ctx.speedOverlay != null && ctx.speedOverlay.isTimeDependent();
+		if (parallelLegsThreads > 1 && ctx.nativeLib == null && ctx.visitor == null && firstPartRecalculatedRoute == null
+				&& !timeDependent) {
+			return searchRouteLegsInParallel(ctx, points, routeDirection);
+		}
 		List<RouteSegmentResult> results = new ArrayList<RouteSegmentResult>();
+		// travel time of prepared legs (routing time includes priorities and penalties)
+		double legsTime = 0;
 		for (int i = 0; i < points.size() - 1; i++) {
 			RoutingContext local = new RoutingContext(ctx);
 			if (i == 0) {
@@ -438,9 +579,14 @@ public class RoutePlannerFrontEnd {
 			}
 			local.visitor = ctx.visitor;
 			local.calculationProgress = ctx.calculationProgress;
-			List<RouteSegmentResult> res = searchRouteInternalPrepare(local, points.get(i), points.get(i + 1), routeDirection);
+			// next leg departs when previous leg arrives
+			local.departureTime = ctx.departureTime + (long) (legsTime * 1000);
+			List<RouteSegmentResult> res = searchRouteInternalPrepare(local, points.get(i), points.get(i + 1), routeDirection, false);
 
 			results.addAll(res);
+			for (RouteSegmentResult r : res) {
+				legsTime += r.getSegmentTime();
+			}
 			ctx.distinctLoadedTiles += local.distinctLoadedTiles;
 			ctx.loadedTiles += local.loadedTiles;
 			ctx.visitedSegments += local.visitedSegments;
@@ -450,6 +596,7 @@ public class RoutePlannerFrontEnd {
 			ctx.timeToLoadHeaders += local.timeToLoadHeaders;
 			ctx.relaxedSegments += local.relaxedSegments;
 			ctx.routingTime += local.routingTime;
+			addLegMetrics(ctx, local);
 
 			local.unloadAllData(ctx);
 			if (restPartRecalculatedRoute != null) {
@@ -462,6 +609,145 @@ public class RoutePlannerFrontEnd {
 
 	}
 	
+	/**
+	 * Reads region rules before routing starts, so routing contexts built for the same readers and router
+	 * could run in parallel without modifying shared state.
+	 */
+	public void prepareParallelRouting(RoutingContext ctx) throws IOException {
+		for (Entry<RouteRegion, BinaryMapIndexReader> e : ctx.reverseMap.entrySet()) {
+			synchronized (e.getValue()) {
+				e.getValue().initRouteRegion(e.getKey());
+			}
+			ctx.config.router.prepareRegion(e.getKey());
+		}
+	}
+
+	private List<RouteSegmentResult> searchRouteLegsInParallel(final RoutingContext ctx, List<RouteSegmentPoint> points,
+			final PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
+		prepareParallelRouting(ctx);
+		int legsCount = points.size() - 1;
+		final RouteCalculationProgress progress = ctx.calculationProgress;
+		final RoutingContext[] legs = new RoutingContext[legsCount];
+		if (progress != null) {
+			progress.totalLegs = legsCount;
+			progress.calculatedLegs = 0;
+			progress.legs = new RouteCalculationProgress[legsCount];
+		}
+		List<Future<List<RouteSegmentResult>>> futures = new ArrayList<Future<List<RouteSegmentResult>>>();
+		int threads = Math.min(parallelLegsThreads, legsCount);
+		// legs in progress shouldn't take more memory than one sequential calculation
+		RoutingConfiguration legConfig = ctx.config.copy(ctx.config.memoryLimitation / threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<RouteSegmentResult> results = new ArrayList<RouteSegmentResult>();
+		try {
+			for (int i = 0; i < legsCount; i++) {
+				// each leg has own search state and loaded tiles
+				final RoutingContext local = buildRoutingContext(legConfig, null, ctx.getMaps(), ctx.calculationMode);
+				local.leftSideNavigation = ctx.leftSideNavigation;
+				local.speedOverlay = ctx.speedOverlay;
+				local.departureTime = ctx.departureTime;
+				local.calculationProgress = new RouteCalculationProgress();
+				if (progress != null) {
+					progress.legs[i] = local.calculationProgress;
+				}
+				legs[i] = local;
+				final RouteSegmentPoint start = points.get(i);
+				final RouteSegmentPoint end = points.get(i + 1);
+				futures.add(executor.submit(new Callable<List<RouteSegmentResult>>() {
+					@Override
+					public List<RouteSegmentResult> call() throws Exception {
+						try {
+							return searchRouteInternalPrepare(local, start, end, routeDirection, false);
+						} finally {
+							local.unloadAllData();
+							if (progress != null) {
+								synchronized (progress) {
+									progress.calculatedLegs++;
+								}
+							}
+						}
+					}
+				}));
+			}
+			RouteCalculationProgress failedLeg = null;
+			for (int i = 0; i < legsCount; i++) {
+				List<RouteSegmentResult> res = waitForLeg(futures.get(i), progress, legs);
+				RoutingContext local = legs[i];
+				if (res.isEmpty() && failedLeg == null) {
+					failedLeg = local.calculationProgress;
+				}
+				results.addAll(res);
+				ctx.distinctLoadedTiles += local.distinctLoadedTiles;
+				ctx.loadedTiles += local.loadedTiles;
+				ctx.visitedSegments += local.visitedSegments;
+				ctx.loadedPrevUnloadedTiles += local.loadedPrevUnloadedTiles;
+				ctx.timeToCalculate += local.timeToCalculate;
+				ctx.timeToLoad += local.timeToLoad;
+				ctx.timeToLoadHeaders += local.timeToLoadHeaders;
+				ctx.relaxedSegments += local.relaxedSegments;
+				ctx.routingTime += local.routingTime;
+				addLegMetrics(ctx, local);
+			}
+			if (progress != null) {
+				copyLegProgress(failedLeg != null ? failedLeg : legs[legsCount - 1].calculationProgress, progress);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		ctx.unloadAllData();
+		return results;
+	}
+
+	private List<RouteSegmentResult> waitForLeg(Future<List<RouteSegmentResult>> leg, RouteCalculationProgress progress,
+			RoutingContext[] legs) throws IOException, InterruptedException {
+		while (true) {
+			try {
+				return leg.get(100, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if (progress != null && progress.isCancelled) {
+					for (RoutingContext l : legs) {
+						l.calculationProgress.isCancelled = true;
+					}
+				}
+			} catch (ExecutionException e) {
+				for (RoutingContext l : legs) {
+					l.calculationProgress.isCancelled = true;
+				}
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof InterruptedException) {
+					throw (InterruptedException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	private void addLegMetrics(RoutingContext ctx, RoutingContext local) {
+		ctx.timeToSearch += local.timeToSearch;
+		ctx.timeToPrepareResult += local.timeToPrepareResult;
+		ctx.timeToFindInitialSegments += local.timeToFindInitialSegments;
+		ctx.timeNanoToCalcDeviation += local.timeNanoToCalcDeviation;
+		ctx.unloadedTiles += local.unloadedTiles;
+		ctx.maxLoadedTiles = Math.max(ctx.maxLoadedTiles, Math.max(local.maxLoadedTiles, local.getCurrentlyLoadedTiles()));
+		ctx.maxDirectQueueSize = Math.max(ctx.maxDirectQueueSize, local.maxDirectQueueSize);
+		ctx.maxReverseQueueSize = Math.max(ctx.maxReverseQueueSize, local.maxReverseQueueSize);
+		ctx.maxEstimatedMemory = Math.max(ctx.maxEstimatedMemory, local.maxEstimatedMemory);
+	}
+
+	private void copyLegProgress(RouteCalculationProgress leg, RouteCalculationProgress progress) {
+		progress.distanceFromBegin = leg.distanceFromBegin;
+		progress.directDistance = leg.directDistance;
+		progress.directSegmentQueueSize = leg.directSegmentQueueSize;
+		progress.distanceFromEnd = leg.distanceFromEnd;
+		progress.reverseSegmentQueueSize = leg.reverseSegmentQueueSize;
+		progress.reverseDistance = leg.reverseDistance;
+		progress.totalEstimatedDistance = leg.totalEstimatedDistance;
+	}
+	
 	@SuppressWarnings("static-access")
 	private List<RouteSegmentResult> searchRoute(final RoutingContext ctx, RouteSegmentPoint start, RouteSegmentPoint end, 
 			PrecalculatedRouteDirection routeDirection) throws IOException, InterruptedException {
@@ -470,7 +756,8 @@ public class RoutePlannerFrontEnd {
 			float mb = (1 << 20);
 			log.warn("Used before routing " + h1 / mb+ " actual");
 		}
-		List<RouteSegmentResult> result = searchRouteInternalPrepare(ctx, start, end, routeDirection);
+		List<RouteSegmentResult> result = searchRouteInternalPrepare(ctx, start, end, routeDirection,
+				alternativeRoutes > 0 && ctx.calculationMode != RouteCalculationMode.BASE);
 		if (RoutingContext.SHOW_GC_SIZE) {
 			int sz = ctx.global.size;
 			log.warn("Subregion size " + ctx.subregionTiles.size() + " " + " tiles " + ctx.indexedSubregions.size());
@@ -70,6 +70,8 @@ public class RouteResultPreparation {
 	}
 
 	private void calculateTimeSpeed(RoutingContext ctx, List<RouteSegmentResult> result) throws IOException {
+		// time from departure for time dependent speeds of speed overlay
+		double routeTime = 0;
 		for (int i = 0; i < result.size(); i++) {
 			RouteSegmentResult rr = result.get(i);
 			RouteDataObject road = rr.getObject();
@@ -87,6 +89,7 @@ public class RouteResultPreparation {
 			boolean plus = rr.getStartPointIndex() < rr.getEndPointIndex();
 			int next;
 			double distance = 0;
+			double movingTime = 0;
 			for (int j = rr.getStartPointIndex(); j != rr.getEndPointIndex(); j = next) {
 				next = plus ? j + 1 : j - 1;
 				double d = measuredDist(road.getPoint31XTile(j), road.getPoint31YTile(j), road.getPoint31XTile(next),
@@ -96,13 +99,23 @@ public class RouteResultPreparation {
 				if (obstacle < 0) {
 					obstacle = 0;
 				}
-				distOnRoadToPass += d / speed + obstacle;
+				double intervalSpeed = speed;
+				if (ctx.speedOverlay != null) {
+					float overlaySpeed = ctx.speedOverlay.getSpeed(road, Math.min(j, next), 
+							ctx.departureTime + (long) ((routeTime + distOnRoadToPass) * 1000));
+					if (overlaySpeed > 0) {
+						intervalSpeed = overlaySpeed;
+					}
+				}
+				movingTime += d / intervalSpeed;
+				distOnRoadToPass += d / intervalSpeed + obstacle;
 
 			}
 			// last point turn time can be added
 			// if(i + 1 < result.size()) { distOnRoadToPass += ctx.getRouter().calculateTurnTime(); }
+			routeTime += distOnRoadToPass;
 			rr.setSegmentTime((float) distOnRoadToPass);
-			rr.setSegmentSpeed((float) speed);
+			rr.setSegmentSpeed((float) (ctx.speedOverlay != null && movingTime > 0 ? distance / movingTime : speed));
 			rr.setDistance((float) distance);
 		}
 	}
@@ -185,7 +198,7 @@ public class RouteResultPreparation {
 		}
 	}
 
-	private List<RouteSegmentResult> convertFinalSegmentToResults(RoutingContext ctx, FinalRouteSegment finalSegment) {
+	List<RouteSegmentResult> convertFinalSegmentToResults(RoutingContext ctx, FinalRouteSegment finalSegment) {
 		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
 		if (finalSegment != null) {
 			ctx.routingTime = finalSegment.distanceFromStart;
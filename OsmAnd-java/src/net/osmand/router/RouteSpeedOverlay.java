@@ -0,0 +1,21 @@
+package net.osmand.router;
+
+import net.osmand.binary.RouteDataObject;
+
+/**
+ * Speeds of road intervals which replace speeds defined by router, e.g. historical or live traffic speeds
+ * (set to {@link RoutingContext#speedOverlay}). It is called for every road interval during route search,
+ * so implementations shouldn't allocate objects.
+ */
+public interface RouteSpeedOverlay {
+
+	/**
+	 * Returns speed (m/s) on interval (segment, segment + 1) of the road at time (ms) or negative value if it is unknown
+	 */
+	public float getSpeed(RouteDataObject road, int segment, long time);
+
+	/**
+	 * Speeds depend on time, so route is searched only forward from departure time
+	 */
+	public boolean isTimeDependent();
+}
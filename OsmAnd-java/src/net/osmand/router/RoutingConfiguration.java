@@ -49,6 +49,22 @@ public class RoutingConfiguration {
 	// 1.5 Recalculate distance help
 	public float recalculateDistance = 20000f;
 	
+	/**
+	 * Copy of configuration with other memory limit, router and attributes are shared
+	 */
+	public RoutingConfiguration copy(int memoryLimitation) {
+		RoutingConfiguration c = new RoutingConfiguration();
+		c.attributes = attributes;
+		c.heuristicCoefficient = heuristicCoefficient;
+		c.ZOOM_TO_LOAD_TILES = ZOOM_TO_LOAD_TILES;
+		c.memoryLimitation = memoryLimitation;
+		c.planRoadDirection = planRoadDirection;
+		c.router = router;
+		c.routerName = routerName;
+		c.initialDirection = initialDirection;
+		c.recalculateDistance = recalculateDistance;
+		return c;
+	}
 
 	public static class Builder {
 		// Design time storage
@@ -3,6 +3,7 @@ package net.osmand.router;
 
 import gnu.trove.iterator.TIntObjectIterator;
 import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
@@ -67,6 +68,13 @@ public class RoutingContext {
 	public boolean leftSideNavigation;
 	public List<RouteSegmentResult> previouslyCalculatedRoute;
 	public PrecalculatedRouteDirection precalculatedRouteDirection;
+	// state of previous calculation for incremental recalculation, replaced by the state of calculated route
+	public IncrementalRouteState incrementalRouteState;
+	// alternative routes calculated with the route ordered by time (see RoutePlannerFrontEnd#setAlternativeRoutes)
+	public List<List<RouteSegmentResult>> alternativeRoutes;
+	// speeds replacing speeds of router (e.g. traffic) and departure time (ms) for time dependent speeds
+	public RouteSpeedOverlay speedOverlay;
+	public long departureTime = System.currentTimeMillis();
 
 	// 2. Routing memory cache (big objects)
 	TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
@@ -91,6 +99,13 @@ public class RoutingContext {
 	long timeToLoadHeaders = 0;
 	long timeToFindInitialSegments = 0;
 	long timeToCalculate = 0;
+	long timeToSearch = 0;
+	long timeToPrepareResult = 0;
+	
+	int maxDirectQueueSize = 0;
+	int maxReverseQueueSize = 0;
+	long maxEstimatedMemory = 0;
+	RoutingMetrics metrics;
 	
 	int distinctLoadedTiles = 0;
 	int maxLoadedTiles = 0;
@@ -116,6 +131,8 @@ public class RoutingContext {
 		this.leftSideNavigation = cp.leftSideNavigation;
 		this.reverseMap.putAll(cp.reverseMap);
 		this.nativeLib = cp.nativeLib;
+		this.speedOverlay = cp.speedOverlay;
+		this.departureTime = cp.departureTime;
 		// copy local data and clear caches
 		for(RoutingSubregionTile tl : subregionTiles) {
 			if(tl.isLoaded()) {
@@ -172,6 +189,64 @@ public class RoutingContext {
 		return global.size;
 	}
 	
+	/**
+	 * Metrics of the last calculation with this context (null if route wasn't calculated)
+	 */
+	public RoutingMetrics getMetrics() {
+		return metrics;
+	}
+	
+	void resetMetrics() {
+		timeNanoToCalcDeviation = 0;
+		timeToLoad = 0;
+		timeToLoadHeaders = 0;
+		timeToFindInitialSegments = 0;
+		timeToCalculate = 0;
+		timeToSearch = 0;
+		timeToPrepareResult = 0;
+		maxDirectQueueSize = 0;
+		maxReverseQueueSize = 0;
+		maxEstimatedMemory = 0;
+		distinctLoadedTiles = 0;
+		maxLoadedTiles = 0;
+		loadedPrevUnloadedTiles = 0;
+		unloadedTiles = 0;
+		routingTime = 0;
+		loadedTiles = 0;
+		visitedSegments = 0;
+		relaxedSegments = 0;
+		metrics = null;
+	}
+
+	RoutingMetrics collectMetrics(long totalTime, List<RouteSegmentResult> result) {
+		RoutingMetrics m = new RoutingMetrics();
+		m.calculationMode = calculationMode;
+		m.nativeRouting = nativeLib != null;
+		m.totalTime = totalTime;
+		m.timeToFindInitialSegments = timeToFindInitialSegments;
+		m.timeToSearch = timeToSearch;
+		m.timeToLoad = timeToLoad;
+		m.timeToLoadHeaders = timeToLoadHeaders;
+		m.timeToCalcDeviation = timeNanoToCalcDeviation;
+		m.timeToPrepareResult = timeToPrepareResult;
+		m.loadedTiles = loadedTiles;
+		m.distinctLoadedTiles = distinctLoadedTiles;
+		m.loadedPrevUnloadedTiles = loadedPrevUnloadedTiles;
+		m.unloadedTiles = unloadedTiles;
+		m.maxLoadedTiles = Math.max(maxLoadedTiles, getCurrentlyLoadedTiles());
+		m.visitedSegments = visitedSegments;
+		m.relaxedSegments = relaxedSegments;
+		m.maxDirectQueueSize = maxDirectQueueSize;
+		m.maxReverseQueueSize = maxReverseQueueSize;
+		m.resultSegments = result == null ? 0 : result.size();
+		m.alternativeRoutes = alternativeRoutes == null ? 0 : alternativeRoutes.size();
+		m.maxEstimatedMemory = Math.max(maxEstimatedMemory, global.size);
+		Runtime rt = Runtime.getRuntime();
+		m.usedMemory = rt.totalMemory() - rt.freeMemory();
+		metrics = m;
+		return m;
+	}
+	
 	
 	public void setVisitor(RouteSegmentVisitor visitor) {
 		this.visitor = visitor;
@@ -236,6 +311,81 @@ public class RoutingContext {
 		indexedSubregions.clear();
 	}
 	
+	/**
+	 * Routing tiles detached from the context to be reused by the next calculation for the same files
+	 */
+	static class LoadedTiles {
+		final Map<BinaryMapIndexReader, List<RouteSubregion>> map;
+		final boolean base;
+		final List<RoutingSubregionTile> subregionTiles;
+		final TLongObjectHashMap<List<RoutingSubregionTile>> indexedSubregions;
+		final TLongObjectHashMap<List<RouteDataObject>> tileRoutes;
+		final TileStatistics global;
+
+		LoadedTiles(RoutingContext ctx) {
+			this.map = new LinkedHashMap<BinaryMapIndexReader, List<RouteSubregion>>(ctx.map);
+			this.base = ctx.calculationMode == RouteCalculationMode.BASE;
+			this.subregionTiles = ctx.subregionTiles;
+			this.indexedSubregions = ctx.indexedSubregions;
+			this.tileRoutes = ctx.tileRoutes;
+			this.global = ctx.global;
+		}
+	}
+
+	/**
+	 * Detaches loaded tiles from the context, only tiles containing one of the points are kept loaded (other are
+	 * unloaded), context is left without data. Returns null for native routing.
+	 */
+	LoadedTiles detachLoadedTiles(TIntArrayList xs, TIntArrayList ys) {
+		if (nativeLib != null) {
+			return null;
+		}
+		maxLoadedTiles = Math.max(maxLoadedTiles, getCurrentlyLoadedTiles());
+		maxEstimatedMemory = Math.max(maxEstimatedMemory, global.size);
+		for (RoutingSubregionTile tl : subregionTiles) {
+			if (tl.isLoaded() && !containsPoint(tl.subregion, xs, ys)) {
+				tl.unload();
+				unloadedTiles++;
+				global.size -= tl.tileStatistics.size;
+			}
+		}
+		LoadedTiles t = new LoadedTiles(this);
+		subregionTiles = new ArrayList<RoutingSubregionTile>();
+		indexedSubregions = new TLongObjectHashMap<List<RoutingSubregionTile>>();
+		tileRoutes = new TLongObjectHashMap<List<RouteDataObject>>();
+		global = new TileStatistics();
+		return t;
+	}
+
+	private static boolean containsPoint(RouteSubregion s, TIntArrayList xs, TIntArrayList ys) {
+		for (int i = 0; i < xs.size(); i++) {
+			int x = xs.get(i);
+			int y = ys.get(i);
+			if (x >= s.left && x <= s.right && y >= s.top && y <= s.bottom) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes over tiles detached from other context built for the same files
+	 */
+	boolean attachLoadedTiles(LoadedTiles t) {
+		if (nativeLib != null || !t.map.keySet().equals(map.keySet())
+				|| t.base != (calculationMode == RouteCalculationMode.BASE)) {
+			return false;
+		}
+		// tiles refer to subregions of the other context
+		map.clear();
+		map.putAll(t.map);
+		subregionTiles = t.subregionTiles;
+		indexedSubregions = t.indexedSubregions;
+		tileRoutes = t.tileRoutes;
+		global = t.global;
+		return true;
+	}
+	
 	private int searchSubregionTile(RouteSubregion subregion){
 		RoutingSubregionTile key = new RoutingSubregionTile(subregion);
 		long now = System.nanoTime();
@@ -315,7 +465,11 @@ public class RoutingContext {
 			try {
 				BinaryMapIndexReader reader = reverseMap.get(ts.subregion.routeReg);
 				ts.setLoadedNonNative();
-				List<RouteDataObject> res = reader.loadRouteIndexData(ts.subregion);
+				List<RouteDataObject> res;
+				// reader could be shared by contexts calculating route legs in parallel 
+				synchronized (reader) {
+					res = reader.loadRouteIndexData(ts.subregion);
+				}
 //				System.out.println(ts.subregion.shiftToData + " " + res);
 				if(toLoad != null) {
 					toLoad.addAll(res);
@@ -388,7 +542,10 @@ public class RoutingContext {
 		List<RoutingSubregionTile> list = new ArrayList<RoutingContext.RoutingSubregionTile>();
 		SearchRequest<RouteDataObject> request = BinaryMapIndexReader.buildSearchRouteRequest(0,
 				Integer.MAX_VALUE, 0, Integer.MAX_VALUE, null);
-		List<RouteSubregion> subregs = reader.searchRouteIndexTree(request, Collections.singletonList(reg));
+		List<RouteSubregion> subregs;
+		synchronized (reader) {
+			subregs = reader.searchRouteIndexTree(request, Collections.singletonList(reg));
+		}
 		for(RouteSubregion s : subregs) {
 			list.add(new RoutingSubregionTile(s));
 		}
@@ -405,7 +562,10 @@ public class RoutingContext {
 				if (r.getValue().size() > 0) {
 					long now = System.nanoTime();
 					// int rg = r.getValue().get(0).routeReg.regionsRead;
-					List<RouteSubregion> subregs = r.getKey().searchRouteIndexTree(request, r.getValue());
+					List<RouteSubregion> subregs;
+					synchronized (r.getKey()) {
+						subregs = r.getKey().searchRouteIndexTree(request, r.getValue());
+					}
 					if(subregs.size() > 0) {
 						checkOldRoutingFiles(r.getKey());
 					}
@@ -0,0 +1,68 @@
+package net.osmand.router;
+
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+
+/**
+ * Counters of one route calculation, available after RoutePlannerFrontEnd.searchRoute
+ * through RoutingContext.getMetrics(). Times are in nanoseconds, memory in bytes.
+ */
+public class RoutingMetrics {
+
+	public interface RoutingMetricsListener {
+
+		public void routeCalculated(RoutingContext ctx, RoutingMetrics metrics);
+	}
+
+	public RouteCalculationMode calculationMode;
+	public boolean nativeRouting;
+
+	// phases
+	public long totalTime;
+	public long timeToFindInitialSegments;
+	// search includes loading tiles and headers during the search
+	public long timeToSearch;
+	public long timeToLoad;
+	public long timeToLoadHeaders;
+	public long timeToCalcDeviation;
+	public long timeToPrepareResult;
+
+	// tiles
+	public int loadedTiles;
+	public int distinctLoadedTiles;
+	public int loadedPrevUnloadedTiles;
+	public int unloadedTiles;
+	public int maxLoadedTiles;
+
+	// search
+	public int visitedSegments;
+	public int relaxedSegments;
+	public int maxDirectQueueSize;
+	public int maxReverseQueueSize;
+	public int resultSegments;
+	public int alternativeRoutes;
+
+	// memory
+	public long maxEstimatedMemory;
+	public long usedMemory;
+
+	public double getRelaxationsPerSecond() {
+		if (timeToSearch == 0) {
+			return 0;
+		}
+		return relaxedSegments * 1e9 / timeToSearch;
+	}
+
+	@Override
+	public String toString() {
+		return "Routing " + calculationMode + (nativeRouting ? " (native)" : "") +
+				": total " + totalTime / 1e6 + " ms, initial segments " + timeToFindInitialSegments / 1e6 +
+				" ms, search " + timeToSearch / 1e6 + " ms (load " + timeToLoad / 1e6 + " ms, headers " + timeToLoadHeaders / 1e6 +
+				" ms, deviation " + timeToCalcDeviation / 1e6 + " ms), prepare result " + timeToPrepareResult / 1e6 + " ms" +
+				"; tiles loaded " + loadedTiles + " (distinct " + distinctLoadedTiles + ", again " + loadedPrevUnloadedTiles +
+				"), unloaded " + unloadedTiles + ", max loaded " + maxLoadedTiles +
+				"; visited " + visitedSegments + ", relaxed " + relaxedSegments + " (" + (int) getRelaxationsPerSecond() + "/s)" +
+				", max queues " + maxDirectQueueSize + "/" + maxReverseQueueSize + ", result segments " + resultSegments +
+				", alternatives " + alternativeRoutes +
+				"; memory estimated " + maxEstimatedMemory / (1 << 20) + " MB, used " + usedMemory / (1 << 20) + " MB";
+	}
+}
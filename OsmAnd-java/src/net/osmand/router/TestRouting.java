@@ -5,11 +5,20 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.osmand.NativeLibrary;
 import net.osmand.PlatformUtil;
@@ -19,6 +28,10 @@ import net.osmand.router.BinaryRoutePlanner.FinalRouteSegment;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
 import net.osmand.router.RoutingConfiguration.Builder;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -30,6 +43,8 @@ public class TestRouting {
 	public static NativeLibrary lib = null;
 	public static boolean oldRouting = false;
 	private static String vehicle = "car";
+	// time differences less than that are not considered as regression
+	public static long MIN_TIME_REGRESSION_MS = 100;
 	
 	
 	public static class Parameters {
@@ -41,6 +56,12 @@ public class TestRouting {
 		public double endLon = 0;
 		public RoutingConfiguration.Builder configBuilder;
 		public String vehicle = "car";
+		public int threads = 1;
+		public File baseline;
+		public boolean updateBaseline;
+		// allowed degradation against baseline in percent
+		public float threshold = 20;
+		public File report;
 		
 		public static Parameters init(String[] args) throws IOException, XmlPullParserException {
 			Parameters p = new Parameters();
@@ -56,6 +77,16 @@ public class TestRouting {
 					obfDirectory = a.substring("-obfDir=".length());
 				} else if (a.startsWith("-vehicle=")) {
 					p.vehicle = a.substring("-vehicle=".length());
+				} else if (a.startsWith("-threads=")) {
+					p.threads = Integer.parseInt(a.substring("-threads=".length()));
+				} else if (a.startsWith("-baseline=")) {
+					p.baseline = new File(a.substring("-baseline=".length()));
+				} else if (a.startsWith("-updateBaseline")) {
+					p.updateBaseline = true;
+				} else if (a.startsWith("-threshold=")) {
+					p.threshold = Float.parseFloat(a.substring("-threshold=".length()));
+				} else if (a.startsWith("-report=")) {
+					p.report = new File(a.substring("-report=".length()));
 				} else if (a.startsWith("-start=")) {
 					String start = a.substring("-start=".length());
 					String[] pt = start.split(";");
@@ -108,6 +139,8 @@ public class TestRouting {
 			boolean allSuccess = runAllTests(params, lib);
 			if (allSuccess) {
 				System.out.println("All is successfull " + (System.currentTimeMillis() - time) + " ms");
+			} else {
+				System.exit(1);
 			}
 		}
 		if(params.startLat != 0) {
@@ -124,22 +157,167 @@ public class TestRouting {
 	}
 
 
-	public static boolean runAllTests(Parameters params, NativeLibrary lib) throws FileNotFoundException, IOException, Exception {
-		BinaryMapIndexReader[] rs = collectFiles(params.obfDir.getAbsolutePath());
-		
+	public static boolean runAllTests(Parameters params, final NativeLibrary lib) throws FileNotFoundException, IOException, Exception {
+		final BinaryMapIndexReader[] rs = collectFiles(params.obfDir.getAbsolutePath());
+		long time = System.currentTimeMillis();
+		List<TestCase> cases = new ArrayList<TestCase>();
+		for (File f : params.tests) {
+			cases.addAll(parseTests(f.getName(), new FileInputStream(f)));
+		}
+		final Builder config = params.configBuilder;
+		int threads = lib != null ? 1 : Math.max(1, params.threads);
+		List<TestResult> results = new ArrayList<TestResult>();
+		if (threads == 1) {
+			for (TestCase c : cases) {
+				System.out.println("Before test " + c.file + " " + c.getDescription());
+				System.out.flush();
+				results.add(runTest(c, config, lib, rs));
+			}
+		} else {
+			prepareParallelRouting(cases, config, rs);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<TestResult>> futures = new ArrayList<Future<TestResult>>();
+				for (final TestCase c : cases) {
+					futures.add(executor.submit(new java.util.concurrent.Callable<TestResult>() {
+						@Override
+						public TestResult call() throws Exception {
+							return runTest(c, config, lib, rs);
+						}
+					}));
+				}
+				for (Future<TestResult> f : futures) {
+					try {
+						results.add(f.get());
+					} catch (ExecutionException e) {
+						throw new IllegalStateException(e.getCause());
+					}
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		if (params.baseline != null && params.baseline.exists() && !params.updateBaseline) {
+			compareWithBaseline(results, readResults(params.baseline), params.threshold);
+		}
 		boolean allSuccess = true;
-		for(File f : params.tests) {
-			System.out.println("Before test " + f.getAbsolutePath());
-			System.out.flush();
-			allSuccess &= test(lib, new FileInputStream(f), rs, params.configBuilder);	
+		for (TestResult r : results) {
+			if (!r.skipped && !r.isSuccess()) {
+				allSuccess = false;
+				System.err.println("FAILED " + r.getKey() + " : " + (r.error != null ? r.error : r.regressions));
+			}
+		}
+		long totalTime = System.currentTimeMillis() - time;
+		JSONObject report = buildReport(results, threads, params.threshold, totalTime, allSuccess);
+		if (params.report != null) {
+			writeJson(report, params.report);
+		}
+		if (params.baseline != null && params.updateBaseline) {
+			writeJson(report, params.baseline);
+			System.out.println("Baseline is updated " + params.baseline.getAbsolutePath());
 		}
 		return allSuccess;
 	}
 
+	// reads region encoding rules before threads start to share readers and routers
+	private static void prepareParallelRouting(List<TestCase> cases, Builder config, BinaryMapIndexReader[] rs) throws IOException {
+		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(oldRouting);
+		for (TestCase c : cases) {
+			RoutingConfiguration rconfig;
+			synchronized (config) {
+				rconfig = config.build(c.get("vehicle"), MEMORY_TEST_LIMIT);
+			}
+			router.prepareParallelRouting(router.buildRoutingContext(rconfig, null, rs));
+		}
+	}
+
+	private static TestResult runTest(TestCase c, Builder config, NativeLibrary lib, BinaryMapIndexReader[] rs) {
+		TestResult result;
+		long ts = System.nanoTime();
+		try {
+			result = testRoute(c, config, lib, rs);
+		} catch (Exception e) {
+			result = new TestResult(c);
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+		}
+		result.wallTime = (System.nanoTime() - ts) / 1000000;
+		return result;
+	}
+
+	private static void compareWithBaseline(List<TestResult> results, Map<String, TestResult> baseline, float threshold) {
+		for (TestResult r : results) {
+			TestResult b = baseline.get(r.getKey());
+			if (r.skipped || r.error != null || b == null || b.error != null) {
+				continue;
+			}
+			r.baseline = b;
+			if (isRegression(b.wallTime, r.wallTime, threshold) && r.wallTime - b.wallTime > MIN_TIME_REGRESSION_MS) {
+				r.regressions.add(MessageFormat.format("Wall time (baseline) {0} ms < {1} ms", b.wallTime + "", r.wallTime + ""));
+			}
+			if (isRegression(b.visitedSegments, r.visitedSegments, threshold)) {
+				r.regressions.add(MessageFormat.format("Visited segments (baseline) {0} < {1}", b.visitedSegments + "",
+						r.visitedSegments + ""));
+			}
+			if (isRegression(b.maxEstimatedMemory, r.maxEstimatedMemory, threshold)) {
+				r.regressions.add(MessageFormat.format("Memory (baseline) {0} < {1}", b.maxEstimatedMemory + "",
+						r.maxEstimatedMemory + ""));
+			}
+		}
+	}
+
+	private static boolean isRegression(long baseline, long value, float threshold) {
+		return baseline > 0 && value > baseline * (1 + threshold / 100);
+	}
+
+	private static JSONObject buildReport(List<TestResult> results, int threads, float threshold, long totalTime,
+			boolean success) throws JSONException {
+		JSONObject report = new JSONObject();
+		report.put("threads", threads);
+		report.put("threshold", threshold);
+		report.put("totalTime", totalTime);
+		report.put("success", success);
+		JSONArray tests = new JSONArray();
+		for (TestResult r : results) {
+			tests.put(r.toJson());
+		}
+		report.put("tests", tests);
+		return report;
+	}
+
+	private static void writeJson(JSONObject obj, File file) throws IOException, JSONException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			w.write(obj.toString(2));
+		} finally {
+			w.close();
+		}
+	}
+
+	private static Map<String, TestResult> readResults(File file) throws IOException, JSONException {
+		InputStream is = new FileInputStream(file);
+		JSONObject obj;
+		try {
+			obj = new JSONObject(new JSONTokener(new java.io.InputStreamReader(is, "UTF-8")));
+		} finally {
+			is.close();
+		}
+		Map<String, TestResult> results = new LinkedHashMap<String, TestResult>();
+		JSONArray tests = obj.getJSONArray("tests");
+		for (int i = 0; i < tests.length(); i++) {
+			TestResult r = TestResult.fromJson(tests.getJSONObject(i));
+			results.put(r.getKey(), r);
+		}
+		return results;
+	}
 
 	public static void info() {
 		println("Run router tests is console utility to test route calculation for osmand. It is also possible to calculate one route from -start to -end.");
 		println("\nUsage for run tests : runTestsSuite [-routingXmlPath=PATH] [-verbose] [-obfDir=PATH] [-vehicle=VEHICLE_STRING] [-start=lat;lon] [-end=lat;lon]  [-testDir=PATH] {individualTestPath}");
+		println("  [-threads=N] run tests in parallel with shared obf files");
+		println("  [-report=PATH] write json report with time, visited segments and memory of each test");
+		println("  [-baseline=PATH] [-threshold=PERCENT] fail tests slower or using more memory than baseline report (default 20%)");
+		println("  [-updateBaseline] write results to baseline file instead of comparing");
     }
 	
 
@@ -149,6 +327,14 @@ public class TestRouting {
 
 
 	public static boolean test(NativeLibrary lib, InputStream resource, BinaryMapIndexReader[] rs, RoutingConfiguration.Builder config) throws Exception {
+		for (TestCase c : parseTests(null, resource)) {
+			testRoute(c, config, lib, rs);
+		}
+		return true;
+	}
+
+	private static List<TestCase> parseTests(String file, InputStream resource) throws XmlPullParserException, IOException {
+		List<TestCase> cases = new ArrayList<TestCase>();
 		XmlPullParser parser = PlatformUtil.newXMLPullParser();
 		parser.setInput(resource, "UTF-8");
 		int tok;
@@ -156,16 +342,118 @@ public class TestRouting {
 			if (tok == XmlPullParser.START_TAG) {
 				String name = parser.getName();
 				if(name.equals("test")){
-					testRoute(parser, config, lib, rs);
+					TestCase c = new TestCase(file, cases.size());
+					for (int i = 0; i < parser.getAttributeCount(); i++) {
+						c.attrs.put(parser.getAttributeName(i), parser.getAttributeValue(i));
+					}
+					cases.add(c);
 				}
 			}
 		}
+		resource.close();
+		return cases;
+	}
+	
+	public static class TestCase {
+		public final String file;
+		public final int index;
+		public final Map<String, String> attrs = new LinkedHashMap<String, String>();
 
-		return true;
+		public TestCase(String file, int index) {
+			this.file = file;
+			this.index = index;
+		}
+
+		public String get(String attr) {
+			return attrs.get(attr);
+		}
+
+		public String getDescription() {
+			String d = get("description");
+			return d == null ? "#" + index : d;
+		}
+	}
+
+	public static class TestResult {
+		public String file;
+		public String description;
+		public boolean skipped;
+		public String error;
+		public List<String> regressions = new ArrayList<String>();
+		public TestResult baseline;
+
+		public long wallTime;
+		public float routingTime;
+		public float completeTime;
+		public float completeDistance;
+		public int visitedSegments;
+		public int loadedTiles;
+		public long maxEstimatedMemory;
+
+		public TestResult() {
+		}
+
+		public TestResult(TestCase c) {
+			file = c.file;
+			description = c.getDescription();
+		}
+
+		public boolean isSuccess() {
+			return error == null && regressions.isEmpty();
+		}
+
+		public String getKey() {
+			return file + ":" + description;
+		}
+
+		public JSONObject toJson() throws JSONException {
+			JSONObject o = new JSONObject();
+			o.put("file", file);
+			o.put("description", description);
+			o.put("success", isSuccess());
+			o.put("skipped", skipped);
+			if (error != null) {
+				o.put("error", error);
+			}
+			o.put("wallTime", wallTime);
+			o.put("routingTime", routingTime);
+			o.put("completeTime", completeTime);
+			o.put("completeDistance", completeDistance);
+			o.put("visitedSegments", visitedSegments);
+			o.put("loadedTiles", loadedTiles);
+			o.put("maxEstimatedMemory", maxEstimatedMemory);
+			if (!regressions.isEmpty()) {
+				o.put("regressions", new JSONArray(regressions));
+			}
+			if (baseline != null) {
+				JSONObject b = new JSONObject();
+				b.put("wallTime", baseline.wallTime);
+				b.put("visitedSegments", baseline.visitedSegments);
+				b.put("maxEstimatedMemory", baseline.maxEstimatedMemory);
+				o.put("baseline", b);
+			}
+			return o;
+		}
+
+		public static TestResult fromJson(JSONObject o) throws JSONException {
+			TestResult r = new TestResult();
+			r.file = o.optString("file");
+			r.description = o.optString("description");
+			r.skipped = o.optBoolean("skipped");
+			r.error = o.has("error") ? o.getString("error") : null;
+			r.wallTime = o.optLong("wallTime");
+			r.routingTime = (float) o.optDouble("routingTime", 0);
+			r.completeTime = (float) o.optDouble("completeTime", 0);
+			r.completeDistance = (float) o.optDouble("completeDistance", 0);
+			r.visitedSegments = o.optInt("visitedSegments");
+			r.loadedTiles = o.optInt("loadedTiles");
+			r.maxEstimatedMemory = o.optLong("maxEstimatedMemory");
+			return r;
+		}
 	}
 	
-	private static float parseFloat(XmlPullParser parser, String attr) {
-		String v = parser.getAttributeValue("", attr);
+	private static float parseFloat(TestCase c, String attr) {
+		String v = c.get(attr);
 		if(v == null || v.length() == 0){
 			return 0;
 		}
@@ -189,37 +477,47 @@ public class TestRouting {
 		return false;
 	}
 
-	private static void testRoute(XmlPullParser parser, Builder config, NativeLibrary lib, BinaryMapIndexReader[] rs) throws IOException, InterruptedException {
-		String vehicle = parser.getAttributeValue("", "vehicle");
-		int loadedTiles = (int) parseFloat(parser, "loadedTiles");
-		int visitedSegments = (int) parseFloat(parser, "visitedSegments");
-		int complete_time = (int) parseFloat(parser, "complete_time");
-		int routing_time = (int) parseFloat(parser, "routing_time");
-		int complete_distance = (int) parseFloat(parser, "complete_distance");
-		float percent = parseFloat(parser, "best_percent");
-		String testDescription = parser.getAttributeValue("", "description");
+	private static TestResult testRoute(TestCase c, Builder config, NativeLibrary lib, BinaryMapIndexReader[] rs) throws IOException, InterruptedException {
+		TestResult result = new TestResult(c);
+		String vehicle = c.get("vehicle");
+		int loadedTiles = (int) parseFloat(c, "loadedTiles");
+		int visitedSegments = (int) parseFloat(c, "visitedSegments");
+		int complete_time = (int) parseFloat(c, "complete_time");
+		int routing_time = (int) parseFloat(c, "routing_time");
+		int complete_distance = (int) parseFloat(c, "complete_distance");
+		float percent = parseFloat(c, "best_percent");
+		String testDescription = c.get("description");
 		if(percent == 0){
 			System.err.println("\n\n!! Skipped test case '" + testDescription + "' because 'best_percent' attribute is not specified \n\n" );
-			return;
+			result.skipped = true;
+			return result;
+		}
+		RoutingConfiguration rconfig;
+		// builder is shared between test threads
+		synchronized (config) {
+			rconfig = config.build(vehicle, MEMORY_TEST_LIMIT);
 		}
-		RoutingConfiguration rconfig = config.build(vehicle, MEMORY_TEST_LIMIT);
 		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(oldRouting);
 		RoutingContext ctx = router.buildRoutingContext(rconfig, 
 				lib, rs);
-		String skip = parser.getAttributeValue("", "skip_comment");
+		String skip = c.get("skip_comment");
 		if (skip != null && skip.length() > 0) {
 			System.err.println("\n\n!! Skipped test case '" + testDescription + "' because '" + skip + "'\n\n" );
-			return;
+			result.skipped = true;
+			return result;
 		}
 		System.out.println("Run test " + testDescription);
 		
-		double startLat = Double.parseDouble(parser.getAttributeValue("", "start_lat"));
-		double startLon = Double.parseDouble(parser.getAttributeValue("", "start_lon"));
-		double endLat = Double.parseDouble(parser.getAttributeValue("", "target_lat"));
-		double endLon = Double.parseDouble(parser.getAttributeValue("", "target_lon"));
+		double startLat = Double.parseDouble(c.get("start_lat"));
+		double startLon = Double.parseDouble(c.get("start_lon"));
+		double endLat = Double.parseDouble(c.get("target_lat"));
+		double endLon = Double.parseDouble(c.get("target_lon"));
 		LatLon start = new LatLon(startLat, startLon);
 		LatLon end = new LatLon(endLat, endLon);
 		List<RouteSegmentResult> route = router.searchRoute(ctx, start, end, null);
+		if (route == null) {
+			throw new IllegalArgumentException("Route is not found : " + testDescription);
+		}
 		final float calcRoutingTime = ctx.routingTime;
 		float completeTime = 0;
 		float completeDistance = 0;
@@ -227,6 +525,12 @@ public class TestRouting {
 			completeTime += route.get(i).getSegmentTime();
 			completeDistance += route.get(i).getDistance();
 		}
+		result.routingTime = calcRoutingTime;
+		result.completeTime = completeTime;
+		result.completeDistance = completeDistance;
+		result.visitedSegments = ctx.visitedSegments;
+		result.loadedTiles = ctx.loadedTiles;
+		result.maxEstimatedMemory = ctx.getMetrics() != null ? ctx.getMetrics().maxEstimatedMemory : 0;
 		if(complete_time > 0 && !isInOrLess(complete_time, completeTime, percent)) {
 			throw new IllegalArgumentException(MessageFormat.format("Complete time (expected) {0} != {1} (original) : {2}", complete_time, completeTime, testDescription));
 		}
@@ -261,7 +565,7 @@ public class TestRouting {
 			runTestSpecialTest(lib, rs, rconfig, router, start, end, calcRoutingTime, 
 				"Calculated routing time with heuristic 1 {0} != {1} with heuristic 0.5");
 		}
-		
+		return result;
 	}
 
 
@@ -323,6 +627,7 @@ public class TestRouting {
 		List<RouteSegmentResult> route = router.searchRoute(ctx,
 				new LatLon(startLat, startLon), new LatLon(endLat, endLon), null);
 		System.out.println("Route is " + route.size() + " segments " + (System.currentTimeMillis() - ts) + " ms ");
+		System.out.println(ctx.getMetrics());
 	}
 
 }
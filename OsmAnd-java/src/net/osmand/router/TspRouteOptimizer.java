@@ -0,0 +1,452 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.osmand.NativeLibrary;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.LatLon;
+import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Orders intermediate points of the route using travel times between all points.
+ * First point (start) and last point (destination) are fixed.
+ * Small sets are solved exactly by Held-Karp dynamic programming,
+ * larger sets by 2-opt/Or-opt local search running in parallel within the time budget.
+ */
+public class TspRouteOptimizer {
+
+	private static final Log log = PlatformUtil.getLog(TspRouteOptimizer.class);
+	// cost of leg that couldn't be routed (seconds)
+	public static final double UNREACHABLE_COST = 1e7;
+	private static final double EPS = 1e-6;
+	// time matrix needs n * (n - 1) routes
+	public static final int MAX_MATRIX_POINTS = 20;
+
+	// number of intermediate points solved exactly
+	private int maxExactPoints = 13;
+	private int threads = 1;
+	private long timeBudget = 2000;
+
+	public static class TspResult {
+		// order of points, starts with 0 and ends with last point
+		public final int[] order;
+		// total time in seconds
+		public final double cost;
+		public final boolean exact;
+
+		public TspResult(int[] order, double cost, boolean exact) {
+			this.order = order;
+			this.cost = cost;
+			this.exact = exact;
+		}
+	}
+
+	public TspRouteOptimizer setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	public TspRouteOptimizer setTimeBudget(long timeBudgetMs) {
+		this.timeBudget = timeBudgetMs;
+		return this;
+	}
+
+	public TspRouteOptimizer setMaxExactPoints(int maxExactPoints) {
+		this.maxExactPoints = maxExactPoints;
+		return this;
+	}
+
+	/**
+	 * Calculates travel time in seconds between every pair of points with the router.
+	 * Legs to the start point and from the destination are not calculated, memory limit of the configuration
+	 * is shared between threads.
+	 * @return null if there are more than {@link #MAX_MATRIX_POINTS} points, calculation didn't finish within
+	 * the time budget or was cancelled by the progress
+	 */
+	public static double[][] buildTimeMatrix(final RoutePlannerFrontEnd router, RoutingConfiguration config,
+			final NativeLibrary nativeLib, final BinaryMapIndexReader[] files, final List<LatLon> points, int threads,
+			long timeBudgetMs, RouteCalculationProgress progress) throws IOException, InterruptedException {
+		final int n = points.size();
+		if (n > MAX_MATRIX_POINTS) {
+			return null;
+		}
+		long deadline = System.currentTimeMillis() + timeBudgetMs;
+		final double[][] matrix = new double[n][n];
+		if (nativeLib != null) {
+			threads = 1;
+		}
+		final RoutingConfiguration threadConfig = config.copy(config.memoryLimitation / threads);
+		if (threads > 1) {
+			router.prepareParallelRouting(router.buildRoutingContext(threadConfig, null, files, RouteCalculationMode.NORMAL));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// to stop legs which are calculated
+		List<RouteCalculationProgress> legs = new ArrayList<RouteCalculationProgress>();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < n - 1; i++) {
+				for (int j = 1; j < n; j++) {
+					if (i == j || (i == 0 && j == n - 1 && n > 2)) {
+						continue;
+					}
+					final int fi = i;
+					final int fj = j;
+					final RouteCalculationProgress leg = new RouteCalculationProgress();
+					legs.add(leg);
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							if (leg.isCancelled) {
+								return null;
+							}
+							RoutingContext ctx = router.buildRoutingContext(threadConfig, nativeLib, files, RouteCalculationMode.NORMAL);
+							ctx.calculationProgress = leg;
+							List<RouteSegmentResult> res = router.searchRoute(ctx, points.get(fi), points.get(fj), null);
+							if (res == null || res.isEmpty()) {
+								matrix[fi][fj] = UNREACHABLE_COST + MapUtils.getDistance(points.get(fi), points.get(fj));
+							} else {
+								double time = 0;
+								for (RouteSegmentResult r : res) {
+									time += r.getSegmentTime();
+								}
+								matrix[fi][fj] = time;
+							}
+							return null;
+						}
+					}));
+				}
+			}
+			for (Future<?> f : futures) {
+				while (true) {
+					try {
+						f.get(100, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						boolean cancelled = progress != null && progress.isCancelled;
+						if (cancelled || System.currentTimeMillis() > deadline) {
+							log.info("Time matrix of " + n + " points is not calculated: " //$NON-NLS-1$
+									+ (cancelled ? "cancelled" : "time budget exceeded")); //$NON-NLS-1$ //$NON-NLS-2$
+							for (RouteCalculationProgress leg : legs) {
+								leg.isCancelled = true;
+							}
+							return null;
+						}
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			executor.shutdownNow();
+		}
+		return matrix;
+	}
+
+	public static double getCost(double[][] cost, int[] order) {
+		double s = 0;
+		for (int i = 1; i < order.length; i++) {
+			s += cost[order[i - 1]][order[i]];
+		}
+		return s;
+	}
+
+	public TspResult solve(double[][] cost) throws InterruptedException {
+		int n = cost.length;
+		if (n <= 3) {
+			int[] order = new int[n];
+			for (int i = 0; i < n; i++) {
+				order[i] = i;
+			}
+			return new TspResult(order, getCost(cost, order), true);
+		}
+		if (n - 2 <= maxExactPoints) {
+			int[] order = solveHeldKarp(cost);
+			return new TspResult(order, getCost(cost, order), true);
+		}
+		int[] order = solveLocalSearch(cost);
+		return new TspResult(order, getCost(cost, order), false);
+	}
+
+	private int[] solveHeldKarp(double[][] cost) {
+		int n = cost.length;
+		int k = n - 2;
+		int full = (1 << k) - 1;
+		// best[mask * k + j] - path from start through mask points ending in intermediate j
+		double[] best = new double[(full + 1) * k];
+		int[] parent = new int[(full + 1) * k];
+		Arrays.fill(best, Double.MAX_VALUE);
+		for (int j = 0; j < k; j++) {
+			best[(1 << j) * k + j] = cost[0][j + 1];
+			parent[(1 << j) * k + j] = -1;
+		}
+		for (int mask = 1; mask <= full; mask++) {
+			for (int j = 0; j < k; j++) {
+				double c = best[mask * k + j];
+				if ((mask & (1 << j)) == 0 || c == Double.MAX_VALUE) {
+					continue;
+				}
+				for (int l = 0; l < k; l++) {
+					if ((mask & (1 << l)) != 0) {
+						continue;
+					}
+					int nmask = mask | (1 << l);
+					double nc = c + cost[j + 1][l + 1];
+					if (nc < best[nmask * k + l]) {
+						best[nmask * k + l] = nc;
+						parent[nmask * k + l] = j;
+					}
+				}
+			}
+		}
+		int last = 0;
+		double min = Double.MAX_VALUE;
+		for (int j = 0; j < k; j++) {
+			double c = best[full * k + j] + cost[j + 1][n - 1];
+			if (c < min) {
+				min = c;
+				last = j;
+			}
+		}
+		int[] order = new int[n];
+		order[n - 1] = n - 1;
+		int mask = full;
+		for (int i = n - 2; i > 0; i--) {
+			order[i] = last + 1;
+			int p = parent[mask * k + last];
+			mask &= ~(1 << last);
+			last = p;
+		}
+		return order;
+	}
+
+	private int[] solveLocalSearch(final double[][] cost) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeBudget;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				final int seed = t;
+				futures.add(executor.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() throws Exception {
+						return iteratedLocalSearch(cost, seed, deadline);
+					}
+				}));
+			}
+			int[] best = null;
+			double bestCost = Double.MAX_VALUE;
+			for (Future<int[]> f : futures) {
+				int[] order = f.get();
+				double c = getCost(cost, order);
+				if (c < bestCost - EPS) {
+					best = order;
+					bestCost = c;
+				}
+			}
+			return best;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private int[] iteratedLocalSearch(double[][] cost, int seed, long deadline) {
+		int n = cost.length;
+		Random rnd = new Random(seed);
+		int[] tour = nearestNeighbour(cost);
+		if (seed > 0) {
+			perturb(tour, rnd);
+		}
+		localSearch(cost, tour, deadline);
+		int[] best = tour.clone();
+		double bestCost = getCost(cost, best);
+		int iterations = 0;
+		int lastImprovement = 0;
+		// stop earlier when perturbations don't give anything new
+		while (System.currentTimeMillis() < deadline && !Thread.currentThread().isInterrupted()
+				&& iterations - lastImprovement < 50 * n) {
+			int[] next = best.clone();
+			perturb(next, rnd);
+			localSearch(cost, next, deadline);
+			double c = getCost(cost, next);
+			iterations++;
+			if (c < bestCost - EPS) {
+				best = next;
+				bestCost = c;
+				lastImprovement = iterations;
+			}
+		}
+		log.debug("Tsp worker " + seed + " iterations " + iterations + " cost " + bestCost + " points " + n);
+		return best;
+	}
+
+	private int[] nearestNeighbour(double[][] cost) {
+		int n = cost.length;
+		int[] tour = new int[n];
+		boolean[] visited = new boolean[n];
+		tour[n - 1] = n - 1;
+		visited[0] = true;
+		for (int i = 1; i < n - 1; i++) {
+			int prev = tour[i - 1];
+			int next = -1;
+			for (int j = 1; j < n - 1; j++) {
+				if (!visited[j] && (next == -1 || cost[prev][j] < cost[prev][next])) {
+					next = j;
+				}
+			}
+			tour[i] = next;
+			visited[next] = true;
+		}
+		return tour;
+	}
+
+	// double bridge move for inner points
+	private void perturb(int[] tour, Random rnd) {
+		int m = tour.length - 2;
+		if (m < 8) {
+			int i = 1 + rnd.nextInt(m);
+			int j = 1 + rnd.nextInt(m);
+			int t = tour[i];
+			tour[i] = tour[j];
+			tour[j] = t;
+			return;
+		}
+		int[] cut = new int[] { 1 + rnd.nextInt(m), 1 + rnd.nextInt(m), 1 + rnd.nextInt(m) };
+		Arrays.sort(cut);
+		if (cut[0] == cut[1] || cut[1] == cut[2]) {
+			return;
+		}
+		int[] res = new int[tour.length];
+		int p = 0;
+		res[p++] = tour[0];
+		for (int i = 1; i < cut[0]; i++) {
+			res[p++] = tour[i];
+		}
+		for (int i = cut[2]; i < tour.length - 1; i++) {
+			res[p++] = tour[i];
+		}
+		for (int i = cut[1]; i < cut[2]; i++) {
+			res[p++] = tour[i];
+		}
+		for (int i = cut[0]; i < cut[1]; i++) {
+			res[p++] = tour[i];
+		}
+		res[p++] = tour[tour.length - 1];
+		System.arraycopy(res, 0, tour, 0, tour.length);
+	}
+
+	private void localSearch(double[][] cost, int[] tour, long deadline) {
+		boolean improved = true;
+		while (improved && System.currentTimeMillis() < deadline) {
+			improved = twoOpt(cost, tour);
+			improved |= orOpt(cost, tour);
+		}
+	}
+
+	private boolean twoOpt(double[][] cost, int[] t) {
+		int n = t.length;
+		boolean improved = false;
+		for (int i = 1; i < n - 2; i++) {
+			// cost of t[i..j] in forward and reversed direction (matrix could be asymmetric)
+			double forward = 0;
+			double reverse = 0;
+			for (int j = i + 1; j < n - 1; j++) {
+				forward += cost[t[j - 1]][t[j]];
+				reverse += cost[t[j]][t[j - 1]];
+				double delta = cost[t[i - 1]][t[j]] + cost[t[i]][t[j + 1]] + reverse
+						- cost[t[i - 1]][t[i]] - cost[t[j]][t[j + 1]] - forward;
+				if (delta < -EPS) {
+					reverse(t, i, j);
+					improved = true;
+					forward = 0;
+					reverse = 0;
+					for (int k = i + 1; k <= j; k++) {
+						forward += cost[t[k - 1]][t[k]];
+						reverse += cost[t[k]][t[k - 1]];
+					}
+				}
+			}
+		}
+		return improved;
+	}
+
+	private void reverse(int[] t, int i, int j) {
+		while (i < j) {
+			int s = t[i];
+			t[i] = t[j];
+			t[j] = s;
+			i++;
+			j--;
+		}
+	}
+
+	private boolean orOpt(double[][] cost, int[] t) {
+		int n = t.length;
+		boolean improved = false;
+		for (int len = 1; len <= 3; len++) {
+			for (int i = 1; i + len < n; i++) {
+				int a = t[i - 1];
+				int s0 = t[i];
+				int se = t[i + len - 1];
+				int b = t[i + len];
+				double removeGain = cost[a][s0] + cost[se][b] - cost[a][b];
+				int bestPos = -1;
+				double bestDelta = -EPS;
+				// insert segment between t[p] and t[p + 1]
+				for (int p = 0; p < n - 1; p++) {
+					if (p >= i - 1 && p < i + len) {
+						continue;
+					}
+					double delta = cost[t[p]][s0] + cost[se][t[p + 1]] - cost[t[p]][t[p + 1]] - removeGain;
+					if (delta < bestDelta) {
+						bestDelta = delta;
+						bestPos = p;
+					}
+				}
+				if (bestPos >= 0) {
+					moveSegment(t, i, len, bestPos);
+					improved = true;
+				}
+			}
+		}
+		return improved;
+	}
+
+	private void moveSegment(int[] t, int i, int len, int p) {
+		int[] seg = new int[len];
+		System.arraycopy(t, i, seg, 0, len);
+		if (p < i) {
+			// shift t[p + 1 .. i - 1] right
+			System.arraycopy(t, p + 1, t, p + 1 + len, i - p - 1);
+			System.arraycopy(seg, 0, t, p + 1, len);
+		} else {
+			// shift t[i + len .. p] left
+			System.arraycopy(t, i + len, t, i, p - i - len + 1);
+			System.arraycopy(seg, 0, t, p - len + 1, len);
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package net.osmand.util;
 
 import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
 import net.osmand.data.LatLon;
 
 public class MapAlgorithms {
@@ -285,4 +289,134 @@ public class MapAlgorithms {
   	     }
   	     return true;
   	}
+
+	/**
+	 * Simplifies line given by 31 coordinates (x1, y1, x2, y2...): points of the same grid cell (1 << shift) 
+	 * are snapped to one and then Douglas-Peucker algorithm removes points closer than a cell to the line.
+	 * First and last points are always kept, so cycles stay closed.
+	 * @return same array if nothing was removed
+	 */
+	public static int[] simplifyCoordinates(int[] c, int shift) {
+		int len = c.length / 2;
+		if (len <= 2 || shift <= 0) {
+			return c;
+		}
+		// 1. snap to pixel grid
+		int[] snapped = new int[c.length];
+		int slen = 1;
+		snapped[0] = c[0];
+		snapped[1] = c[1];
+		for (int i = 1; i < len; i++) {
+			int x = c[2 * i];
+			int y = c[2 * i + 1];
+			int px = snapped[2 * slen - 2];
+			int py = snapped[2 * slen - 1];
+			if ((x >> shift) == (px >> shift) && (y >> shift) == (py >> shift)) {
+				if (i == len - 1) {
+					// last point replaces previous point of the same cell
+					if (slen > 1) {
+						slen--;
+					}
+				} else {
+					continue;
+				}
+			}
+			snapped[2 * slen] = x;
+			snapped[2 * slen + 1] = y;
+			slen++;
+		}
+		if (slen <= 2) {
+			return slen == len ? c : Arrays.copyOf(snapped, slen * 2);
+		}
+		// 2. Douglas-Peucker (cycle is split by the farthest point from start)
+		boolean[] kept = new boolean[slen];
+		kept[0] = true;
+		kept[slen - 1] = true;
+		double epsilon = 1 << shift;
+		TIntArrayList stack = new TIntArrayList();
+		if (snapped[0] == snapped[2 * slen - 2] && snapped[1] == snapped[2 * slen - 1]) {
+			int far = 0;
+			double dmax = -1;
+			for (int i = 1; i < slen - 1; i++) {
+				double dx = (double) snapped[2 * i] - snapped[0];
+				double dy = (double) snapped[2 * i + 1] - snapped[1];
+				double d = dx * dx + dy * dy;
+				if (d > dmax) {
+					dmax = d;
+					far = i;
+				}
+			}
+			if (far == 0) {
+				return Arrays.copyOf(snapped, slen * 2);
+			}
+			kept[far] = true;
+			stack.add(0);
+			stack.add(far);
+			stack.add(far);
+			stack.add(slen - 1);
+		} else {
+			stack.add(0);
+			stack.add(slen - 1);
+		}
+		while (!stack.isEmpty()) {
+			int end = stack.removeAt(stack.size() - 1);
+			int start = stack.removeAt(stack.size() - 1);
+			int index = -1;
+			double dmax = -1;
+			for (int i = start + 1; i < end; i++) {
+				double d = orthogonalDistance(snapped, start, end, i);
+				if (d > dmax) {
+					dmax = d;
+					index = i;
+				}
+			}
+			if (dmax >= epsilon) {
+				kept[index] = true;
+				stack.add(start);
+				stack.add(index);
+				stack.add(index);
+				stack.add(end);
+			}
+		}
+		int rlen = 0;
+		for (int i = 0; i < slen; i++) {
+			if (kept[i]) {
+				rlen++;
+			}
+		}
+		if (rlen == len) {
+			return c;
+		}
+		int[] res = new int[rlen * 2];
+		int j = 0;
+		for (int i = 0; i < slen; i++) {
+			if (kept[i]) {
+				res[j++] = snapped[2 * i];
+				res[j++] = snapped[2 * i + 1];
+			}
+		}
+		return res;
+	}
+
+	private static double orthogonalDistance(int[] c, int start, int end, int ind) {
+		double x1 = c[2 * start];
+		double y1 = c[2 * start + 1];
+		double dx = c[2 * end] - x1;
+		double dy = c[2 * end + 1] - y1;
+		double px = c[2 * ind] - x1;
+		double py = c[2 * ind + 1] - y1;
+		double l = dx * dx + dy * dy;
+		if (l == 0) {
+			return Math.sqrt(px * px + py * py);
+		}
+		double t = (px * dx + py * dy) / l;
+		if (t < 0) {
+			t = 0;
+		} else if (t > 1) {
+			t = 1;
+		}
+		double ox = px - t * dx;
+		double oy = py - t * dy;
+		return Math.sqrt(ox * ox + oy * oy);
+	}
 }
\ No newline at end of file
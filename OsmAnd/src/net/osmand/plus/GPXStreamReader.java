@@ -0,0 +1,559 @@
+package net.osmand.plus;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.osmand.PlatformUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Streaming reader of GPX files. Points are not materialized as objects : reader fills one reusable
+ * {@link GPXPoint} and passes it to {@link GPXStreamListener}, text of tags is collected into one reusable buffer
+ * and numbers and timestamps are parsed from it directly.
+ *
+ * {@link TrackColumns} keeps track points in primitive arrays, object model of {@link GPXUtilities} is built by
+ * listener on top of the reader.
+ */
+public class GPXStreamReader {
+
+	public static final int WPT = 0;
+	public static final int RTEPT = 1;
+	public static final int TRKPT = 2;
+
+	private static final int STATE_GPX = 0;
+	private static final int STATE_TRACK = 1;
+	private static final int STATE_ROUTE = 2;
+	private static final int STATE_SEGMENT = 3;
+	private static final int STATE_POINT = 4;
+
+	public interface GPXStreamListener {
+
+		public void gpxStarted(String creator);
+
+		/**
+		 * Called for trk and rte
+		 */
+		public void trackStarted(boolean route);
+
+		public void segmentStarted();
+
+		/**
+		 * Point object is reused for next points, only its extensions map could be kept
+		 */
+		public void point(int type, GPXPoint p);
+
+		public void segmentFinished(Map<String, String> extensions);
+
+		public void trackFinished(boolean route, String name, String desc, Map<String, String> extensions);
+
+		public void gpxFinished(Map<String, String> extensions);
+	}
+
+	public static class GPXPoint {
+		public double lat;
+		public double lon;
+		public double ele;
+		public long time;
+		public double speed;
+		public double hdop;
+		public String name;
+		public String desc;
+		public String link;
+		public String category;
+		// null if point has no extensions
+		public Map<String, String> extensions;
+
+		void reset(double lat, double lon) {
+			this.lat = lat;
+			this.lon = lon;
+			ele = Double.NaN;
+			time = 0;
+			speed = 0;
+			hdop = Double.NaN;
+			name = null;
+			desc = null;
+			link = null;
+			category = null;
+			extensions = null;
+		}
+	}
+
+	/**
+	 * Track points (trkpt and rtept) in primitive columns, every trkseg and rte starts new segment.
+	 * Arrays could be longer than number of points.
+	 */
+	public static class TrackColumns implements GPXStreamListener {
+		public double[] lat = new double[256];
+		public double[] lon = new double[256];
+		public double[] ele = new double[256];
+		public long[] time = new long[256];
+		public double[] speed = new double[256];
+		public double[] hdop = new double[256];
+		// index of first point of every segment
+		public final TIntArrayList segmentStarts = new TIntArrayList();
+		// segments which are routes (rte), other segments are track segments (trkseg)
+		public final BitSet routeSegments = new BitSet();
+		public int wptPoints;
+		private int size;
+
+		public int size() {
+			return size;
+		}
+
+		public int getSegmentsCount() {
+			return segmentStarts.size();
+		}
+
+		public int getSegmentEnd(int segment) {
+			return segment + 1 < segmentStarts.size() ? segmentStarts.get(segment + 1) : size;
+		}
+
+		@Override
+		public void gpxStarted(String creator) {
+		}
+
+		@Override
+		public void trackStarted(boolean route) {
+			if (route) {
+				routeSegments.set(segmentStarts.size());
+				segmentStarted();
+			}
+		}
+
+		@Override
+		public void segmentStarted() {
+			segmentStarts.add(size());
+		}
+
+		@Override
+		public void point(int type, GPXPoint p) {
+			if (type == WPT) {
+				wptPoints++;
+				return;
+			}
+			if (size == lat.length) {
+				int capacity = size * 2;
+				lat = Arrays.copyOf(lat, capacity);
+				lon = Arrays.copyOf(lon, capacity);
+				ele = Arrays.copyOf(ele, capacity);
+				time = Arrays.copyOf(time, capacity);
+				speed = Arrays.copyOf(speed, capacity);
+				hdop = Arrays.copyOf(hdop, capacity);
+			}
+			lat[size] = p.lat;
+			lon[size] = p.lon;
+			ele[size] = p.ele;
+			time[size] = p.time;
+			speed[size] = p.speed;
+			hdop[size] = p.hdop;
+			size++;
+		}
+
+		@Override
+		public void segmentFinished(Map<String, String> extensions) {
+		}
+
+		@Override
+		public void trackFinished(boolean route, String name, String desc, Map<String, String> extensions) {
+		}
+
+		@Override
+		public void gpxFinished(Map<String, String> extensions) {
+		}
+	}
+
+	private final StringBuilder text = new StringBuilder();
+	private final int[] holder = new int[2];
+	private final GPXPoint point = new GPXPoint();
+	private final int[] dateFields = new int[6];
+
+	public static TrackColumns readTrackColumns(InputStream is) throws IOException, XmlPullParserException {
+		TrackColumns columns = new TrackColumns();
+		new GPXStreamReader().read(getUTF8Reader(is), columns);
+		return columns;
+	}
+
+	public void read(Reader reader, GPXStreamListener listener) throws IOException, XmlPullParserException {
+		XmlPullParser parser = PlatformUtil.newXMLPullParser();
+		parser.setInput(reader);
+		int state = STATE_GPX;
+		int pointType = WPT;
+		// state of the point container to return after point
+		int pointParentState = STATE_GPX;
+		boolean extensionReadMode = false;
+		Map<String, String> gpxExtensions = null;
+		Map<String, String> trackExtensions = null;
+		Map<String, String> segmentExtensions = null;
+		String trackName = null;
+		String trackDesc = null;
+		GPXPoint p = point;
+		int tok;
+		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (tok == XmlPullParser.START_TAG) {
+				String tag = parser.getName();
+				if (extensionReadMode) {
+					if (readText(parser, tag)) {
+						String value = text.toString();
+						if (state == STATE_POINT) {
+							if (p.extensions == null) {
+								p.extensions = new LinkedHashMap<String, String>();
+							}
+							p.extensions.put(tag, value);
+							if (tag.equals("speed")) { //$NON-NLS-1$
+								p.speed = parseDouble(text, p.speed);
+							}
+						} else if (state == STATE_SEGMENT) {
+							if (segmentExtensions == null) {
+								segmentExtensions = new LinkedHashMap<String, String>();
+							}
+							segmentExtensions.put(tag, value);
+						} else if (state == STATE_GPX) {
+							if (gpxExtensions == null) {
+								gpxExtensions = new LinkedHashMap<String, String>();
+							}
+							gpxExtensions.put(tag, value);
+						} else {
+							if (trackExtensions == null) {
+								trackExtensions = new LinkedHashMap<String, String>();
+							}
+							trackExtensions.put(tag, value);
+						}
+					}
+				} else if (tag.equals("extensions")) { //$NON-NLS-1$
+					extensionReadMode = true;
+				} else if (state == STATE_POINT) {
+					if (tag.equals("ele")) { //$NON-NLS-1$
+						if (readText(parser, tag)) {
+							p.ele = parseDouble(text, p.ele);
+						}
+					} else if (tag.equals("time")) { //$NON-NLS-1$
+						if (readText(parser, tag)) {
+							p.time = parseTime(text, p.time, dateFields);
+						}
+					} else if (tag.equals("hdop")) { //$NON-NLS-1$
+						if (readText(parser, tag)) {
+							p.hdop = parseDouble(text, p.hdop);
+						}
+					} else if (tag.equals("name")) { //$NON-NLS-1$
+						p.name = readString(parser, tag);
+					} else if (tag.equals("desc")) { //$NON-NLS-1$
+						p.desc = readString(parser, tag);
+					} else if (tag.equals("link")) { //$NON-NLS-1$
+						p.link = parser.getAttributeValue("", "href"); //$NON-NLS-1$ //$NON-NLS-2$
+					} else if (tag.equals("category")) { //$NON-NLS-1$
+						p.category = readString(parser, tag);
+					} else if (tag.equals("type")) { //$NON-NLS-1$
+						// previous undocumented feature 'category' has priority
+						String type = readString(parser, tag);
+						if (p.category == null) {
+							p.category = type;
+						}
+					}
+				} else if (state == STATE_SEGMENT) {
+					if (tag.equals("trkpt")) { //$NON-NLS-1$
+						startPoint(parser, p);
+						pointType = TRKPT;
+						pointParentState = STATE_SEGMENT;
+						state = STATE_POINT;
+					}
+				} else if (state == STATE_TRACK || state == STATE_ROUTE) {
+					if (tag.equals("name")) { //$NON-NLS-1$
+						trackName = readString(parser, tag);
+					} else if (tag.equals("desc")) { //$NON-NLS-1$
+						trackDesc = readString(parser, tag);
+					} else if (state == STATE_TRACK && tag.equals("trkseg")) { //$NON-NLS-1$
+						segmentExtensions = null;
+						listener.segmentStarted();
+						state = STATE_SEGMENT;
+					} else if (state == STATE_ROUTE && tag.equals("rtept")) { //$NON-NLS-1$
+						startPoint(parser, p);
+						pointType = RTEPT;
+						pointParentState = STATE_ROUTE;
+						state = STATE_POINT;
+					}
+				} else if (state == STATE_GPX) {
+					if (tag.equals("wpt")) { //$NON-NLS-1$
+						startPoint(parser, p);
+						pointType = WPT;
+						pointParentState = STATE_GPX;
+						state = STATE_POINT;
+					} else if (tag.equals("trk") || tag.equals("rte")) { //$NON-NLS-1$ //$NON-NLS-2$
+						trackName = null;
+						trackDesc = null;
+						trackExtensions = null;
+						state = tag.equals("trk") ? STATE_TRACK : STATE_ROUTE; //$NON-NLS-1$
+						listener.trackStarted(state == STATE_ROUTE);
+					} else if (tag.equals("gpx")) { //$NON-NLS-1$
+						listener.gpxStarted(parser.getAttributeValue("", "creator")); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				}
+			} else if (tok == XmlPullParser.END_TAG) {
+				String tag = parser.getName();
+				if (tag.equals("extensions")) { //$NON-NLS-1$
+					extensionReadMode = false;
+				} else if (state == STATE_POINT) {
+					if ((pointType == TRKPT && tag.equals("trkpt")) || (pointType == RTEPT && tag.equals("rtept")) //$NON-NLS-1$ //$NON-NLS-2$
+							|| (pointType == WPT && tag.equals("wpt"))) { //$NON-NLS-1$
+						listener.point(pointType, p);
+						state = pointParentState;
+					}
+				} else if (state == STATE_SEGMENT) {
+					if (tag.equals("trkseg")) { //$NON-NLS-1$
+						listener.segmentFinished(segmentExtensions);
+						segmentExtensions = null;
+						state = STATE_TRACK;
+					}
+				} else if (state == STATE_TRACK || state == STATE_ROUTE) {
+					if (tag.equals(state == STATE_TRACK ? "trk" : "rte")) { //$NON-NLS-1$ //$NON-NLS-2$
+						listener.trackFinished(state == STATE_ROUTE, trackName, trackDesc, trackExtensions);
+						trackExtensions = null;
+						state = STATE_GPX;
+					}
+				}
+			}
+		}
+		listener.gpxFinished(gpxExtensions);
+	}
+
+	private static void startPoint(XmlPullParser parser, GPXPoint p) {
+		p.reset(parseDouble(parser.getAttributeValue("", "lat"), 0), //$NON-NLS-1$ //$NON-NLS-2$
+				parseDouble(parser.getAttributeValue("", "lon"), 0)); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Collects all text till the end of the tag into the buffer, returns false if there was no text
+	 */
+	private boolean readText(XmlPullParser parser, String key) throws XmlPullParserException, IOException {
+		text.setLength(0);
+		boolean found = false;
+		int tok;
+		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (tok == XmlPullParser.END_TAG && parser.getName().equals(key)) {
+				break;
+			} else if (tok == XmlPullParser.TEXT) {
+				char[] ch = parser.getTextCharacters(holder);
+				if (ch != null) {
+					text.append(ch, holder[0], holder[1]);
+				}
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	private String readString(XmlPullParser parser, String key) throws XmlPullParserException, IOException {
+		return readText(parser, key) ? text.toString() : null;
+	}
+
+	/**
+	 * Parses decimal number without creating string, numbers with exponent or too many digits are passed to
+	 * {@link Double#parseDouble(String)}. Returns def if text is not a number.
+	 */
+	public static double parseDouble(CharSequence s, double def) {
+		if (s == null) {
+			return def;
+		}
+		int i = 0;
+		int end = s.length();
+		while (i < end && s.charAt(i) <= ' ') {
+			i++;
+		}
+		while (end > i && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		boolean negative = false;
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+			negative = s.charAt(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fraction = 0;
+		boolean point = false;
+		int start = i;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (mantissa != 0 || c != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (c - '0');
+				if (point) {
+					fraction++;
+				}
+				if (digits > 15 || fraction > 22) {
+					return parseDoubleSlow(s, def);
+				}
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				return parseDoubleSlow(s, def);
+			}
+		}
+		if (i == start || (point && i == start + 1)) {
+			// empty or only '.'
+			return def;
+		}
+		// both numbers are exact, so division gives correctly rounded result
+		double v = fraction == 0 ? mantissa : mantissa / POWERS_OF_TEN[fraction];
+		return negative ? -v : v;
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private static double parseDoubleSlow(CharSequence s, double def) {
+		try {
+			return Double.parseDouble(s.toString().trim());
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+
+	/**
+	 * Parses ISO 8601 timestamp 'yyyy-MM-ddTHH:mm:ss' with optional fraction of second and zone ('Z', '+hh',
+	 * '+hh:mm', '+hhmm'), time without zone is treated as UTC. Returns def if text is not a timestamp.
+	 */
+	public static long parseTime(CharSequence s, long def) {
+		return parseTime(s, def, new int[6]);
+	}
+
+	// year, month, day, hour, minute, second
+	private static final int[] TIME_FIELD_LENGTHS = { 4, 2, 2, 2, 2, 2 };
+	private static final char[] TIME_SEPARATORS = { '-', '-', 'T', ':', ':' };
+
+	private static long parseTime(CharSequence s, long def, int[] f) {
+		int i = 0;
+		int end = s.length();
+		while (i < end && s.charAt(i) <= ' ') {
+			i++;
+		}
+		while (end > i && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		for (int k = 0; k < 6; k++) {
+			if (k > 0) {
+				if (i >= end) {
+					return def;
+				}
+				char c = s.charAt(i++);
+				if (c != TIME_SEPARATORS[k - 1] && !(k == 3 && (c == 't' || c == ' '))) {
+					return def;
+				}
+			}
+			int v = 0;
+			for (int l = 0; l < TIME_FIELD_LENGTHS[k]; l++, i++) {
+				if (i >= end) {
+					return def;
+				}
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') {
+					return def;
+				}
+				v = v * 10 + (c - '0');
+			}
+			f[k] = v;
+		}
+		int millis = 0;
+		if (i < end && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+			i++;
+			int scale = 100;
+			int start = i;
+			while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+				millis += (s.charAt(i) - '0') * scale;
+				scale /= 10;
+				i++;
+			}
+			if (i == start) {
+				return def;
+			}
+		}
+		int offsetMinutes = 0;
+		if (i < end) {
+			char c = s.charAt(i++);
+			if (c == 'Z' || c == 'z') {
+				if (i != end) {
+					return def;
+				}
+			} else if (c == '+' || c == '-') {
+				int v = 0;
+				int n = 0;
+				for (; i < end; i++) {
+					char d = s.charAt(i);
+					if (d == ':' && n == 2) {
+						continue;
+					}
+					if (d < '0' || d > '9') {
+						return def;
+					}
+					v = v * 10 + (d - '0');
+					n++;
+				}
+				if (n == 2) {
+					offsetMinutes = v * 60;
+				} else if (n == 4) {
+					offsetMinutes = (v / 100) * 60 + v % 100;
+				} else {
+					return def;
+				}
+				if (c == '-') {
+					offsetMinutes = -offsetMinutes;
+				}
+			} else {
+				return def;
+			}
+		}
+		int month = f[1];
+		int day = f[2];
+		if (month < 1 || month > 12 || day < 1 || day > 31 || f[3] > 24 || f[4] > 59 || f[5] > 60) {
+			return def;
+		}
+		long days = daysFromCivil(f[0], month, day);
+		long seconds = ((days * 24 + f[3]) * 60 + f[4]) * 60 + f[5] - offsetMinutes * 60L;
+		return seconds * 1000 + millis;
+	}
+
+	/**
+	 * Days since 1970-01-01 in proleptic Gregorian calendar
+	 */
+	static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097L + doe - 719468;
+	}
+
+	public static Reader getUTF8Reader(InputStream f) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(f);
+		assert bis.markSupported();
+		bis.mark(3);
+		boolean reset = true;
+		byte[] t = new byte[3];
+		bis.read(t);
+		if (t[0] == ((byte) 0xef) && t[1] == ((byte) 0xbb) && t[2] == ((byte) 0xbf)) {
+			reset = false;
+		}
+		if (reset) {
+			bis.reset();
+		}
+		return new InputStreamReader(bis, "UTF-8"); //$NON-NLS-1$
+	}
+}
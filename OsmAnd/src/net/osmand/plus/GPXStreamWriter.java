@@ -0,0 +1,298 @@
+package net.osmand.plus;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Streaming writer of GPX files, counterpart of {@link GPXStreamReader}. Tags, numbers and timestamps are
+ * formatted directly into a buffer which is flushed to the writer in big chunks, so points could be written
+ * from primitive arrays without creating objects for them.
+ */
+public class GPXStreamWriter {
+
+	private static final int FLUSH_SIZE = 8192;
+	private static final int LAT_LON_DIGITS = 7;
+
+	private final Writer out;
+	private final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 1024);
+	private int depth = 0;
+
+	public GPXStreamWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void startDocument(String creator) throws IOException {
+		buf.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>"); //$NON-NLS-1$
+		startTag("gpx"); //$NON-NLS-1$
+		attribute("version", "1.1"); //$NON-NLS-1$ //$NON-NLS-2$
+		attribute("creator", creator); //$NON-NLS-1$
+		attribute("xmlns", "http://www.topografix.com/GPX/1/1"); //$NON-NLS-1$ //$NON-NLS-2$
+		attribute("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance"); //$NON-NLS-1$ //$NON-NLS-2$
+		attribute("xsi:schemaLocation", //$NON-NLS-1$
+				"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd"); //$NON-NLS-1$
+		closeStartTag();
+	}
+
+	public void endDocument() throws IOException {
+		endTag("gpx"); //$NON-NLS-1$
+		buf.append('\n');
+		flush();
+	}
+
+	public void startTrack(String name, String desc) throws IOException {
+		startTag("trk"); //$NON-NLS-1$
+		closeStartTag();
+		writeNotNullText("name", name); //$NON-NLS-1$
+		writeNotNullText("desc", desc); //$NON-NLS-1$
+	}
+
+	public void endTrack(Map<String, String> extensions) throws IOException {
+		writeExtensions(extensions, 0);
+		endTag("trk"); //$NON-NLS-1$
+	}
+
+	public void startSegment() throws IOException {
+		startTag("trkseg"); //$NON-NLS-1$
+		closeStartTag();
+	}
+
+	public void endSegment() throws IOException {
+		endTag("trkseg"); //$NON-NLS-1$
+	}
+
+	public void startRoute(String name, String desc) throws IOException {
+		startTag("rte"); //$NON-NLS-1$
+		closeStartTag();
+		writeNotNullText("name", name); //$NON-NLS-1$
+		writeNotNullText("desc", desc); //$NON-NLS-1$
+	}
+
+	public void endRoute(Map<String, String> extensions) throws IOException {
+		writeExtensions(extensions, 0);
+		endTag("rte"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes trkpt, rtept or wpt. NaN elevation and hdop, zero time and not positive speed are not written, speed
+	 * is written as extension.
+	 */
+	public void writePoint(String tag, double lat, double lon, double ele, long time, double speed, double hdop,
+			String name, String desc, String link, String category, Map<String, String> extensions) throws IOException {
+		startTag(tag);
+		buf.append(" lat=\""); //$NON-NLS-1$
+		appendLatLon(lat);
+		buf.append("\" lon=\""); //$NON-NLS-1$
+		appendLatLon(lon);
+		buf.append('"');
+		closeStartTag();
+		if (!Double.isNaN(ele)) {
+			openTextTag("ele"); //$NON-NLS-1$
+			buf.append(ele);
+			closeTextTag("ele"); //$NON-NLS-1$
+		}
+		if (time != 0) {
+			openTextTag("time"); //$NON-NLS-1$
+			appendTime(buf, time);
+			closeTextTag("time"); //$NON-NLS-1$
+		}
+		writeNotNullText("name", name); //$NON-NLS-1$
+		writeNotNullText("desc", desc); //$NON-NLS-1$
+		if (link != null) {
+			startTag("link"); //$NON-NLS-1$
+			attribute("href", link); //$NON-NLS-1$
+			buf.append(" />"); //$NON-NLS-1$
+			depth--;
+		}
+		writeNotNullText("type", category); //$NON-NLS-1$
+		if (!Double.isNaN(hdop)) {
+			openTextTag("hdop"); //$NON-NLS-1$
+			buf.append(hdop);
+			closeTextTag("hdop"); //$NON-NLS-1$
+		}
+		writeExtensions(extensions, speed);
+		endTag(tag);
+	}
+
+	public void flush() throws IOException {
+		out.write(buf.toString());
+		buf.setLength(0);
+		out.flush();
+	}
+
+	private void writeExtensions(Map<String, String> extensions, double speed) throws IOException {
+		boolean speedExtension = speed > 0;
+		if ((extensions == null || extensions.isEmpty()) && !speedExtension) {
+			return;
+		}
+		startTag("extensions"); //$NON-NLS-1$
+		closeStartTag();
+		boolean speedWritten = false;
+		if (extensions != null) {
+			for (Map.Entry<String, String> e : extensions.entrySet()) {
+				if (speedExtension && e.getKey().equals("speed")) { //$NON-NLS-1$
+					writeSpeed(speed);
+					speedWritten = true;
+				} else {
+					writeNotNullText(e.getKey(), e.getValue());
+				}
+			}
+		}
+		if (speedExtension && !speedWritten) {
+			writeSpeed(speed);
+		}
+		endTag("extensions"); //$NON-NLS-1$
+	}
+
+	private void writeSpeed(double speed) throws IOException {
+		openTextTag("speed"); //$NON-NLS-1$
+		buf.append(speed);
+		closeTextTag("speed"); //$NON-NLS-1$
+	}
+
+	private void writeNotNullText(String tag, String value) throws IOException {
+		if (value != null) {
+			openTextTag(tag);
+			escape(value, false);
+			closeTextTag(tag);
+		}
+	}
+
+	private void indent() {
+		buf.append('\n');
+		for (int i = 0; i < depth; i++) {
+			buf.append("  "); //$NON-NLS-1$
+		}
+	}
+
+	private void startTag(String tag) {
+		indent();
+		buf.append('<').append(tag);
+		depth++;
+	}
+
+	private void closeStartTag() {
+		buf.append('>');
+	}
+
+	private void attribute(String name, String value) {
+		buf.append(' ').append(name).append("=\""); //$NON-NLS-1$
+		escape(value, true);
+		buf.append('"');
+	}
+
+	private void endTag(String tag) throws IOException {
+		depth--;
+		indent();
+		buf.append("</").append(tag).append('>'); //$NON-NLS-1$
+		if (buf.length() > FLUSH_SIZE) {
+			out.write(buf.toString());
+			buf.setLength(0);
+		}
+	}
+
+	private void openTextTag(String tag) {
+		indent();
+		buf.append('<').append(tag).append('>');
+	}
+
+	private void closeTextTag(String tag) {
+		buf.append("</").append(tag).append('>'); //$NON-NLS-1$
+	}
+
+	private void escape(String s, boolean attribute) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '&':
+				buf.append("&amp;"); //$NON-NLS-1$
+				break;
+			case '<':
+				buf.append("&lt;"); //$NON-NLS-1$
+				break;
+			case '>':
+				buf.append("&gt;"); //$NON-NLS-1$
+				break;
+			case '"':
+				buf.append(attribute ? "&quot;" : "\""); //$NON-NLS-1$ //$NON-NLS-2$
+				break;
+			case '\n':
+			case '\r':
+			case '\t':
+				if (attribute) {
+					buf.append("&#").append((int) c).append(';'); //$NON-NLS-1$
+				} else {
+					buf.append(c);
+				}
+				break;
+			default:
+				// other control characters are not allowed in xml 1.0
+				if (c >= ' ') {
+					buf.append(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same as decimal format "0.00#####"
+	 */
+	private void appendLatLon(double v) {
+		long scaled = Math.round(Math.abs(v) * 1e7);
+		if (v < 0 && scaled != 0) {
+			buf.append('-');
+		}
+		buf.append(scaled / 10000000);
+		buf.append('.');
+		long fraction = scaled % 10000000;
+		int digits = LAT_LON_DIGITS;
+		while (digits > 2 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		for (long p = pow10(digits - 1); p > 1 && fraction < p; p /= 10) {
+			buf.append('0');
+		}
+		buf.append(fraction);
+	}
+
+	private static long pow10(int n) {
+		long r = 1;
+		for (int i = 0; i < n; i++) {
+			r *= 10;
+		}
+		return r;
+	}
+
+	/**
+	 * Appends UTC time in format 'yyyy-MM-ddTHH:mm:ssZ'
+	 */
+	public static void appendTime(StringBuilder b, long time) {
+		long seconds = time >= 0 ? time / 1000 : (time - 999) / 1000;
+		long days = seconds >= 0 ? seconds / 86400 : (seconds - 86399) / 86400;
+		int secondOfDay = (int) (seconds - days * 86400);
+		// civil from days
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		int doe = (int) (z - era * 146097);
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		int day = doy - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+		append(b, year, 4).append('-');
+		append(b, month, 2).append('-');
+		append(b, day, 2).append('T');
+		append(b, secondOfDay / 3600, 2).append(':');
+		append(b, secondOfDay / 60 % 60, 2).append(':');
+		append(b, secondOfDay % 60, 2).append('Z');
+	}
+
+	private static StringBuilder append(StringBuilder b, long v, int width) {
+		for (long p = pow10(width - 1); p > 1 && v < p; p /= 10) {
+			b.append('0');
+		}
+		return b.append(v);
+	}
+}
@@ -1,42 +1,31 @@
 package net.osmand.plus;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Stack;
-import java.util.TimeZone;
 
 import net.osmand.Location;
 import net.osmand.PlatformUtil;
 import net.osmand.data.LocationPoint;
 import net.osmand.data.PointDescription;
+import net.osmand.plus.GPXStreamReader.GPXPoint;
+import net.osmand.plus.GPXStreamReader.GPXStreamListener;
+import net.osmand.plus.GPXStreamReader.TrackColumns;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
-import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
 import android.content.Context;
 import android.graphics.Color;
@@ -44,11 +33,6 @@ import android.graphics.Color;
 public class GPXUtilities {
 	public final static Log log = PlatformUtil.getLog(GPXUtilities.class);
 
-	private final static String GPX_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'"; //$NON-NLS-1$
-
-	private final static NumberFormat latLonFormat = new DecimalFormat("0.00#####", new DecimalFormatSymbols(
-			new Locale("EN", "US")));
-
 	public static class GPXExtensions {
 		Map<String, String> extensions = null;
 
@@ -216,7 +200,7 @@ public class GPXUtilities {
 			return new GPXTrackAnalysis().prepareInformation(filetimestamp, new SplitSegment(segment));
 		}
 		
-		public GPXTrackAnalysis prepareInformation(long filestamp, SplitSegment... splitSegments) {
+		public GPXTrackAnalysis prepareInformation(long filestamp, AnalysisSegment... splitSegments) {
 			float[] calculations = new float[1];
 
 			float totalElevation = 0;
@@ -225,25 +209,24 @@ public class GPXUtilities {
 			double totalSpeedSum = 0;
 			points = 0;
 			
-			for (SplitSegment s : splitSegments) {
+			for (AnalysisSegment s : splitSegments) {
 				final int numberOfPoints = s.getNumberOfPoints();
-				metricEnd += s.metricEnd;
+				metricEnd += s.getMetricEnd();
 				points += numberOfPoints;
 				for (int j = 0; j < numberOfPoints; j++) {
-					WptPt point = s.get(j);
 					if(j == 0 && locationStart == null) {
-						locationStart = point;
+						locationStart = s.get(j);
 					}
 					if(j == numberOfPoints - 1) {
-						locationEnd = point;
+						locationEnd = s.get(j);
 					}
-					long time = point.time;
+					long time = s.getTime(j);
 					if (time != 0) {
 						startTime = Math.min(startTime, time);
 						endTime = Math.max(endTime, time);
 					}
 
-					double elevation = point.ele;
+					double elevation = s.getEle(j);
 					if (!Double.isNaN(elevation)) {
 						totalElevation += elevation;
 						elevationPoints++;
@@ -251,7 +234,7 @@ public class GPXUtilities {
 						maxElevation = Math.max(elevation, maxElevation);
 					}
 
-					float speed = (float) point.speed;
+					float speed = (float) s.getSpeed(j);
 					if (speed > 0) {
 						totalSpeedSum += speed;
 						maxSpeed = Math.max(speed, maxSpeed);
@@ -259,10 +242,9 @@ public class GPXUtilities {
 					}
 
 					if (j > 0) {
-						WptPt prev = s.get(j - 1);
-
-						if (!Double.isNaN(point.ele) && !Double.isNaN(prev.ele)) {
-							double diff = point.ele - prev.ele;
+						double prevElevation = s.getEle(j - 1);
+						if (!Double.isNaN(elevation) && !Double.isNaN(prevElevation)) {
+							double diff = elevation - prevElevation;
 							if (diff > 0) {
 								diffElevationUp += diff;
 							} else {
@@ -273,12 +255,14 @@ public class GPXUtilities {
 						// totalDistance += MapUtils.getDistance(prev.lat, prev.lon, point.lat, point.lon);
 						// using ellipsoidal 'distanceBetween' instead of spherical haversine (MapUtils.getDistance) is
 						// a little more exact, also seems slightly faster:
-						net.osmand.Location.distanceBetween(prev.lat, prev.lon, point.lat, point.lon, calculations);
+						net.osmand.Location.distanceBetween(s.getLat(j - 1), s.getLon(j - 1), s.getLat(j), s.getLon(j),
+								calculations);
 						totalDistance += calculations[0];
 
 						// Averaging speed values is less exact than totalDistance/timeMoving
-						if (speed > 0 && point.time != 0 && prev.time != 0) {
-							timeMoving = timeMoving + (point.time - prev.time);
+						long prevTime = s.getTime(j - 1);
+						if (speed > 0 && time != 0 && prevTime != 0) {
+							timeMoving = timeMoving + (time - prevTime);
 							totalDistanceMoving += calculations[0];
 						}
 					}
@@ -314,10 +298,100 @@ public class GPXUtilities {
 			}
 			return this;
 		}
+
+		/**
+		 * Same analysis as {@link GPXFile#getAnalysis(long)} of track points read by {@link GPXStreamReader}
+		 * (without building objects of points)
+		 */
+		public GPXTrackAnalysis prepareInformation(long filestamp, TrackColumns c) {
+			wptPoints = c.wptPoints;
+			List<AnalysisSegment> segments = new ArrayList<AnalysisSegment>();
+			for (int s = 0; s < c.getSegmentsCount(); s++) {
+				if (!c.routeSegments.get(s)) {
+					totalTracks++;
+					if (c.getSegmentEnd(s) - c.segmentStarts.get(s) > 1) {
+						segments.add(new ColumnsSegment(c, s));
+					}
+				}
+			}
+			return prepareInformation(filestamp, segments.toArray(new AnalysisSegment[segments.size()]));
+		}
 		
 	}
+
+	/**
+	 * Points of the segment for {@link GPXTrackAnalysis}
+	 */
+	private static abstract class AnalysisSegment {
+
+		public abstract int getNumberOfPoints();
+
+		public abstract WptPt get(int j);
+
+		public abstract double getLat(int j);
+
+		public abstract double getLon(int j);
+
+		public abstract long getTime(int j);
+
+		public abstract double getEle(int j);
+
+		public abstract double getSpeed(int j);
+
+		public double getMetricEnd() {
+			return 0;
+		}
+	}
+
+	private static class ColumnsSegment extends AnalysisSegment {
+		private final TrackColumns c;
+		private final int start;
+		private final int end;
+
+		public ColumnsSegment(TrackColumns c, int segment) {
+			this.c = c;
+			this.start = c.segmentStarts.get(segment);
+			this.end = c.getSegmentEnd(segment);
+		}
+
+		@Override
+		public int getNumberOfPoints() {
+			return end - start;
+		}
+
+		@Override
+		public WptPt get(int j) {
+			int i = start + j;
+			return new WptPt(c.lat[i], c.lon[i], c.time[i], c.ele[i], c.speed[i], c.hdop[i]);
+		}
+
+		@Override
+		public double getLat(int j) {
+			return c.lat[start + j];
+		}
+
+		@Override
+		public double getLon(int j) {
+			return c.lon[start + j];
+		}
+
+		@Override
+		public long getTime(int j) {
+			return c.time[start + j];
+		}
+
+		@Override
+		public double getEle(int j) {
+			return c.ele[start + j];
+		}
+
+		@Override
+		public double getSpeed(int j) {
+			return c.speed[start + j];
+		}
+	}
 	
-	private static class SplitSegment {
+	private static class SplitSegment extends AnalysisSegment {
 		TrkSegment  segment;
 		double startCoeff = 0;
 		int startPointInd;
@@ -340,10 +414,42 @@ public class GPXUtilities {
 		}
 		
 		
+		@Override
 		public int getNumberOfPoints() {
 			return endPointInd - startPointInd + 2;
 		}
 		
+		@Override
+		public double getMetricEnd() {
+			return metricEnd;
+		}
+
+		@Override
+		public double getLat(int j) {
+			return get(j).lat;
+		}
+
+		@Override
+		public double getLon(int j) {
+			return get(j).lon;
+		}
+
+		@Override
+		public long getTime(int j) {
+			return get(j).time;
+		}
+
+		@Override
+		public double getEle(int j) {
+			return get(j).ele;
+		}
+
+		@Override
+		public double getSpeed(int j) {
+			return get(j).speed;
+		}
+
+		@Override
 		public WptPt get(int j) {
 			final int ind = j + startPointInd;
 			if(j == 0) {
@@ -629,64 +735,32 @@ public class GPXUtilities {
 
 	public static String writeGpx(Writer output, GPXFile file, OsmandApplication ctx) {
 		try {
-			SimpleDateFormat format = new SimpleDateFormat(GPX_TIME_FORMAT);
-			format.setTimeZone(TimeZone.getTimeZone("UTC"));
-			XmlSerializer serializer = PlatformUtil.newSerializer();
-			serializer.setOutput(output);
-			serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true); //$NON-NLS-1$
-			serializer.startDocument("UTF-8", true); //$NON-NLS-1$
-			serializer.startTag(null, "gpx"); //$NON-NLS-1$
-			serializer.attribute(null, "version", "1.1"); //$NON-NLS-1$ //$NON-NLS-2$
-			if (file.author == null) {
-				serializer.attribute(null, "creator", Version.getAppName(ctx)); //$NON-NLS-1$
-			} else {
-				serializer.attribute(null, "creator", file.author); //$NON-NLS-1$
-			}
-			serializer.attribute(null, "xmlns", "http://www.topografix.com/GPX/1/1"); //$NON-NLS-1$ //$NON-NLS-2$
-			serializer.attribute(null, "xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
-			serializer.attribute(null, "xsi:schemaLocation",
-					"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd");
-
+			GPXStreamWriter writer = new GPXStreamWriter(output);
+			writer.startDocument(file.author == null ? Version.getAppName(ctx) : file.author);
 			for (Track track : file.tracks) {
-				serializer.startTag(null, "trk"); //$NON-NLS-1$
-				writeNotNullText(serializer, "name", track.name);
-				writeNotNullText(serializer, "desc", track.desc);
+				writer.startTrack(track.name, track.desc);
 				for (TrkSegment segment : track.segments) {
-					serializer.startTag(null, "trkseg"); //$NON-NLS-1$
+					writer.startSegment();
 					for (WptPt p : segment.points) {
-						serializer.startTag(null, "trkpt"); //$NON-NLS-1$
-						writeWpt(format, serializer, p);
-						serializer.endTag(null, "trkpt"); //$NON-NLS-1$
+						writeWpt(writer, "trkpt", p); //$NON-NLS-1$
 					}
-					serializer.endTag(null, "trkseg"); //$NON-NLS-1$
+					writer.endSegment();
 				}
-				writeExtensions(serializer, track);
-				serializer.endTag(null, "trk"); //$NON-NLS-1$
+				writer.endTrack(track.extensions);
 			}
 
-			for (Route track : file.routes) {
-				serializer.startTag(null, "rte"); //$NON-NLS-1$
-				writeNotNullText(serializer, "name", track.name);
-				writeNotNullText(serializer, "desc", track.desc);
-
-				for (WptPt p : track.points) {
-					serializer.startTag(null, "rtept"); //$NON-NLS-1$
-					writeWpt(format, serializer, p);
-					serializer.endTag(null, "rtept"); //$NON-NLS-1$
+			for (Route route : file.routes) {
+				writer.startRoute(route.name, route.desc);
+				for (WptPt p : route.points) {
+					writeWpt(writer, "rtept", p); //$NON-NLS-1$
 				}
-				writeExtensions(serializer, track);
-				serializer.endTag(null, "rte"); //$NON-NLS-1$
+				writer.endRoute(route.extensions);
 			}
 
 			for (WptPt l : file.points) {
-				serializer.startTag(null, "wpt"); //$NON-NLS-1$
-				writeWpt(format, serializer, l);
-				serializer.endTag(null, "wpt"); //$NON-NLS-1$
+				writeWpt(writer, "wpt", l); //$NON-NLS-1$
 			}
-
-			serializer.endTag(null, "gpx"); //$NON-NLS-1$
-			serializer.flush();
-			serializer.endDocument();
+			writer.endDocument();
 		} catch (RuntimeException e) {
 			log.error("Error saving gpx", e); //$NON-NLS-1$
 			return ctx.getString(R.string.error_occurred_saving_gpx);
@@ -697,49 +771,9 @@ public class GPXUtilities {
 		return null;
 	}
 
-	private static void writeNotNullText(XmlSerializer serializer, String tag, String value) throws IOException {
-		if (value != null) {
-			serializer.startTag(null, tag);
-			serializer.text(value);
-			serializer.endTag(null, tag);
-		}
-	}
-
-	private static void writeExtensions(XmlSerializer serializer, GPXExtensions p) throws IOException {
-		if (!p.getExtensionsToRead().isEmpty()) {
-			serializer.startTag(null, "extensions");
-			for (Map.Entry<String, String> s : p.getExtensionsToRead().entrySet()) {
-				writeNotNullText(serializer, s.getKey(), s.getValue());
-			}
-			serializer.endTag(null, "extensions");
-		}
-	}
-
-	private static void writeWpt(SimpleDateFormat format, XmlSerializer serializer, WptPt p) throws IOException {
-		serializer.attribute(null, "lat", latLonFormat.format(p.lat)); //$NON-NLS-1$ //$NON-NLS-2$
-		serializer.attribute(null, "lon", latLonFormat.format(p.lon)); //$NON-NLS-1$ //$NON-NLS-2$
-
-		if (!Double.isNaN(p.ele)) {
-			writeNotNullText(serializer, "ele", p.ele + "");
-		}
-		if (p.time != 0) {
-			writeNotNullText(serializer, "time", format.format(new Date(p.time)));
-		}
-		writeNotNullText(serializer, "name", p.name);
-		writeNotNullText(serializer, "desc", p.desc);
-		if(p.link != null) {
-			serializer.startTag(null, "link");
-			serializer.attribute(null, "link", p.link);
-			serializer.endTag(null, "link");
-		}
-		writeNotNullText(serializer, "type", p.category);
-		if (!Double.isNaN(p.hdop)) {
-			writeNotNullText(serializer, "hdop", p.hdop + "");
-		}
-		if (p.speed > 0) {
-			p.getExtensionsToWrite().put("speed", p.speed + "");
-		}
-		writeExtensions(serializer, p);
+	private static void writeWpt(GPXStreamWriter writer, String tag, WptPt p) throws IOException {
+		writer.writePoint(tag, p.lat, p.lon, p.ele, p.time, p.speed, p.hdop, p.name, p.desc, p.link, p.category,
+				p.extensions);
 	}
 
 	public static class GPXFileResult {
@@ -763,24 +797,6 @@ public class GPXUtilities {
 		}
 	}
 
-	private static String readText(XmlPullParser parser, String key) throws XmlPullParserException, IOException {
-		int tok;
-		String text = null;
-		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
-			if (tok == XmlPullParser.END_TAG && parser.getName().equals(key)) {
-				break;
-			} else if (tok == XmlPullParser.TEXT) {
-				if (text == null) {
-					text = parser.getText();
-				} else {
-					text += parser.getText();
-				}
-			}
-
-		}
-		return text;
-	}
-
 	public static GPXFile loadGPXFile(Context ctx, File f) {
 		FileInputStream fis = null;
 		try {
@@ -810,164 +826,8 @@ public class GPXUtilities {
 
 	public static GPXFile loadGPXFile(Context ctx, InputStream f) {
 		GPXFile res = new GPXFile();
-		SimpleDateFormat format = new SimpleDateFormat(GPX_TIME_FORMAT);
-		format.setTimeZone(TimeZone.getTimeZone("UTC"));
 		try {
-			XmlPullParser parser = PlatformUtil.newXMLPullParser();
-			parser.setInput(getUTF8Reader(f)); //$NON-NLS-1$
-			Stack<GPXExtensions> parserState = new Stack<GPXExtensions>();
-			boolean extensionReadMode = false;
-			parserState.push(res);
-			int tok;
-			while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
-				if (tok == XmlPullParser.START_TAG) {
-					Object parse = parserState.peek();
-					String tag = parser.getName();
-					if (extensionReadMode && parse instanceof GPXExtensions) {
-						String value = readText(parser, tag);
-						if (value != null) {
-							((GPXExtensions) parse).getExtensionsToWrite().put(tag, value);
-							if (tag.equals("speed") && parse instanceof WptPt) {
-								try {
-									((WptPt) parse).speed = Float.parseFloat(value);
-								} catch (NumberFormatException e) {
-								}
-							}
-						}
-
-					} else if (parse instanceof GPXExtensions && tag.equals("extensions")) {
-						extensionReadMode = true;
-					} else {
-						if (parse instanceof GPXFile) {
-							if (parser.getName().equals("gpx")) {
-								((GPXFile) parse).author = parser.getAttributeValue("", "creator");
-							}
-							if (parser.getName().equals("trk")) {
-								Track track = new Track();
-								((GPXFile) parse).tracks.add(track);
-								parserState.push(track);
-							}
-							if (parser.getName().equals("rte")) {
-								Route route = new Route();
-								((GPXFile) parse).routes.add(route);
-								parserState.push(route);
-							}
-							if (parser.getName().equals("wpt")) {
-								WptPt wptPt = parseWptAttributes(parser);
-								((GPXFile) parse).points.add(wptPt);
-								parserState.push(wptPt);
-							}
-						} else if (parse instanceof Route) {
-							if (parser.getName().equals("name")) {
-								((Route) parse).name = readText(parser, "name");
-							}
-							if (parser.getName().equals("desc")) {
-								((Route) parse).desc = readText(parser, "desc");
-							}
-							if (parser.getName().equals("rtept")) {
-								WptPt wptPt = parseWptAttributes(parser);
-								((Route) parse).points.add(wptPt);
-								parserState.push(wptPt);
-							}
-						} else if (parse instanceof Track) {
-							if (parser.getName().equals("name")) {
-								((Track) parse).name = readText(parser, "name");
-							}
-							if (parser.getName().equals("desc")) {
-								((Track) parse).desc = readText(parser, "desc");
-							}
-							if (parser.getName().equals("trkseg")) {
-								TrkSegment trkSeg = new TrkSegment();
-								((Track) parse).segments.add(trkSeg);
-								parserState.push(trkSeg);
-							}
-						} else if (parse instanceof TrkSegment) {
-							if (parser.getName().equals("trkpt")) {
-								WptPt wptPt = parseWptAttributes(parser);
-								((TrkSegment) parse).points.add(wptPt);
-								parserState.push(wptPt);
-							}
-							// main object to parse
-						} else if (parse instanceof WptPt) {
-							if (parser.getName().equals("name")) {
-								((WptPt) parse).name = readText(parser, "name");
-							} else if (parser.getName().equals("desc")) {
-								((WptPt) parse).desc = readText(parser, "desc");
-							} else if (parser.getName().equals("link")) {
-								((WptPt) parse).link = parser.getAttributeValue("", "href");
-							} else if (tag.equals("category")) {
-								((WptPt) parse).category = readText(parser, "category");
-							} else if (tag.equals("type")) {
-								if(((WptPt) parse).category == null) {
-									((WptPt) parse).category = readText(parser, "type");
-								}
-							} else if (parser.getName().equals("ele")) {
-								String text = readText(parser, "ele");
-								if (text != null) {
-									try {
-										((WptPt) parse).ele = Float.parseFloat(text);
-									} catch (NumberFormatException e) {
-									}
-								}
-							} else if (parser.getName().equals("hdop")) {
-								String text = readText(parser, "hdop");
-								if (text != null) {
-									try {
-										((WptPt) parse).hdop = Float.parseFloat(text);
-									} catch (NumberFormatException e) {
-									}
-								}
-							} else if (parser.getName().equals("time")) {
-								String text = readText(parser, "time");
-								if (text != null) {
-									try {
-										((WptPt) parse).time = format.parse(text).getTime();
-									} catch (ParseException e) {
-									}
-								}
-							}
-						}
-					}
-
-				} else if (tok == XmlPullParser.END_TAG) {
-					Object parse = parserState.peek();
-					String tag = parser.getName();
-					if (parse instanceof GPXExtensions && tag.equals("extensions")) {
-						extensionReadMode = false;
-					}
-
-					if (tag.equals("trkpt")) {
-						Object pop = parserState.pop();
-						assert pop instanceof WptPt;
-					} else if (tag.equals("wpt")) {
-						Object pop = parserState.pop();
-						assert pop instanceof WptPt;
-					} else if (tag.equals("rtept")) {
-						Object pop = parserState.pop();
-						assert pop instanceof WptPt;
-					} else if (tag.equals("trk")) {
-						Object pop = parserState.pop();
-						assert pop instanceof Track;
-					} else if (tag.equals("rte")) {
-						Object pop = parserState.pop();
-						assert pop instanceof Route;
-					} else if (tag.equals("trkseg")) {
-						Object pop = parserState.pop();
-						assert pop instanceof TrkSegment;
-					}
-				}
-			}
-//			if (convertCloudmadeSource && res.isCloudmadeRouteFile()) {
-//				Track tk = new Track();
-//				res.tracks.add(tk);
-//				TrkSegment segment = new TrkSegment();
-//				tk.segments.add(segment);
-//
-//				for (WptPt wp : res.points) {
-//					segment.points.add(wp);
-//				}
-//				res.points.clear();
-//			}
+			new GPXStreamReader().read(GPXStreamReader.getUTF8Reader(f), new GPXFileBuilder(res));
 		} catch (RuntimeException e) {
 			log.error("Error reading gpx", e); //$NON-NLS-1$
 			res.warning = ctx.getString(R.string.error_reading_gpx) + " " + e.getMessage();
@@ -982,30 +842,80 @@ public class GPXUtilities {
 		return res;
 	}
 
-	private static Reader getUTF8Reader(InputStream f) throws IOException {
-		BufferedInputStream bis = new BufferedInputStream(f);
-		assert bis.markSupported();
-		bis.mark(3);
-		boolean reset = true;
-		byte[] t = new byte[3];
-		bis.read(t);
-		if (t[0] == ((byte) 0xef) && t[1] == ((byte) 0xbb) && t[2] == ((byte) 0xbf)) {
-			reset = false;
+	/**
+	 * Builds object model of the file from stream of the reader
+	 */
+	private static class GPXFileBuilder implements GPXStreamListener {
+		private final GPXFile res;
+		private Track track;
+		private Route route;
+		private TrkSegment segment;
+
+		public GPXFileBuilder(GPXFile res) {
+			this.res = res;
 		}
-		if (reset) {
-			bis.reset();
+
+		@Override
+		public void gpxStarted(String creator) {
+			res.author = creator;
 		}
-		return new InputStreamReader(bis, "UTF-8");
-	}
 
-	private static WptPt parseWptAttributes(XmlPullParser parser) {
-		WptPt wpt = new WptPt();
-		try {
-			wpt.lat = Double.parseDouble(parser.getAttributeValue("", "lat")); //$NON-NLS-1$ //$NON-NLS-2$
-			wpt.lon = Double.parseDouble(parser.getAttributeValue("", "lon")); //$NON-NLS-1$ //$NON-NLS-2$
-		} catch (NumberFormatException e) {
+		@Override
+		public void trackStarted(boolean isRoute) {
+			if (isRoute) {
+				route = new Route();
+				res.routes.add(route);
+			} else {
+				track = new Track();
+				res.tracks.add(track);
+			}
+		}
+
+		@Override
+		public void segmentStarted() {
+			segment = new TrkSegment();
+			track.segments.add(segment);
+		}
+
+		@Override
+		public void point(int type, GPXPoint p) {
+			WptPt wptPt = new WptPt(p.lat, p.lon, p.time, p.ele, p.speed, p.hdop);
+			wptPt.name = p.name;
+			wptPt.desc = p.desc;
+			wptPt.link = p.link;
+			wptPt.category = p.category;
+			wptPt.extensions = p.extensions;
+			if (type == GPXStreamReader.TRKPT) {
+				segment.points.add(wptPt);
+			} else if (type == GPXStreamReader.RTEPT) {
+				route.points.add(wptPt);
+			} else {
+				res.points.add(wptPt);
+			}
+		}
+
+		@Override
+		public void segmentFinished(Map<String, String> extensions) {
+			segment.extensions = extensions;
+		}
+
+		@Override
+		public void trackFinished(boolean isRoute, String name, String desc, Map<String, String> extensions) {
+			if (isRoute) {
+				route.name = name;
+				route.desc = desc;
+				route.extensions = extensions;
+			} else {
+				track.name = name;
+				track.desc = desc;
+				track.extensions = extensions;
+			}
+		}
+
+		@Override
+		public void gpxFinished(Map<String, String> extensions) {
+			res.extensions = extensions;
 		}
-		return wpt;
 	}
 
 	public static void mergeGPXFileInto(GPXFile to, GPXFile from) {
@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.osmand.CallbackWithObject;
 import net.osmand.IProgress;
 import net.osmand.plus.GPXUtilities.GPXFile;
 import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
@@ -388,6 +389,7 @@ public class GpxSelectionHelper {
 		private GPXTrackAnalysis trackAnalysis;
 		private long modifiedTime = -1;
 		private List<List<WptPt>> processedPointsToDisplay = new ArrayList<List<WptPt>>();
+		private volatile GpxSimplificationPyramid simplificationPyramid;
 		private boolean routePoints;
 
 		private List<GpxDisplayGroup> displayGroups;
@@ -422,6 +424,32 @@ public class GpxSelectionHelper {
 				this.processedPointsToDisplay = gpxFile.processRoutePoints();
 				routePoints = !this.processedPointsToDisplay.isEmpty();
 			}
+			updateSimplificationPyramid();
+		}
+
+		private void updateSimplificationPyramid() {
+			simplificationPyramid = null;
+			final List<List<WptPt>> points = processedPointsToDisplay;
+			// current track is changed all the time
+			if (!gpxFile.showCurrentTrack
+					&& GpxSimplificationPyramid.getPointsCount(points) >= GpxSimplificationPyramid.MIN_POINTS) {
+				GpxSimplificationPyramid.buildAsync(points, new CallbackWithObject<GpxSimplificationPyramid>() {
+					@Override
+					public boolean processResult(GpxSimplificationPyramid result) {
+						if (processedPointsToDisplay == points) {
+							simplificationPyramid = result;
+						}
+						return true;
+					}
+				});
+			}
+		}
+
+		/**
+		 * Returns levels of details of points to display, null if they are not calculated (yet)
+		 */
+		public GpxSimplificationPyramid getSimplificationPyramid() {
+			return simplificationPyramid;
 		}
 		
 		public boolean isRoutePoints() {
@@ -0,0 +1,300 @@
+package net.osmand.plus;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.osmand.CallbackWithObject;
+import net.osmand.PlatformUtil;
+import net.osmand.data.QuadRect;
+import net.osmand.plus.GPXUtilities.WptPt;
+import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Precalculated level of details of track segments for drawing.
+ *
+ * Every point gets importance by Douglas-Peucker simplification (distance at which it was chosen, never bigger
+ * than importance of the parent split), so simplification for the zoom is the list of points with importance
+ * bigger than half of pixel at that zoom and levels of all zooms are nested. Segment is also split into chunks of
+ * consecutive points with bounding boxes, so only chunks intersecting the screen are drawn.
+ */
+public class GpxSimplificationPyramid {
+
+	private static final Log log = PlatformUtil.getLog(GpxSimplificationPyramid.class);
+
+	public static final int MIN_ZOOM = 1;
+	// on bigger zooms only few chunks are visible, so all their points are drawn
+	public static final int MAX_ZOOM = 15;
+	public static final int CHUNK_SIZE = 128;
+	// tracks with less points are drawn directly
+	public static final int MIN_POINTS = 2000;
+	private static final double TOLERANCE_PIXELS = 0.5;
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Gpx simplification"); //$NON-NLS-1$
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+
+	private static class SegmentLevels {
+		int size;
+		// indexes of points for zooms from MIN_ZOOM, null if all points are needed
+		int[][] levels;
+		// bottom, top, left, right of every chunk (chunk includes first point of the next chunk)
+		double[] chunkBounds;
+	}
+
+	private final List<List<WptPt>> points;
+	private final SegmentLevels[] segments;
+
+	private GpxSimplificationPyramid(List<List<WptPt>> points) {
+		this.points = points;
+		this.segments = new SegmentLevels[points.size()];
+	}
+
+	public static int getPointsCount(List<List<WptPt>> points) {
+		int cnt = 0;
+		for (List<WptPt> l : points) {
+			cnt += l.size();
+		}
+		return cnt;
+	}
+
+	/**
+	 * Builds pyramid in background thread, callback is called in that thread (with null if points were changed
+	 * during calculation)
+	 */
+	public static void buildAsync(final List<List<WptPt>> points, final CallbackWithObject<GpxSimplificationPyramid> callback) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				GpxSimplificationPyramid pyramid = null;
+				try {
+					pyramid = build(points);
+					if (!pyramid.isBuiltFor(points)) {
+						pyramid = null;
+					}
+				} catch (RuntimeException e) {
+					// points were modified
+					log.error("Error simplifying gpx track", e); //$NON-NLS-1$
+				}
+				callback.processResult(pyramid);
+			}
+		});
+	}
+
+	public static GpxSimplificationPyramid build(List<List<WptPt>> points) {
+		GpxSimplificationPyramid pyramid = new GpxSimplificationPyramid(points);
+		for (int i = 0; i < points.size(); i++) {
+			pyramid.segments[i] = buildSegment(points.get(i));
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Checks that the pyramid was built for these points and they were not changed after
+	 */
+	public boolean isBuiltFor(List<List<WptPt>> pts) {
+		if (pts != points || pts.size() != segments.length) {
+			return false;
+		}
+		for (int i = 0; i < segments.length; i++) {
+			if (pts.get(i).size() != segments[i].size) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns indexes of points to draw at the zoom or null if all points should be drawn
+	 */
+	public int[] getLevel(int segment, int zoom) {
+		int[][] levels = segments[segment].levels;
+		int l = Math.max(zoom, MIN_ZOOM) - MIN_ZOOM;
+		return l < levels.length ? levels[l] : null;
+	}
+
+	/**
+	 * Collects ranges (pairs of start and end inclusive) of positions in {@link #getLevel(int, int)} array (or of
+	 * points if level is null) which should be drawn for visible area. Ranges include one point outside on each
+	 * side, so lines are continued to the border of the screen.
+	 */
+	public void collectVisibleRanges(int segment, int zoom, QuadRect latLonBounds, TIntArrayList ranges) {
+		SegmentLevels s = segments[segment];
+		int[] level = getLevel(segment, zoom);
+		int levelSize = level == null ? s.size : level.length;
+		int chunks = s.chunkBounds.length / 4;
+		int c = 0;
+		while (c < chunks) {
+			if (!intersects(s.chunkBounds, c, latLonBounds)) {
+				c++;
+				continue;
+			}
+			int first = c;
+			while (c + 1 < chunks && intersects(s.chunkBounds, c + 1, latLonBounds)) {
+				c++;
+			}
+			int start = first * CHUNK_SIZE;
+			int end = Math.min((c + 1) * CHUNK_SIZE, s.size - 1);
+			int from;
+			int to;
+			if (level == null) {
+				from = start;
+				to = end;
+			} else {
+				from = lowerBound(level, start);
+				to = lowerBound(level, end + 1) - 1;
+			}
+			from = Math.max(0, from - 1);
+			to = Math.min(levelSize - 1, to + 1);
+			if (ranges.size() > 0 && ranges.get(ranges.size() - 1) >= from) {
+				// simplified lines of neighbour ranges overlap
+				ranges.set(ranges.size() - 1, Math.max(to, ranges.get(ranges.size() - 1)));
+			} else if (to > from) {
+				ranges.add(from);
+				ranges.add(to);
+			}
+			c++;
+		}
+	}
+
+	private static boolean intersects(double[] bounds, int chunk, QuadRect r) {
+		int i = chunk * 4;
+		return bounds[i] <= r.top && bounds[i + 1] >= r.bottom && bounds[i + 2] <= r.right && bounds[i + 3] >= r.left;
+	}
+
+	private static int lowerBound(int[] a, int key) {
+		int lo = 0;
+		int hi = a.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static SegmentLevels buildSegment(List<WptPt> l) {
+		SegmentLevels s = new SegmentLevels();
+		int n = l.size();
+		s.size = n;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		int chunks = n <= 1 ? n : (n - 2) / CHUNK_SIZE + 1;
+		s.chunkBounds = new double[chunks * 4];
+		for (int i = 0; i < n; i++) {
+			WptPt p = l.get(i);
+			x[i] = MapUtils.getTileNumberX(0, p.lon);
+			y[i] = MapUtils.getTileNumberY(0, p.lat);
+			// point on the border of chunks belongs to both
+			for (int c = i == 0 ? 0 : (i - 1) / CHUNK_SIZE; c <= i / CHUNK_SIZE && c < chunks; c++) {
+				int b = c * 4;
+				if (i == c * CHUNK_SIZE) {
+					s.chunkBounds[b] = s.chunkBounds[b + 1] = p.lat;
+					s.chunkBounds[b + 2] = s.chunkBounds[b + 3] = p.lon;
+				} else {
+					s.chunkBounds[b] = Math.min(s.chunkBounds[b], p.lat);
+					s.chunkBounds[b + 1] = Math.max(s.chunkBounds[b + 1], p.lat);
+					s.chunkBounds[b + 2] = Math.min(s.chunkBounds[b + 2], p.lon);
+					s.chunkBounds[b + 3] = Math.max(s.chunkBounds[b + 3], p.lon);
+				}
+			}
+		}
+		double[] importance = calculateImportance(x, y);
+		int levelsCount = MAX_ZOOM - MIN_ZOOM + 1;
+		int[][] levels = new int[levelsCount][];
+		for (int z = MIN_ZOOM; z <= MAX_ZOOM; z++) {
+			double tolerance = TOLERANCE_PIXELS / (256d * (1 << z));
+			int cnt = 0;
+			for (int i = 0; i < n; i++) {
+				if (importance[i] >= tolerance) {
+					cnt++;
+				}
+			}
+			if (cnt == n) {
+				// this and next zooms draw all points
+				levelsCount = z - MIN_ZOOM;
+				break;
+			}
+			int[] level = new int[cnt];
+			cnt = 0;
+			for (int i = 0; i < n; i++) {
+				if (importance[i] >= tolerance) {
+					level[cnt++] = i;
+				}
+			}
+			levels[z - MIN_ZOOM] = level;
+		}
+		s.levels = new int[levelsCount][];
+		System.arraycopy(levels, 0, s.levels, 0, levelsCount);
+		return s;
+	}
+
+	private static double[] calculateImportance(double[] x, double[] y) {
+		int n = x.length;
+		double[] importance = new double[n];
+		if (n == 0) {
+			return importance;
+		}
+		importance[0] = Double.POSITIVE_INFINITY;
+		importance[n - 1] = Double.POSITIVE_INFINITY;
+		// stack of start, end and importance of the split (without recursion for long tracks)
+		TIntArrayList stack = new TIntArrayList();
+		double[] splitImportance = new double[n];
+		splitImportance[0] = Double.POSITIVE_INFINITY;
+		stack.add(0);
+		stack.add(n - 1);
+		while (stack.size() > 0) {
+			int end = stack.removeAt(stack.size() - 1);
+			int start = stack.removeAt(stack.size() - 1);
+			if (end - start < 2) {
+				continue;
+			}
+			double maxDist = -1;
+			int split = start + 1;
+			for (int i = start + 1; i < end; i++) {
+				double d = distanceToSegment(x[i], y[i], x[start], y[start], x[end], y[end]);
+				if (d > maxDist) {
+					maxDist = d;
+					split = i;
+				}
+			}
+			importance[split] = Math.min(maxDist, splitImportance[start]);
+			splitImportance[start] = importance[split];
+			splitImportance[split] = importance[split];
+			stack.add(start);
+			stack.add(split);
+			stack.add(split);
+			stack.add(end);
+		}
+		return importance;
+	}
+
+	private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double len = dx * dx + dy * dy;
+		double t = len == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len;
+		if (t < 0) {
+			t = 0;
+		} else if (t > 1) {
+			t = 1;
+		}
+		double ex = px - ax - t * dx;
+		double ey = py - ay - t * dy;
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+}
@@ -624,6 +624,12 @@ public class OsmandSettings {
 		return p;
 	}
 	public final CommonPreference<Boolean> USE_FAST_RECALCULATION = new BooleanPreference("use_fast_recalculation", true).makeGlobal().cache();
+
+	public final CommonPreference<Boolean> USE_INCREMENTAL_RECALCULATION = new BooleanPreference("use_incremental_recalculation", true).makeGlobal().cache();
+
+	public final CommonPreference<Integer> PARALLEL_ROUTE_LEGS = new IntPreference("parallel_route_legs", 1).makeGlobal().cache();
+
+	public final CommonPreference<Integer> ALTERNATIVE_ROUTES = new IntPreference("alternative_routes", 0).makeGlobal().cache();
 	
 	// this value string is synchronized with settings_pref.xml preference name
 	public final CommonPreference<Boolean> USE_INTERNET_TO_DOWNLOAD_TILES = new BooleanPreference("use_internet_to_download_tiles", true).makeGlobal().cache();
@@ -921,6 +927,11 @@ public class OsmandSettings {
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> DEBUG_RENDERING_INFO = new BooleanPreference("debug_rendering", false).makeGlobal();
 	
+	public final CommonPreference<Integer> RENDERING_SUB_TILES = new IntPreference("rendering_sub_tiles", 1).makeGlobal().cache();
+	
+	// size of rendered vector tiles cache in MB (0 - disabled)
+	public final CommonPreference<Integer> RENDERED_TILES_CACHE_SIZE = new IntPreference("rendered_tiles_cache_size", 0).makeGlobal().cache();
+	
 	// this value string is synchronized with settings_pref.xml preference name
 	public final OsmandPreference<Boolean> SHOW_FAVORITES = new BooleanPreference("show_favorites", false).makeGlobal().cache();
 	
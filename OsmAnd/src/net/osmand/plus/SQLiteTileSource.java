@@ -5,17 +5,23 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.osmand.IndexConstants;
 import net.osmand.PlatformUtil;
 import net.osmand.data.QuadRect;
 import net.osmand.map.ITileSource;
+import net.osmand.map.TileSeedingJob.SeedTile;
+import net.osmand.map.TileSeedingJob.TileStore;
 import net.osmand.map.TileSourceManager;
 import net.osmand.map.TileSourceManager.TileSourceTemplate;
 import net.osmand.plus.api.SQLiteAPI.SQLiteConnection;
 import net.osmand.plus.api.SQLiteAPI.SQLiteCursor;
+import net.osmand.plus.api.SQLiteAPI.SQLiteStatement;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
@@ -26,7 +32,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 
-public class SQLiteTileSource implements ITileSource {
+public class SQLiteTileSource implements ITileSource, TileStore {
 
 	
 	public static final String EXT = IndexConstants.SQLITE_EXT;
@@ -49,6 +55,18 @@ public class SQLiteTileSource implements ITileSource {
 	private OsmandApplication ctx;
 	private boolean onlyReadonlyAvailable = false;
 	
+	// tiles are written by background thread in one transaction per batch
+	private static final int WRITE_BATCH_SIZE = 32;
+	private static final long WRITE_DELAY_MS = 1000;
+	private final Map<Long, SeedTile> pendingTiles = new LinkedHashMap<Long, SeedTile>();
+	private Thread writerThread;
+	// writer doesn't wait for more tiles and exits when queue is empty (guarded by pendingTiles)
+	private boolean stopWriter;
+	// compiled statements of opened db, insert is guarded by this and exists by its lock
+	private SQLiteStatement insertStatement;
+	private SQLiteStatement existsStatement;
+	private final Object existsLock = new Object();
+	
 	
 	
 	public SQLiteTileSource(OsmandApplication ctx, File f, List<TileSourceTemplate> toFindUrl){
@@ -261,23 +279,26 @@ public class SQLiteTileSource implements ITileSource {
 	}
 	
 	public boolean exists(int x, int y, int zoom) {
+		if (getPendingTile(x, y, zoom) != null) {
+			return true;
+		}
 		SQLiteConnection db = getDatabase();
 		if (db == null) {
 			return false;
 		}
 		long time = System.currentTimeMillis();
 		try {
-			int z = getFileZoom(zoom);
-			SQLiteCursor cursor = db.rawQuery(
-					"SELECT 1 FROM tiles WHERE x = ? AND y = ? AND z = ?", new String[] { x + "", y + "", z + "" }); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
-			try {
-				boolean e = cursor.moveToFirst();
-				cursor.close();
-
-				return e;
-			} catch (SQLiteDiskIOException e) {
-				return false;
+			synchronized (existsLock) {
+				if (existsStatement == null) {
+					existsStatement = db.compileStatement("SELECT count(*) FROM tiles WHERE x = ? AND y = ? AND z = ?"); //$NON-NLS-1$
+				}
+				existsStatement.bindLong(1, x);
+				existsStatement.bindLong(2, y);
+				existsStatement.bindLong(3, getFileZoom(zoom));
+				return existsStatement.simpleQueryForLong() > 0;
 			}
+		} catch (SQLiteDiskIOException e) {
+			return false;
 		} finally {
 			if (log.isDebugEnabled()) {
 				log.debug("Checking tile existance x = " + x + " y = " + y + " z = " + zoom + " for " + (System.currentTimeMillis() - time)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
@@ -294,6 +315,13 @@ public class SQLiteTileSource implements ITileSource {
 	}
 
 	public byte[] getBytes(int x, int y, int zoom, String dirWithTiles, long[] timeHolder) throws IOException {
+		SeedTile pending = getPendingTile(x, y, zoom);
+		if (pending != null) {
+			if (timeHolder != null && timeHolder.length > 0 && timeSupported) {
+				timeHolder[0] = System.currentTimeMillis();
+			}
+			return pending.data;
+		}
 		SQLiteConnection db = getDatabase();
 		if(db == null){
 			return null;
@@ -386,6 +414,9 @@ public class SQLiteTileSource implements ITileSource {
 	}
 
 	public void deleteImage(int x, int y, int zoom) {
+		synchronized (pendingTiles) {
+			pendingTiles.remove(getTileKey(x, y, zoom));
+		}
 		SQLiteConnection db = getDatabase();
 		if(db == null || db.isReadOnly()){
 			return;
@@ -407,34 +438,159 @@ public class SQLiteTileSource implements ITileSource {
 		insertImage(x, y, zoom, buf.array());
 		is.close();
 	}
+	public void insertImage(int x, int y, int zoom, byte[] dataToSave) throws IOException {
+		List<SeedTile> tiles = new ArrayList<SeedTile>(1);
+		SeedTile t = new SeedTile(x, y, zoom, 0);
+		t.data = dataToSave;
+		tiles.add(t);
+		saveTiles(tiles);
+	}
+
+	/**
+	 * Puts tile to the queue of tiles to write, the tile is readable before it is written.
+	 * Tiles are written in one transaction when there are enough of them or after short delay.
+	 */
+	public void insertImageAsync(int x, int y, int zoom, byte[] dataToSave) {
+		SeedTile t = new SeedTile(x, y, zoom, 0);
+		t.data = dataToSave;
+		synchronized (pendingTiles) {
+			pendingTiles.put(getTileKey(x, y, zoom), t);
+			if (writerThread == null) {
+				writerThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						writePendingTiles();
+					}
+				}, "Writing tiles " + name); //$NON-NLS-1$
+				writerThread.setDaemon(true);
+				writerThread.start();
+			} else if (pendingTiles.size() >= WRITE_BATCH_SIZE) {
+				pendingTiles.notifyAll();
+			}
+		}
+	}
+
+	private void writePendingTiles() {
+		while (true) {
+			List<SeedTile> batch;
+			synchronized (pendingTiles) {
+				long start = System.currentTimeMillis();
+				long wait = WRITE_DELAY_MS;
+				while (!stopWriter && pendingTiles.size() < WRITE_BATCH_SIZE && wait > 0) {
+					try {
+						pendingTiles.wait(wait);
+					} catch (InterruptedException e) {
+						break;
+					}
+					wait = WRITE_DELAY_MS - (System.currentTimeMillis() - start);
+				}
+				if (pendingTiles.isEmpty()) {
+					writerThread = null;
+					return;
+				}
+				// tiles stay in the queue till they are written to be readable
+				batch = new ArrayList<SeedTile>(pendingTiles.values());
+			}
+			try {
+				saveTiles(batch);
+			} catch (IOException e) {
+				log.error("Tiles couldn't be written " + name, e); //$NON-NLS-1$
+			} catch (RuntimeException e) {
+				log.error("Tiles couldn't be written " + name, e); //$NON-NLS-1$
+			}
+			removePendingTiles(batch);
+		}
+	}
+
+	private void removePendingTiles(List<SeedTile> batch) {
+		synchronized (pendingTiles) {
+			for (SeedTile t : batch) {
+				Long key = getTileKey(t.x, t.y, t.zoom);
+				if (pendingTiles.get(key) == t) {
+					pendingTiles.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes queued tiles in the calling thread
+	 */
+	public void flushPendingTiles() {
+		List<SeedTile> batch;
+		synchronized (pendingTiles) {
+			batch = new ArrayList<SeedTile>(pendingTiles.values());
+		}
+		if (!batch.isEmpty()) {
+			try {
+				saveTiles(batch);
+			} catch (IOException e) {
+				log.error("Tiles couldn't be written " + name, e); //$NON-NLS-1$
+			}
+			removePendingTiles(batch);
+		}
+	}
+
+	private SeedTile getPendingTile(int x, int y, int zoom) {
+		synchronized (pendingTiles) {
+			return pendingTiles.isEmpty() ? null : pendingTiles.get(getTileKey(x, y, zoom));
+		}
+	}
+
+	private static Long getTileKey(int x, int y, int zoom) {
+		return (((long) zoom) << 50) | (((long) x) << 25) | y;
+	}
+
+	@Override
+	public long getTileTime(int x, int y, int zoom) {
+		if (getPendingTile(x, y, zoom) != null) {
+			return System.currentTimeMillis();
+		}
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return -1;
+		}
+		SQLiteCursor cursor = db.rawQuery("SELECT " + (timeSupported ? "time" : "0") + " FROM tiles WHERE x = ? AND y = ? AND z = ?", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				new String[] { x + "", y + "", getFileZoom(zoom) + "" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+		} finally {
+			cursor.close();
+		}
+	}
+
 	/**
-	 * Makes method synchronized to give a little more time for get methods and 
-	 * let all writing attempts to wait outside of this method   
+	 * Inserts tiles in one transaction with compiled statement
 	 */
-	public /*synchronized*/ void insertImage(int x, int y, int zoom, byte[] dataToSave) throws IOException {
+	@Override
+	public synchronized void saveTiles(List<SeedTile> tiles) throws IOException {
 		SQLiteConnection db = getDatabase();
 		if (db == null || db.isReadOnly() || onlyReadonlyAvailable) {
 			return;
 		}
-		/*There is no sense to downoad and do not save. If needed, check should perform before downlad 
-		  if (exists(x, y, zoom)) {
-			return;
-		}*/
-		
-		String query = timeSupported ? "INSERT OR REPLACE INTO tiles(x,y,z,s,image,time) VALUES(?, ?, ?, ?, ?, ?)"
-				: "INSERT OR REPLACE INTO tiles(x,y,z,s,image) VALUES(?, ?, ?, ?, ?)";
-		net.osmand.plus.api.SQLiteAPI.SQLiteStatement statement = db.compileStatement(query); //$NON-NLS-1$
-		statement.bindLong(1, x);
-		statement.bindLong(2, y);
-		statement.bindLong(3, getFileZoom(zoom));
-		statement.bindLong(4, 0);
-		statement.bindBlob(5, dataToSave);
-		if (timeSupported) {
-			statement.bindLong(6, System.currentTimeMillis());
+		if (insertStatement == null) {
+			String query = timeSupported ? "INSERT OR REPLACE INTO tiles(x,y,z,s,image,time) VALUES(?, ?, ?, ?, ?, ?)" //$NON-NLS-1$
+					: "INSERT OR REPLACE INTO tiles(x,y,z,s,image) VALUES(?, ?, ?, ?, ?)"; //$NON-NLS-1$
+			insertStatement = db.compileStatement(query);
+		}
+		long time = System.currentTimeMillis();
+		db.beginTransaction();
+		try {
+			for (SeedTile t : tiles) {
+				insertStatement.bindLong(1, t.x);
+				insertStatement.bindLong(2, t.y);
+				insertStatement.bindLong(3, getFileZoom(t.zoom));
+				insertStatement.bindLong(4, 0);
+				insertStatement.bindBlob(5, t.data);
+				if (timeSupported) {
+					insertStatement.bindLong(6, time);
+				}
+				insertStatement.execute();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
 		}
-		statement.execute();
-		statement.close();
-
 	}
 
 	private int getFileZoom(int zoom) {
@@ -442,10 +598,41 @@ public class SQLiteTileSource implements ITileSource {
 	}
 	
 	public void closeDB(){
+		// writer writes queued tiles and exits, so it doesn't write to closed db
+		Thread writer;
+		synchronized (pendingTiles) {
+			stopWriter = true;
+			writer = writerThread;
+			pendingTiles.notifyAll();
+		}
+		if (writer != null && writer != Thread.currentThread()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flushPendingTiles();
 		bshInterpreter = null;
-		if(db != null){
-			db.close();
-			db = null;
+		// db is closed under the lock of saveTiles, so it is not closed during transaction
+		synchronized (this) {
+			if (insertStatement != null) {
+				insertStatement.close();
+				insertStatement = null;
+			}
+			synchronized (existsLock) {
+				if (existsStatement != null) {
+					existsStatement.close();
+					existsStatement = null;
+				}
+			}
+			if(db != null){
+				db.close();
+				db = null;
+			}
+		}
+		synchronized (pendingTiles) {
+			stopWriter = false;
 		}
 	}
 
@@ -1,20 +1,22 @@
 package net.osmand.plus.activities;
 
+import java.io.File;
 import java.text.MessageFormat;
-import java.util.ArrayList;
 
+import net.osmand.IProgress;
+import net.osmand.IndexConstants;
 import net.osmand.PlatformUtil;
 import net.osmand.access.AccessibleToast;
 import net.osmand.data.QuadRect;
 import net.osmand.data.RotatedTileBox;
 import net.osmand.map.ITileSource;
 import net.osmand.map.MapTileDownloader;
-import net.osmand.map.MapTileDownloader.DownloadRequest;
-import net.osmand.map.MapTileDownloader.IMapDownloaderCallback;
+import net.osmand.map.TileSeedingJob;
+import net.osmand.map.TileSeedingJob.DirectoryTileStore;
+import net.osmand.map.TileSeedingJob.TileStore;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.R;
-import net.osmand.plus.Version;
-import net.osmand.plus.resources.ResourceManager;
+import net.osmand.plus.SQLiteTileSource;
 import net.osmand.plus.views.BaseMapLayer;
 import net.osmand.plus.views.MapTileLayer;
 import net.osmand.plus.views.OsmandMapTileView;
@@ -137,76 +139,59 @@ public class DownloadTilesDialog {
 			}
 		});
 		
-		final MapTileDownloader instance = MapTileDownloader.getInstance(Version.getFullVersion(app));
-		
-		final ArrayList<IMapDownloaderCallback> previousCallbacks = 
-			new ArrayList<IMapDownloaderCallback>(instance.getDownloaderCallbacks());
-		instance.getDownloaderCallbacks().clear();
-		instance.addDownloaderCallback(new IMapDownloaderCallback(){
-			@Override
-			public void tileDownloaded(DownloadRequest request) {
-				if (request != null) {
-					progressDlg.setProgress(progressDlg.getProgress() + 1);
-				}
-			}
-		});
+		final TileStore store;
+		if (map instanceof SQLiteTileSource) {
+			store = (SQLiteTileSource) map;
+		} else {
+			store = new DirectoryTileStore(app.getAppPath(IndexConstants.TILES_INDEX_DIR), map);
+		}
+		final TileSeedingJob job = new TileSeedingJob(map, store, zoom, zoom + progress);
+		job.setArea(latlonRect);
+		// interrupted download of the same area continues from the checkpoint
+		job.setCheckpointFile(new File(app.getCacheDir(), "tiles_" + map.getName() + ".seed")); //$NON-NLS-1$ //$NON-NLS-2$
+		job.setThreads(MapTileDownloader.TILE_DOWNLOAD_THREADS);
 		
 		Runnable r = new Runnable(){
 			@Override
 			public void run() {
-				int requests = 0;
-				int limitRequests = 50;
 				try {
-					ResourceManager rm = app.getResourceManager();
-					for (int z = zoom; z <= zoom + progress && !cancel; z++) {
-						int x1 = (int) MapUtils.getTileNumberX(z, latlonRect.left);
-						int x2 = (int) MapUtils.getTileNumberX(z, latlonRect.right);
-						int y1 = (int) MapUtils.getTileNumberY(z, latlonRect.top);
-						int y2 = (int) MapUtils.getTileNumberY(z, latlonRect.bottom);
-						for (int x = x1; x <= x2 && !cancel; x++) {
-							for (int y = y1; y <= y2 && !cancel; y++) {
-								String tileId = rm.calculateTileId(map, x, y, z);
-								if (rm.tileExistOnFileSystem(tileId, map, x, y, z)) {
-									progressDlg.setProgress(progressDlg.getProgress() + 1);
-								} else {
-									rm.getTileImageForMapSync(tileId, map, x, y, z, true);
-									requests++;
-								}
-								if (!cancel) {
-									if (requests >= limitRequests) {
-										requests = 0;
-
-										while (instance.isSomethingBeingDownloaded()) {
-											try {
-												Thread.sleep(500);
-											} catch (InterruptedException e) {
-												throw new IllegalArgumentException(e);
-											}
-										}
-									}
-								}
-							}
+					job.run(new IProgress() {
+						@Override
+						public void startTask(String taskName, int work) {
+							progressDlg.setMax(work);
+						}
+
+						@Override
+						public void startWork(int work) {
 						}
-						
-					}
-					if(cancel){
-						instance.refuseAllPreviousRequests();
-					} else {
-						while (instance.isSomethingBeingDownloaded()) {
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								throw new IllegalArgumentException(e);
-							}
+
+						@Override
+						public void progress(int deltaWork) {
+							progressDlg.incrementProgressBy(deltaWork);
+						}
+
+						@Override
+						public void remaining(int remainingWork) {
+						}
+
+						@Override
+						public void finishTask() {
+						}
+
+						@Override
+						public boolean isIndeterminate() {
+							return false;
+						}
+
+						@Override
+						public boolean isInterrupted() {
+							return cancel;
 						}
-					}
+					});
 					mapView.refreshMap();
 				} catch (Exception e) {
 					log.error("Exception while downloading tiles ", e); //$NON-NLS-1$
-					instance.refuseAllPreviousRequests();
 				} finally {
-					instance.getDownloaderCallbacks().clear();
-					instance.getDownloaderCallbacks().addAll(previousCallbacks);
 					app.getResourceManager().reloadTilesFromFS();
 				}
 				progressDlg.dismiss();
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import net.osmand.Location;
+import net.osmand.PlatformUtil;
 import net.osmand.TspAnt;
 import net.osmand.access.AccessibleAlertBuilder;
 import net.osmand.data.LatLon;
@@ -15,12 +16,19 @@ import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.R;
 import net.osmand.plus.TargetPointsHelper;
 import net.osmand.plus.TargetPointsHelper.TargetPoint;
+import net.osmand.router.RouteCalculationProgress;
+import net.osmand.router.TspRouteOptimizer;
+import net.osmand.router.TspRouteOptimizer.TspResult;
+import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
+
+import org.apache.commons.logging.Log;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
 import android.app.Dialog;
 import android.content.DialogInterface;
+import android.content.DialogInterface.OnDismissListener;
 import android.content.DialogInterface.OnShowListener;
 import android.graphics.Color;
 import android.os.AsyncTask;
@@ -39,6 +47,7 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 
 public class IntermediatePointsDialog {
+	private static final Log log = PlatformUtil.getLog(IntermediatePointsDialog.class);
 
 	public static void openIntermediatePointsDialog(final Activity activity,
 			final OsmandApplication app, final boolean changeOrder){
@@ -125,6 +134,14 @@ public class IntermediatePointsDialog {
 
 	private static void applySortTargets(AlertDialog dlg, final Activity activity, final List<TargetPoint> intermediates,
 			final TIntArrayList originalPositions, final ArrayAdapter<TargetPoint> listadapter, final ProgressBar pb, final TextView textInfo) {
+		// sorting is stopped when dialog is closed
+		final RouteCalculationProgress sortProgress = new RouteCalculationProgress();
+		dlg.setOnDismissListener(new OnDismissListener() {
+			@Override
+			public void onDismiss(DialogInterface dialog) {
+				sortProgress.isCancelled = true;
+			}
+		});
 		dlg.setOnShowListener(new OnShowListener() {
 			@Override
 			public void onShow(DialogInterface dialog) {
@@ -133,6 +150,7 @@ public class IntermediatePointsDialog {
 					public void onClick(View v) {
 
 						new AsyncTask<Void, Void, int[]>() {
+							private double routeTime;
 
 							protected void onPreExecute() {
 								pb.setVisibility(View.VISIBLE);
@@ -163,11 +181,37 @@ public class IntermediatePointsDialog {
 								for(TargetPoint p : lt){
 									al.add(p.point);
 								}
+								try {
+									List<LatLon> points = new ArrayList<LatLon>();
+									points.add(start.point);
+									points.addAll(al);
+									points.add(end.point);
+									double[][] times = app.getRoutingHelper().calculateTimeMatrix(points, sortProgress);
+									if (sortProgress.isCancelled) {
+										return null;
+									}
+									if (times != null) {
+										TspResult res = new TspRouteOptimizer().setThreads(
+												Runtime.getRuntime().availableProcessors()).solve(times);
+										routeTime = res.cost;
+										return res.order;
+									}
+								} catch (Exception e) {
+									log.error("Failed to order points by travel time", e);
+								}
 								return new TspAnt().readGraph(al, start.point, end.point).solve();
 							};
 
 							protected void onPostExecute(int[] result) {
+								if (result == null || sortProgress.isCancelled) {
+									return;
+								}
 								pb.setVisibility(View.GONE);
+								if (routeTime > 0 && routeTime < TspRouteOptimizer.UNREACHABLE_COST) {
+									textInfo.setText(activity.getString(R.string.intermediate_items_sort_return) + " "
+											+ activity.getString(R.string.intermediate_items_sort_time,
+													Algorithms.formatDuration((int) routeTime)));
+								}
 								List<TargetPoint> alocs = new ArrayList<TargetPoint>();
 								TIntArrayList newOriginalPositions = new TIntArrayList();
 								for (int i = 0; i < result.length; i++) {
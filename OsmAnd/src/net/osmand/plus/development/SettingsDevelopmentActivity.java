@@ -39,9 +39,54 @@ public class SettingsDevelopmentActivity extends SettingsBaseActivity {
 				R.string.trace_rendering, R.string.trace_rendering_descr);
 		cat.addPreference(dbg);
 		
+		Integer[] subTiles = new Integer[] { 1, 2, 4, 8 };
+		String[] subTileNames = new String[subTiles.length];
+		for (int i = 0; i < subTiles.length; i++) {
+			subTileNames[i] = subTiles[i] + "";
+		}
+		cat.addPreference(createListPreference(settings.RENDERING_SUB_TILES, subTileNames, subTiles,
+				"Rendering threads", "Split map into sub tiles rendered in parallel (Java rendering only)"));
+		
+		Integer[] cacheSizes = new Integer[] { 0, 32, 64, 128, 256 };
+		String[] cacheSizeNames = new String[cacheSizes.length];
+		cacheSizeNames[0] = "Disabled";
+		for (int i = 1; i < cacheSizes.length; i++) {
+			cacheSizeNames[i] = cacheSizes[i] + " MB";
+		}
+		cat.addPreference(createListPreference(settings.RENDERED_TILES_CACHE_SIZE, cacheSizeNames, cacheSizes,
+				"Rendered tiles cache", "Keep rendered map tiles on disk to show revisited areas without rendering (not rotated map only)"));
+		Preference clearRenderedTiles = new Preference(this);
+		clearRenderedTiles.setTitle("Clear rendered tiles cache");
+		clearRenderedTiles.setSummary("Remove all rendered map tiles stored on disk");
+		clearRenderedTiles.setKey("clear_rendered_tiles_cache");
+		clearRenderedTiles.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+			@Override
+			public boolean onPreferenceClick(Preference preference) {
+				getMyApplication().getResourceManager().getRenderer().clearRenderedTilesCache();
+				return true;
+			}
+		});
+		cat.addPreference(clearRenderedTiles);
+		
 		cat.addPreference(createCheckBoxPreference(settings.DISABLE_COMPLEX_ROUTING, R.string.disable_complex_routing, R.string.disable_complex_routing_descr));
 	
 		cat.addPreference(createCheckBoxPreference(settings.USE_FAST_RECALCULATION, "Smart route recalculation", "Recalculate only initial part of the route for long trips"));
+		cat.addPreference(createCheckBoxPreference(settings.USE_INCREMENTAL_RECALCULATION, "Incremental route recalculation", "Recalculate route only till it joins previous route when start point changed (Java routing only)"));
+
+		Integer[] legThreads = new Integer[] { 1, 2, 4 };
+		String[] legThreadNames = new String[legThreads.length];
+		for (int i = 0; i < legThreads.length; i++) {
+			legThreadNames[i] = legThreads[i] + "";
+		}
+		cat.addPreference(createListPreference(settings.PARALLEL_ROUTE_LEGS, legThreadNames, legThreads,
+				"Route legs threads", "Calculate route legs between intermediate points in parallel (Java routing only)"));
+		Integer[] alternatives = new Integer[] { 0, 1, 2, 3 };
+		String[] alternativeNames = new String[alternatives.length];
+		for (int i = 0; i < alternatives.length; i++) {
+			alternativeNames[i] = alternatives[i] + "";
+		}
+		cat.addPreference(createListPreference(settings.ALTERNATIVE_ROUTES, alternativeNames, alternatives,
+				"Alternative routes", "Calculate alternative routes and show them on the map (Java routing only)"));
 		
 		
 		cat.addPreference(createCheckBoxPreference(settings.USE_MAGNETIC_FIELD_SENSOR_COMPASS, R.string.use_magnetic_sensor, R.string.use_magnetic_sensor_descr));
@@ -0,0 +1,354 @@
+package net.osmand.plus.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.osmand.PlatformUtil;
+import net.osmand.plus.GPXStreamReader;
+import net.osmand.plus.GPXStreamReader.TrackColumns;
+import net.osmand.plus.GPXUtilities.GPXTrackAnalysis;
+import net.osmand.plus.OsmandApplication;
+import net.osmand.plus.api.SQLiteAPI.SQLiteConnection;
+import net.osmand.plus.api.SQLiteAPI.SQLiteCursor;
+import net.osmand.util.Algorithms;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Keeps summary of gpx files (distance, time, elevation) in database, so list of tracks doesn't need to parse
+ * files. Entries are keyed by path and are valid only while size and modification time of the file are the same,
+ * missing entries are calculated in background by small pool of threads from columns of {@link GPXStreamReader}, so
+ * objects of points are not created.
+ *
+ * Only numbers are stored : start and end locations of the analysis are not restored from the cache.
+ */
+public class GpxAnalysisCache {
+
+	private static final Log log = PlatformUtil.getLog(GpxAnalysisCache.class);
+
+	private static final String DB_NAME = "gpx_analysis"; //$NON-NLS-1$
+	private static final int DB_VERSION = 1;
+	private static final String TABLE_NAME = "gpx_analysis"; //$NON-NLS-1$
+	private static final String COL_PATH = "path"; //$NON-NLS-1$
+	private static final String COL_SIZE = "size"; //$NON-NLS-1$
+	private static final String COL_MODIFIED = "modified"; //$NON-NLS-1$
+	private static final String TABLE_CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + //$NON-NLS-1$ //$NON-NLS-2$
+			COL_PATH + " TEXT PRIMARY KEY, " + COL_SIZE + " long, " + COL_MODIFIED + " long, " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			"totalDistance double, totalTracks int, startTime long, endTime long, timeSpan long, timeMoving long, " + //$NON-NLS-1$
+			"totalDistanceMoving double, diffElevationUp double, diffElevationDown double, avgElevation double, " + //$NON-NLS-1$
+			"minElevation double, maxElevation double, maxSpeed double, avgSpeed double, points int, wptPoints int);"; //$NON-NLS-1$
+	private static final String COLUMNS = COL_PATH + ", " + COL_SIZE + ", " + COL_MODIFIED + ", " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			"totalDistance, totalTracks, startTime, endTime, timeSpan, timeMoving, totalDistanceMoving, " + //$NON-NLS-1$
+			"diffElevationUp, diffElevationDown, avgElevation, minElevation, maxElevation, maxSpeed, avgSpeed, " + //$NON-NLS-1$
+			"points, wptPoints"; //$NON-NLS-1$
+
+	private static final int MAX_THREADS = 3;
+	private static final int SAVE_BATCH = 16;
+	private static final long REFRESH_DELAY_MS = 300;
+
+	public interface AnalysisListener {
+		/**
+		 * Called in UI thread when new entries were calculated (not more often than once per 300 ms)
+		 */
+		public void analysisUpdated();
+	}
+
+	private static class CachedAnalysis {
+		final String path;
+		final long size;
+		final long modified;
+		final GPXTrackAnalysis analysis;
+
+		CachedAnalysis(String path, long size, long modified, GPXTrackAnalysis analysis) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.analysis = analysis;
+		}
+
+		boolean isValid(File f) {
+			return f.lastModified() == modified && f.length() == size;
+		}
+	}
+
+	private static GpxAnalysisCache instance = null;
+
+	public static synchronized GpxAnalysisCache getInstance(OsmandApplication app) {
+		if (instance == null) {
+			instance = new GpxAnalysisCache(app);
+		}
+		return instance;
+	}
+
+	private final OsmandApplication app;
+	private final ConcurrentHashMap<String, CachedAnalysis> cache = new ConcurrentHashMap<String, CachedAnalysis>();
+	private final Set<String> inProgress = Collections.synchronizedSet(new HashSet<String>());
+	private final List<CachedAnalysis> toSave = new ArrayList<CachedAnalysis>();
+	private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+	private final ThreadPoolExecutor executor;
+	private volatile boolean loaded = false;
+
+	private GpxAnalysisCache(OsmandApplication app) {
+		this.app = app;
+		// parsing is memory hungry, so only few files are analyzed at once
+		int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Gpx analysis"); //$NON-NLS-1$
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Returns analysis of the file if it was calculated for current version of the file, never blocks
+	 */
+	public GPXTrackAnalysis getCachedAnalysis(File f) {
+		if (!loaded || f == null) {
+			return null;
+		}
+		CachedAnalysis c = cache.get(f.getAbsolutePath());
+		if (c != null && c.isValid(f)) {
+			return c.analysis;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads all entries from database into memory (should be called from background thread)
+	 */
+	public synchronized void loadCache() {
+		if (loaded) {
+			return;
+		}
+		SQLiteConnection db = openConnection(true);
+		if (db != null) {
+			try {
+				SQLiteCursor query = db.rawQuery("SELECT " + COLUMNS + " FROM " + TABLE_NAME, null); //$NON-NLS-1$ //$NON-NLS-2$
+				if (query.moveToFirst()) {
+					do {
+						CachedAnalysis c = readEntry(query);
+						cache.put(c.path, c);
+					} while (query.moveToNext());
+				}
+				query.close();
+			} catch (RuntimeException e) {
+				log.error("Error reading gpx analysis cache", e); //$NON-NLS-1$
+			} finally {
+				db.close();
+			}
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Schedules analysis of files which are not in the cache or were changed
+	 */
+	public void requestAnalysis(Collection<File> files, AnalysisListener listener) {
+		loadCache();
+		for (File f : files) {
+			String path = f.getAbsolutePath();
+			CachedAnalysis c = cache.get(path);
+			if ((c == null || !c.isValid(f)) && inProgress.add(path)) {
+				executor.execute(new AnalysisTask(f, path, listener));
+			}
+		}
+	}
+
+	/**
+	 * Removes entries of files which are not in the list anymore (deleted or moved)
+	 */
+	public void retainFiles(Collection<File> files) {
+		loadCache();
+		Set<String> paths = new HashSet<String>();
+		for (File f : files) {
+			paths.add(f.getAbsolutePath());
+		}
+		List<String> removed = new ArrayList<String>();
+		for (String path : cache.keySet()) {
+			if (!paths.contains(path)) {
+				cache.remove(path);
+				removed.add(path);
+			}
+		}
+		if (!removed.isEmpty()) {
+			SQLiteConnection db = openConnection(false);
+			if (db != null) {
+				try {
+					db.beginTransaction();
+					try {
+						for (String path : removed) {
+							db.execSQL("DELETE FROM " + TABLE_NAME + " WHERE " + COL_PATH + " = ?", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+									new Object[] { path });
+						}
+						db.setTransactionSuccessful();
+					} finally {
+						db.endTransaction();
+					}
+				} finally {
+					db.close();
+				}
+			}
+		}
+	}
+
+	private class AnalysisTask implements Runnable {
+		private final File file;
+		private final String path;
+		private final AnalysisListener listener;
+
+		AnalysisTask(File file, String path, AnalysisListener listener) {
+			this.file = file;
+			this.path = path;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			InputStream is = null;
+			try {
+				long size = file.length();
+				long modified = file.lastModified();
+				is = new FileInputStream(file);
+				TrackColumns columns = GPXStreamReader.readTrackColumns(is);
+				// file could be rewritten while it was read
+				if (file.lastModified() == modified && file.length() == size) {
+					GPXTrackAnalysis analysis = new GPXTrackAnalysis().prepareInformation(modified, columns);
+					CachedAnalysis c = new CachedAnalysis(path, size, modified, analysis);
+					cache.put(path, c);
+					synchronized (toSave) {
+						toSave.add(c);
+					}
+					notifyListener(listener);
+				}
+			} catch (IOException e) {
+				log.error("Error analyzing gpx " + path, e); //$NON-NLS-1$
+			} catch (XmlPullParserException e) {
+				log.error("Error analyzing gpx " + path, e); //$NON-NLS-1$
+			} catch (RuntimeException e) {
+				log.error("Error analyzing gpx " + path, e); //$NON-NLS-1$
+			} finally {
+				Algorithms.closeStream(is);
+				inProgress.remove(path);
+			}
+			boolean save;
+			synchronized (toSave) {
+				save = toSave.size() >= SAVE_BATCH || (executor.getQueue().isEmpty() && !toSave.isEmpty());
+			}
+			if (save) {
+				saveEntries();
+			}
+		}
+	}
+
+	private void notifyListener(final AnalysisListener listener) {
+		if (listener != null && refreshScheduled.compareAndSet(false, true)) {
+			app.runInUIThread(new Runnable() {
+				@Override
+				public void run() {
+					refreshScheduled.set(false);
+					listener.analysisUpdated();
+				}
+			}, REFRESH_DELAY_MS);
+		}
+	}
+
+	private synchronized void saveEntries() {
+		List<CachedAnalysis> entries;
+		synchronized (toSave) {
+			entries = new ArrayList<CachedAnalysis>(toSave);
+			toSave.clear();
+		}
+		if (entries.isEmpty()) {
+			return;
+		}
+		SQLiteConnection db = openConnection(false);
+		if (db != null) {
+			try {
+				db.beginTransaction();
+				try {
+					for (CachedAnalysis c : entries) {
+						insert(c, db);
+					}
+					db.setTransactionSuccessful();
+				} finally {
+					db.endTransaction();
+				}
+			} catch (RuntimeException e) {
+				log.error("Error saving gpx analysis cache", e); //$NON-NLS-1$
+			} finally {
+				db.close();
+			}
+		}
+	}
+
+	private SQLiteConnection openConnection(boolean readonly) {
+		SQLiteConnection conn = app.getSQLiteAPI().getOrCreateDatabase(DB_NAME, readonly);
+		if (conn == null) {
+			return null;
+		}
+		if (conn.getVersion() == 0 || DB_VERSION != conn.getVersion()) {
+			if (readonly) {
+				conn.close();
+				conn = app.getSQLiteAPI().getOrCreateDatabase(DB_NAME, false);
+			}
+			if (conn.getVersion() != 0) {
+				// cache could be simply recalculated
+				conn.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME); //$NON-NLS-1$
+			}
+			conn.execSQL(TABLE_CREATE);
+			conn.setVersion(DB_VERSION);
+		}
+		return conn;
+	}
+
+	private void insert(CachedAnalysis c, SQLiteConnection db) {
+		GPXTrackAnalysis a = c.analysis;
+		db.execSQL("INSERT OR REPLACE INTO " + TABLE_NAME + " (" + COLUMNS + ") VALUES " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				"(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", //$NON-NLS-1$
+				new Object[] { c.path, c.size, c.modified, a.totalDistance, a.totalTracks, a.startTime, a.endTime,
+						a.timeSpan, a.timeMoving, a.totalDistanceMoving, a.diffElevationUp, a.diffElevationDown,
+						a.avgElevation, a.minElevation, a.maxElevation, a.maxSpeed, a.avgSpeed, a.points, a.wptPoints });
+	}
+
+	private CachedAnalysis readEntry(SQLiteCursor query) {
+		GPXTrackAnalysis a = new GPXTrackAnalysis();
+		a.totalDistance = (float) query.getDouble(3);
+		a.totalTracks = (int) query.getInt(4);
+		a.startTime = query.getLong(5);
+		a.endTime = query.getLong(6);
+		a.timeSpan = query.getLong(7);
+		a.timeMoving = query.getLong(8);
+		a.totalDistanceMoving = (float) query.getDouble(9);
+		a.diffElevationUp = query.getDouble(10);
+		a.diffElevationDown = query.getDouble(11);
+		a.avgElevation = query.getDouble(12);
+		a.minElevation = query.getDouble(13);
+		a.maxElevation = query.getDouble(14);
+		a.maxSpeed = (float) query.getDouble(15);
+		a.avgSpeed = (float) query.getDouble(16);
+		a.points = (int) query.getInt(17);
+		a.wptPoints = (int) query.getInt(18);
+		return new CachedAnalysis(query.getString(0), query.getLong(1), query.getLong(2), a);
+	}
+}
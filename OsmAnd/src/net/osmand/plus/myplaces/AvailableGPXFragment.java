@@ -58,6 +58,8 @@ import net.osmand.plus.activities.TrackActivity;
 import net.osmand.plus.dialogs.DirectionsDialogs;
 import net.osmand.plus.download.LocalIndexesFragment;
 import net.osmand.plus.helpers.AndroidUiHelper;
+import net.osmand.plus.helpers.GpxAnalysisCache;
+import net.osmand.plus.helpers.GpxAnalysisCache.AnalysisListener;
 import net.osmand.plus.monitoring.OsmandMonitoringPlugin;
 import net.osmand.plus.osmedit.OsmEditingPlugin;
 import net.osmand.util.Algorithms;
@@ -574,7 +576,23 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 		@Override
 		protected List<GpxInfo> doInBackground(Activity... params) {
 			List<GpxInfo> result = new ArrayList<GpxInfo>();
+			GpxAnalysisCache analysisCache = GpxAnalysisCache.getInstance(app);
+			// summaries of the files are shown from the cache as soon as files are listed
+			analysisCache.loadCache();
 			loadGPXData(app.getAppPath(IndexConstants.GPX_INDEX_DIR), result, this);
+			List<File> files = new ArrayList<File>(result.size());
+			for (GpxInfo info : result) {
+				files.add(info.file);
+			}
+			analysisCache.retainFiles(files);
+			analysisCache.requestAnalysis(files, new AnalysisListener() {
+				@Override
+				public void analysisUpdated() {
+					if (getActivity() != null) {
+						allGpxAdapter.notifyDataSetChanged();
+					}
+				}
+			});
 			return result;
 		}
 
@@ -1305,6 +1323,9 @@ public class AvailableGPXFragment extends OsmandExpandableListFragment {
 			analysis = sgpx.getTrackAnalysis();
 
 		}
+		if (analysis == null && !child.currentlyRecordingTrack) {
+			analysis = GpxAnalysisCache.getInstance(app).getCachedAnalysis(child.file);
+		}
 		boolean sectionRead = analysis == null;
 		if (sectionRead) {
 			v.findViewById(R.id.read_section).setVisibility(View.GONE);
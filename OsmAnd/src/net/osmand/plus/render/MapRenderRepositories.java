@@ -2,19 +2,19 @@ package net.osmand.plus.render;
 
 
 import gnu.trove.iterator.TIntObjectIterator;
-import gnu.trove.list.TLongList;
+import gnu.trove.iterator.TLongObjectIterator;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +34,7 @@ import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteSubregion;
 import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteTypeRule;
+import net.osmand.binary.CoastlinesProcessor;
 import net.osmand.binary.RouteDataObject;
 import net.osmand.data.QuadPointDouble;
 import net.osmand.data.QuadRect;
@@ -52,7 +53,6 @@ import net.osmand.render.RenderingRuleSearchRequest;
 import net.osmand.render.RenderingRuleStorageProperties;
 import net.osmand.render.RenderingRulesStorage;
 import net.osmand.util.Algorithms;
-import net.osmand.util.MapAlgorithms;
 import net.osmand.util.MapUtils;
 
 import org.apache.commons.logging.Log;
@@ -109,12 +109,40 @@ public class MapRenderRepositories {
 	private RenderingContext currentRenderingContext;
 	private SearchRequest<BinaryMapDataObject> searchRequest;
 	private OsmandSettings prefs;
+	// objects read for rendering are grouped by tiles of requested zoom, so only newly exposed tiles are read on pan
+	private TLongObjectHashMap<MapObjectsTile> cTiles = new TLongObjectHashMap<MapObjectsTile>();
+	private int cTilesZoom = -1;
+	private int cTilesRouteDataFile = 0;
+	// rendered bitmaps are stored on disk by tiles to show revisited areas without loading data
+	private RenderedTilesCache renderedTilesCache;
+	private boolean renderedTilesFilesChanged = true;
+
+	private static class MapObjectsTile {
+		static final int OBJECTS = 0;
+		static final int BASEMAP_OBJECTS = 1;
+		static final int ROUTE_OBJECTS = 2;
+		static final int COASTLINES = 3;
+		static final int BASEMAP_COASTLINES = 4;
+
+		List<List<BinaryMapDataObject>> lists = new ArrayList<List<BinaryMapDataObject>>();
+		MapIndex mapIndex;
+		boolean ocean;
+		boolean land;
+		int renderedState;
+
+		MapObjectsTile() {
+			for (int i = 0; i <= BASEMAP_COASTLINES; i++) {
+				lists.add(new ArrayList<BinaryMapDataObject>());
+			}
+		}
+	}
 
 	public MapRenderRepositories(OsmandApplication context) {
 		this.context = context;
 		this.renderer = new OsmandRenderer(context);
 		handler = new Handler(Looper.getMainLooper());
 		prefs = context.getSettings();
+		renderedTilesCache = new RenderedTilesCache(context);
 	}
 
 	public Context getContext() {
@@ -131,6 +159,7 @@ public class MapRenderRepositories {
 		
 		}
 		files.put(file.getAbsolutePath(), reader);
+		renderedTilesFilesChanged = true;
 	}
 
 	public RotatedTileBox getBitmapLocation() {
@@ -143,6 +172,7 @@ public class MapRenderRepositories {
 
 	protected void closeConnection(BinaryMapIndexReader c, String file) {
 		files.remove(file);
+		renderedTilesFilesChanged = true;
 		if(nativeFiles.contains(file)){
 			NativeOsmandLibrary lib = NativeOsmandLibrary.getLoadedLibrary();
 			if(lib != null) {
@@ -170,6 +200,8 @@ public class MapRenderRepositories {
 
 	public void clearAllResources() {
 		clearCache();
+		renderer.shutdownSubTileExecutor();
+		renderedTilesCache.close();
 		bmp = null;
 		bmpLocation = null;
 		for (String f : new ArrayList<String>(files.keySet())) {
@@ -291,7 +323,7 @@ public class MapRenderRepositories {
 	}
 	
 	private void readRouteDataAsMapObjects(SearchRequest<BinaryMapDataObject> sr, BinaryMapIndexReader c, 
-			final ArrayList<BinaryMapDataObject> tempResult, final TLongSet ids) {
+			final List<BinaryMapDataObject> tempResult, final TLongSet ids) {
 		final boolean basemap = c.isBasemap();
 		try {
 			for (RouteRegion reg : c.getRoutingIndexes()) {
@@ -369,39 +401,69 @@ public class MapRenderRepositories {
 
 		long now = System.currentTimeMillis();
 
-		System.gc(); // to clear previous objects
-		ArrayList<BinaryMapDataObject> tempResult = new ArrayList<BinaryMapDataObject>();
-		ArrayList<BinaryMapDataObject> basemapResult = new ArrayList<BinaryMapDataObject>();
-		
-		int[] count = new int[]{0};
-		boolean[] ocean = new boolean[]{false};
-		boolean[] land = new boolean[]{false};
-		List<BinaryMapDataObject> coastLines = new ArrayList<BinaryMapDataObject>();
-		List<BinaryMapDataObject> basemapCoastLines = new ArrayList<BinaryMapDataObject>();
 		int leftX = MapUtils.get31TileNumberX(cLeftLongitude);
 		int rightX = MapUtils.get31TileNumberX(cRightLongitude);
 		int bottomY = MapUtils.get31TileNumberY(cBottomLatitude);
 		int topY = MapUtils.get31TileNumberY(cTopLatitude);
-		TLongSet ids = new TLongHashSet();
-		MapIndex mi = readMapObjectsForRendering(zoom, renderingReq, tempResult, basemapResult, ids, count, ocean,
-				land, coastLines, basemapCoastLines, leftX, rightX, bottomY, topY);
 		int renderRouteDataFile = 0;
 		if (renderingReq.searchRenderingAttribute("showRoadMapsAttribute")) {
 			renderRouteDataFile = renderingReq.getIntPropertyValue(renderingReq.ALL.R_ATTR_INT_VALUE);
 		}
-		if (checkWhetherInterrupted()) {
-			return false;
+		if (cTilesZoom != zoom || cTilesRouteDataFile != renderRouteDataFile) {
+			cTiles.clear();
+			cTilesZoom = zoom;
+			cTilesRouteDataFile = renderRouteDataFile;
 		}
-		boolean objectsFromMapSectionRead = tempResult.size() > 0;
-		if (renderRouteDataFile >= 0 && zoom >= zoomOnlyForBasemaps ) {
-			searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, null);
-			for (BinaryMapIndexReader c : files.values()) {
-				// false positive case when we have 2 sep maps Country-roads & Country
-				if(c.getMapIndexes().size() == 0 || renderRouteDataFile == 1) {
-					readRouteDataAsMapObjects(searchRequest, c, tempResult, ids);
+		int shift = 31 - zoom;
+		int tileLeft = leftX >> shift;
+		int tileRight = rightX >> shift;
+		int tileTop = topY >> shift;
+		int tileBottom = bottomY >> shift;
+		evictMapObjectsTiles(tileLeft, tileRight, tileTop, tileBottom);
+		List<int[]> strips = getMissingTileStrips(tileLeft, tileRight, tileTop, tileBottom);
+		if (!strips.isEmpty()) {
+			System.gc(); // to clear previous objects
+		}
+		boolean readRouteData = renderRouteDataFile >= 0 && zoom >= zoomOnlyForBasemaps;
+		for (int[] strip : strips) {
+			if (!readMapObjectsTiles(strip, zoom, renderingReq, readRouteData, renderRouteDataFile)) {
+				return false;
+			}
+		}
+
+		ArrayList<BinaryMapDataObject> tempResult = new ArrayList<BinaryMapDataObject>();
+		ArrayList<BinaryMapDataObject> basemapResult = new ArrayList<BinaryMapDataObject>();
+		ArrayList<BinaryMapDataObject> routeResult = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> coastLines = new ArrayList<BinaryMapDataObject>();
+		List<BinaryMapDataObject> basemapCoastLines = new ArrayList<BinaryMapDataObject>();
+		boolean ocean = false;
+		boolean land = false;
+		MapIndex mi = null;
+		int count = 0;
+		// objects crossing tiles are stored in every tile and could be read several times
+		Set<BinaryMapDataObject> added = Collections.newSetFromMap(new IdentityHashMap<BinaryMapDataObject, Boolean>());
+		TLongSet ids = new TLongHashSet();
+		TLongSet basemapKeys = new TLongHashSet();
+		for (int ty = tileTop; ty <= tileBottom; ty++) {
+			for (int tx = tileLeft; tx <= tileRight; tx++) {
+				MapObjectsTile t = cTiles.get(getTileKey(tx, ty));
+				renderedState |= t.renderedState;
+				ocean |= t.ocean;
+				land |= t.land;
+				if (t.mapIndex != null) {
+					mi = t.mapIndex;
 				}
+				count += addUniqueObjects(t.lists.get(MapObjectsTile.OBJECTS), tempResult, added, ids, basemapKeys, false);
+				count += addUniqueObjects(t.lists.get(MapObjectsTile.COASTLINES), coastLines, added, ids, basemapKeys, false);
+				count += addUniqueObjects(t.lists.get(MapObjectsTile.BASEMAP_OBJECTS), basemapResult, added, ids, basemapKeys, true);
+				count += addUniqueObjects(t.lists.get(MapObjectsTile.BASEMAP_COASTLINES), basemapCoastLines, added, ids, basemapKeys, true);
+				addUniqueObjects(t.lists.get(MapObjectsTile.ROUTE_OBJECTS), routeResult, added, ids, basemapKeys, false);
 			}
-			log.info(String.format("Route objects %s", tempResult.size() +""));
+		}
+		boolean objectsFromMapSectionRead = tempResult.size() > 0;
+		if (readRouteData) {
+			tempResult.addAll(routeResult);
+			log.info(String.format("Route objects %s", routeResult.size() +""));
 		}
 
 		String coastlineTime = "";
@@ -411,7 +473,7 @@ public class MapRenderRepositories {
 		boolean detailedLandData = zoom >= zoomForBaseRouteRendering && tempResult.size() > 0  && objectsFromMapSectionRead;
 		if (!coastLines.isEmpty()) {
 			long ms = System.currentTimeMillis();
-			boolean coastlinesWereAdded = processCoastlines(coastLines, leftX, rightX, bottomY, topY, zoom,
+			boolean coastlinesWereAdded = CoastlinesProcessor.processCoastlines(coastLines, leftX, rightX, bottomY, topY, zoom,
 					basemapCoastLines.isEmpty(), true, tempResult);
 			addBasemapCoastlines = (!coastlinesWereAdded && !detailedLandData) || zoom <= zoomOnlyForBasemaps;
 			coastlineTime = "(coastline " + (System.currentTimeMillis() - ms) + " ms )";
@@ -420,14 +482,14 @@ public class MapRenderRepositories {
 		}
 		if (addBasemapCoastlines) {
 			long ms = System.currentTimeMillis();
-			boolean coastlinesWereAdded = processCoastlines(basemapCoastLines, leftX, rightX, bottomY, topY, zoom,
+			boolean coastlinesWereAdded = CoastlinesProcessor.processCoastlines(basemapCoastLines, leftX, rightX, bottomY, topY, zoom,
 					true, true, tempResult);
 			addBasemapCoastlines = !coastlinesWereAdded;
 			coastlineTime = "(coastline " + (System.currentTimeMillis() - ms) + " ms )";
 		}
 		if (addBasemapCoastlines && mi != null) {
 			BinaryMapDataObject o = new BinaryMapDataObject(new int[]{leftX, topY, rightX, topY, rightX, bottomY, leftX, bottomY, leftX,
-					topY}, new int[]{ocean[0] && !land[0] ? mi.coastlineEncodingType : (mi.landEncodingType)}, null, -1);
+					topY}, new int[]{ocean && !land ? mi.coastlineEncodingType : (mi.landEncodingType)}, null, -1);
 			o.setMapIndex(mi);
 			tempResult.add(o);
 		}
@@ -447,13 +509,18 @@ public class MapRenderRepositories {
 		}
 
 
-		if (count[0] > 0) {
+		if (count > 0) {
 			log.info(String.format("BLat=%s, TLat=%s, LLong=%s, RLong=%s, zoom=%s", //$NON-NLS-1$
 					cBottomLatitude, cTopLatitude, cLeftLongitude, cRightLongitude, zoom));
-			log.info(String.format("Searching: %s ms  %s (%s results found)", System.currentTimeMillis() - now, coastlineTime, count[0])); //$NON-NLS-1$
+			log.info(String.format("Searching: %s ms  %s (%s results found, %s strips read)", //$NON-NLS-1$
+					System.currentTimeMillis() - now, coastlineTime, count, strips.size()));
 		}
 
 
+		// simplify once on load, objects of cached tiles are already simplified
+		for (BinaryMapDataObject o : tempResult) {
+			o.simplifyCoordinates(zoom);
+		}
 		cObjects = tempResult;
 		cObjectsBox = dataBox;
 		cObjectsZoom = zoom;
@@ -461,10 +528,162 @@ public class MapRenderRepositories {
 		return true;
 	}
 
-	
+	private static long getTileKey(int tx, int ty) {
+		return (((long) tx) << 32) | ty;
+	}
+
+	private void evictMapObjectsTiles(int tileLeft, int tileRight, int tileTop, int tileBottom) {
+		TLongObjectIterator<MapObjectsTile> it = cTiles.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			int tx = (int) (it.key() >> 32);
+			int ty = (int) it.key();
+			if (tx < tileLeft || tx > tileRight || ty < tileTop || ty > tileBottom) {
+				it.remove();
+			}
+		}
+	}
+
+	// returns rectangles [tileLeft, tileRight, tileTop, tileBottom] covering tiles which are not read yet
+	private List<int[]> getMissingTileStrips(int tileLeft, int tileRight, int tileTop, int tileBottom) {
+		List<int[]> strips = new ArrayList<int[]>();
+		List<int[]> prevRow = new ArrayList<int[]>();
+		for (int ty = tileTop; ty <= tileBottom; ty++) {
+			List<int[]> row = new ArrayList<int[]>();
+			int tx = tileLeft;
+			while (tx <= tileRight) {
+				if (cTiles.containsKey(getTileKey(tx, ty))) {
+					tx++;
+					continue;
+				}
+				int start = tx;
+				while (tx <= tileRight && !cTiles.containsKey(getTileKey(tx, ty))) {
+					tx++;
+				}
+				int[] strip = null;
+				for (int[] p : prevRow) {
+					if (p[0] == start && p[1] == tx - 1) {
+						strip = p;
+						strip[3] = ty;
+						break;
+					}
+				}
+				if (strip == null) {
+					strip = new int[] { start, tx - 1, ty, ty };
+					strips.add(strip);
+				}
+				row.add(strip);
+			}
+			prevRow = row;
+		}
+		return strips;
+	}
+
+	private boolean readMapObjectsTiles(int[] strip, int zoom, RenderingRuleSearchRequest renderingReq, boolean readRouteData,
+			int renderRouteDataFile) {
+		int shift = 31 - zoom;
+		int leftX = strip[0] << shift;
+		int rightX = (int) Math.min(Integer.MAX_VALUE, ((((long) strip[1]) + 1) << shift) - 1);
+		int topY = strip[2] << shift;
+		int bottomY = (int) Math.min(Integer.MAX_VALUE, ((((long) strip[3]) + 1) << shift) - 1);
+		MapObjectsTile stripObjects = new MapObjectsTile();
+		int[] count = new int[] { 0 };
+		boolean[] ocean = new boolean[] { false };
+		boolean[] land = new boolean[] { false };
+		TLongSet ids = new TLongHashSet();
+		int prevRenderedState = renderedState;
+		renderedState = 0;
+		MapIndex mi = readMapObjectsForRendering(zoom, renderingReq, stripObjects.lists.get(MapObjectsTile.OBJECTS),
+				stripObjects.lists.get(MapObjectsTile.BASEMAP_OBJECTS), ids, count, ocean, land,
+				stripObjects.lists.get(MapObjectsTile.COASTLINES), stripObjects.lists.get(MapObjectsTile.BASEMAP_COASTLINES),
+				leftX, rightX, bottomY, topY);
+		if (readRouteData && !checkWhetherInterrupted()) {
+			searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, null);
+			for (BinaryMapIndexReader c : files.values()) {
+				// false positive case when we have 2 sep maps Country-roads & Country
+				if(c.getMapIndexes().size() == 0 || renderRouteDataFile == 1) {
+					readRouteDataAsMapObjects(searchRequest, c, stripObjects.lists.get(MapObjectsTile.ROUTE_OBJECTS), ids);
+				}
+			}
+		}
+		int stripRenderedState = renderedState;
+		renderedState = prevRenderedState | stripRenderedState;
+		if (checkWhetherInterrupted()) {
+			return false;
+		}
+		for (int ty = strip[2]; ty <= strip[3]; ty++) {
+			for (int tx = strip[0]; tx <= strip[1]; tx++) {
+				MapObjectsTile t = new MapObjectsTile();
+				t.renderedState = stripRenderedState;
+				t.ocean = ocean[0];
+				t.land = land[0];
+				t.mapIndex = mi;
+				cTiles.put(getTileKey(tx, ty), t);
+			}
+		}
+		for (int k = 0; k < stripObjects.lists.size(); k++) {
+			for (BinaryMapDataObject o : stripObjects.lists.get(k)) {
+				putToTiles(o, k, strip, shift);
+			}
+		}
+		return true;
+	}
+
+	private void putToTiles(BinaryMapDataObject o, int list, int[] strip, int shift) {
+		int len = o.getPointsLength();
+		if (len == 0) {
+			return;
+		}
+		int left = o.getPoint31XTile(0);
+		int right = left;
+		int top = o.getPoint31YTile(0);
+		int bottom = top;
+		for (int i = 1; i < len; i++) {
+			int x = o.getPoint31XTile(i);
+			int y = o.getPoint31YTile(i);
+			left = Math.min(left, x);
+			right = Math.max(right, x);
+			top = Math.min(top, y);
+			bottom = Math.max(bottom, y);
+		}
+		int tileLeft = Math.max(strip[0], left >> shift);
+		int tileRight = Math.min(strip[1], right >> shift);
+		int tileTop = Math.max(strip[2], top >> shift);
+		int tileBottom = Math.min(strip[3], bottom >> shift);
+		for (int ty = tileTop; ty <= tileBottom; ty++) {
+			for (int tx = tileLeft; tx <= tileRight; tx++) {
+				cTiles.get(getTileKey(tx, ty)).lists.get(list).add(o);
+			}
+		}
+	}
+
+	private int addUniqueObjects(List<BinaryMapDataObject> objects, List<BinaryMapDataObject> result, 
+			Set<BinaryMapDataObject> added, TLongSet ids, TLongSet basemapKeys, boolean basemap) {
+		int cnt = 0;
+		for (BinaryMapDataObject o : objects) {
+			if (!added.add(o)) {
+				continue;
+			}
+			if (checkForDuplicateObjectIds && !basemap && o.getId() > 0) {
+				// do not add object twice
+				if (!ids.add(o.getId())) {
+					continue;
+				}
+			} else if (o.getPointsLength() > 0) {
+				// same object read by 2 different strips
+				long key = o.getId() * 31 + CoastlinesProcessor.combine2Points(o.getPoint31XTile(0), o.getPoint31YTile(0)) * 17 + o.getPointsLength();
+				if (!basemapKeys.add(key)) {
+					continue;
+				}
+			}
+			result.add(o);
+			cnt++;
+		}
+		return cnt;
+	}
 
 	private MapIndex readMapObjectsForRendering(final int zoom, final RenderingRuleSearchRequest renderingReq,
-			ArrayList<BinaryMapDataObject> tempResult, ArrayList<BinaryMapDataObject> basemapResult, 
+			List<BinaryMapDataObject> tempResult, List<BinaryMapDataObject> basemapResult, 
 			TLongSet ids, int[] count, boolean[] ocean, boolean[] land, List<BinaryMapDataObject> coastLines,
 			List<BinaryMapDataObject> basemapCoastLines, int leftX, int rightX, int bottomY, int topY) {
 		BinaryMapIndexReader.SearchFilter searchFilter = new BinaryMapIndexReader.SearchFilter() {
@@ -600,6 +819,7 @@ public class MapRenderRepositories {
 			RenderingRulesStorage storage = app.getRendererRegistry().getCurrentSelectedRenderer();
 			RenderingRuleSearchRequest renderingReq = new RenderingRuleSearchRequest(storage);
 			renderingReq.setBooleanFilter(renderingReq.ALL.R_NIGHT_MODE, nightMode);
+			StringBuilder styleKey = new StringBuilder(storage.getName());
 			for (RenderingRuleProperty customProp : storage.PROPS.getCustomRules()) {
 				if (customProp.isBoolean()) {
 					if(customProp.getAttrName().equals(RenderingRuleStorageProperties.A_ENGINE_V1)) {
@@ -607,10 +827,12 @@ public class MapRenderRepositories {
 					} else {
 						CommonPreference<Boolean> pref = prefs.getCustomRenderBooleanProperty(customProp.getAttrName());
 						renderingReq.setBooleanFilter(customProp, pref.get());
+						styleKey.append(';').append(customProp.getAttrName()).append('=').append(pref.get());
 					}
 				} else {
 					CommonPreference<String> settings = prefs.getCustomRenderProperty(customProp.getAttrName());
 					String res = settings.get();
+					styleKey.append(';').append(customProp.getAttrName()).append('=').append(res);
 					if (!Algorithms.isEmpty(res)) {
 						if (customProp.isString()) {
 							renderingReq.setStringFilter(customProp, res);
@@ -629,6 +851,23 @@ public class MapRenderRepositories {
 			renderingReq.saveState();
 			NativeOsmandLibrary nativeLib = !prefs.SAFE_MODE.get() ? NativeOsmandLibrary.getLibrary(storage, context) : null;
 
+			long renderedTilesKey = 0;
+			boolean cacheRenderedTiles = prefs.RENDERED_TILES_CACHE_SIZE.get() > 0
+					&& RenderedTilesCache.isCacheable(requestedBox);
+			if (cacheRenderedTiles) {
+				if (renderedTilesFilesChanged) {
+					renderedTilesFilesChanged = false;
+					renderedTilesCache.updateFiles(files);
+				}
+				styleKey.append(";night=").append(nightMode).append(";density=").append(requestedBox.getMapDensity())
+						.append(";text=").append(requestedBox.getDensity() * prefs.TEXT_SCALE.get())
+						.append(";locale=").append(prefs.MAP_PREFERRED_LOCALE.get()).append(";native=").append(nativeLib != null);
+				renderedTilesKey = RenderedTilesCache.getStyleKey(styleKey.toString());
+				if (drawRenderedTiles(tileRect, renderedTilesKey)) {
+					return;
+				}
+			}
+
 
 			// calculate data box
 			QuadRect dataBox = requestedBox.getLatLonBounds();
@@ -652,6 +891,7 @@ public class MapRenderRepositories {
 				boolean loaded;
 				if(nativeLib != null) {
 					cObjects = new LinkedList<BinaryMapDataObject>();
+					cTiles.clear();
 					loaded = loadVectorDataNative(dataBox, requestedBox.getZoom(), renderingReq, nativeLib);
 				} else {
 					cNativeObjects = null;
@@ -742,7 +982,8 @@ public class MapRenderRepositories {
 			if(nativeLib != null) {
 				renderer.generateNewBitmapNative(currentRenderingContext, nativeLib, cNativeObjects, bmp, renderingReq, notifyList);
 			} else {
-				renderer.generateNewBitmap(currentRenderingContext, cObjects, bmp, renderingReq, notifyList);
+				renderer.generateNewBitmapInSubTiles(currentRenderingContext, cObjects, bmp, renderingReq, notifyList,
+						prefs.RENDERING_SUB_TILES.get());
 			}
 			// Force to use rendering request in order to prevent Garbage Collector when it is used in C++
 			if(renderingReq != null){
@@ -765,6 +1006,10 @@ public class MapRenderRepositories {
 			} else {
 				this.checkedRenderedState = renderedState;
 				this.checkedBox = this.bmpLocation;
+				if (cacheRenderedTiles) {
+					renderedTilesCache.saveTiles(requestedBox, renderedTilesKey, bmp, renderedState,
+							((long) prefs.RENDERED_TILES_CACHE_SIZE.get()) << 20);
+				}
 			}
 			currentRenderingContext = null;
 
@@ -798,6 +1043,7 @@ public class MapRenderRepositories {
 			log.error("Out of memory error", e); //$NON-NLS-1$
 			cObjects = new ArrayList<BinaryMapDataObject>();
 			cObjectsBox = new QuadRect();
+			cTiles.clear();
 			handler.post(new Runnable() {
 				@Override
 				public void run() {
@@ -819,6 +1065,33 @@ public class MapRenderRepositories {
 
 	}
 
+	private boolean drawRenderedTiles(RotatedTileBox tileRect, long renderedTilesKey) {
+		int width = requestedBox.getPixWidth();
+		int height = requestedBox.getPixHeight();
+		Bitmap reuse = prevBmp;
+		Bitmap cached;
+		if (reuse != null && reuse.getWidth() == width && reuse.getHeight() == height) {
+			cached = reuse;
+			// previous bitmap could be partially overdrawn
+			prevBmpLocation = null;
+		} else {
+			cached = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+		}
+		long now = System.currentTimeMillis();
+		int state = renderedTilesCache.drawCachedTiles(requestedBox, renderedTilesKey, cached);
+		if (state == -1) {
+			return false;
+		}
+		log.info("RENDER MAP: drawn from rendered tiles cache for " + (System.currentTimeMillis() - now) + " ms");
+		this.prevBmp = this.bmp;
+		this.bmp = cached;
+		this.bmpLocation = tileRect;
+		this.prevBmpLocation = null;
+		this.checkedRenderedState = state;
+		this.checkedBox = tileRect;
+		return true;
+	}
+
 	public Bitmap getBitmap() {
 		return bmp;
 	}
@@ -827,9 +1100,14 @@ public class MapRenderRepositories {
 		return prevBmpLocation == null ? null : prevBmp ;
 	}
 
+	public void clearRenderedTilesCache() {
+		renderedTilesCache.clear();
+	}
+
 	public synchronized void clearCache() {
 		cObjects = new ArrayList<BinaryMapDataObject>();
 		cObjectsBox = new QuadRect();
+		cTiles.clear();
 
 		requestedBox = prevBmpLocation = null;
 		// Do not clear main bitmap to not cause a screen refresh
@@ -842,332 +1120,6 @@ public class MapRenderRepositories {
 		return files;
 	}
 
-	/// MULTI POLYGONS (coastline)
-	// returns true if coastlines were added!
-	private boolean processCoastlines(List<BinaryMapDataObject> coastLines, int leftX, int rightX, 
-			int bottomY, int topY, int zoom, boolean doNotAddIfIncompleted, boolean addDebugIncompleted, List<BinaryMapDataObject> result) {
-		List<TLongList> completedRings = new ArrayList<TLongList>();
-		List<TLongList> uncompletedRings = new ArrayList<TLongList>();
-		MapIndex mapIndex = null;
-		long dbId = 0;
-		for (BinaryMapDataObject o : coastLines) {
-			int len = o.getPointsLength();
-			if (len < 2) {
-				continue;
-			}
-			mapIndex = o.getMapIndex();
-			dbId = o.getId() >> 1;
-			TLongList coordinates = new TLongArrayList(o.getPointsLength() / 2);
-			int px = o.getPoint31XTile(0);
-			int py = o.getPoint31YTile(0);
-			int x = px;
-			int y = py;
-			boolean pinside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
-			if (pinside) {
-				coordinates.add(combine2Points(x, y));
-			}
-			for (int i = 1; i < len; i++) {
-				x = o.getPoint31XTile(i);
-				y = o.getPoint31YTile(i);
-				boolean inside = leftX <= x && x <= rightX && y >= topY && y <= bottomY;
-				boolean lineEnded = calculateLineCoordinates(inside, x, y, pinside, px, py, leftX, rightX, bottomY, topY, coordinates);
-				if (lineEnded) {
-					combineMultipolygonLine(completedRings, uncompletedRings, coordinates);
-					// create new line if it goes outside
-					coordinates = new TLongArrayList();
-				}
-				px = x;
-				py = y;
-				pinside = inside;
-			}
-			combineMultipolygonLine(completedRings, uncompletedRings, coordinates);
-		}
-		if (completedRings.size() == 0 && uncompletedRings.size() == 0) {
-			return false;
-		}
-		if (uncompletedRings.size() > 0) {
-			unifyIncompletedRings(uncompletedRings, completedRings, leftX, rightX, bottomY, topY, dbId, zoom);
-		}
-		long mask = 0xffffffffL;
-		// draw uncompleted for debug purpose
-		for (int i = 0; i < uncompletedRings.size(); i++) {
-			TLongList ring = uncompletedRings.get(i);
-			int[] coordinates = new int[ring.size() * 2];
-			for (int j = 0; j < ring.size(); j++) {
-				coordinates[j * 2] = (int) (ring.get(j) >> 32);
-				coordinates[j * 2 + 1] = (int) (ring.get(j) & mask);
-			}
-			BinaryMapDataObject o = new BinaryMapDataObject(coordinates, new int[] { mapIndex.coastlineBrokenEncodingType }, null, dbId);
-			o.setMapIndex(mapIndex);
-			result.add(o);
-		}
-		if(!doNotAddIfIncompleted && uncompletedRings.size() > 0){
-			return false;
-		}
-		boolean clockwiseFound = false;
-		
-		for (int i = 0; i < completedRings.size(); i++) {
-			TLongList ring = completedRings.get(i);
-			int[] coordinates = new int[ring.size() * 2];
-			for (int j = 0; j < ring.size(); j++) {
-				coordinates[j * 2] = (int) (ring.get(j) >> 32);
-				coordinates[j * 2 + 1] = (int) (ring.get(j) & mask);
-			}
-			boolean clockwise = MapAlgorithms.isClockwiseWay(ring);
-			clockwiseFound = clockwiseFound || clockwise;
-			BinaryMapDataObject o = new BinaryMapDataObject(coordinates, new int[] { clockwise ? mapIndex.coastlineEncodingType
-					: mapIndex.landEncodingType }, null, dbId);
-			o.setMapIndex(mapIndex);
-			o.setArea(true);
-			result.add(o);
-		}
-		
-		if (!clockwiseFound && uncompletedRings.size() == 0) {
-			// add complete water tile
-			BinaryMapDataObject o = new BinaryMapDataObject(new int[] { leftX, topY, rightX, topY, rightX, bottomY, leftX, bottomY, leftX,
-					topY }, new int[] { mapIndex.coastlineEncodingType }, null, dbId);
-			o.setMapIndex(mapIndex);
-			log.info("!!! Isolated islands !!!"); //$NON-NLS-1$
-			result.add(o);
-
-		}
-		return true;
-	}
-	
-	private boolean eq(long i1, long i2){
-		return i1 == i2;
-	}
-	
-	private void combineMultipolygonLine(List<TLongList> completedRings, List<TLongList> incompletedRings,	TLongList coordinates) {
-		if (coordinates.size() > 0) {
-			if (eq(coordinates.get(0), coordinates.get(coordinates.size() - 1))) {
-				completedRings.add(coordinates);
-			} else {
-				boolean add = true;
-				for (int k = 0; k < incompletedRings.size();) {
-					boolean remove = false;
-					TLongList i = incompletedRings.get(k);
-					if (eq(coordinates.get(0), i.get(i.size() - 1))) {
-						i.addAll(coordinates.subList(1, coordinates.size()));
-						remove = true;
-						coordinates = i;
-					} else if (eq(coordinates.get(coordinates.size() - 1), i.get(0))) {
-						coordinates.addAll(i.subList(1, i.size()));
-						remove = true;
-					}
-					if (remove) {
-						incompletedRings.remove(k);
-					} else {
-						k++;
-					}
-					if (eq(coordinates.get(0), coordinates.get(coordinates.size() - 1))) {
-						completedRings.add(coordinates);
-						add = false;
-						break;
-					}
-				}
-				if (add) {
-					incompletedRings.add(coordinates);
-				}
-			}
-		}
-	}
-
-	private void unifyIncompletedRings(List<TLongList> toProcces, List<TLongList> completedRings, int leftX, int rightX, int bottomY, int topY, long dbId, int zoom) {
-		int mask = 0xffffffff;
-		List<TLongList> uncompletedRings = new ArrayList<TLongList>(toProcces);
-		toProcces.clear();
-		Set<Integer> nonvisitedRings = new LinkedHashSet<Integer>();
-		for (int j = 0; j < uncompletedRings.size(); j++) {
-			TLongList i = uncompletedRings.get(j);
-			int x = (int) (i.get(i.size() - 1) >> 32);
-			int y = (int) (i.get(i.size() - 1) & mask);
-			int sx = (int) (i.get(0) >> 32);
-			int sy = (int) (i.get(0) & mask);
-			boolean st = y == topY || x == rightX || y == bottomY || x == leftX;
-			boolean end = sy == topY || sx == rightX || sy == bottomY || sx == leftX;
-			// something goes wrong
-			// These exceptions are used to check logic about processing multipolygons
-			// However this situation could happen because of broken multipolygons (so it should data causes app error)
-			// that's why these exceptions could be replaced with return; statement.
-			if (!end || !st) {
-				float dx = (float) MapUtils.get31LongitudeX(x);
-				float dsx = (float) MapUtils.get31LongitudeX(sx);
-				float dy = (float) MapUtils.get31LatitudeY(y);
-				float dsy = (float) MapUtils.get31LatitudeY(sy);
-				String str;
-				if (!end) {
-					str = " Starting point (to close) not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
-					System.err
-							.println(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
-				}
-				if (!st) {
-					str = " End not found : end_x = {0}, end_y = {1}, start_x = {2}, start_y = {3} : bounds {4} {5} - {6} {7}"; //$NON-NLS-1$
-					System.err
-							.println(MessageFormat.format(dbId + str, dx, dy, dsx, dsy, leftX + "", topY + "", rightX + "", bottomY + "")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$//$NON-NLS-4$
-				}
-				toProcces.add(i);
-			} else {
-				nonvisitedRings.add(j);
-			}
-		}
-		for (int j = 0; j < uncompletedRings.size(); j++) {
-			TLongList i = uncompletedRings.get(j);
-			if (!nonvisitedRings.contains(j)) {
-				continue;
-			}
-
-			int x = (int) (i.get(i.size() - 1) >> 32);
-			int y = (int) (i.get(i.size() - 1) & mask);
-			// 31 - (zoom + 8)
-			int EVAL_DELTA = 6 << (23 - zoom);
-			int UNDEFINED_MIN_DIFF = -1 - EVAL_DELTA;
-			while (true) {
-				int st = 0; // st already checked to be one of the four
-				if (y == topY) {
-					st = 0;
-				} else if (x == rightX) {
-					st = 1;
-				} else if (y == bottomY) {
-					st = 2;
-				} else if (x == leftX) {
-					st = 3;
-				}
-				int nextRingIndex = -1;
-				// BEGIN go clockwise around rectangle
-				for (int h = st; h < st + 4; h++) {
-
-					// BEGIN find closest nonvisited start (including current)
-					int mindiff = UNDEFINED_MIN_DIFF;
-					for (Integer ni : nonvisitedRings) {
-						TLongList cni = uncompletedRings.get(ni);
-						int csx = (int) (cni.get(0) >> 32);
-						int csy = (int) (cni.get(0) & mask);
-						if (h % 4 == 0) {
-							// top
-							if (csy == topY && csx >= safelyAddDelta(x, -EVAL_DELTA)) {
-								if (mindiff == UNDEFINED_MIN_DIFF || (csx - x) <= mindiff) {
-									mindiff = (csx - x);
-									nextRingIndex = ni;
-								}
-							}
-						} else if (h % 4 == 1) {
-							// right
-							if (csx == rightX && csy >= safelyAddDelta(y, -EVAL_DELTA)) {
-								if (mindiff == UNDEFINED_MIN_DIFF || (csy - y) <= mindiff) {
-									mindiff = (csy - y);
-									nextRingIndex = ni;
-								}
-							}
-						} else if (h % 4 == 2) {
-							// bottom
-							if (csy == bottomY && csx <= safelyAddDelta(x, EVAL_DELTA)) {
-								if (mindiff == UNDEFINED_MIN_DIFF || (x - csx) <= mindiff) {
-									mindiff = (x - csx);
-									nextRingIndex = ni;
-								}
-							}
-						} else if (h % 4 == 3) {
-							// left
-							if (csx == leftX && csy <= safelyAddDelta(y, EVAL_DELTA)) {
-								if (mindiff == UNDEFINED_MIN_DIFF || (y - csy) <= mindiff) {
-									mindiff = (y - csy);
-									nextRingIndex = ni;
-								}
-							}
-						}
-					} // END find closest start (including current)
-
-					// we found start point
-					if (mindiff != UNDEFINED_MIN_DIFF) {
-						break;
-					} else {
-						if (h % 4 == 0) {
-							// top
-							y = topY;
-							x = rightX;
-						} else if (h % 4 == 1) {
-							// right
-							y = bottomY;
-							x = rightX;
-						} else if (h % 4 == 2) {
-							// bottom
-							y = bottomY;
-							x = leftX;
-						} else if (h % 4 == 3) {
-							y = topY;
-							x = leftX;
-						}
-						i.add((((long) x) << 32) | ((long) y));
-					}
-
-				} // END go clockwise around rectangle
-				if (nextRingIndex == -1) {
-					// it is impossible (current start should always be found)
-				} else if (nextRingIndex == j) {
-					i.add(i.get(0));
-					nonvisitedRings.remove(j);
-					break;
-				} else {
-					i.addAll(uncompletedRings.get(nextRingIndex));
-					nonvisitedRings.remove(nextRingIndex);
-					// get last point and start again going clockwise
-					x = (int) (i.get(i.size() - 1) >> 32);
-					y = (int) (i.get(i.size() - 1) & mask);
-				}
-			}
-
-			completedRings.add(i);
-		}
-	}
-
-	private int safelyAddDelta(int number, int delta) {
-		int res = number + delta;
-		if (delta > 0 && res < number) {
-			return Integer.MAX_VALUE;
-		} else if (delta < 0 && res > number) {
-			return Integer.MIN_VALUE;
-		}
-		return res;
-	}
-	
-	private static long combine2Points(int x, int y) {
-		return (((long) x ) <<32) | ((long)y );
-	}
-	
-	private boolean calculateLineCoordinates(boolean inside, int x, int y, boolean pinside, int px, int py, int leftX, int rightX,
-			int bottomY, int topY, TLongList coordinates) {
-		boolean lineEnded = false;
-		if (pinside) {
-			if (!inside) {
-				long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
-				if (is == -1) {
-					// it is an error (!)
-					is = combine2Points(px, py);
-				}
-				coordinates.add(is);
-				lineEnded = true;
-			} else {
-				coordinates.add(combine2Points(x, y));
-			}
-		} else {
-			long is = MapAlgorithms.calculateIntersection(x, y, px, py, leftX, rightX, bottomY, topY);
-			if (inside) {
-				// assert is != -1;
-				coordinates.add(is);
-				coordinates.add(combine2Points(x, y));
-			} else if (is != -1) {
-				int bx = (int) (is >> 32);
-				int by = (int) (is & 0xffffffff);
-				coordinates.add(is);
-				is = MapAlgorithms.calculateIntersection(x, y, bx, by, leftX, rightX, bottomY, topY);
-				coordinates.add(is);
-				lineEnded = true;
-			}
-		}
-
-		return lineEnded;
-	}
 
 	
 
@@ -6,9 +6,18 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.osmand.NativeLibrary;
 import net.osmand.NativeLibrary.NativeSearchResult;
@@ -29,6 +38,7 @@ import org.apache.commons.logging.Log;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -62,6 +72,9 @@ public class OsmandRenderer {
 
 	public static final int TILE_SIZE = 256; 
 	private static final int MAX_V = 75;
+	private static final int MIN_SUB_TILE_HEIGHT = 64;
+	private static final int SUB_TILE_MARGIN = 16;
+	private static final long SUB_TILE_INTERRUPT_CHECK_MS = 50;
 
 	private Map<float[], PathEffect> dashEffect = new LinkedHashMap<float[], PathEffect>();
 	private Map<String, float[]> parsedDashEffects = new LinkedHashMap<String, float[]>();
@@ -73,6 +86,11 @@ public class OsmandRenderer {
 
 	private TextRenderer textRenderer;
 
+	private ExecutorService subTileExecutor;
+	private int subTileThreads;
+	private List<OsmandRenderer> subTileRenderers = new ArrayList<OsmandRenderer>();
+	private Bitmap[] subTileBitmaps;
+
 	public class MapDataObjectPrimitive {
 		BinaryMapDataObject obj;
 		int typeInd;
@@ -288,6 +306,265 @@ public class OsmandRenderer {
 		}
 	}
 
+	/**
+	 * Splits bitmap into horizontal sub tiles and renders every sub tile on its own worker
+	 * (own renderer, paints and rendering request). Icons and texts of all sub tiles are placed
+	 * in a final pass over the whole bitmap.
+	 */
+	public void generateNewBitmapInSubTiles(RenderingContext rc, List<BinaryMapDataObject> objects, Bitmap bmp,
+			RenderingRuleSearchRequest render, final List<IMapDownloaderCallback> notifyList, int subTiles) {
+		subTiles = Math.min(subTiles, rc.height / MIN_SUB_TILE_HEIGHT);
+		if (subTiles <= 1 || render == null || objects == null || objects.isEmpty() || rc.width <= 0) {
+			generateNewBitmap(rc, objects, bmp, render, notifyList);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		Canvas cv = new Canvas(bmp);
+		if (rc.defaultColor != 0) {
+			cv.drawColor(rc.defaultColor);
+		}
+		rc.cosRotateTileSize = FloatMath.cos((float) Math.toRadians(rc.rotate)) * TILE_SIZE;
+		rc.sinRotateTileSize = FloatMath.sin((float) Math.toRadians(rc.rotate)) * TILE_SIZE;
+		rc.lastRenderedKey = 0;
+		int[] tops = new int[subTiles + 1];
+		for (int i = 0; i <= subTiles; i++) {
+			tops[i] = rc.height * i / subTiles;
+		}
+		List<List<BinaryMapDataObject>> subTileObjects = splitObjectsBySubTiles(rc, objects, tops);
+		ExecutorService executor = getSubTileExecutor(subTiles);
+		List<RenderingContext> subContexts = new ArrayList<RenderingContext>();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < subTiles; i++) {
+			final OsmandRenderer worker = getSubTileRenderer(i);
+			final RenderingContext src = createSubTileContext(rc);
+			final RenderingRuleSearchRequest req = new RenderingRuleSearchRequest(render);
+			final Bitmap sbmp = getSubTileBitmap(i, rc.width, tops[i + 1] - tops[i]);
+			final List<BinaryMapDataObject> objs = subTileObjects.get(i);
+			final int top = tops[i];
+			subContexts.add(src);
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					worker.renderSubTile(src, objs, sbmp, req, top);
+				}
+			}));
+		}
+		if (!waitSubTiles(rc, futures, subContexts)) {
+			return;
+		}
+		for (int i = 0; i < subTiles; i++) {
+			cv.drawBitmap(subTileBitmaps[i], 0, tops[i], null);
+		}
+		rc.lastRenderedKey = 60;
+		mergeSubTileContexts(rc, subContexts);
+		rc.lastRenderedKey = 125;
+
+		long beforeIconTextTime = System.currentTimeMillis() - now;
+		notifyListeners(notifyList);
+		drawIconsOverCanvas(rc, cv);
+
+		notifyListeners(notifyList);
+		textRenderer.drawTextOverCanvas(rc, cv, rc.preferredLocale);
+
+		long time = System.currentTimeMillis() - now;
+		rc.renderingDebugInfo = String.format("Rendering: %s ms  (%s text, %s sub tiles)\n"
+				+ "(%s points, %s points inside, %s of %s objects visible)",//$NON-NLS-1$
+				time, time - beforeIconTextTime, subTiles, rc.pointCount, rc.pointInsideCount, rc.visible, rc.allObjects);
+		log.info(rc.renderingDebugInfo);
+	}
+
+	private void renderSubTile(RenderingContext rc, List<BinaryMapDataObject> objects, Bitmap bmp,
+			RenderingRuleSearchRequest render, int top) {
+		bmp.eraseColor(Color.TRANSPARENT);
+		Canvas cv = new Canvas(bmp);
+		cv.translate(0, -top);
+		List<MapDataObjectPrimitive> pointsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+		List<MapDataObjectPrimitive> polygonsArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+		List<MapDataObjectPrimitive> linesArray = new ArrayList<OsmandRenderer.MapDataObjectPrimitive>();
+		sortObjectsByProperOrder(rc, objects, render, pointsArray, polygonsArray, linesArray);
+		drawObject(rc, cv, render, polygonsArray, 0);
+		if (rc.shadowRenderingMode > 1) {
+			drawObject(rc, cv, render, linesArray, 1);
+		}
+		drawObject(rc, cv, render, linesArray, 2);
+		drawObject(rc, cv, render, pointsArray, 3);
+	}
+
+	private boolean waitSubTiles(RenderingContext rc, List<Future<?>> futures, List<RenderingContext> subContexts) {
+		try {
+			for (Future<?> f : futures) {
+				while (true) {
+					try {
+						f.get(SUB_TILE_INTERRUPT_CHECK_MS, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						if (rc.interrupted) {
+							for (RenderingContext src : subContexts) {
+								src.interrupted = true;
+							}
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			rc.interrupted = true;
+			for (RenderingContext src : subContexts) {
+				src.interrupted = true;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return !rc.interrupted;
+	}
+
+	private void mergeSubTileContexts(RenderingContext rc, List<RenderingContext> subContexts) {
+		// objects crossing sub tiles produce the same icons and texts in every sub tile
+		Set<String> iconKeys = new HashSet<String>();
+		Set<String> textKeys = new HashSet<String>();
+		for (RenderingContext src : subContexts) {
+			rc.pointCount += src.pointCount;
+			rc.pointInsideCount += src.pointInsideCount;
+			rc.visible += src.visible;
+			rc.allObjects += src.allObjects;
+			for (IconDrawInfo ico : src.iconsToDraw) {
+				if (iconKeys.add(ico.resId + " " + ico.x + " " + ico.y)) {
+					rc.iconsToDraw.add(ico);
+				}
+			}
+			for (TextDrawInfo text : src.textToDraw) {
+				if (textKeys.add(text.text + " " + text.centerX + " " + text.centerY)) {
+					rc.textToDraw.add(text);
+				}
+			}
+		}
+	}
+
+	private List<List<BinaryMapDataObject>> splitObjectsBySubTiles(RenderingContext rc, List<BinaryMapDataObject> objects,
+			int[] tops) {
+		int subTiles = tops.length - 1;
+		List<List<BinaryMapDataObject>> res = new ArrayList<List<BinaryMapDataObject>>(subTiles);
+		for (int i = 0; i < subTiles; i++) {
+			res.add(new ArrayList<BinaryMapDataObject>());
+		}
+		// keep wide strokes and shadows which cross the border of sub tile
+		float margin = rc.getDensityValue(SUB_TILE_MARGIN);
+		for (BinaryMapDataObject o : objects) {
+			int len = o.getPointsLength();
+			if (len == 0) {
+				continue;
+			}
+			int left = o.getPoint31XTile(0);
+			int right = left;
+			int top = o.getPoint31YTile(0);
+			int bottom = top;
+			for (int i = 1; i < len; i++) {
+				int x = o.getPoint31XTile(i);
+				int y = o.getPoint31YTile(i);
+				left = Math.min(left, x);
+				right = Math.max(right, x);
+				top = Math.min(top, y);
+				bottom = Math.max(bottom, y);
+			}
+			float y1 = calcPixelY(left, top, rc);
+			float y2 = calcPixelY(right, top, rc);
+			float y3 = calcPixelY(right, bottom, rc);
+			float y4 = calcPixelY(left, bottom, rc);
+			float minY = Math.min(Math.min(y1, y2), Math.min(y3, y4)) - margin;
+			float maxY = Math.max(Math.max(y1, y2), Math.max(y3, y4)) + margin;
+			for (int i = 0; i < subTiles; i++) {
+				boolean first = i == 0;
+				boolean last = i == subTiles - 1;
+				if ((first || maxY >= tops[i]) && (last || minY < tops[i + 1])) {
+					res.get(i).add(o);
+				}
+			}
+		}
+		return res;
+	}
+
+	private float calcPixelY(int xt, int yt, RenderingContext rc) {
+		double dTileX = (xt / rc.tileDivisor - rc.leftX);
+		double dTileY = (yt / rc.tileDivisor - rc.topY);
+		return (float) (rc.sinRotateTileSize * dTileX + rc.cosRotateTileSize * dTileY);
+	}
+
+	private RenderingContext createSubTileContext(RenderingContext rc) {
+		RenderingContext src = new RenderingContext(rc.ctx);
+		src.leftX = rc.leftX;
+		src.topY = rc.topY;
+		src.width = rc.width;
+		src.height = rc.height;
+		src.zoom = rc.zoom;
+		src.rotate = rc.rotate;
+		src.tileDivisor = rc.tileDivisor;
+		src.nightMode = rc.nightMode;
+		src.preferredLocale = rc.preferredLocale;
+		src.defaultColor = rc.defaultColor;
+		src.shadowRenderingMode = rc.shadowRenderingMode;
+		src.shadowRenderingColor = rc.shadowRenderingColor;
+		src.polygonMinSizeToDisplay = rc.polygonMinSizeToDisplay;
+		src.screenDensityRatio = rc.screenDensityRatio;
+		src.textScale = rc.textScale;
+		src.setDensityValue(rc.getDensityValue(1));
+		src.cosRotateTileSize = rc.cosRotateTileSize;
+		src.sinRotateTileSize = rc.sinRotateTileSize;
+		return src;
+	}
+
+	private synchronized ExecutorService getSubTileExecutor(int threads) {
+		if (subTileExecutor == null || subTileThreads != threads) {
+			if (subTileExecutor != null) {
+				subTileExecutor.shutdown();
+			}
+			subTileThreads = threads;
+			subTileExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Render sub tile"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return subTileExecutor;
+	}
+
+	/**
+	 * Stops threads of sub tiles rendering, they are started again on next rendering
+	 */
+	public synchronized void shutdownSubTileExecutor() {
+		if (subTileExecutor != null) {
+			subTileExecutor.shutdown();
+			subTileExecutor = null;
+		}
+	}
+
+	private OsmandRenderer getSubTileRenderer(int i) {
+		while (subTileRenderers.size() <= i) {
+			subTileRenderers.add(new OsmandRenderer(context));
+		}
+		return subTileRenderers.get(i);
+	}
+
+	private Bitmap getSubTileBitmap(int i, int width, int height) {
+		if (subTileBitmaps == null || subTileBitmaps.length <= i) {
+			Bitmap[] nbmps = new Bitmap[i + 1];
+			if (subTileBitmaps != null) {
+				System.arraycopy(subTileBitmaps, 0, nbmps, 0, subTileBitmaps.length);
+			}
+			subTileBitmaps = nbmps;
+		}
+		Bitmap b = subTileBitmaps[i];
+		if (b == null || b.getWidth() != width || b.getHeight() != height) {
+			b = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+			subTileBitmaps[i] = b;
+		}
+		return b;
+	}
+
 	private void notifyListenersWithDelay(final RenderingContext rc, final List<IMapDownloaderCallback> notifyList, final Handler h) {
 		h.postDelayed(new Runnable() {
 			@Override
@@ -613,7 +890,8 @@ public class OsmandRenderer {
 			return;
 		}
 		rc.visible++;
-		int len = obj.getPointsLength();
+		int[] coordinates = obj.getSimplifiedCoordinates(zoom);
+		int len = coordinates == null ? 0 : coordinates.length / 2;
 //		if(len > 150) {
 //			int[] ts = obj.getTypes();
 //			System.err.println("Polygon " + len);
@@ -622,9 +900,9 @@ public class OsmandRenderer {
 //			}
 //			return;
 //		}
-		for (int i = 0; i < obj.getPointsLength(); i++) {
+		for (int i = 0; i < len; i++) {
 
-			PointF p = calcPoint(obj, i, rc);
+			PointF p = calcPoint(coordinates[2 * i], coordinates[2 * i + 1], rc);
 			xText += p.x;
 			yText += p.y;
 			if (path == null) {
@@ -859,7 +1137,8 @@ public class OsmandRenderer {
 		if(render == null || pair == null){
 			return;
 		}
-		int length = obj.getPointsLength();
+		int[] coordinates = obj.getSimplifiedCoordinates(rc.zoom);
+		int length = coordinates == null ? 0 : coordinates.length / 2;
 		if(length < 2){
 			return;
 		}
@@ -883,7 +1162,7 @@ public class OsmandRenderer {
 		Path path = null;
 		float xMid = 0;
 		float yMid = 0;
-		int middle = obj.getPointsLength() / 2;
+		int middle = length / 2;
 		PointF[] textPoints = null;
 		if (!drawOnlyShadow) {
 			textPoints = new PointF[length];
@@ -892,7 +1171,7 @@ public class OsmandRenderer {
 		boolean intersect = false;
 		PointF prev = null;
 		for (int i = 0; i < length ; i++) {
-			PointF p = calcPoint(obj, i, rc);
+			PointF p = calcPoint(coordinates[2 * i], coordinates[2 * i + 1], rc);
 			if(textPoints != null) {
 				textPoints[i] = new PointF(p.x, p.y);
 			}
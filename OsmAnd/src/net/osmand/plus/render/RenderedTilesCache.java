@@ -0,0 +1,456 @@
+package net.osmand.plus.render;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.data.QuadPointDouble;
+import net.osmand.data.RotatedTileBox;
+import net.osmand.plus.OsmandApplication;
+import net.osmand.plus.api.SQLiteAPI.SQLiteConnection;
+import net.osmand.plus.api.SQLiteAPI.SQLiteCursor;
+import net.osmand.plus.api.SQLiteAPI.SQLiteStatement;
+
+import org.apache.commons.logging.Log;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/**
+ * Persistent cache of rendered vector map split into tiles of the rendered zoom.
+ * Tiles are stored in the same layout as {@link net.osmand.plus.SQLiteTileSource} (x, y, z, s, image, time)
+ * where s is the key of rendering style, its properties, night mode and density.
+ * Only not rotated bitmaps of integer zoom are cached, so tiles could be cut from the bitmap and put back without scaling.
+ */
+public class RenderedTilesCache {
+
+	private static final Log log = PlatformUtil.getLog(RenderedTilesCache.class);
+	private static final String DB_NAME = "rendered_tiles"; //$NON-NLS-1$
+	private static final int DB_VERSION = 1;
+	private static final String TILES_TABLE_CREATE = "CREATE TABLE tiles (x int, y int, z int, s long, image blob, " //$NON-NLS-1$
+			+ "time long, size int, state int, PRIMARY KEY (x, y, z, s))"; //$NON-NLS-1$
+	private static final String FILES_TABLE_CREATE = "CREATE TABLE files (name text PRIMARY KEY, date long, " //$NON-NLS-1$
+			+ "left int, right int, top int, bottom int)"; //$NON-NLS-1$
+	private static final int MAX_ZOOM = 22;
+	// copied tiles waiting for compression, the oldest are dropped when writer doesn't keep up with rendering
+	private static final int MAX_PENDING_TASKS = 64;
+
+	private final OsmandApplication app;
+	private SQLiteConnection db;
+	// changed by writer and by rendering thread (invalidation)
+	private final AtomicLong totalSize = new AtomicLong(-1);
+	// all writes are done in one thread not to block rendering, started on demand and stopped by close()
+	private ThreadPoolExecutor writer;
+	private Paint paint;
+
+	private class SaveTileTask implements Runnable {
+		final int x;
+		final int y;
+		final int zoom;
+		final long styleKey;
+		final Bitmap tile;
+		final int renderedState;
+		final long maxSize;
+
+		SaveTileTask(int x, int y, int zoom, long styleKey, Bitmap tile, int renderedState, long maxSize) {
+			this.x = x;
+			this.y = y;
+			this.zoom = zoom;
+			this.styleKey = styleKey;
+			this.tile = tile;
+			this.renderedState = renderedState;
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public void run() {
+			try {
+				insertTile(x, y, zoom, styleKey, tile, renderedState, maxSize);
+			} finally {
+				tile.recycle();
+			}
+		}
+	}
+
+	public RenderedTilesCache(OsmandApplication app) {
+		this.app = app;
+		paint = new Paint();
+		paint.setFilterBitmap(true);
+	}
+
+	private synchronized ThreadPoolExecutor getWriter() {
+		if (writer == null) {
+			writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+					MAX_PENDING_TASKS), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Rendered tiles writer"); //$NON-NLS-1$
+					t.setDaemon(true);
+					t.setPriority(Thread.MIN_PRIORITY);
+					return t;
+				}
+			}, new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					if (executor.isShutdown()) {
+						return;
+					}
+					Runnable oldest = executor.getQueue().poll();
+					if (oldest instanceof SaveTileTask) {
+						((SaveTileTask) oldest).tile.recycle();
+					}
+					executor.execute(r);
+				}
+			});
+		}
+		return writer;
+	}
+
+	/**
+	 * Stops writer thread after pending tiles are stored and closes database, they are opened again when needed
+	 */
+	public synchronized void close() {
+		if (writer != null) {
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					closeDatabase();
+				}
+			});
+			writer.shutdown();
+			writer = null;
+		} else {
+			closeDatabase();
+		}
+	}
+
+	private synchronized void closeDatabase() {
+		if (db != null) {
+			db.close();
+			db = null;
+		}
+	}
+
+	private synchronized SQLiteConnection getDatabase() {
+		if (db == null || db.isClosed()) {
+			try {
+				db = app.getSQLiteAPI().getOrCreateDatabase(DB_NAME, false);
+				if (db.getVersion() != DB_VERSION) {
+					db.execSQL("DROP TABLE IF EXISTS tiles"); //$NON-NLS-1$
+					db.execSQL("DROP TABLE IF EXISTS files"); //$NON-NLS-1$
+					db.execSQL(TILES_TABLE_CREATE);
+					db.execSQL(FILES_TABLE_CREATE);
+					db.setVersion(DB_VERSION);
+				}
+				updateTotalSize(db);
+			} catch (RuntimeException e) {
+				log.error("Rendered tiles cache is not available", e); //$NON-NLS-1$
+				db = null;
+			}
+		}
+		return db;
+	}
+
+	public static boolean isCacheable(RotatedTileBox box) {
+		return box.getRotate() == 0 && box.getZoomFloatPart() == 0 && box.getZoomAnimation() == 0;
+	}
+
+	public static long getStyleKey(String style) {
+		long h = 1125899906842597L;
+		for (int i = 0; i < style.length(); i++) {
+			h = 31 * h + style.charAt(i);
+		}
+		return h;
+	}
+
+	private static double getTileSize(RotatedTileBox box) {
+		return 256 * box.getMapDensity();
+	}
+
+	/**
+	 * Removes tiles rendered from changed, added or deleted map files
+	 */
+	public void updateFiles(Map<String, BinaryMapIndexReader> files) {
+		Map<String, long[]> current = new HashMap<String, long[]>();
+		for (Map.Entry<String, BinaryMapIndexReader> e : files.entrySet()) {
+			long[] info = getFileInfo(e.getValue());
+			if (info != null) {
+				current.put(e.getKey(), info);
+			}
+		}
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return;
+		}
+		Map<String, long[]> stored = new HashMap<String, long[]>();
+		SQLiteCursor cursor = db.rawQuery("SELECT name, date, left, right, top, bottom FROM files", null); //$NON-NLS-1$
+		if (cursor.moveToFirst()) {
+			do {
+				stored.put(cursor.getString(0), new long[] { cursor.getLong(1), cursor.getLong(2), cursor.getLong(3),
+						cursor.getLong(4), cursor.getLong(5) });
+			} while (cursor.moveToNext());
+		}
+		cursor.close();
+		List<long[]> invalidated = new ArrayList<long[]>();
+		for (String name : stored.keySet()) {
+			long[] c = current.get(name);
+			long[] s = stored.get(name);
+			if (c == null || c[0] != s[0]) {
+				invalidated.add(s);
+				db.execSQL("DELETE FROM files WHERE name = ?", new Object[] { name }); //$NON-NLS-1$
+			}
+		}
+		for (String name : current.keySet()) {
+			long[] c = current.get(name);
+			long[] s = stored.get(name);
+			if (s == null || c[0] != s[0]) {
+				invalidated.add(c);
+				db.execSQL("INSERT INTO files (name, date, left, right, top, bottom) VALUES (?, ?, ?, ?, ?, ?)", //$NON-NLS-1$
+						new Object[] { name, c[0], c[1], c[2], c[3], c[4] });
+			}
+		}
+		for (long[] bbox : invalidated) {
+			for (int z = 1; z <= MAX_ZOOM; z++) {
+				db.execSQL("DELETE FROM tiles WHERE z = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ?", //$NON-NLS-1$
+						new Object[] { z, bbox[1] >> (31 - z), bbox[2] >> (31 - z), bbox[3] >> (31 - z),
+								bbox[4] >> (31 - z) });
+			}
+		}
+		if (!invalidated.isEmpty()) {
+			log.info("Rendered tiles invalidated for " + invalidated.size() + " map files"); //$NON-NLS-1$ //$NON-NLS-2$
+			updateTotalSize(db);
+		}
+	}
+
+	private static long[] getFileInfo(BinaryMapIndexReader reader) {
+		long[] info = null;
+		for (MapIndex mi : reader.getMapIndexes()) {
+			for (MapRoot r : mi.getRoots()) {
+				if (info == null) {
+					info = new long[] { reader.getDateCreated(), r.getLeft(), r.getRight(), r.getTop(), r.getBottom() };
+				} else {
+					info[1] = Math.min(info[1], r.getLeft());
+					info[2] = Math.max(info[2], r.getRight());
+					info[3] = Math.min(info[3], r.getTop());
+					info[4] = Math.max(info[4], r.getBottom());
+				}
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Draws cached tiles into bitmap only if all tiles covering the box are present.
+	 * @return rendered state of cached tiles or -1 if the box is not cached
+	 */
+	public int drawCachedTiles(RotatedTileBox box, long styleKey, Bitmap bmp) {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return -1;
+		}
+		int zoom = box.getZoom();
+		double ts = getTileSize(box);
+		QuadPointDouble lt = box.getLeftTopTile(zoom);
+		int left = (int) Math.floor(lt.x);
+		int top = (int) Math.floor(lt.y);
+		int right = (int) Math.floor(lt.x + box.getPixWidth() / ts);
+		int bottom = (int) Math.floor(lt.y + box.getPixHeight() / ts);
+		int max = 1 << zoom;
+		if (left < 0 || top < 0 || right >= max || bottom >= max) {
+			return -1;
+		}
+		// check that everything is cached before decoding
+		SQLiteCursor cursor = db.rawQuery("SELECT count(*) FROM tiles WHERE z = ? AND s = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ?", //$NON-NLS-1$
+				new String[] { zoom + "", styleKey + "", left + "", right + "", top + "", bottom + "" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		long count = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		cursor.close();
+		if (count != (right - left + 1) * (bottom - top + 1)) {
+			return -1;
+		}
+		Canvas cv = new Canvas(bmp);
+		RectF dst = new RectF();
+		int state = 0;
+		cursor = db.rawQuery("SELECT x, y, image, state FROM tiles WHERE z = ? AND s = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ?", //$NON-NLS-1$
+				new String[] { zoom + "", styleKey + "", left + "", right + "", top + "", bottom + "" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		try {
+			if (cursor.moveToFirst()) {
+				do {
+					int x = (int) cursor.getInt(0);
+					int y = (int) cursor.getInt(1);
+					byte[] blob = cursor.getBlob(2);
+					Bitmap tile = BitmapFactory.decodeByteArray(blob, 0, blob.length);
+					if (tile == null) {
+						return -1;
+					}
+					dst.set(Math.round((x - lt.x) * ts), Math.round((y - lt.y) * ts), Math.round((x + 1 - lt.x) * ts),
+							Math.round((y + 1 - lt.y) * ts));
+					cv.drawBitmap(tile, null, dst, paint);
+					tile.recycle();
+					state |= (int) cursor.getInt(3);
+				} while (cursor.moveToNext());
+			}
+		} finally {
+			cursor.close();
+		}
+		touchTiles(zoom, styleKey, left, right, top, bottom);
+		return state;
+	}
+
+	private void touchTiles(final int zoom, final long styleKey, final int left, final int right, final int top, final int bottom) {
+		getWriter().execute(new Runnable() {
+			@Override
+			public void run() {
+				SQLiteConnection db = getDatabase();
+				if (db != null) {
+					db.execSQL("UPDATE tiles SET time = ? WHERE z = ? AND s = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ?", //$NON-NLS-1$
+							new Object[] { System.currentTimeMillis(), zoom, styleKey, left, right, top, bottom });
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cuts tiles which are completely inside of rendered bitmap and not stored yet and stores them in background
+	 */
+	public void saveTiles(RotatedTileBox box, long styleKey, Bitmap bmp, int renderedState, long maxSize) {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return;
+		}
+		int zoom = box.getZoom();
+		double ts = getTileSize(box);
+		QuadPointDouble lt = box.getLeftTopTile(zoom);
+		int max = 1 << zoom;
+		int left = Math.max(0, (int) Math.ceil(lt.x));
+		int top = Math.max(0, (int) Math.ceil(lt.y));
+		TLongHashSet stored = new TLongHashSet();
+		SQLiteCursor cursor = db.rawQuery("SELECT x, y FROM tiles WHERE z = ? AND s = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ?", //$NON-NLS-1$
+				new String[] { zoom + "", styleKey + "", left + "", (int) (lt.x + bmp.getWidth() / ts) + "", top + "", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+						(int) (lt.y + bmp.getHeight() / ts) + "" }); //$NON-NLS-1$
+		if (cursor.moveToFirst()) {
+			do {
+				stored.add((((long) cursor.getInt(0)) << 32) | cursor.getInt(1));
+			} while (cursor.moveToNext());
+		}
+		cursor.close();
+		for (int x = left; x < max; x++) {
+			int tl = (int) Math.round((x - lt.x) * ts);
+			int tr = (int) Math.round((x + 1 - lt.x) * ts);
+			if (tr > bmp.getWidth()) {
+				break;
+			}
+			for (int y = top; y < max; y++) {
+				int tt = (int) Math.round((y - lt.y) * ts);
+				int tb = (int) Math.round((y + 1 - lt.y) * ts);
+				if (tb > bmp.getHeight()) {
+					break;
+				}
+				if (stored.contains((((long) x) << 32) | y)) {
+					continue;
+				}
+				// copy pixels now because rendered bitmap is reused for next rendering
+				Bitmap tile = Bitmap.createBitmap(bmp, tl, tt, tr - tl, tb - tt);
+				getWriter().execute(new SaveTileTask(x, y, zoom, styleKey, tile, renderedState, maxSize));
+			}
+		}
+	}
+
+	private void insertTile(int x, int y, int zoom, long styleKey, Bitmap tile, int renderedState, long maxSize) {
+		SQLiteConnection db = getDatabase();
+		if (db == null) {
+			return;
+		}
+		// tile could be queued twice by renderings done before it was stored
+		SQLiteCursor cursor = db.rawQuery("SELECT 1 FROM tiles WHERE x = ? AND y = ? AND z = ? AND s = ?", //$NON-NLS-1$
+				new String[] { x + "", y + "", zoom + "", styleKey + "" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		boolean exists = cursor.moveToFirst();
+		cursor.close();
+		if (exists) {
+			return;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tile.compress(CompressFormat.PNG, 100, out);
+		byte[] image = out.toByteArray();
+		SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO tiles (x, y, z, s, image, time, size, state) " //$NON-NLS-1$
+				+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)"); //$NON-NLS-1$
+		statement.bindLong(1, x);
+		statement.bindLong(2, y);
+		statement.bindLong(3, zoom);
+		statement.bindLong(4, styleKey);
+		statement.bindBlob(5, image);
+		statement.bindLong(6, System.currentTimeMillis());
+		statement.bindLong(7, image.length);
+		statement.bindLong(8, renderedState);
+		statement.execute();
+		statement.close();
+		if (totalSize.addAndGet(image.length) > maxSize) {
+			evict(db, maxSize);
+		}
+	}
+
+	// least recently used tiles are removed till cache takes 3/4 of allowed size
+	private void evict(SQLiteConnection db, long maxSize) {
+		long toFree = totalSize.get() - maxSize * 3 / 4;
+		long time = -1;
+		SQLiteCursor cursor = db.rawQuery("SELECT time, size FROM tiles ORDER BY time", null); //$NON-NLS-1$
+		if (cursor.moveToFirst()) {
+			do {
+				time = cursor.getLong(0);
+				toFree -= cursor.getLong(1);
+			} while (toFree > 0 && cursor.moveToNext());
+		}
+		cursor.close();
+		if (time != -1) {
+			db.execSQL("DELETE FROM tiles WHERE time <= ?", new Object[] { time }); //$NON-NLS-1$
+		}
+		updateTotalSize(db);
+	}
+
+	private void updateTotalSize(SQLiteConnection db) {
+		SQLiteCursor cursor = db.rawQuery("SELECT sum(size) FROM tiles", null); //$NON-NLS-1$
+		totalSize.set(cursor.moveToFirst() ? cursor.getLong(0) : 0);
+		cursor.close();
+	}
+
+	/**
+	 * Removes all rendered tiles, tiles which are waiting to be stored are dropped too
+	 */
+	public void clear() {
+		List<Runnable> pending = new ArrayList<Runnable>();
+		ThreadPoolExecutor writer = getWriter();
+		writer.getQueue().drainTo(pending);
+		for (Runnable r : pending) {
+			if (r instanceof SaveTileTask) {
+				((SaveTileTask) r).tile.recycle();
+			}
+		}
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				SQLiteConnection db = getDatabase();
+				if (db != null) {
+					db.execSQL("DELETE FROM tiles"); //$NON-NLS-1$
+					totalSize.set(0);
+				}
+			}
+		});
+	}
+}
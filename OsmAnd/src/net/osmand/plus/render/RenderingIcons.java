@@ -81,7 +81,7 @@ public class RenderingIcons {
 		return null;
 	}
 	
-	public static Bitmap getIcon(Context ctx, String s) {
+	public static synchronized Bitmap getIcon(Context ctx, String s) {
 		if(s == null) {
 			return null;
 		}
@@ -6,8 +6,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.osmand.PlatformUtil;
 import net.osmand.ResultMatcher;
@@ -37,6 +39,9 @@ public class AsyncLoadingThread extends Thread {
 	private Handler asyncLoadingTransport;
 	
 	Stack<Object> requests = new Stack<Object>();
+	// tiles around visible area, they are loaded only when there are no other requests
+	private final AtomicReference<List<TileLoadDownloadRequest>> prefetchRequests = 
+			new AtomicReference<List<TileLoadDownloadRequest>>(Collections.<TileLoadDownloadRequest>emptyList());
 	TransportLoadRequest transportLoadRequest = null;
 	
 	
@@ -111,6 +116,7 @@ public class AsyncLoadingThread extends Thread {
 						}
 					}
 				}
+				prefetchTiles();
 				if (tileLoaded || amenityLoaded || transportLoaded || mapLoaded) {
 					// use downloader callback
 					for (IMapDownloaderCallback c : resourceManger.getMapTileDownloader().getDownloaderCallbacks()) {
@@ -134,10 +140,26 @@ public class AsyncLoadingThread extends Thread {
 		}
 	}
 
+	private void prefetchTiles() {
+		List<TileLoadDownloadRequest> prefetch = prefetchRequests.getAndSet(Collections.<TileLoadDownloadRequest>emptyList());
+		int i = 0;
+		for (; i < prefetch.size() && requests.isEmpty() && prefetchRequests.get().isEmpty(); i++) {
+			resourceManger.getRequestedImageTile(prefetch.get(i));
+		}
+		if (i < prefetch.size()) {
+			// visible tiles are requested, continue later if prefetched area is still the same
+			prefetchRequests.compareAndSet(Collections.<TileLoadDownloadRequest>emptyList(), prefetch.subList(i, prefetch.size()));
+		}
+	}
+
 	public void requestToLoadImage(TileLoadDownloadRequest req) {
 		requests.push(req);
 	}
 
+	public void requestToPrefetchImages(List<TileLoadDownloadRequest> reqs) {
+		prefetchRequests.set(reqs);
+	}
+
 	public void requestToLoadMap(MapLoadRequest req) {
 		requests.push(req);
 	}
@@ -179,12 +201,8 @@ public class AsyncLoadingThread extends Thread {
 					stream = new ByteArrayOutputStream(inputStream.available());
 					Algorithms.streamCopy(inputStream, stream);
 					stream.flush();
-
-					try {
-						((SQLiteTileSource) tileSource).insertImage(xTile, yTile, zoom, stream.toByteArray());
-					} catch (IOException e) {
-						log.warn("Tile x="+xTile +" y="+ yTile+" z="+ zoom+" couldn't be read", e);  //$NON-NLS-1$//$NON-NLS-2$
-					}
+					// tile is readable at once and it is written later with other tiles in one transaction
+					((SQLiteTileSource) tileSource).insertImageAsync(xTile, yTile, zoom, stream.toByteArray());
 				} finally {
 					Algorithms.closeStream(inputStream);
 					Algorithms.closeStream(stream);
@@ -0,0 +1,228 @@
+package net.osmand.plus.resources;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+/**
+ * Cache of decoded tile images limited by size of bitmaps in bytes.
+ *
+ * Tiles are split by hash of tile id to segments, so drawing thread and loading thread lock only the segment
+ * of the tile they work with (not the resource manager). Every segment keeps its tiles in access order and
+ * tiles are stamped with global access counter, so when the cache is over the limit the least recently used
+ * tile of all segments is evicted.
+ */
+public class BitmapTilesCache {
+
+	private static final int SEGMENTS = 8;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicLong sizeInBytes = new AtomicLong();
+	private volatile long maxSizeInBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+
+	public BitmapTilesCache(long maxSizeInBytes) {
+		this.maxSizeInBytes = maxSizeInBytes;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	private static class CachedTile {
+		final Bitmap bmp;
+		final long size;
+		long accessed;
+
+		CachedTile(Bitmap bmp, long accessed) {
+			this.bmp = bmp;
+			this.size = getBitmapSize(bmp);
+			this.accessed = accessed;
+		}
+	}
+
+	private static class Segment {
+		final LinkedHashMap<String, CachedTile> map = new LinkedHashMap<String, CachedTile>(16, 0.75f, true);
+	}
+
+	private Segment segment(String tileId) {
+		int h = tileId.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % SEGMENTS];
+	}
+
+	public static long getBitmapSize(Bitmap bmp) {
+		// getByteCount() is not available on API 9
+		return (long) bmp.getRowBytes() * bmp.getHeight();
+	}
+
+	public Bitmap get(String tileId) {
+		Segment s = segment(tileId);
+		Bitmap bmp = null;
+		synchronized (s) {
+			CachedTile t = s.map.get(tileId);
+			if (t != null) {
+				t.accessed = clock.incrementAndGet();
+				bmp = t.bmp;
+			}
+		}
+		if (bmp != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return bmp;
+	}
+
+	/**
+	 * Returns the tile without counting the access (for loading thread)
+	 */
+	public Bitmap peek(String tileId) {
+		Segment s = segment(tileId);
+		synchronized (s) {
+			CachedTile t = s.map.get(tileId);
+			return t == null ? null : t.bmp;
+		}
+	}
+
+	/**
+	 * Checks presence of the tile without counting the access
+	 */
+	public boolean contains(String tileId) {
+		Segment s = segment(tileId);
+		synchronized (s) {
+			return s.map.containsKey(tileId);
+		}
+	}
+
+	public void put(String tileId, Bitmap bmp) {
+		Segment s = segment(tileId);
+		CachedTile t = new CachedTile(bmp, clock.incrementAndGet());
+		synchronized (s) {
+			CachedTile old = s.map.put(tileId, t);
+			sizeInBytes.addAndGet(old == null ? t.size : t.size - old.size);
+		}
+		trimToSize(maxSizeInBytes);
+	}
+
+	public void remove(String tileId) {
+		Segment s = segment(tileId);
+		synchronized (s) {
+			CachedTile old = s.map.remove(tileId);
+			if (old != null) {
+				sizeInBytes.addAndGet(-old.size);
+			}
+		}
+	}
+
+	/**
+	 * Evicts least recently used tiles till the cache is not bigger than size
+	 */
+	public void trimToSize(long size) {
+		while (sizeInBytes.get() > size) {
+			// segments are locked one by one, so tile could be accessed after it was chosen,
+			// in that case it is not evicted and the choice is repeated
+			Segment oldest = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for (Segment s : segments) {
+				synchronized (s) {
+					if (!s.map.isEmpty()) {
+						long accessed = s.map.values().iterator().next().accessed;
+						if (accessed < oldestAccess) {
+							oldestAccess = accessed;
+							oldest = s;
+						}
+					}
+				}
+			}
+			if (oldest == null) {
+				break;
+			}
+			synchronized (oldest) {
+				Iterator<Entry<String, CachedTile>> it = oldest.map.entrySet().iterator();
+				if (it.hasNext()) {
+					CachedTile t = it.next().getValue();
+					if (t.accessed == oldestAccess) {
+						it.remove();
+						sizeInBytes.addAndGet(-t.size);
+						evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		trimToSize(0);
+	}
+
+	public void recordLoad(long timeNanos) {
+		loads.incrementAndGet();
+		loadTime.addAndGet(timeNanos);
+	}
+
+	public void setMaxSizeInBytes(long maxSizeInBytes) {
+		this.maxSizeInBytes = maxSizeInBytes;
+		trimToSize(maxSizeInBytes);
+	}
+
+	public long getMaxSizeInBytes() {
+		return maxSizeInBytes;
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes.get();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments) {
+			synchronized (s) {
+				size += s.map.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 1 : h / (double) total;
+	}
+
+	public long getAverageLoadTimeMillis() {
+		long l = loads.get();
+		return l == 0 ? 0 : loadTime.get() / l / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return "Tiles " + size() + " (" + (getSizeInBytes() >> 10) + " of " + (maxSizeInBytes >> 10) + " KB), hit rate "
+				+ (int) (getHitRate() * 100) + "%, evicted " + getEvictionCount() + ", loaded " + getLoadCount()
+				+ " (avg " + getAverageLoadTimeMillis() + " ms)";
+	}
+}
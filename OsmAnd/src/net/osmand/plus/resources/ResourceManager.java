@@ -1,11 +1,12 @@
 package net.osmand.plus.resources;
 
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.text.Collator;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -15,7 +16,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.osmand.AndroidUtils;
 import net.osmand.GeoidAltitudeCorrection;
@@ -80,6 +86,7 @@ public class ResourceManager {
 
 	public static final String VECTOR_MAP = "#vector_map"; //$NON-NLS-1$
 	private static final String INDEXES_CACHE = "ind.cache";
+	private static final String INDEXES_MAPPED_CACHE = "ind.mcache";
 	
 	
 	private static final Log log = PlatformUtil.getLog(ResourceManager.class);
@@ -87,12 +94,10 @@ public class ResourceManager {
 	
 	protected static ResourceManager manager = null;
 	
-	// it is not good investigated but no more than 64 (satellite images)
-	// Only 8 MB (from 16 Mb whole mem) available for images : image 64K * 128 = 8 MB (8 bit), 64 - 16 bit, 32 - 32 bit
-	// at least 3*9?
-	protected int maxImgCacheSize = 28;
+	// 256x256 tile takes 256 KB in ARGB_8888
+	private static final int TILE_SIZE_IN_BYTES = 256 * 256 * 4;
 	
-	protected Map<String, Bitmap> cacheOfImages = new LinkedHashMap<String, Bitmap>();
+	protected final BitmapTilesCache bitmapTilesCache = new BitmapTilesCache(28 * TILE_SIZE_IN_BYTES);
 	protected Map<String, Boolean> imagesOnFS = new LinkedHashMap<String, Boolean>() ;
 	
 	protected File dirWithTiles ;
@@ -147,11 +152,12 @@ public class ResourceManager {
 		WindowManager mgr = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
 		DisplayMetrics dm = new DisplayMetrics();
 		mgr.getDefaultDisplay().getMetrics(dm);
-		// Only 8 MB (from 16 Mb whole mem) available for images : image 64K * 128 = 8 MB (8 bit), 64 - 16 bit, 32 - 32 bit
-		// at least 3*9?
-		float tiles = (dm.widthPixels / 256 + 2) * (dm.heightPixels / 256 + 2) * 3;
-		log.info("Tiles to load in memory : " + tiles);
-		maxImgCacheSize = (int) (tiles) ;
+		// screen with border of tiles 3 times (previous, current and prefetched zoom),
+		// but no more than quarter of memory available for application
+		int tiles = (dm.widthPixels / 256 + 2) * (dm.heightPixels / 256 + 2) * 3;
+		long maxSize = Math.min((long) tiles * TILE_SIZE_IN_BYTES, Runtime.getRuntime().maxMemory() / 4);
+		log.info("Tiles to load in memory : " + tiles + ", " + (maxSize >> 10) + " KB");
+		bitmapTilesCache.setMaxSizeInBytes(maxSize);
 	}
 	
 	public MapTileDownloader getMapTileDownloader() {
@@ -186,14 +192,32 @@ public class ResourceManager {
 	public Bitmap getTileImageForMapAsync(String file, ITileSource map, int x, int y, int zoom, boolean loadFromInternetIfNeeded) {
 		return getTileImageForMap(file, map, x, y, zoom, loadFromInternetIfNeeded, false, true);
 	}
+
+	/**
+	 * Replaces previously requested tiles to prefetch (triples of x, y, zoom in tiles list). Tiles are only read
+	 * from file system and they are loaded when no visible tiles wait for loading.
+	 */
+	public void prefetchTilesAsync(ITileSource map, TIntArrayList tiles) {
+		List<TileLoadDownloadRequest> reqs = new ArrayList<TileLoadDownloadRequest>(tiles.size() / 3);
+		for (int i = 0; i < tiles.size(); i += 3) {
+			int x = tiles.get(i);
+			int y = tiles.get(i + 1);
+			int zoom = tiles.get(i + 2);
+			String tileId = calculateTileId(map, x, y, zoom);
+			if (!bitmapTilesCache.contains(tileId)) {
+				reqs.add(new TileLoadDownloadRequest(dirWithTiles, null, null, tileId, map, x, y, zoom));
+			}
+		}
+		asyncLoadingThread.requestToPrefetchImages(reqs);
+	}
+
 	
-	
-	public synchronized Bitmap getTileImageFromCache(String file){
-		return cacheOfImages.get(file);
+	public Bitmap getTileImageFromCache(String file){
+		return bitmapTilesCache.get(file);
 	}
 	
-	public synchronized void putTileInTheCache(String file, Bitmap bmp) {
-		cacheOfImages.put(file, bmp);
+	public void putTileInTheCache(String file, Bitmap bmp) {
+		bitmapTilesCache.put(file, bmp);
 	}
 	
 	
@@ -245,7 +269,7 @@ public class ResourceManager {
 				imagesOnFS.put(file, null);
 			}
 		}
-		return imagesOnFS.get(file) != null || cacheOfImages.get(file) != null;		
+		return imagesOnFS.get(file) != null || bitmapTilesCache.contains(file);		
 	}
 	
 	public void clearTileImageForMap(String file, ITileSource map, int x, int y, int zoom){
@@ -286,7 +310,19 @@ public class ResourceManager {
 	}
 	
 
-	protected synchronized Bitmap getTileImageForMap(String tileId, ITileSource map, int x, int y, int zoom,
+	protected Bitmap getTileImageForMap(String tileId, ITileSource map, int x, int y, int zoom,
+			boolean loadFromInternetIfNeeded, boolean sync, boolean loadFromFs, boolean deleteBefore) {
+		if (tileId != null && !deleteBefore) {
+			// tiles in the cache are returned without locking resource manager
+			Bitmap bmp = bitmapTilesCache.get(tileId);
+			if (bmp != null) {
+				return bmp;
+			}
+		}
+		return requestTileImageForMap(tileId, map, x, y, zoom, loadFromInternetIfNeeded, sync, loadFromFs, deleteBefore);
+	}
+	
+	private synchronized Bitmap requestTileImageForMap(String tileId, ITileSource map, int x, int y, int zoom,
 			boolean loadFromInternetIfNeeded, boolean sync, boolean loadFromFs, boolean deleteBefore) {
 		if (tileId == null) {
 			tileId = calculateTileId(map, x, y, zoom);
@@ -296,7 +332,7 @@ public class ResourceManager {
 		}
 		
 		if(deleteBefore){
-			cacheOfImages.remove(tileId);
+			bitmapTilesCache.remove(tileId);
 			if (map instanceof SQLiteTileSource) {
 				((SQLiteTileSource) map).deleteImage(x, y, zoom);
 			} else {
@@ -308,7 +344,7 @@ public class ResourceManager {
 			imagesOnFS.put(tileId, null);
 		}
 		
-		if (loadFromFs && cacheOfImages.get(tileId) == null && map != null) {
+		if (loadFromFs && !bitmapTilesCache.contains(tileId) && map != null) {
 			boolean locked = map instanceof SQLiteTileSource && ((SQLiteTileSource) map).isLocked();
 			if(!loadFromInternetIfNeeded && !locked && !tileExistOnFileSystem(tileId, map, x, y, zoom)){
 				return null;
@@ -324,13 +360,15 @@ public class ResourceManager {
 			}
 			TileLoadDownloadRequest req = new TileLoadDownloadRequest(dirWithTiles, url, toSave, 
 					tileId, map, x, y, zoom);
+			// tile for the map view is not needed when map is moved away
+			req.setCancelWhenNotVisible(!sync);
 			if(sync){
 				return getRequestedImageTile(req);
 			} else {
 				asyncLoadingThread.requestToLoadImage(req);
 			}
 		}
-		return cacheOfImages.get(tileId);
+		return bitmapTilesCache.peek(tileId);
 	}
 	
 	
@@ -339,16 +377,14 @@ public class ResourceManager {
 		if(req.tileId == null || req.dirWithTiles == null){
 			return null;
 		}
-		Bitmap cacheBmp = cacheOfImages.get(req.tileId);
+		Bitmap cacheBmp = bitmapTilesCache.peek(req.tileId);
 		if (cacheBmp != null) {
 			return cacheBmp;
 		}
-		if (cacheOfImages.size() > maxImgCacheSize) {
-			clearTiles();
-		}
 		if (req.dirWithTiles.canRead() && !asyncLoadingThread.isFileCurrentlyDownloaded(req.fileToSave)
 			&& !asyncLoadingThread.isFilePendingToDownload(req.fileToSave)) {
 			long time = System.currentTimeMillis();
+			long startNanos = System.nanoTime();
 			if (log.isDebugEnabled()) {
 				log.debug("Start loaded file : " + req.tileId + " " + Thread.currentThread().getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			}
@@ -384,18 +420,20 @@ public class ResourceManager {
 			}
 
 			if (bmp != null) {
-				cacheOfImages.put(req.tileId, bmp);
+				bitmapTilesCache.recordLoad(System.nanoTime() - startNanos);
+				bitmapTilesCache.put(req.tileId, bmp);
 				if (log.isDebugEnabled()) {
-					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + cacheOfImages.size()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + bitmapTilesCache); //$NON-NLS-1$ //$NON-NLS-2$
 				}
+				return bmp;
 			}
 
-			if (cacheOfImages.get(req.tileId) == null && req.url != null) {
+			if (req.url != null) {
 				asyncLoadingThread.requestToDownload(req);
 			}
 
 		}
-		return cacheOfImages.get(req.tileId);
+		return bitmapTilesCache.peek(req.tileId);
 	}
 
 
@@ -602,28 +640,60 @@ public class ResourceManager {
 		renderer.clearAllResources();
 		CachedOsmandIndexes cachedOsmandIndexes = new CachedOsmandIndexes();
 		File indCache = context.getAppPath(INDEXES_CACHE);
-		if (indCache.exists()) {
-			try {
+		File indMappedCache = context.getAppPath(INDEXES_MAPPED_CACHE);
+		try {
+			boolean mapped = indMappedCache.exists() && cachedOsmandIndexes.readFromMappedFile(indMappedCache);
+			if (!mapped && indCache.exists()) {
 				cachedOsmandIndexes.readFromFile(indCache, CachedOsmandIndexes.VERSION);
-				
-			} catch (Exception e) {
-				log.error(e.getMessage(), e);
 			}
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
 		}
-		for (File f : files) {
-			progress.startTask(context.getString(R.string.indexing_map) + " " + f.getName(), -1); //$NON-NLS-1$
-			try {
-				BinaryMapIndexReader index = null;
-				try {
-					index = cachedOsmandIndexes.getReader(f);
-					if (index.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
-						index = null;
-					}
-					if (index != null) {
-						renderer.initializeNewResource(progress, f, index);
+		// readers are created in parallel (from cached index without opening files or by reading files),
+		// then they are registered in the order of files; readers of transport, routing and poi data open files on first use
+		final CachedOsmandIndexes cache = cachedOsmandIndexes;
+		final long[] initTime = new long[files.size()];
+		List<Future<BinaryMapIndexReader>> readers = new ArrayList<Future<BinaryMapIndexReader>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		for (int i = 0; i < files.size(); i++) {
+			final File f = files.get(i);
+			final int ind = i;
+			readers.add(executor.submit(new Callable<BinaryMapIndexReader>() {
+				@Override
+				public BinaryMapIndexReader call() throws Exception {
+					long time = System.currentTimeMillis();
+					try {
+						return cache.getReader(f);
+					} finally {
+						initTime[ind] = System.currentTimeMillis() - time;
 					}
-				} catch (IOException e) {
-					log.error(String.format("File %s could not be read", f.getName()), e);
+				}
+			}));
+		}
+		executor.shutdown();
+		for (int i = 0; i < files.size(); i++) {
+			File f = files.get(i);
+			BinaryMapIndexReader index = null;
+			Throwable error = null;
+			try {
+				index = readers.get(i).get();
+			} catch (ExecutionException e) {
+				error = e.getCause();
+			} catch (InterruptedException e) {
+				error = e;
+			}
+			progress.startTask(context.getString(R.string.indexing_map) + " " + f.getName() + " " + initTime[i] + " ms", -1); //$NON-NLS-1$
+			try {
+				if (error instanceof OutOfMemoryError) {
+					throw (OutOfMemoryError) error;
+				} else if (error != null) {
+					log.error(String.format("File %s could not be read", f.getName()), error);
+				}
+				if (index != null && index.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
+					index = null;
+				}
+				if (index != null) {
+					renderer.initializeNewResource(progress, f, index);
 				}
 				if (index == null || (Version.isFreeVersion(context) && f.getName().contains("_wiki"))) {
 					warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
@@ -644,8 +714,7 @@ public class ResourceManager {
 					}
 					if (index.hasTransportData()) {
 						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
+							transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(f, index)));
 						} catch (IOException e) {
 							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
@@ -653,8 +722,7 @@ public class ResourceManager {
 					}
 					if (index.containsRouteData()) {
 						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(raf, index));
+							routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(f, index));
 						} catch (IOException e) {
 							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
@@ -662,8 +730,7 @@ public class ResourceManager {
 					}
 					if (index.containsPoiData()) {
 						try {
-							RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-							amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
+							amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(f, index)));
 						} catch (IOException e) {
 							log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
 							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
@@ -681,7 +748,9 @@ public class ResourceManager {
 		log.debug("All map files initialized " + (System.currentTimeMillis() - val) + " ms");
 		if (files.size() > 0 && (!indCache.exists() || indCache.canWrite())) {
 			try {
+				// protobuf cache is used by native library
 				cachedOsmandIndexes.writeToFile(indCache);
+				cachedOsmandIndexes.writeToMappedFile(indMappedCache);
 			} catch (Exception e) {
 				log.error("Index file could not be written", e);
 			}
@@ -934,7 +1003,7 @@ public class ResourceManager {
 			try {
 				BinaryMapIndexReader ind = routingMapFiles.remove(m);
 				if(ind != null){
-					ind.getRaf().close();
+					ind.close();
 				}
 			} catch(IOException e){
 				log.error("Error closing resource " + m, e);
@@ -972,7 +1041,7 @@ public class ResourceManager {
 	
 	/// On low memory method ///
 	public void onLowMemory() {
-		log.info("On low memory : cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
+		log.info("On low memory : cleaning tiles - " + bitmapTilesCache); //$NON-NLS-1$
 		clearTiles();
 		for(RegionAddressRepository r : addressMap.values()){
 			r.clearCache();
@@ -991,12 +1060,13 @@ public class ResourceManager {
 	}
 	
 	
-	protected synchronized void clearTiles() {
-		log.info("Cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
-		ArrayList<String> list = new ArrayList<String>(cacheOfImages.keySet());
-		// remove first images (as we think they are older)
-		for (int i = 0; i < list.size() / 2; i++) {
-			cacheOfImages.remove(list.get(i));
-		}
+	public BitmapTilesCache getBitmapTilesCache() {
+		return bitmapTilesCache;
+	}
+	
+	protected void clearTiles() {
+		log.info("Cleaning tiles - " + bitmapTilesCache); //$NON-NLS-1$
+		// remove half of images (least recently used)
+		bitmapTilesCache.trimToSize(bitmapTilesCache.getSizeInBytes() / 2);
 	}
 }
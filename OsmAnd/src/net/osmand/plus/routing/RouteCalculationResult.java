@@ -11,6 +11,7 @@ import net.osmand.data.LatLon;
 import net.osmand.data.LocationPoint;
 import net.osmand.plus.ApplicationMode;
 import net.osmand.plus.R;
+import net.osmand.router.IncrementalRouteState;
 import net.osmand.router.RouteSegmentResult;
 import net.osmand.router.TurnType;
 import net.osmand.util.Algorithms;
@@ -40,6 +41,10 @@ public class RouteCalculationResult {
 	protected int nextIntermediate = 0;
 	protected int currentWaypointGPX = 0;
 	protected int lastWaypointGPX = 0;
+	// state of vector route calculation to recalculate it incrementally
+	protected IncrementalRouteState incrementalRouteState;
+	// geometry of alternative routes calculated with vector route
+	protected List<List<Location>> alternativeRoutes = Collections.emptyList();
 
 	public RouteCalculationResult(String errorMessage) {
 		this.errorMessage = errorMessage;
@@ -202,6 +207,44 @@ public class RouteCalculationResult {
 		}
 		return list;
 	}
+	
+	public IncrementalRouteState getIncrementalRouteState() {
+		return incrementalRouteState;
+	}
+	
+	public void setIncrementalRouteState(IncrementalRouteState incrementalRouteState) {
+		this.incrementalRouteState = incrementalRouteState;
+	}
+	
+	public List<List<Location>> getAlternativeRoutes() {
+		return alternativeRoutes;
+	}
+	
+	public void setAlternativeRoutes(List<List<RouteSegmentResult>> routes) {
+		if (routes == null || routes.isEmpty()) {
+			alternativeRoutes = Collections.emptyList();
+			return;
+		}
+		List<List<Location>> res = new ArrayList<List<Location>>();
+		for (List<RouteSegmentResult> route : routes) {
+			List<Location> locations = new ArrayList<Location>();
+			for (RouteSegmentResult s : route) {
+				int st = s.getStartPointIndex();
+				int en = s.getEndPointIndex();
+				// first point of the segment is the last point of previous one
+				int i = locations.isEmpty() ? st : (st < en ? st + 1 : st - 1);
+				while (st < en ? i <= en : i >= en) {
+					Location l = new Location("");
+					l.setLatitude(MapUtils.get31LatitudeY(s.getObject().getPoint31YTile(i)));
+					l.setLongitude(MapUtils.get31LongitudeX(s.getObject().getPoint31XTile(i)));
+					locations.add(l);
+					i = st < en ? i + 1 : i - 1;
+				}
+			}
+			res.add(Collections.unmodifiableList(locations));
+		}
+		alternativeRoutes = Collections.unmodifiableList(res);
+	}
 
 	/**
 	 * PREPARATION 
@@ -50,8 +50,10 @@ import net.osmand.router.GeneralRouter.GeneralRouterProfile;
 import net.osmand.router.GeneralRouter.RoutingParameter;
 import net.osmand.router.GeneralRouter.RoutingParameterType;
 import net.osmand.router.PrecalculatedRouteDirection;
+import net.osmand.router.RouteCalculationProgress;
 import net.osmand.router.RoutePlannerFrontEnd;
 import net.osmand.router.RoutePlannerFrontEnd.RouteCalculationMode;
+import net.osmand.router.TspRouteOptimizer;
 import net.osmand.router.RouteSegmentResult;
 import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingConfiguration.Builder;
@@ -77,6 +79,8 @@ import btools.routingapp.IBRouterService;
 public class RouteProvider {
 	private static final org.apache.commons.logging.Log log = PlatformUtil.getLog(RouteProvider.class);
 	private static final String OSMAND_ROUTER = "OsmAndRouter";
+	private static final int TIME_MATRIX_THREADS = 2;
+	private static final long TIME_MATRIX_BUDGET = 30000;
 	
 	public enum RouteService {
 			OSMAND("OsmAnd (offline)"), YOURS("YOURS"), 
@@ -632,6 +636,9 @@ public class RouteProvider {
 		RoutePlannerFrontEnd router = new RoutePlannerFrontEnd(false);
 		OsmandSettings settings = params.ctx.getSettings();
 		router.setUseFastRecalculation(settings.USE_FAST_RECALCULATION.get());
+		router.setUseIncrementalRecalculation(settings.USE_INCREMENTAL_RECALCULATION.get());
+		router.setParallelLegsCalculation(settings.PARALLEL_ROUTE_LEGS.get());
+		router.setAlternativeRoutes(settings.ALTERNATIVE_ROUTES.get());
 		
 		RoutingConfiguration.Builder config = params.ctx.getDefaultRoutingConfig();
 		GeneralRouter generalRouter = SettingsNavigationActivity.getRouter(config, params.mode);
@@ -667,8 +674,11 @@ public class RouteProvider {
 		ctx.calculationProgress = params.calculationProgress;
 		if(params.previousToRecalculate != null && params.onlyStartPointChanged) {
 			ctx.previouslyCalculatedRoute = params.previousToRecalculate.getOriginalRoute();
+			if (settings.USE_INCREMENTAL_RECALCULATION.get()) {
+				ctx.incrementalRouteState = params.previousToRecalculate.getIncrementalRouteState();
+			}
 		}
-		if(complex && router.getRecalculationEnd(ctx) != null) {
+		if(complex && (router.getRecalculationEnd(ctx) != null || ctx.incrementalRouteState != null)) {
 			complex = false;
 		}
 		if(complex) {
@@ -693,6 +703,35 @@ public class RouteProvider {
 
 
 
+	/**
+	 * Travel times between all points calculated by offline router (see {@link TspRouteOptimizer#buildTimeMatrix}),
+	 * null if routing mode is not supported, there are too many points or calculation is cancelled or takes too long.
+	 */
+	public double[][] calculateTimeMatrix(OsmandApplication app, ApplicationMode mode, List<LatLon> points,
+			RouteCalculationProgress progress) throws IOException, InterruptedException {
+		RouteCalculationParams params = new RouteCalculationParams();
+		params.ctx = app;
+		params.mode = mode;
+		params.start = new Location("");
+		params.start.setLatitude(points.get(0).getLatitude());
+		params.start.setLongitude(points.get(0).getLongitude());
+		OsmandSettings settings = app.getSettings();
+		RoutingConfiguration.Builder config = app.getDefaultRoutingConfig();
+		GeneralRouter generalRouter = SettingsNavigationActivity.getRouter(config, mode);
+		if (generalRouter == null) {
+			return null;
+		}
+		RoutingConfiguration cf = initOsmAndRoutingConfig(config, params, settings, generalRouter);
+		if (cf == null) {
+			return null;
+		}
+		NativeOsmandLibrary lib = settings.SAFE_MODE.get() ? null : NativeOsmandLibrary.getLoadedLibrary();
+		// every thread gets a share of routing memory, so more threads make tiles to be reloaded more often
+		int threads = Math.min(TIME_MATRIX_THREADS, Runtime.getRuntime().availableProcessors());
+		return TspRouteOptimizer.buildTimeMatrix(new RoutePlannerFrontEnd(false), cf, lib,
+				app.getResourceManager().getRoutingMapFiles(), points, threads, TIME_MATRIX_BUDGET, progress);
+	}
+
 	private RoutingConfiguration initOsmAndRoutingConfig(Builder config, final RouteCalculationParams params, OsmandSettings settings,
 			GeneralRouter generalRouter) throws IOException, FileNotFoundException {
 		GeneralRouterProfile p ;
@@ -784,6 +823,8 @@ public class RouteProvider {
 			} else {
 				RouteCalculationResult res = new RouteCalculationResult(result, params.start, params.end,
 						params.intermediates, params.ctx, params.leftSide, ctx.routingTime, params.gpxRoute  == null? null: params.gpxRoute.wpt);
+				res.setIncrementalRouteState(ctx.incrementalRouteState);
+				res.setAlternativeRoutes(ctx.alternativeRoutes);
 				return res;
 			}
 		} catch (RuntimeException e) {
@@ -1,6 +1,7 @@
 package net.osmand.plus.routing;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -193,6 +194,18 @@ public class RoutingHelper {
 		return mode;
 	}
 	
+	/**
+	 * Travel times between points for current application mode, null if offline routing is not used or
+	 * calculation is stopped (see {@link RouteProvider#calculateTimeMatrix})
+	 */
+	public double[][] calculateTimeMatrix(List<LatLon> points, RouteCalculationProgress progress)
+			throws IOException, InterruptedException {
+		if (settings.ROUTER_SERVICE.getModeValue(mode) != RouteService.OSMAND) {
+			return null;
+		}
+		return provider.calculateTimeMatrix(app, mode, points, progress);
+	}
+	
 	public LatLon getFinalLocation() {
 		return finalLocation;
 	}
@@ -17,6 +17,7 @@ import net.osmand.plus.GpxSelectionHelper;
 import net.osmand.plus.GpxSelectionHelper.GpxDisplayGroup;
 import net.osmand.plus.GpxSelectionHelper.GpxDisplayItem;
 import net.osmand.plus.GpxSelectionHelper.SelectedGpxFile;
+import net.osmand.plus.GpxSimplificationPyramid;
 import net.osmand.plus.R;
 import net.osmand.plus.base.FavoriteImageDrawable;
 import net.osmand.plus.render.OsmandRenderer;
@@ -52,6 +53,9 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 	private int cachedColor;
 
 	private Path path;
+	private TIntArrayList tx = new TIntArrayList();
+	private TIntArrayList ty = new TIntArrayList();
+	private TIntArrayList visibleRanges = new TIntArrayList();
 	private static final int startZoom = 7;
 
 	
@@ -275,7 +279,12 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 			List<List<WptPt>> points = g.getPointsToDisplay();
 			boolean routePoints = g.isRoutePoints();
 			updatePaints(g.getColor(), routePoints, settings, tileBox);
-			drawSegments(canvas, tileBox, points);
+			GpxSimplificationPyramid pyramid = g.getSimplificationPyramid();
+			if (pyramid != null && pyramid.isBuiltFor(points)) {
+				drawSegments(canvas, tileBox, points, pyramid);
+			} else {
+				drawSegments(canvas, tileBox, points);
+			}
 		}
 	}
 
@@ -323,6 +332,22 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 		}
 	}
 	
+	private void drawSegments(Canvas canvas, RotatedTileBox tileBox, List<List<WptPt>> points,
+			GpxSimplificationPyramid pyramid) {
+		final QuadRect latLonBounds = tileBox.getLatLonBounds();
+		int zoom = tileBox.getZoom();
+		for (int s = 0; s < points.size(); s++) {
+			List<WptPt> l = points.get(s);
+			int[] level = pyramid.getLevel(s, zoom);
+			visibleRanges.resetQuick();
+			pyramid.collectVisibleRanges(s, zoom, latLonBounds, visibleRanges);
+			for (int k = 0; k < visibleRanges.size(); k += 2) {
+				path.rewind();
+				drawSegment(canvas, tileBox, l, level, visibleRanges.get(k), visibleRanges.get(k + 1));
+			}
+		}
+	}
+	
 	@Override
 	public void onDraw(Canvas canvas, RotatedTileBox tileBox, DrawSettings settings) {
 	}
@@ -330,12 +355,22 @@ public class GPXLayer extends OsmandMapLayer implements ContextMenuLayer.IContex
 
 	
 	private void drawSegment(Canvas canvas, RotatedTileBox tb, List<WptPt> l, int startIndex, int endIndex) {
-		TIntArrayList tx = new TIntArrayList();
-		TIntArrayList ty = new TIntArrayList();
+		drawSegment(canvas, tb, l, null, startIndex, endIndex);
+	}
+
+	/**
+	 * Draws points from start to end index of indexes array (or of points list if indexes are null)
+	 */
+	private void drawSegment(Canvas canvas, RotatedTileBox tb, List<WptPt> l, int[] indexes, int startIndex,
+			int endIndex) {
+		TIntArrayList tx = this.tx;
+		TIntArrayList ty = this.ty;
+		tx.resetQuick();
+		ty.resetQuick();
 		canvas.rotate(-tb.getRotate(), tb.getCenterPixelX(), tb.getCenterPixelY());
 
 		for (int i = startIndex; i <= endIndex; i++) {
-			WptPt p = l.get(i);
+			WptPt p = l.get(indexes == null ? i : indexes[i]);
 			int x = (int) tb.getPixXFromLatLon(p.lat, p.lon);
 			int y = (int) tb.getPixYFromLatLon(p.lat, p.lon);
 //			int x = tb.getPixXFromLonNoRot(p.lon);
@@ -1,5 +1,6 @@
 package net.osmand.plus.views;
 
+import gnu.trove.list.array.TIntArrayList;
 import net.osmand.access.AccessibleToast;
 import net.osmand.data.QuadRect;
 import net.osmand.data.RotatedTileBox;
@@ -40,6 +41,13 @@ public class MapTileLayer extends BaseMapLayer {
 	protected ResourceManager resourceManager;
 	private OsmandSettings settings;
 	private boolean visible = true;
+	
+	// visible area for which prefetch was requested
+	private ITileSource prefetchMap;
+	private int prefetchZoom = -1;
+	private int prefetchLeft;
+	private int prefetchTop;
+	private TIntArrayList prefetchTiles = new TIntArrayList();
 
 	
 	public MapTileLayer(boolean mainMap){
@@ -153,6 +161,9 @@ public class MapTileLayer extends BaseMapLayer {
 		boolean useInternet = OsmandPlugin.getEnabledPlugin(OsmandRasterMapsPlugin.class) != null && 
 				settings.USE_INTERNET_TO_DOWNLOAD_TILES.get() && settings.isInternetConnectionAvailable() && map.couldBeDownloadedFromInternet();
 		int maxLevel = Math.min(view.getSettings().MAX_LEVEL_TO_DOWNLOAD_TILE.get(), map.getMaximumZoomSupported());
+		if (useInternet) {
+			mgr.getMapTileDownloader().setViewport(tileBox);
+		}
 		int tileSize = map.getTileSize();
 		boolean oneTileShown = false;
 
@@ -241,6 +252,8 @@ public class MapTileLayer extends BaseMapLayer {
 			}
 		}
 		
+		prefetchTiles(mgr, map, nzoom, left, top, width, height);
+		
 		if(mainMap && !oneTileShown && !useInternet && warningToSwitchMapShown < 3){
 			if(resourceManager.getRenderer().containsLatLonMapData(view.getLatitude(), view.getLongitude(), nzoom)){
 				AccessibleToast.makeText(view.getContext(), R.string.switch_to_vector_map_to_see, Toast.LENGTH_LONG).show();
@@ -254,6 +267,54 @@ public class MapTileLayer extends BaseMapLayer {
 	}
 	
 	
+	/**
+	 * Requests tiles which will be shown soon: column and row adjacent to the visible area in the direction
+	 * of panning and then tiles of the next zoom in the middle of visible area.
+	 */
+	private void prefetchTiles(ResourceManager mgr, ITileSource map, int nzoom, int left, int top, int width, int height) {
+		if (prefetchMap == map && prefetchZoom == nzoom && prefetchLeft == left && prefetchTop == top) {
+			return;
+		}
+		boolean moved = prefetchMap == map && prefetchZoom == nzoom;
+		int dx = moved ? Integer.signum(left - prefetchLeft) : 0;
+		int dy = moved ? Integer.signum(top - prefetchTop) : 0;
+		prefetchMap = map;
+		prefetchZoom = nzoom;
+		prefetchLeft = left;
+		prefetchTop = top;
+		prefetchTiles.resetQuick();
+		if (dx != 0) {
+			int x = dx > 0 ? left + width : left - 1;
+			for (int y = top; y < top + height; y++) {
+				addPrefetchTile(x, y, nzoom);
+			}
+		}
+		if (dy != 0) {
+			int y = dy > 0 ? top + height : top - 1;
+			for (int x = left; x < left + width; x++) {
+				addPrefetchTile(x, y, nzoom);
+			}
+		}
+		if (nzoom < map.getMaximumZoomSupported()) {
+			int zleft = 2 * left + width / 2;
+			int ztop = 2 * top + height / 2;
+			for (int x = zleft; x < zleft + width; x++) {
+				for (int y = ztop; y < ztop + height; y++) {
+					addPrefetchTile(x, y, nzoom + 1);
+				}
+			}
+		}
+		mgr.prefetchTilesAsync(map, prefetchTiles);
+	}
+	
+	private void addPrefetchTile(int x, int y, int zoom) {
+		if (x >= 0 && y >= 0 && x < (1 << zoom) && y < (1 << zoom)) {
+			prefetchTiles.add(x);
+			prefetchTiles.add(y);
+			prefetchTiles.add(zoom);
+		}
+	}
+
 	@Override
 	public int getMaximumShownMapZoom(){
 		if(map == null){
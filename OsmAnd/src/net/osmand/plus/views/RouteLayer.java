@@ -45,6 +45,7 @@ public class RouteLayer extends OsmandMapLayer {
 	private boolean isShadowPaint;
 	private Paint paint_1;
 	private boolean isPaint_1;
+	private Paint alternativePaint;
 	private int cachedHash;
 
 	private Path path;
@@ -70,6 +71,13 @@ public class RouteLayer extends OsmandMapLayer {
 		paint.setStrokeJoin(Join.ROUND);
 		path = new Path();
 		
+		alternativePaint = new Paint();
+		alternativePaint.setStyle(Style.STROKE);
+		alternativePaint.setAntiAlias(true);
+		alternativePaint.setStrokeCap(Cap.ROUND);
+		alternativePaint.setStrokeJoin(Join.ROUND);
+		alternativePaint.setColor(Color.argb(160, 128, 128, 128));
+		
 		paintIcon = new Paint();
 		paintIcon.setFilterBitmap(true);
 		paintIcon.setAntiAlias(true);
@@ -152,6 +160,10 @@ public class RouteLayer extends OsmandMapLayer {
 			double rightLongitude = latlonRect.right;
 			double lat = topLatitude - bottomLatitude + 0.1;
 			double lon = rightLongitude - leftLongitude + 0.1;
+			for (List<Location> alternative : helper.getRoute().getAlternativeRoutes()) {
+				drawAlternative(tileBox, canvas, alternative, topLatitude + lat, leftLongitude - lon, bottomLatitude - lat,
+						rightLongitude + lon);
+			}
 			drawLocations(tileBox, canvas, topLatitude + lat, leftLongitude - lon, bottomLatitude - lat, rightLongitude + lon);
 		}
 	
@@ -224,6 +236,48 @@ public class RouteLayer extends OsmandMapLayer {
 		}
 	}
 	
+	private void drawAlternative(RotatedTileBox tb, Canvas canvas, List<Location> locations, double topLatitude,
+			double leftLongitude, double bottomLatitude, double rightLongitude) {
+		TIntArrayList tx = new TIntArrayList();
+		TIntArrayList ty = new TIntArrayList();
+		for (int i = 0; i < locations.size(); i++) {
+			Location ls = locations.get(i);
+			// points outside are kept if neighbour point is visible, so lines are continued to the border
+			if (isVisible(locations, i, topLatitude, leftLongitude, bottomLatitude, rightLongitude)
+					|| isVisible(locations, i - 1, topLatitude, leftLongitude, bottomLatitude, rightLongitude)
+					|| isVisible(locations, i + 1, topLatitude, leftLongitude, bottomLatitude, rightLongitude)) {
+				tx.add((int) tb.getPixXFromLatLon(ls.getLatitude(), ls.getLongitude()));
+				ty.add((int) tb.getPixYFromLatLon(ls.getLatitude(), ls.getLongitude()));
+			} else if (tx.size() > 0) {
+				drawAlternativePath(tb, canvas, tx, ty);
+			}
+		}
+		drawAlternativePath(tb, canvas, tx, ty);
+	}
+
+	private boolean isVisible(List<Location> locations, int i, double topLatitude, double leftLongitude,
+			double bottomLatitude, double rightLongitude) {
+		if (i < 0 || i >= locations.size()) {
+			return false;
+		}
+		Location ls = locations.get(i);
+		return leftLongitude <= ls.getLongitude() && ls.getLongitude() <= rightLongitude
+				&& bottomLatitude <= ls.getLatitude() && ls.getLatitude() <= topLatitude;
+	}
+
+	private void drawAlternativePath(RotatedTileBox tb, Canvas canvas, TIntArrayList tx, TIntArrayList ty) {
+		if (tx.size() > 1) {
+			canvas.rotate(-tb.getRotate(), tb.getCenterPixelX(), tb.getCenterPixelY());
+			alternativePaint.setStrokeWidth(8 * tb.getDensity());
+			Path altPath = new Path();
+			calculatePath(tb, tx, ty, altPath, null);
+			canvas.drawPath(altPath, alternativePaint);
+			canvas.rotate(tb.getRotate(), tb.getCenterPixelX(), tb.getCenterPixelY());
+		}
+		tx.clear();
+		ty.clear();
+	}
+	
 	public void drawLocations(RotatedTileBox tb, Canvas canvas, double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude) {
 		points.clear();
 		boolean previousVisible = false;